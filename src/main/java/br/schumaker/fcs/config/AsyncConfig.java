@@ -1,7 +1,6 @@
 package br.schumaker.fcs.config;
 
-import java.util.concurrent.Executor;
-
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -11,12 +10,30 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 @EnableAsync
 public class AsyncConfig {
     
+    @Value("${app.conversion.max-concurrent-jobs:5}")
+    private int maxConcurrentJobs;
+    
+    @Value("${app.scheduler.preemption.enabled:true}")
+    private boolean preemptionEnabled;
+    
+    @Value("${app.scheduler.preemption.max-suspended:2}")
+    private int maxSuspended;
+    
+    /**
+     * Worker threads for conversions. Waiting jobs are held and ordered by the
+     * JobScheduler, which never starts more workers than the concurrency limit
+     * plus the suspended jobs that still hold a thread; the executor queue only
+     * covers a worker that is handed off while the previous one is still
+     * returning its thread.
+     */
     @Bean(name = "conversionTaskExecutor")
-    public Executor conversionTaskExecutor() {
+    public ThreadPoolTaskExecutor conversionTaskExecutor() {
+        int poolSize = maxConcurrentJobs + (preemptionEnabled ? maxSuspended : 0);
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(poolSize);
+        executor.setAllowCoreThreadTimeOut(true);
         executor.setThreadNamePrefix("Conversion-");
         executor.initialize();
         return executor;
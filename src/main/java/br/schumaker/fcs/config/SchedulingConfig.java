@@ -0,0 +1,16 @@
+package br.schumaker.fcs.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs the periodic maintenance (watchdog, lease reaper, cleanups, cost
+ * model saves, watch folder checks). Benchmarks run without it, so nothing
+ * but the measured work happens in their process.
+ */
+@Configuration
+@EnableScheduling
+@Profile("!benchmark")
+public class SchedulingConfig {
+}
@@ -1,33 +1,54 @@
 package br.schumaker.fcs.controller;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import br.schumaker.fcs.dto.ConversionRequest;
 import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.dto.JobListResponse;
+import br.schumaker.fcs.dto.PathConversionRequest;
+import br.schumaker.fcs.dto.StatusBatchRequest;
+import br.schumaker.fcs.dto.StatusBatchResponse;
+import br.schumaker.fcs.dto.WaveformResponse;
+import br.schumaker.fcs.exception.ConflictException;
+import br.schumaker.fcs.exception.InsufficientStorageException;
+import br.schumaker.fcs.exception.OutputGoneException;
+import br.schumaker.fcs.exception.TooManyActiveJobsException;
+import br.schumaker.fcs.filter.IdempotencyFilter;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.service.ClientIdentityResolver;
 import br.schumaker.fcs.service.FileConversionService;
+import br.schumaker.fcs.service.JobIndex;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 
 @RestController
@@ -39,31 +60,47 @@ public class FileConversionController {
     @Autowired
     private FileConversionService fileConversionService;
     
+    @Autowired
+    private ClientIdentityResolver clientIdentityResolver;
+    
     /**
      * Upload file and start conversion
      */
     @PostMapping(value = "/convert", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> convertFile(
             @RequestParam("file") MultipartFile file,
-            @Valid @ModelAttribute ConversionRequest request
+            @Valid @ModelAttribute ConversionRequest request,
+            @RequestHeader(value = IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest
     ) {
         
         try {
+            request.setClientId(clientIdentityResolver.resolve(httpRequest));
             logger.info("Received conversion request for file: {} to format: {}", file.getOriginalFilename(), request.getTargetFormat());
             
-            ConversionResponse response = fileConversionService.startConversion(file, request);
+            ConversionResponse response = fileConversionService.startConversion(file, request, idempotencyKey);
             return ResponseEntity.ok(response);
             
         } catch (IllegalArgumentException e) {
             logger.error("Invalid request: {}", e.getMessage());
             return ResponseEntity.badRequest()
                     .body(createErrorResponse("INVALID_REQUEST", e.getMessage()));
-                    
+            
+        } catch (InsufficientStorageException e) {
+            logger.warn("Insufficient storage for upload: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+                    .body(createErrorResponse("INSUFFICIENT_STORAGE", e.getMessage()));
+            
+        } catch (TooManyActiveJobsException e) {
+            logger.warn("Rejected upload: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .body(createErrorResponse("TOO_MANY_ACTIVE_JOBS", e.getMessage()));
+            
         } catch (IOException e) {
             logger.error("IO error during file upload: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(createErrorResponse("UPLOAD_ERROR", "Failed to upload file"));
-                    
+            
         } catch (Exception e) {
             logger.error("Unexpected error: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -71,11 +108,35 @@ public class FileConversionController {
         }
     }
     
+    /**
+     * Start conversion of a file already present on a shared volume
+     */
+    @PostMapping(value = "/convert/by-path", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> convertByPath(
+            @Valid @RequestBody PathConversionRequest request,
+            @RequestHeader(value = IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest
+    ) {
+        
+        try {
+            request.setClientId(clientIdentityResolver.resolve(httpRequest));
+            logger.info("Received conversion request for path: {} to format: {}", request.getPath(), request.getTargetFormat());
+            
+            ConversionResponse response = fileConversionService.startConversion(request, idempotencyKey);
+            return ResponseEntity.ok(response);
+            
+        } catch (IOException e) {
+            logger.error("IO error reading ingest path: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("INGEST_ERROR", "Failed to read file"));
+        }
+    }
+    
     /**
      * Get conversion job status
      */
     @GetMapping("/status/{jobId}")
-    public ResponseEntity<ConversionResponse> getStatus(@PathVariable String jobId) {
+    public ResponseEntity<ConversionResponse> getStatus(@PathVariable String jobId, WebRequest webRequest) {
         logger.info("Getting status for job: {}", jobId);
         
         ConversionResponse response = fileConversionService.getConversionStatus(jobId);
@@ -84,38 +145,146 @@ public class FileConversionController {
             return ResponseEntity.notFound().build();
         }
         
-        return ResponseEntity.ok(response);
+        // A suspended job's suspendedSeconds and estimatedCompletionAt change without a new version
+        if (Boolean.TRUE.equals(response.getSuspended())) {
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .body(response);
+        }
+        
+        // The state version identifies the representation; pollers send it back in If-None-Match
+        String etag = "\"" + response.getVersion() + "\"";
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .eTag(etag)
+                .body(response);
+    }
+    
+    /**
+     * Get the status of many jobs in one call
+     */
+    @PostMapping(value = "/status:batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StatusBatchResponse> getStatuses(@Valid @RequestBody StatusBatchRequest request) {
+        logger.debug("Getting status for {} jobs", request.getJobIds().size());
+        
+        return ResponseEntity.ok(fileConversionService.getConversionStatuses(request));
+    }
+    
+    /**
+     * List jobs, newest first, filtered by status, target format, client and creation time
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<JobListResponse> listJobs(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String targetFormat,
+            @RequestParam(required = false) String clientId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdTo,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit
+    ) {
+        JobIndex.Query query = new JobIndex.Query(status == null ? null : JobStatus.parse(status), targetFormat, clientId,
+                createdFrom, createdTo, cursor, limit);
+        return ResponseEntity.ok(fileConversionService.listJobs(query));
+    }
+    
+    /**
+     * Cancel a queued or running conversion job
+     */
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<?> cancelJob(@PathVariable String jobId) {
+        logger.info("Cancel request for job: {}", jobId);
+        
+        try {
+            ConversionResponse response = fileConversionService.cancelConversion(jobId);
+            
+            if ("NOT_FOUND".equals(response.getStatus())) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (ConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(createErrorResponse("JOB_FINISHED", e.getMessage()));
+        }
     }
     
     /**
      * Download a converted file
      */
     @GetMapping("/files/download/{jobId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String jobId) {
+    public ResponseEntity<?> downloadFile(@PathVariable String jobId) {
         logger.info("Download request for job: {}", jobId);
         
         try {
-            File file = fileConversionService.getConvertedFile(jobId);
+            Resource resource = fileConversionService.getConvertedResource(jobId);
             
-            if (file == null) {
+            if (resource == null) {
                 return ResponseEntity.notFound().build();
             }
             
-            Resource resource = new FileSystemResource(file);
+            // The file on disk has a generic name inside the job's directory
+            String fileName = fileConversionService.getConversionStatus(jobId).getConvertedFileName();
+            ContentDisposition.Builder disposition = ContentDisposition.attachment();
+            if (StandardCharsets.US_ASCII.newEncoder().canEncode(fileName)) {
+                disposition.filename(fileName);
+            } else {
+                disposition.filename(fileName, StandardCharsets.UTF_8);
+            }
+            ContentDisposition contentDisposition = disposition.build();
             
             return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                           "attachment; filename=\"" + file.getName() + "\"")
-                    .contentLength(file.length())
+                    .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition.toString())
+                    .contentLength(resource.contentLength())
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
                     .body(resource);
-                    
+            
+        } catch (OutputGoneException e) {
+            return ResponseEntity.status(HttpStatus.GONE)
+                    .body(createErrorResponse("OUTPUT_GONE", e.getMessage()));
         } catch (Exception e) {
             logger.error("Error downloading file for job: {}", jobId, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
     
+    /**
+     * Waveform peaks of a completed job: JSON by default, or the compact
+     * binary peaks file with format=binary
+     */
+    @GetMapping("/files/waveform/{jobId}")
+    public ResponseEntity<?> getWaveform(@PathVariable String jobId,
+            @RequestParam(value = "format", defaultValue = "json") String format) {
+        try {
+            if ("binary".equalsIgnoreCase(format)) {
+                Resource resource = fileConversionService.getWaveformResource(jobId);
+                if (resource == null) {
+                    return ResponseEntity.notFound().build();
+                }
+                return ResponseEntity.ok()
+                        .contentLength(resource.contentLength())
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .body(resource);
+            }
+            
+            WaveformResponse waveform = fileConversionService.getWaveform(jobId);
+            if (waveform == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(waveform);
+            
+        } catch (IOException e) {
+            logger.error("Error reading waveform for job: {}", jobId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("WAVEFORM_ERROR", "Failed to read waveform"));
+        }
+    }
+    
     /**
      * Health check endpoint
      */
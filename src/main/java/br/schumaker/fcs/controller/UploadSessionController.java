@@ -0,0 +1,152 @@
+package br.schumaker.fcs.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.dto.UploadSessionRequest;
+import br.schumaker.fcs.dto.UploadSessionResponse;
+import br.schumaker.fcs.service.ClientIdentityResolver;
+import br.schumaker.fcs.service.UploadSessionService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+
+@RestController
+@RequestMapping("/api/uploads")
+@CrossOrigin(origins = "*")
+public class UploadSessionController {
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionController.class);
+    
+    public static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-SHA256";
+    
+    @Autowired
+    private UploadSessionService uploadSessionService;
+    
+    @Autowired
+    private ClientIdentityResolver clientIdentityResolver;
+    
+    /**
+     * Create a resumable upload session
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> createSession(@Valid @RequestBody UploadSessionRequest request,
+            HttpServletRequest httpRequest) {
+        try {
+            request.setClientId(clientIdentityResolver.resolve(httpRequest));
+            logger.info("Creating upload session for file: {} ({} bytes) to format: {}",
+                    request.getFileName(), request.getFileSize(), request.getTargetFormat());
+            
+            UploadSessionResponse response = uploadSessionService.createSession(request);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            
+        } catch (IOException e) {
+            logger.error("IO error creating upload session: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("UPLOAD_ERROR", "Failed to create upload session"));
+        }
+    }
+    
+    /**
+     * Upload one chunk at a byte offset
+     */
+    @PutMapping(value = "/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestParam("offset") long offset,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+            @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String chunkSha256,
+            InputStream body
+    ) {
+        try {
+            UploadSessionResponse response = uploadSessionService.writeChunk(
+                    uploadId, offset, contentLength == null ? -1 : contentLength, chunkSha256, body);
+            
+            if (response == null) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (IOException e) {
+            logger.error("IO error writing chunk at offset {} for upload {}: {}", offset, uploadId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("UPLOAD_ERROR", "Failed to write chunk"));
+        }
+    }
+    
+    /**
+     * Get the byte ranges received so far
+     */
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadSessionResponse> getSession(@PathVariable String uploadId) {
+        UploadSessionResponse response = uploadSessionService.getSession(uploadId);
+        
+        if (response == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Finalize the upload and start the conversion
+     */
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeSession(@PathVariable String uploadId) {
+        try {
+            ConversionResponse response = uploadSessionService.completeSession(uploadId);
+            
+            if (response == null) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (IOException e) {
+            logger.error("IO error completing upload {}: {}", uploadId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("UPLOAD_ERROR", "Failed to complete upload"));
+        }
+    }
+    
+    /**
+     * Abort the upload and discard received chunks
+     */
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortSession(@PathVariable String uploadId) {
+        if (!uploadSessionService.abortSession(uploadId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+    
+    private Map<String, String> createErrorResponse(String errorCode, String message) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", errorCode);
+        error.put("message", message);
+        error.put("timestamp", String.valueOf(System.currentTimeMillis()));
+        return error;
+    }
+}
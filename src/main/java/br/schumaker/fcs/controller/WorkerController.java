@@ -0,0 +1,229 @@
+package br.schumaker.fcs.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import br.schumaker.fcs.dto.LeaseReport;
+import br.schumaker.fcs.dto.WorkerLease;
+import br.schumaker.fcs.dto.WorkerRegistration;
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.service.LeaseManager;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Endpoints remote workers pull jobs from when this node runs as the
+ * coordinator. Every request carries the shared worker token. Without a
+ * token anyone could lease jobs, read their inputs and publish outputs, so
+ * the coordinator refuses to start without one unless unauthenticated
+ * workers are explicitly allowed.
+ */
+@RestController
+@RequestMapping("/api/workers")
+@ConditionalOnProperty(name = "app.mode", havingValue = "coordinator")
+public class WorkerController {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WorkerController.class);
+    
+    public static final String WORKER_TOKEN_HEADER = "X-Worker-Token";
+    
+    @Autowired
+    private LeaseManager leaseManager;
+    
+    @Value("${app.worker.token:}")
+    private String workerToken;
+    
+    @Value("${app.coordinator.allow-unauthenticated-workers:false}")
+    private boolean allowUnauthenticatedWorkers;
+    
+    @PostConstruct
+    public void checkWorkerToken() {
+        if (!workerToken.isEmpty()) {
+            return;
+        }
+        if (!allowUnauthenticatedWorkers) {
+            throw new IllegalStateException("Coordinator mode requires app.worker.token; set "
+                    + "app.coordinator.allow-unauthenticated-workers=true to accept workers without one");
+        }
+        logger.warn("Accepting workers without a token; anyone who can reach this node can lease its jobs");
+    }
+    
+    /**
+     * Register a worker
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> register(@RequestBody WorkerRegistration registration,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token) {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).body(leaseManager.register(registration));
+    }
+    
+    /**
+     * Lease the next queued job, waiting up to waitMs for one
+     */
+    @PostMapping("/{workerId}/lease")
+    public ResponseEntity<?> lease(
+            @PathVariable String workerId,
+            @RequestParam(value = "waitMs", defaultValue = "0") long waitMs,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token
+    ) throws InterruptedException {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        
+        WorkerLease lease = leaseManager.acquire(workerId, waitMs);
+        if (lease == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(lease);
+    }
+    
+    /**
+     * Extend a lease and report progress
+     */
+    @PostMapping(value = "/leases/{jobId}/heartbeat", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> heartbeat(@PathVariable String jobId, @RequestBody LeaseReport report,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token) {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        return ResponseEntity.ok(leaseManager.heartbeat(jobId, report));
+    }
+    
+    /**
+     * Stream a leased job's input
+     */
+    @GetMapping("/leases/{jobId}/input")
+    public ResponseEntity<?> input(@PathVariable String jobId, @RequestParam("leaseId") String leaseId,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token) {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        
+        ConversionJob job = leaseManager.leasedJob(jobId, leaseId);
+        Resource resource;
+        long length;
+        byte[] buffer = job.getInputBuffer();
+        if (buffer != null) {
+            length = job.getInputLength();
+            resource = new InputStreamResource(new ByteArrayInputStream(buffer, 0, job.getInputLength()));
+        } else {
+            FileSystemResource file = new FileSystemResource(Paths.get(job.getOriginalFilePath()));
+            if (!file.exists()) {
+                return ResponseEntity.status(HttpStatus.GONE)
+                        .body(createErrorResponse("INPUT_GONE", "Input file of job " + jobId + " no longer exists"));
+            }
+            length = file.getFile().length();
+            resource = file;
+        }
+        
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(length)
+                .body(resource);
+    }
+    
+    /**
+     * Upload a leased job's waveform peaks, before its output
+     */
+    @PutMapping(value = "/leases/{jobId}/peaks", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> peaks(@PathVariable String jobId, @RequestParam("leaseId") String leaseId,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token, InputStream body) {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        
+        try {
+            leaseManager.storePeaks(jobId, leaseId, body);
+            return ResponseEntity.noContent().build();
+        } catch (IOException e) {
+            logger.error("IO error storing peaks of job {}: {}", jobId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("UPLOAD_ERROR", "Failed to store peaks"));
+        }
+    }
+    
+    /**
+     * Upload a leased job's output, completing it
+     */
+    @PutMapping(value = "/leases/{jobId}/output", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> output(@PathVariable String jobId, @ModelAttribute LeaseReport report,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token, InputStream body) {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        
+        try {
+            leaseManager.complete(jobId, report, body);
+            return ResponseEntity.noContent().build();
+        } catch (IOException e) {
+            logger.error("IO error storing output of job {}: {}", jobId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("UPLOAD_ERROR", "Failed to store output"));
+        }
+    }
+    
+    /**
+     * Report that a leased job failed
+     */
+    @PostMapping(value = "/leases/{jobId}/fail", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> fail(@PathVariable String jobId, @RequestBody LeaseReport report,
+            @RequestHeader(value = WORKER_TOKEN_HEADER, required = false) String token) {
+        if (!isAuthorized(token)) {
+            return unauthorized();
+        }
+        leaseManager.fail(jobId, report);
+        return ResponseEntity.noContent().build();
+    }
+    
+    private boolean isAuthorized(String token) {
+        if (workerToken.isEmpty()) {
+            return allowUnauthenticatedWorkers;
+        }
+        return token != null && MessageDigest.isEqual(workerToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private ResponseEntity<Map<String, String>> unauthorized() {
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(createErrorResponse("UNAUTHORIZED", "Missing or invalid worker token"));
+    }
+    
+    private Map<String, String> createErrorResponse(String errorCode, String message) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", errorCode);
+        error.put("message", message);
+        error.put("timestamp", String.valueOf(System.currentTimeMillis()));
+        return error;
+    }
+}
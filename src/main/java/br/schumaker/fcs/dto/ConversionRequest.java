@@ -1,12 +1,19 @@
 package br.schumaker.fcs.dto;
 
+import java.time.LocalDateTime;
+
+import org.springframework.format.annotation.DateTimeFormat;
+
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 
 public class ConversionRequest {
     
     @NotBlank(message = "Target format is required")
-    @Pattern(regexp = "^(mp4|avi|mov|mkv|mp3|wav|flac|aac|jpg|png|gif|webp)$", 
+    @Pattern(regexp = "^(mp4|avi|mov|mkv|mp3|wav|flac|aac|jpg|png|gif|webp)$",
              message = "Unsupported target format")
     private String targetFormat;
     
@@ -16,6 +23,43 @@ public class ConversionRequest {
     private Integer height;
     private Integer bitrate;
     
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime deadline;
+    
+    @Pattern(regexp = "^(interactive|standard|batch)$", message = "SLA class must be interactive, standard or batch")
+    private String slaClass = "standard";
+    
+    // Higher runs first, and may suspend a running job of lower priority when no worker is free
+    @PositiveOrZero(message = "Priority must not be negative")
+    @Max(value = 9, message = "Priority must be at most 9")
+    private int priority;
+    
+    @Pattern(regexp = "^https?://.+", message = "Callback URL must be an http or https URL")
+    private String callbackUrl;
+    
+    private boolean callbackProgress; // also send 25/50/75% progress events
+    
+    // Excerpt to convert, in seconds of the input; clipEnd and clipDuration are alternatives
+    @PositiveOrZero(message = "Clip start must not be negative")
+    private Double clipStart;
+    
+    @Positive(message = "Clip end must be positive")
+    private Double clipEnd;
+    
+    @Positive(message = "Clip duration must be positive")
+    private Double clipDuration;
+    
+    @Pattern(regexp = "^(accurate|copy)$", message = "Cut mode must be accurate or copy")
+    private String cutMode = "accurate"; // accurate re-encodes; copy keeps the streams and starts at a keyframe
+    
+    private boolean waveform; // also compute waveform peaks of the audio, served as JSON or binary
+    
+    @Positive(message = "Peaks per second must be positive")
+    @Max(value = 1000, message = "Peaks per second must be at most 1000")
+    private Integer peaksPerSecond;
+    
+    private String clientId; // set by the server from the caller's identity, never taken from the client
+    
     // Constructors
     public ConversionRequest() {}
     
@@ -63,4 +107,100 @@ public class ConversionRequest {
     public void setBitrate(Integer bitrate) {
         this.bitrate = bitrate;
     }
+    
+    public LocalDateTime getDeadline() {
+        return deadline;
+    }
+    
+    public void setDeadline(LocalDateTime deadline) {
+        this.deadline = deadline;
+    }
+    
+    public String getSlaClass() {
+        return slaClass;
+    }
+    
+    public void setSlaClass(String slaClass) {
+        this.slaClass = slaClass;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public String getCallbackUrl() {
+        return callbackUrl;
+    }
+    
+    public void setCallbackUrl(String callbackUrl) {
+        this.callbackUrl = callbackUrl;
+    }
+    
+    public boolean isCallbackProgress() {
+        return callbackProgress;
+    }
+    
+    public void setCallbackProgress(boolean callbackProgress) {
+        this.callbackProgress = callbackProgress;
+    }
+    
+    public Double getClipStart() {
+        return clipStart;
+    }
+    
+    public void setClipStart(Double clipStart) {
+        this.clipStart = clipStart;
+    }
+    
+    public Double getClipEnd() {
+        return clipEnd;
+    }
+    
+    public void setClipEnd(Double clipEnd) {
+        this.clipEnd = clipEnd;
+    }
+    
+    public Double getClipDuration() {
+        return clipDuration;
+    }
+    
+    public void setClipDuration(Double clipDuration) {
+        this.clipDuration = clipDuration;
+    }
+    
+    public String getCutMode() {
+        return cutMode;
+    }
+    
+    public void setCutMode(String cutMode) {
+        this.cutMode = cutMode;
+    }
+    
+    public boolean isWaveform() {
+        return waveform;
+    }
+    
+    public void setWaveform(boolean waveform) {
+        this.waveform = waveform;
+    }
+    
+    public Integer getPeaksPerSecond() {
+        return peaksPerSecond;
+    }
+    
+    public void setPeaksPerSecond(Integer peaksPerSecond) {
+        this.peaksPerSecond = peaksPerSecond;
+    }
+    
+    public String getClientId() {
+        return clientId;
+    }
+    
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
 }
@@ -5,7 +5,8 @@ import java.time.LocalDateTime;
 public class ConversionResponse {
     
     private String jobId;
-    private String status; // PENDING, PROCESSING, COMPLETED, FAILED
+    private Long version; // increases with every change to the job
+    private String status; // PENDING, PROCESSING, COMPLETED, FAILED, CANCELLED
     private String originalFileName;
     private String convertedFileName;
     private String originalFormat;
@@ -16,6 +17,22 @@ public class ConversionResponse {
     private String errorMessage;
     private Long originalFileSize;
     private Long convertedFileSize;
+    private LocalDateTime deadline;
+    private String preset;
+    private String clientId;
+    private Integer priority;
+    private Boolean suspended; // while processing, if the FFmpeg process is stopped for a higher-priority job
+    private LocalDateTime suspendedAt;
+    private Double suspendedSeconds; // total time spent suspended, once the job has been
+    private Double estimatedRunSeconds; // predicted encode time from similar completed jobs
+    private LocalDateTime estimatedCompletionAt; // while processing
+    private String cutMode; // accurate or copy, for clip and copy jobs
+    private Double clipStart; // requested excerpt, in seconds of the input
+    private Double clipEnd;
+    private Double actualClipStart; // where the output really starts and ends, once completed
+    private Double actualClipEnd;
+    private String waveformUrl; // once completed, for jobs that asked for a waveform
+    private Boolean outputEvicted; // set once the result was deleted to stay within the output quota
     
     // Constructors
     public ConversionResponse() {}
@@ -35,6 +52,14 @@ public class ConversionResponse {
         this.jobId = jobId;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
     public String getStatus() {
         return status;
     }
@@ -122,4 +147,132 @@ public class ConversionResponse {
     public void setConvertedFileSize(Long convertedFileSize) {
         this.convertedFileSize = convertedFileSize;
     }
+    
+    public LocalDateTime getDeadline() {
+        return deadline;
+    }
+    
+    public void setDeadline(LocalDateTime deadline) {
+        this.deadline = deadline;
+    }
+    
+    public String getPreset() {
+        return preset;
+    }
+    
+    public void setPreset(String preset) {
+        this.preset = preset;
+    }
+    
+    public String getClientId() {
+        return clientId;
+    }
+    
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+    
+    public Double getEstimatedRunSeconds() {
+        return estimatedRunSeconds;
+    }
+    
+    public void setEstimatedRunSeconds(Double estimatedRunSeconds) {
+        this.estimatedRunSeconds = estimatedRunSeconds;
+    }
+    
+    public LocalDateTime getEstimatedCompletionAt() {
+        return estimatedCompletionAt;
+    }
+    
+    public void setEstimatedCompletionAt(LocalDateTime estimatedCompletionAt) {
+        this.estimatedCompletionAt = estimatedCompletionAt;
+    }
+    
+    public String getCutMode() {
+        return cutMode;
+    }
+    
+    public void setCutMode(String cutMode) {
+        this.cutMode = cutMode;
+    }
+    
+    public Double getClipStart() {
+        return clipStart;
+    }
+    
+    public void setClipStart(Double clipStart) {
+        this.clipStart = clipStart;
+    }
+    
+    public Double getClipEnd() {
+        return clipEnd;
+    }
+    
+    public void setClipEnd(Double clipEnd) {
+        this.clipEnd = clipEnd;
+    }
+    
+    public Double getActualClipStart() {
+        return actualClipStart;
+    }
+    
+    public void setActualClipStart(Double actualClipStart) {
+        this.actualClipStart = actualClipStart;
+    }
+    
+    public Double getActualClipEnd() {
+        return actualClipEnd;
+    }
+    
+    public void setActualClipEnd(Double actualClipEnd) {
+        this.actualClipEnd = actualClipEnd;
+    }
+    
+    public String getWaveformUrl() {
+        return waveformUrl;
+    }
+    
+    public void setWaveformUrl(String waveformUrl) {
+        this.waveformUrl = waveformUrl;
+    }
+    
+    public Boolean getOutputEvicted() {
+        return outputEvicted;
+    }
+    
+    public void setOutputEvicted(Boolean outputEvicted) {
+        this.outputEvicted = outputEvicted;
+    }
+    
+    public Integer getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+    
+    public Boolean getSuspended() {
+        return suspended;
+    }
+    
+    public void setSuspended(Boolean suspended) {
+        this.suspended = suspended;
+    }
+    
+    public LocalDateTime getSuspendedAt() {
+        return suspendedAt;
+    }
+    
+    public void setSuspendedAt(LocalDateTime suspendedAt) {
+        this.suspendedAt = suspendedAt;
+    }
+    
+    public Double getSuspendedSeconds() {
+        return suspendedSeconds;
+    }
+    
+    public void setSuspendedSeconds(Double suspendedSeconds) {
+        this.suspendedSeconds = suspendedSeconds;
+    }
 }
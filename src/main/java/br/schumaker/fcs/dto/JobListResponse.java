@@ -0,0 +1,34 @@
+package br.schumaker.fcs.dto;
+
+import java.util.List;
+
+public class JobListResponse {
+    
+    private List<ConversionResponse> jobs;
+    private String nextCursor; // null on the last page
+    
+    // Constructors
+    public JobListResponse() {}
+    
+    public JobListResponse(List<ConversionResponse> jobs, String nextCursor) {
+        this.jobs = jobs;
+        this.nextCursor = nextCursor;
+    }
+    
+    // Getters and Setters
+    public List<ConversionResponse> getJobs() {
+        return jobs;
+    }
+    
+    public void setJobs(List<ConversionResponse> jobs) {
+        this.jobs = jobs;
+    }
+    
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
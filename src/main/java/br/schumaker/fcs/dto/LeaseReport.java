@@ -0,0 +1,73 @@
+package br.schumaker.fcs.dto;
+
+/**
+ * What a worker reports about a leased job: progress on heartbeats, the
+ * encode details on completion, the reason on failure
+ */
+public class LeaseReport {
+    
+    private String leaseId;
+    private Double progressSeconds;
+    private Double inputDurationSeconds;
+    private String encoder;
+    private Double actualClipStart;
+    private Double actualClipEnd;
+    private String errorMessage;
+    
+    // Getters and Setters
+    public String getLeaseId() {
+        return leaseId;
+    }
+    
+    public void setLeaseId(String leaseId) {
+        this.leaseId = leaseId;
+    }
+    
+    public Double getProgressSeconds() {
+        return progressSeconds;
+    }
+    
+    public void setProgressSeconds(Double progressSeconds) {
+        this.progressSeconds = progressSeconds;
+    }
+    
+    public Double getInputDurationSeconds() {
+        return inputDurationSeconds;
+    }
+    
+    public void setInputDurationSeconds(Double inputDurationSeconds) {
+        this.inputDurationSeconds = inputDurationSeconds;
+    }
+    
+    public String getEncoder() {
+        return encoder;
+    }
+    
+    public void setEncoder(String encoder) {
+        this.encoder = encoder;
+    }
+    
+    public Double getActualClipStart() {
+        return actualClipStart;
+    }
+    
+    public void setActualClipStart(Double actualClipStart) {
+        this.actualClipStart = actualClipStart;
+    }
+    
+    public Double getActualClipEnd() {
+        return actualClipEnd;
+    }
+    
+    public void setActualClipEnd(Double actualClipEnd) {
+        this.actualClipEnd = actualClipEnd;
+    }
+    
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+    
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+}
@@ -0,0 +1,18 @@
+package br.schumaker.fcs.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+public class PathConversionRequest extends ConversionRequest {
+    
+    @NotBlank(message = "Path is required")
+    private String path; // absolute, or relative to an allowed ingest root
+    
+    // Getters and Setters
+    public String getPath() {
+        return path;
+    }
+    
+    public void setPath(String path) {
+        this.path = path;
+    }
+}
@@ -0,0 +1,31 @@
+package br.schumaker.fcs.dto;
+
+import java.util.List;
+import java.util.Map;
+
+import jakarta.validation.constraints.NotEmpty;
+
+public class StatusBatchRequest {
+    
+    @NotEmpty(message = "At least one job ID is required")
+    private List<String> jobIds;
+    
+    private Map<String, Long> knownVersions; // jobId -> version the client already has
+    
+    // Getters and Setters
+    public List<String> getJobIds() {
+        return jobIds;
+    }
+    
+    public void setJobIds(List<String> jobIds) {
+        this.jobIds = jobIds;
+    }
+    
+    public Map<String, Long> getKnownVersions() {
+        return knownVersions;
+    }
+    
+    public void setKnownVersions(Map<String, Long> knownVersions) {
+        this.knownVersions = knownVersions;
+    }
+}
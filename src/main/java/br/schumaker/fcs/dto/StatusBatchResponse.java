@@ -0,0 +1,36 @@
+package br.schumaker.fcs.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StatusBatchResponse {
+    
+    private List<ConversionResponse> jobs = new ArrayList<>(); // jobs that changed since the known version
+    private List<String> unchanged = new ArrayList<>();
+    private List<String> notFound = new ArrayList<>();
+    
+    // Getters and Setters
+    public List<ConversionResponse> getJobs() {
+        return jobs;
+    }
+    
+    public void setJobs(List<ConversionResponse> jobs) {
+        this.jobs = jobs;
+    }
+    
+    public List<String> getUnchanged() {
+        return unchanged;
+    }
+    
+    public void setUnchanged(List<String> unchanged) {
+        this.unchanged = unchanged;
+    }
+    
+    public List<String> getNotFound() {
+        return notFound;
+    }
+    
+    public void setNotFound(List<String> notFound) {
+        this.notFound = notFound;
+    }
+}
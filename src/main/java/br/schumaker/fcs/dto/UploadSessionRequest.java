@@ -0,0 +1,44 @@
+package br.schumaker.fcs.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+
+public class UploadSessionRequest extends ConversionRequest {
+    
+    @NotBlank(message = "File name is required")
+    private String fileName;
+    
+    @NotNull(message = "File size is required")
+    @Positive(message = "File size must be positive")
+    private Long fileSize;
+    
+    @Pattern(regexp = "^[0-9a-fA-F]{64}$", message = "sha256 must be a hex-encoded SHA-256 digest")
+    private String sha256; // optional digest of the whole file, verified on completion
+    
+    // Getters and Setters
+    public String getFileName() {
+        return fileName;
+    }
+    
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+    
+    public Long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    public String getSha256() {
+        return sha256;
+    }
+    
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+}
@@ -0,0 +1,72 @@
+package br.schumaker.fcs.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class UploadSessionResponse {
+    
+    private String uploadId;
+    private String fileName;
+    private Long fileSize;
+    private Long receivedBytes;
+    private List<long[]> receivedRanges; // [start, end) byte offsets
+    private boolean complete;
+    private LocalDateTime expiresAt;
+    
+    // Getters and Setters
+    public String getUploadId() {
+        return uploadId;
+    }
+    
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+    
+    public String getFileName() {
+        return fileName;
+    }
+    
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+    
+    public Long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    public Long getReceivedBytes() {
+        return receivedBytes;
+    }
+    
+    public void setReceivedBytes(Long receivedBytes) {
+        this.receivedBytes = receivedBytes;
+    }
+    
+    public List<long[]> getReceivedRanges() {
+        return receivedRanges;
+    }
+    
+    public void setReceivedRanges(List<long[]> receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
+    
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+    
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
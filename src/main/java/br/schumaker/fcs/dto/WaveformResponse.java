@@ -0,0 +1,81 @@
+package br.schumaker.fcs.dto;
+
+public class WaveformResponse {
+    
+    private String jobId;
+    private int sampleRate; // of the mono PCM the peaks were computed from
+    private int samplesPerPeak;
+    private int bits = 16; // peak values are signed 16-bit samples
+    private int length; // number of peaks
+    private short[] min;
+    private short[] max;
+    private short[] rms;
+    
+    // Constructors
+    public WaveformResponse() {}
+    
+    // Getters and Setters
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+    
+    public int getSamplesPerPeak() {
+        return samplesPerPeak;
+    }
+    
+    public void setSamplesPerPeak(int samplesPerPeak) {
+        this.samplesPerPeak = samplesPerPeak;
+    }
+    
+    public int getBits() {
+        return bits;
+    }
+    
+    public void setBits(int bits) {
+        this.bits = bits;
+    }
+    
+    public int getLength() {
+        return length;
+    }
+    
+    public void setLength(int length) {
+        this.length = length;
+    }
+    
+    public short[] getMin() {
+        return min;
+    }
+    
+    public void setMin(short[] min) {
+        this.min = min;
+    }
+    
+    public short[] getMax() {
+        return max;
+    }
+    
+    public void setMax(short[] max) {
+        this.max = max;
+    }
+    
+    public short[] getRms() {
+        return rms;
+    }
+    
+    public void setRms(short[] rms) {
+        this.rms = rms;
+    }
+}
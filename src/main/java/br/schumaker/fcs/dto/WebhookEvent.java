@@ -0,0 +1,64 @@
+package br.schumaker.fcs.dto;
+
+import java.time.LocalDateTime;
+
+public class WebhookEvent {
+    
+    private String type; // job.progress, job.completed, job.failed, job.cancelled
+    private String jobId;
+    private Integer progressPercent;
+    private LocalDateTime occurredAt;
+    private ConversionResponse job;
+    
+    // Constructors
+    public WebhookEvent() {}
+    
+    public WebhookEvent(String type, String jobId, Integer progressPercent, ConversionResponse job) {
+        this.type = type;
+        this.jobId = jobId;
+        this.progressPercent = progressPercent;
+        this.occurredAt = LocalDateTime.now();
+        this.job = job;
+    }
+    
+    // Getters and Setters
+    public String getType() {
+        return type;
+    }
+    
+    public void setType(String type) {
+        this.type = type;
+    }
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public Integer getProgressPercent() {
+        return progressPercent;
+    }
+    
+    public void setProgressPercent(Integer progressPercent) {
+        this.progressPercent = progressPercent;
+    }
+    
+    public LocalDateTime getOccurredAt() {
+        return occurredAt;
+    }
+    
+    public void setOccurredAt(LocalDateTime occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+    
+    public ConversionResponse getJob() {
+        return job;
+    }
+    
+    public void setJob(ConversionResponse job) {
+        this.job = job;
+    }
+}
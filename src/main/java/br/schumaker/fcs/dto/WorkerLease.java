@@ -0,0 +1,192 @@
+package br.schumaker.fcs.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * A job handed to a remote worker: the lease the worker holds it under and
+ * everything it needs to run the encode the way the coordinator would
+ */
+public class WorkerLease {
+    
+    private String jobId;
+    private String leaseId;
+    private LocalDateTime leaseExpiresAt;
+    private String originalFileName;
+    private String originalFormat;
+    private String inputMediaClass; // IMAGE, AUDIO or VIDEO
+    private String targetFormat;
+    private String quality;
+    private Integer width;
+    private Integer height;
+    private Integer bitrate;
+    private String preset;
+    private Double clipStart;
+    private Double clipDuration;
+    private String cutMode;
+    private Double actualClipStart; // keyframe a stream copy starts from
+    private Double inputDurationSeconds;
+    private Integer sourceWidth;
+    private Integer sourceHeight;
+    private Integer waveformPeaksPerSecond; // set when the worker also uploads waveform peaks
+    
+    // Getters and Setters
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public String getLeaseId() {
+        return leaseId;
+    }
+    
+    public void setLeaseId(String leaseId) {
+        this.leaseId = leaseId;
+    }
+    
+    public LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+    
+    public void setLeaseExpiresAt(LocalDateTime leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+    
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+    
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+    
+    public String getOriginalFormat() {
+        return originalFormat;
+    }
+    
+    public void setOriginalFormat(String originalFormat) {
+        this.originalFormat = originalFormat;
+    }
+    
+    public String getInputMediaClass() {
+        return inputMediaClass;
+    }
+    
+    public void setInputMediaClass(String inputMediaClass) {
+        this.inputMediaClass = inputMediaClass;
+    }
+    
+    public String getTargetFormat() {
+        return targetFormat;
+    }
+    
+    public void setTargetFormat(String targetFormat) {
+        this.targetFormat = targetFormat;
+    }
+    
+    public String getQuality() {
+        return quality;
+    }
+    
+    public void setQuality(String quality) {
+        this.quality = quality;
+    }
+    
+    public Integer getWidth() {
+        return width;
+    }
+    
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+    
+    public Integer getHeight() {
+        return height;
+    }
+    
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+    
+    public Integer getBitrate() {
+        return bitrate;
+    }
+    
+    public void setBitrate(Integer bitrate) {
+        this.bitrate = bitrate;
+    }
+    
+    public String getPreset() {
+        return preset;
+    }
+    
+    public void setPreset(String preset) {
+        this.preset = preset;
+    }
+    
+    public Double getClipStart() {
+        return clipStart;
+    }
+    
+    public void setClipStart(Double clipStart) {
+        this.clipStart = clipStart;
+    }
+    
+    public Double getClipDuration() {
+        return clipDuration;
+    }
+    
+    public void setClipDuration(Double clipDuration) {
+        this.clipDuration = clipDuration;
+    }
+    
+    public String getCutMode() {
+        return cutMode;
+    }
+    
+    public void setCutMode(String cutMode) {
+        this.cutMode = cutMode;
+    }
+    
+    public Double getActualClipStart() {
+        return actualClipStart;
+    }
+    
+    public void setActualClipStart(Double actualClipStart) {
+        this.actualClipStart = actualClipStart;
+    }
+    
+    public Double getInputDurationSeconds() {
+        return inputDurationSeconds;
+    }
+    
+    public void setInputDurationSeconds(Double inputDurationSeconds) {
+        this.inputDurationSeconds = inputDurationSeconds;
+    }
+    
+    public Integer getSourceWidth() {
+        return sourceWidth;
+    }
+    
+    public void setSourceWidth(Integer sourceWidth) {
+        this.sourceWidth = sourceWidth;
+    }
+    
+    public Integer getSourceHeight() {
+        return sourceHeight;
+    }
+    
+    public void setSourceHeight(Integer sourceHeight) {
+        this.sourceHeight = sourceHeight;
+    }
+    
+    public Integer getWaveformPeaksPerSecond() {
+        return waveformPeaksPerSecond;
+    }
+    
+    public void setWaveformPeaksPerSecond(Integer waveformPeaksPerSecond) {
+        this.waveformPeaksPerSecond = waveformPeaksPerSecond;
+    }
+}
@@ -0,0 +1,56 @@
+package br.schumaker.fcs.dto;
+
+/**
+ * Registration of a remote worker with the coordinator. The worker sends its
+ * name and slot count; the coordinator answers with the worker ID to lease
+ * under and the lease timing.
+ */
+public class WorkerRegistration {
+    
+    private String workerId;
+    private String name;
+    private Integer slots; // jobs the worker encodes at once
+    private Long leaseSeconds;
+    private Long heartbeatSeconds;
+    
+    // Getters and Setters
+    public String getWorkerId() {
+        return workerId;
+    }
+    
+    public void setWorkerId(String workerId) {
+        this.workerId = workerId;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public Integer getSlots() {
+        return slots;
+    }
+    
+    public void setSlots(Integer slots) {
+        this.slots = slots;
+    }
+    
+    public Long getLeaseSeconds() {
+        return leaseSeconds;
+    }
+    
+    public void setLeaseSeconds(Long leaseSeconds) {
+        this.leaseSeconds = leaseSeconds;
+    }
+    
+    public Long getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+    
+    public void setHeartbeatSeconds(Long heartbeatSeconds) {
+        this.heartbeatSeconds = heartbeatSeconds;
+    }
+}
@@ -0,0 +1,15 @@
+package br.schumaker.fcs.exception;
+
+/**
+ * Thrown when a request cannot be applied in the current state of its job,
+ * lease or upload session, such as cancelling a finished job or reporting on
+ * a lease that is no longer held.
+ */
+public class ConflictException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public ConflictException(String message) {
+        super(message);
+    }
+}
@@ -70,6 +70,73 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(response);
     }
     
+    @ExceptionHandler(PathNotAllowedException.class)
+    public ResponseEntity<Map<String, Object>> handlePathNotAllowedException(
+            PathNotAllowedException ex) {
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "PATH_NOT_ALLOWED");
+        response.put("message", ex.getMessage());
+        response.put("timestamp", LocalDateTime.now());
+        
+        logger.warn("Rejected ingest path: {}", ex.getMessage());
+        
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+    }
+    
+    @ExceptionHandler(InsufficientStorageException.class)
+    public ResponseEntity<Map<String, Object>> handleInsufficientStorageException(
+            InsufficientStorageException ex) {
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "INSUFFICIENT_STORAGE");
+        response.put("message", ex.getMessage());
+        response.put("timestamp", LocalDateTime.now());
+        
+        logger.warn("Rejected for lack of disk space: {}", ex.getMessage());
+        
+        return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(response);
+    }
+    
+    @ExceptionHandler(OutputGoneException.class)
+    public ResponseEntity<Map<String, Object>> handleOutputGoneException(OutputGoneException ex) {
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "OUTPUT_GONE");
+        response.put("message", ex.getMessage());
+        response.put("timestamp", LocalDateTime.now());
+        
+        return ResponseEntity.status(HttpStatus.GONE).body(response);
+    }
+    
+    @ExceptionHandler(TooManyActiveJobsException.class)
+    public ResponseEntity<Map<String, Object>> handleTooManyActiveJobsException(
+            TooManyActiveJobsException ex) {
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "TOO_MANY_ACTIVE_JOBS");
+        response.put("message", ex.getMessage());
+        response.put("timestamp", LocalDateTime.now());
+        
+        logger.warn("Rejected for client job quota: {}", ex.getMessage());
+        
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(response);
+    }
+    
+    @ExceptionHandler(ConflictException.class)
+    public ResponseEntity<Map<String, Object>> handleConflictException(
+            ConflictException ex) {
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "CONFLICT");
+        response.put("message", ex.getMessage());
+        response.put("timestamp", LocalDateTime.now());
+        
+        logger.warn("Conflicting request: {}", ex.getMessage());
+        
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+    }
+    
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleGenericException(Exception ex) {
         Map<String, Object> response = new HashMap<>();
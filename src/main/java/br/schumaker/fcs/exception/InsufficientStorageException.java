@@ -0,0 +1,14 @@
+package br.schumaker.fcs.exception;
+
+/**
+ * Thrown when an upload or conversion output would not fit in the free space
+ * of its directory.
+ */
+public class InsufficientStorageException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public InsufficientStorageException(String message) {
+        super(message);
+    }
+}
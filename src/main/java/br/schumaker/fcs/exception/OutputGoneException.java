@@ -0,0 +1,14 @@
+package br.schumaker.fcs.exception;
+
+/**
+ * Thrown when a completed job's result is no longer kept, having been evicted
+ * to stay within the output quota.
+ */
+public class OutputGoneException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public OutputGoneException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package br.schumaker.fcs.exception;
+
+/**
+ * Thrown when a server-side ingest path is outside the allow-listed roots.
+ */
+public class PathNotAllowedException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public PathNotAllowedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,14 @@
+package br.schumaker.fcs.exception;
+
+/**
+ * Thrown when a client submits a job while already at its limit of queued
+ * and running jobs.
+ */
+public class TooManyActiveJobsException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public TooManyActiveJobsException(String message) {
+        super(message);
+    }
+}
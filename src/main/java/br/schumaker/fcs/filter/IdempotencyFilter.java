@@ -0,0 +1,234 @@
+package br.schumaker.fcs.filter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.DataBinder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.dto.PathConversionRequest;
+import br.schumaker.fcs.service.ClientIdentityResolver;
+import br.schumaker.fcs.service.FileConversionService;
+import br.schumaker.fcs.service.IdempotencyService;
+import br.schumaker.fcs.service.IdempotencyService.Fingerprint;
+import br.schumaker.fcs.service.IdempotencyService.Reservation;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Deduplicates conversion submissions carrying an Idempotency-Key header.
+ * Keys are scoped to the client identity. Runs before the controller, so a
+ * retry of a known key is answered with the original job without storing or
+ * queueing the upload again. A retry must match the request that created the
+ * job, or it is rejected with 422. An upload retry is checked without reading
+ * the upload: its body must have the same length and the same file name, and
+ * its options, bound from the query parameters and the form fields sent
+ * before the file part, must all equal the original's; an option it omits
+ * counts as unset. Reading stops at the file part, so fields sent after it
+ * are not seen and count as unset too: such a retry is rejected unless the
+ * original left those options unset, and only then is a retry that differs
+ * from the original in them alone replayed.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class IdempotencyFilter extends OncePerRequestFilter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyFilter.class);
+    
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    
+    private static final int MAX_KEY_LENGTH = 255;
+    
+    private final IdempotencyService idempotencyService;
+    private final FileConversionService fileConversionService;
+    private final ClientIdentityResolver clientIdentityResolver;
+    private final ObjectMapper objectMapper;
+    
+    // Binds retried form fields as the controller binds them, including @DateTimeFormat
+    private final DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+    
+    @Value("${app.idempotency.wait-timeout-seconds:30}")
+    private long waitTimeoutSeconds;
+    
+    public IdempotencyFilter(IdempotencyService idempotencyService, FileConversionService fileConversionService,
+            ClientIdentityResolver clientIdentityResolver, ObjectMapper objectMapper) {
+        this.idempotencyService = idempotencyService;
+        this.fileConversionService = fileConversionService;
+        this.clientIdentityResolver = clientIdentityResolver;
+        this.objectMapper = objectMapper;
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod())
+                || !request.getRequestURI().startsWith(request.getContextPath() + "/api/convert")
+                || request.getHeader(IDEMPOTENCY_KEY_HEADER) == null;
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        
+        String key = request.getHeader(IDEMPOTENCY_KEY_HEADER).trim();
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            writeError(response, HttpStatus.BAD_REQUEST, "INVALID_REQUEST",
+                    "Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+        String clientId = clientIdentityResolver.resolve(request);
+        
+        // A waiter whose owner gave up claims the key itself on the next pass
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Reservation reservation = idempotencyService.reserve(clientId, key, request.getContentLengthLong());
+            
+            if (reservation.owner()) {
+                try {
+                    filterChain.doFilter(request, response);
+                } finally {
+                    idempotencyService.abandon(reservation.entry());
+                }
+                return;
+            }
+            
+            try {
+                String jobId = reservation.entry().getJobId().get(waitTimeoutSeconds, TimeUnit.SECONDS);
+                if (!matches(reservation.entry(), request)) {
+                    writeError(response, HttpStatus.UNPROCESSABLE_ENTITY, "IDEMPOTENCY_KEY_MISMATCH",
+                            "This Idempotency-Key was already used for a different request");
+                    return;
+                }
+                replay(response, key, jobId);
+                return;
+            } catch (CancellationException e) {
+                logger.debug("Original request for idempotency key {} did not create a job", key);
+            } catch (TimeoutException e) {
+                writeError(response, HttpStatus.CONFLICT, "REQUEST_IN_PROGRESS",
+                        "A request with this Idempotency-Key is still in progress");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(e);
+            } catch (ExecutionException e) {
+                throw new ServletException(e.getCause());
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                writeError(response, HttpStatus.BAD_REQUEST, "INVALID_REQUEST", "Malformed request body");
+                return;
+            }
+        }
+        
+        writeError(response, HttpStatus.CONFLICT, "REQUEST_IN_PROGRESS",
+                "A request with this Idempotency-Key is still in progress");
+    }
+    
+    /**
+     * Whether a retried request matches the one that created the job
+     */
+    private boolean matches(IdempotencyService.Entry entry, HttpServletRequest request) throws IOException {
+        Fingerprint original = entry.getFingerprint();
+        if (original == null) {
+            return true;
+        }
+        if (request.getRequestURI().endsWith("/by-path")) {
+            // A small JSON document, read whole
+            return original.equals(IdempotencyService.fingerprint(
+                    objectMapper.readValue(request.getInputStream(), PathConversionRequest.class)));
+        }
+        
+        if (entry.getContentLength() != request.getContentLengthLong()) {
+            return false;
+        }
+        MultipartPrefix prefix = MultipartPrefix.read(request);
+        if (prefix.getFileName() != null && !original.input().equals("file:" + prefix.getFileName())) {
+            return false;
+        }
+        
+        // Bound as for the controller, so values compare as the original's were recorded
+        Map<String, String> sent = queryParameters(request);
+        prefix.getFields().forEach(sent::putIfAbsent);
+        ConversionRequest conversionRequest = new ConversionRequest();
+        DataBinder binder = new DataBinder(conversionRequest);
+        binder.setConversionService(conversionService);
+        binder.bind(new MutablePropertyValues(sent));
+        
+        return IdempotencyService.options(conversionRequest).equals(original.options());
+    }
+    
+    /**
+     * Parameters of the query string only; asking the request for its
+     * parameters would parse the whole multipart body
+     */
+    private static Map<String, String> queryParameters(HttpServletRequest request) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (request.getQueryString() == null) {
+            return parameters;
+        }
+        UriComponentsBuilder.fromUriString("?" + request.getQueryString()).build().getQueryParams()
+                .forEach((name, values) -> {
+                    String value = values.isEmpty() || values.get(0) == null ? "" : values.get(0);
+                    parameters.put(UriUtils.decode(name, StandardCharsets.UTF_8),
+                            UriUtils.decode(value, StandardCharsets.UTF_8));
+                });
+        return parameters;
+    }
+    
+    private void replay(HttpServletResponse response, String key, String jobId) throws IOException {
+        ConversionResponse conversionResponse = fileConversionService.getConversionStatus(jobId);
+        if ("NOT_FOUND".equals(conversionResponse.getStatus())) {
+            // Not a successful submission: the job this key created is no longer known
+            writeError(response, HttpStatus.GONE, "JOB_GONE",
+                    "The job created with this Idempotency-Key, " + jobId + ", no longer exists");
+            return;
+        }
+        logger.info("Replaying job {} for idempotency key {}", jobId, key);
+        
+        // The upload body is left unread; don't keep the connection around to drain it
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        response.setHeader(REPLAYED_HEADER, "true");
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), conversionResponse);
+    }
+    
+    private void writeError(HttpServletResponse response, HttpStatus status, String errorCode, String message)
+            throws IOException {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", errorCode);
+        error.put("message", message);
+        error.put("timestamp", LocalDateTime.now());
+        
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), error);
+    }
+}
@@ -0,0 +1,128 @@
+package br.schumaker.fcs.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * The start of a multipart/form-data body: the form fields sent before the
+ * first file part, and that part's file name. Reading stops at the file
+ * part's headers, so the upload itself is never read.
+ */
+final class MultipartPrefix {
+    
+    // Form fields are small; a prefix this long without a file part is not read any further
+    private static final int MAX_PREFIX_BYTES = 64 * 1024;
+    private static final int READ_CHUNK_BYTES = 8 * 1024;
+    private static final String CRLF = "\r\n";
+    
+    private final Map<String, String> fields;
+    private final String fileName;
+    
+    private MultipartPrefix(Map<String, String> fields, String fileName) {
+        this.fields = fields;
+        this.fileName = fileName;
+    }
+    
+    /**
+     * Reads the request body up to the headers of its first file part
+     *
+     * @throws IllegalArgumentException if the request is not multipart or has no boundary
+     */
+    static MultipartPrefix read(HttpServletRequest request) throws IOException {
+        String boundary = MediaType.parseMediaType(request.getContentType()).getParameter("boundary");
+        if (boundary == null) {
+            throw new IllegalArgumentException("Multipart request has no boundary");
+        }
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        Charset charset = request.getCharacterEncoding() != null
+                ? Charset.forName(request.getCharacterEncoding())
+                : StandardCharsets.UTF_8;
+        
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        byte[] chunk = new byte[READ_CHUNK_BYTES];
+        InputStream body = request.getInputStream();
+        while (true) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            // Latin-1 maps each byte to one char, so offsets in the text are offsets in the body
+            String text = prefix.toString(StandardCharsets.ISO_8859_1);
+            String fileName = parse(text, "--" + boundary, charset, fields);
+            if (fileName != null) {
+                return new MultipartPrefix(fields, fileName);
+            }
+            
+            int read = prefix.size() < MAX_PREFIX_BYTES ? body.read(chunk) : -1;
+            if (read < 0) {
+                // Body ended, or too long a prefix: what was seen is all there is
+                return new MultipartPrefix(fields, null);
+            }
+            prefix.write(chunk, 0, read);
+        }
+    }
+    
+    /**
+     * Collects the complete form fields of the text into the map
+     *
+     * @return the file name of the first file part once its headers are complete, otherwise null
+     */
+    private static String parse(String text, String delimiter, Charset charset, Map<String, String> fields) {
+        int position = text.indexOf(delimiter);
+        while (position >= 0) {
+            int headersStart = position + delimiter.length() + CRLF.length();
+            int headersEnd = text.indexOf(CRLF + CRLF, headersStart);
+            if (text.startsWith("--", position + delimiter.length()) || headersEnd < 0) {
+                return null;
+            }
+            
+            ContentDisposition disposition = null;
+            for (String header : text.substring(headersStart, headersEnd).split(CRLF)) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase(HttpHeaders.CONTENT_DISPOSITION)) {
+                    disposition = ContentDisposition.parse(header.substring(colon + 1).trim());
+                }
+            }
+            if (disposition != null && disposition.getFilename() != null) {
+                return disposition.getFilename();
+            }
+            
+            int valueStart = headersEnd + 2 * CRLF.length();
+            int valueEnd = text.indexOf(CRLF + delimiter, valueStart);
+            if (valueEnd < 0) {
+                return null;
+            }
+            if (disposition != null && disposition.getName() != null) {
+                String value = new String(text.substring(valueStart, valueEnd).getBytes(StandardCharsets.ISO_8859_1),
+                        charset);
+                fields.putIfAbsent(disposition.getName(), value);
+            }
+            position = valueEnd + CRLF.length();
+        }
+        return null;
+    }
+    
+    /**
+     * Form fields before the file part, by name; only the first value of a repeated name
+     */
+    Map<String, String> getFields() {
+        return fields;
+    }
+    
+    /**
+     * @return the name of the first file part, or null if none was found
+     */
+    String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,113 @@
+package br.schumaker.fcs.filter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.schumaker.fcs.service.ClientIdentityResolver;
+import br.schumaker.fcs.service.RateLimiter;
+import br.schumaker.fcs.service.RateLimiter.Bucket;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Applies the per-client rate limits to submissions, status reads and
+ * downloads before anything else looks at the request, so rejected requests
+ * cost no more than the token check.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class RateLimitFilter extends OncePerRequestFilter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+    
+    private final RateLimiter rateLimiter;
+    private final ClientIdentityResolver clientIdentityResolver;
+    private final ObjectMapper objectMapper;
+    
+    public RateLimitFilter(RateLimiter rateLimiter, ClientIdentityResolver clientIdentityResolver,
+            ObjectMapper objectMapper) {
+        this.rateLimiter = rateLimiter;
+        this.clientIdentityResolver = clientIdentityResolver;
+        this.objectMapper = objectMapper;
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return bucketFor(request) == null;
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        
+        Bucket bucket = bucketFor(request);
+        String clientId = clientIdentityResolver.resolve(request);
+        long waitNanos = rateLimiter.tryAcquire(bucket, clientId);
+        
+        if (waitNanos > 0) {
+            long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+            logger.debug("Rate limited {} request from client {} (retry after {}s)", bucket, clientId, retryAfterSeconds);
+            
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "RATE_LIMITED");
+            error.put("message", "Too many " + bucket.name().toLowerCase() + " requests; retry after "
+                    + retryAfterSeconds + " seconds");
+            error.put("timestamp", LocalDateTime.now());
+            
+            if (bucket == Bucket.SUBMIT) {
+                // The upload body is left unread; don't keep the connection around to drain it
+                response.setHeader(HttpHeaders.CONNECTION, "close");
+            }
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), error);
+            return;
+        }
+        
+        filterChain.doFilter(request, response);
+    }
+    
+    /**
+     * @return the bucket a request draws from, or null if it is not limited
+     */
+    private Bucket bucketFor(HttpServletRequest request) {
+        String method = request.getMethod();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        
+        if ("POST".equals(method)) {
+            if (path.equals("/api/convert") || path.equals("/api/convert/by-path") || path.equals("/api/uploads")) {
+                return Bucket.SUBMIT;
+            }
+            if (path.equals("/api/status:batch")) {
+                return Bucket.STATUS;
+            }
+        } else if ("GET".equals(method)) {
+            if (path.startsWith("/api/status/") || path.equals("/api/jobs") || path.startsWith("/api/uploads/")) {
+                return Bucket.STATUS;
+            }
+            if (path.startsWith("/api/files/download/")) {
+                return Bucket.DOWNLOAD;
+            }
+        }
+        return null;
+    }
+}
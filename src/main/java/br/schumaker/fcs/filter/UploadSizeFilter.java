@@ -0,0 +1,78 @@
+package br.schumaker.fcs.filter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.schumaker.fcs.service.FileConversionService;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Rejects multipart uploads whose declared Content-Length already exceeds the
+ * maximum file size, before any of the body is read.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+public class UploadSizeFilter extends OncePerRequestFilter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadSizeFilter.class);
+    
+    // Allowance for multipart boundaries, part headers and form fields
+    private static final long MULTIPART_OVERHEAD_BYTES = 1024 * 1024;
+    
+    private final FileConversionService fileConversionService;
+    private final ObjectMapper objectMapper;
+    
+    public UploadSizeFilter(FileConversionService fileConversionService, ObjectMapper objectMapper) {
+        this.fileConversionService = fileConversionService;
+        this.objectMapper = objectMapper;
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod())
+                || !request.getRequestURI().equals(request.getContextPath() + "/api/convert");
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        
+        long contentLength = request.getContentLengthLong();
+        long limit = fileConversionService.getMaxFileSizeBytes() + MULTIPART_OVERHEAD_BYTES;
+        
+        if (contentLength > limit) {
+            logger.warn("Rejecting upload of {} bytes before reading the body (limit {})", contentLength, limit);
+            
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "FILE_TOO_LARGE");
+            error.put("message", "File size exceeds maximum allowed size");
+            error.put("timestamp", LocalDateTime.now());
+            
+            response.setHeader(HttpHeaders.CONNECTION, "close");
+            response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), error);
+            return;
+        }
+        
+        filterChain.doFilter(request, response);
+    }
+}
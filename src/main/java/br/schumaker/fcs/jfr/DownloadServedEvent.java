@@ -0,0 +1,37 @@
+package br.schumaker.fcs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans looking up a converted result for download. The body is streamed
+ * after the event ends.
+ */
+@Name("br.schumaker.fcs.DownloadServed")
+@Label("Download Served")
+@Category({"File Conversion", "Jobs"})
+@StackTrace(false)
+public class DownloadServedEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("Size")
+    @DataAmount
+    long bytes;
+    
+    @Label("From Memory")
+    boolean fromMemory;
+    
+    public void commit(String jobId, long bytes, boolean fromMemory) {
+        if (shouldCommit()) {
+            this.jobId = jobId;
+            this.bytes = bytes;
+            this.fromMemory = fromMemory;
+            commit();
+        }
+    }
+}
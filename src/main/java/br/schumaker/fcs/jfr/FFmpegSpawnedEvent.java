@@ -0,0 +1,40 @@
+package br.schumaker.fcs.jfr;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans starting a job's FFmpeg process, which forks the JVM
+ */
+@Name("br.schumaker.fcs.FFmpegSpawned")
+@Label("FFmpeg Spawned")
+@Category({"File Conversion", "FFmpeg"})
+@StackTrace(false)
+public class FFmpegSpawnedEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("PID")
+    long pid;
+    
+    @Label("Threads")
+    int threads;
+    
+    @Label("In Memory")
+    boolean inMemory;
+    
+    public void commit(ConversionJob job, Process process) {
+        if (shouldCommit()) {
+            jobId = job.getJobId();
+            pid = process.pid();
+            threads = job.getThreads() != null ? job.getThreads() : 0;
+            inMemory = job.isInMemory();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package br.schumaker.fcs.jfr;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("br.schumaker.fcs.FirstProgress")
+@Label("First Progress")
+@Category({"File Conversion", "FFmpeg"})
+@StackTrace(false)
+public class FirstProgressEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("Since Spawn")
+    @Description("Time from starting FFmpeg until it reported its first encoded frame")
+    @Timespan
+    long sinceSpawn;
+    
+    /**
+     * @param spawnedAt System.nanoTime() when the process was started
+     */
+    public static void emit(ConversionJob job, long spawnedAt) {
+        FirstProgressEvent event = new FirstProgressEvent();
+        if (event.shouldCommit()) {
+            event.jobId = job.getJobId();
+            event.sinceSpawn = System.nanoTime() - spawnedAt;
+            event.commit();
+        }
+    }
+}
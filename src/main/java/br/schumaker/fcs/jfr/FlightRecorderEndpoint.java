@@ -0,0 +1,259 @@
+package br.schumaker.fcs.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Captures Flight Recorder recordings on demand. A recording runs for a fixed
+ * time with the bundled conversion profile (or a JDK profile) and is written
+ * to the recordings directory when it ends or is stopped, then closed so the
+ * JVM lets go of it. Until then the conversion events cost next to nothing:
+ * an event that no recording has enabled is dropped before any of its fields
+ * are filled in.
+ */
+@Component
+@WebEndpoint(id = "flightrecorder")
+public class FlightRecorderEndpoint implements FlightRecorderListener {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorderEndpoint.class);
+    
+    private static final String RECORDING_NAME = "fcs-on-demand";
+    private static final String BUNDLED_PROFILE = "conversion";
+    private static final String BUNDLED_PROFILE_RESOURCE = "/jfr/conversion.jfc";
+    private static final String FILE_PREFIX = "conversion-";
+    private static final String FILE_SUFFIX = ".jfr";
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    @Value("${app.jfr.dir:./recordings}")
+    private String recordingDir;
+    
+    @Value("${app.jfr.default-duration-seconds:60}")
+    private long defaultDurationSeconds;
+    
+    @Value("${app.jfr.max-duration-seconds:600}")
+    private long maxDurationSeconds;
+    
+    @Value("${app.jfr.max-recordings:10}")
+    private int maxRecordings;
+    
+    @PostConstruct
+    public void addListener() {
+        if (FlightRecorder.isAvailable()) {
+            FlightRecorder.addListener(this);
+        }
+    }
+    
+    @PreDestroy
+    public void removeListener() {
+        if (FlightRecorder.isAvailable()) {
+            FlightRecorder.removeListener(this);
+        }
+    }
+    
+    /**
+     * Closes on-demand recordings once stopped; by then they have been
+     * written out, and until closed every one stays listed for the life of
+     * the JVM
+     */
+    @Override
+    public void recordingStateChanged(Recording recording) {
+        if (RECORDING_NAME.equals(recording.getName()) && recording.getState() == RecordingState.STOPPED) {
+            recording.close();
+        }
+    }
+    
+    /**
+     * Lists the recordings of this JVM, including ones started elsewhere
+     */
+    @ReadOperation
+    public Map<String, Object> recordings() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("available", FlightRecorder.isAvailable());
+        result.put("recordings", FlightRecorder.isAvailable()
+                ? FlightRecorder.getFlightRecorder().getRecordings().stream().map(this::describe).toList()
+                : List.of());
+        return result;
+    }
+    
+    /**
+     * Starts a recording that ends by itself after the given duration. Only
+     * one on-demand recording runs at a time.
+     *
+     * @param profile "conversion" for the bundled profile, or the name of a JDK
+     *                profile such as "default" or "profile"
+     */
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> start(@Nullable Long durationSeconds, @Nullable String profile) {
+        if (!FlightRecorder.isAvailable()) {
+            return error(WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE, "Flight Recorder is not available in this JVM");
+        }
+        
+        long seconds = durationSeconds != null ? durationSeconds : defaultDurationSeconds;
+        if (seconds <= 0 || seconds > maxDurationSeconds) {
+            return error(WebEndpointResponse.STATUS_BAD_REQUEST,
+                    "Duration must be between 1 and " + maxDurationSeconds + " seconds");
+        }
+        
+        synchronized (this) {
+            boolean running = FlightRecorder.getFlightRecorder().getRecordings().stream()
+                    .anyMatch(recording -> RECORDING_NAME.equals(recording.getName())
+                            && recording.getState() != RecordingState.STOPPED
+                            && recording.getState() != RecordingState.CLOSED);
+            if (running) {
+                return error(409, "An on-demand recording is already running");
+            }
+            
+            Configuration configuration;
+            try {
+                configuration = loadConfiguration(profile != null ? profile : BUNDLED_PROFILE);
+            } catch (IOException | ParseException e) {
+                return error(WebEndpointResponse.STATUS_BAD_REQUEST, "Unknown or invalid profile: " + profile);
+            }
+            
+            try {
+                Path dir = Paths.get(recordingDir);
+                Files.createDirectories(dir);
+                pruneRecordings(dir);
+                Path destination = dir.resolve(FILE_PREFIX + LocalDateTime.now().format(FILE_TIMESTAMP) + FILE_SUFFIX);
+                
+                Recording recording = new Recording(configuration);
+                recording.setName(RECORDING_NAME);
+                recording.setToDisk(true);
+                recording.setDuration(Duration.ofSeconds(seconds));
+                recording.setDestination(destination);
+                recording.start();
+                
+                logger.info("Started recording {} for {}s with profile {} into {}", recording.getId(), seconds,
+                        configuration.getName(), destination);
+                return new WebEndpointResponse<>(describe(recording));
+            } catch (IOException e) {
+                logger.error("Failed to start recording: {}", e.getMessage());
+                return error(WebEndpointResponse.STATUS_INTERNAL_SERVER_ERROR, "Failed to start recording");
+            }
+        }
+    }
+    
+    /**
+     * Stops a recording early; one with a destination is written out. An
+     * on-demand recording is closed as well.
+     */
+    @DeleteOperation
+    public WebEndpointResponse<Map<String, Object>> stop(@Selector long id) {
+        if (!FlightRecorder.isAvailable()) {
+            return error(WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE, "Flight Recorder is not available in this JVM");
+        }
+        
+        Recording recording = FlightRecorder.getFlightRecorder().getRecordings().stream()
+                .filter(candidate -> candidate.getId() == id)
+                .findFirst()
+                .orElse(null);
+        if (recording == null) {
+            return error(WebEndpointResponse.STATUS_NOT_FOUND, "No recording with id " + id);
+        }
+        
+        if (recording.getState() == RecordingState.RUNNING || recording.getState() == RecordingState.DELAYED) {
+            recording.stop();
+            logger.info("Stopped recording {} into {}", id, recording.getDestination());
+        }
+        if (RECORDING_NAME.equals(recording.getName())) {
+            // Already done by the listener when it stopped; a no-op then
+            recording.close();
+        }
+        return new WebEndpointResponse<>(describe(recording));
+    }
+    
+    /**
+     * Deletes the oldest recordings so that, with the one about to start, no
+     * more than app.jfr.max-recordings are kept. The timestamped names sort
+     * by age.
+     */
+    private void pruneRecordings(Path dir) throws IOException {
+        List<Path> recordings;
+        try (Stream<Path> files = Files.list(dir)) {
+            recordings = files
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+        
+        int excess = recordings.size() - Math.max(maxRecordings - 1, 0);
+        for (int i = 0; i < excess; i++) {
+            try {
+                Files.deleteIfExists(recordings.get(i));
+                logger.info("Deleted old recording {}", recordings.get(i));
+            } catch (IOException e) {
+                logger.warn("Failed to delete old recording {}: {}", recordings.get(i), e.getMessage());
+            }
+        }
+    }
+    
+    private Configuration loadConfiguration(String profile) throws IOException, ParseException {
+        if (!BUNDLED_PROFILE.equals(profile)) {
+            return Configuration.getConfiguration(profile);
+        }
+        
+        try (InputStream in = getClass().getResourceAsStream(BUNDLED_PROFILE_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Missing " + BUNDLED_PROFILE_RESOURCE);
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                return Configuration.create(reader);
+            }
+        }
+    }
+    
+    private Map<String, Object> describe(Recording recording) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("id", recording.getId());
+        info.put("name", recording.getName());
+        info.put("state", recording.getState().name());
+        info.put("startTime", recording.getStartTime() != null ? recording.getStartTime().toString() : null);
+        info.put("durationSeconds", recording.getDuration() != null ? recording.getDuration().toSeconds() : null);
+        info.put("destination", recording.getDestination() != null ? recording.getDestination().toString() : null);
+        return info;
+    }
+    
+    private WebEndpointResponse<Map<String, Object>> error(int status, String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("message", message);
+        error.put("timestamp", String.valueOf(System.currentTimeMillis()));
+        return new WebEndpointResponse<>(error, status);
+    }
+}
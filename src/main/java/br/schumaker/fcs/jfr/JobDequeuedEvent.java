@@ -0,0 +1,34 @@
+package br.schumaker.fcs.jfr;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("br.schumaker.fcs.JobDequeued")
+@Label("Job Dequeued")
+@Category({"File Conversion", "Jobs"})
+@StackTrace(false)
+public class JobDequeuedEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("Waited")
+    @Description("Time since the job was created, covering the upload and the time spent queued or held")
+    @Timespan(Timespan.MILLISECONDS)
+    long waited;
+    
+    public static void emit(ConversionJob job) {
+        JobDequeuedEvent event = new JobDequeuedEvent();
+        if (event.shouldCommit()) {
+            event.jobId = job.getJobId();
+            event.waited = System.currentTimeMillis() - job.getCreatedAtMillis();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package br.schumaker.fcs.jfr;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("br.schumaker.fcs.JobEnqueued")
+@Label("Job Enqueued")
+@Category({"File Conversion", "Jobs"})
+@StackTrace(false)
+public class JobEnqueuedEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("Media Class")
+    String mediaClass;
+    
+    @Label("Target Format")
+    String targetFormat;
+    
+    @Label("Input Size")
+    @DataAmount
+    long inputBytes;
+    
+    @Label("Queue Depth")
+    @Description("Jobs already waiting when this one was queued")
+    int queueDepth;
+    
+    public static void emit(ConversionJob job, int queueDepth) {
+        JobEnqueuedEvent event = new JobEnqueuedEvent();
+        if (event.shouldCommit()) {
+            event.jobId = job.getJobId();
+            event.mediaClass = job.getInputMediaClass() != null ? job.getInputMediaClass().name() : null;
+            event.targetFormat = job.getTargetFormat();
+            event.inputBytes = job.getOriginalFileSize() != null ? job.getOriginalFileSize() : 0;
+            event.queueDepth = queueDepth;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package br.schumaker.fcs.jfr;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobState;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("br.schumaker.fcs.JobFinished")
+@Label("Job Finished")
+@Category({"File Conversion", "Jobs"})
+@StackTrace(false)
+public class JobFinishedEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("Status")
+    String status;
+    
+    @Label("Encoder")
+    String encoder;
+    
+    @Label("Preset")
+    String preset;
+    
+    @Label("Input Size")
+    @DataAmount
+    long inputBytes;
+    
+    @Label("Output Size")
+    @DataAmount
+    long outputBytes;
+    
+    @Label("Queued")
+    @Timespan(Timespan.MILLISECONDS)
+    long queued;
+    
+    @Label("Run Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long runTime;
+    
+    @Label("Error Message")
+    String errorMessage;
+    
+    /**
+     * @param state the terminal state the job moved to
+     */
+    public static void emit(ConversionJob job, JobState state) {
+        JobFinishedEvent event = new JobFinishedEvent();
+        if (event.shouldCommit()) {
+            long startedAt = state.getStartedAtMillis();
+            event.jobId = job.getJobId();
+            event.status = state.getStatus().name();
+            event.encoder = job.getEncoder();
+            event.preset = state.getPreset();
+            event.inputBytes = job.getOriginalFileSize() != null ? job.getOriginalFileSize() : 0;
+            event.outputBytes = state.getConvertedFileSize() != null ? state.getConvertedFileSize() : 0;
+            event.queued = startedAt == 0 ? 0 : startedAt - job.getCreatedAtMillis();
+            event.runTime = startedAt == 0 ? 0 : state.getCompletedAtMillis() - startedAt;
+            event.errorMessage = state.getErrorMessage();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package br.schumaker.fcs.jfr;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans a received upload from sniffing its type until it is saved to the
+ * upload directory or loaded into a pooled buffer
+ */
+@Name("br.schumaker.fcs.UploadSaved")
+@Label("Upload Saved")
+@Category({"File Conversion", "Jobs"})
+@StackTrace(false)
+public class UploadSavedEvent extends jdk.jfr.Event {
+    
+    @Label("Job ID")
+    String jobId;
+    
+    @Label("Input Size")
+    @DataAmount
+    long inputBytes;
+    
+    @Label("In Memory")
+    @Description("Whether the input was kept in a pooled buffer instead of a file")
+    boolean inMemory;
+    
+    public void commit(ConversionJob job) {
+        if (shouldCommit()) {
+            jobId = job.getJobId();
+            inputBytes = job.getOriginalFileSize() != null ? job.getOriginalFileSize() : 0;
+            inMemory = job.isInMemory();
+            commit();
+        }
+    }
+}
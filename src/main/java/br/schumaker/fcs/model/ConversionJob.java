@@ -1,31 +1,131 @@
 package br.schumaker.fcs.model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.LocalDateTime;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
+/**
+ * A conversion job. Fields describing the request are set before the job is
+ * published to other threads and not changed afterwards; everything that
+ * changes while the job runs lives in an immutable {@link JobState} that is
+ * replaced atomically.
+ * <p>
+ * Many finished jobs are kept around, so the representation is compact:
+ * times are epoch milliseconds, numbers are primitives with a sentinel for
+ * "unset" (0 for sizes and dimensions, NaN for seconds), the small set of
+ * format, quality and mode strings is interned, and file paths are derived
+ * from the job ID through {@link JobPaths} instead of being stored. Getters
+ * still return boxed values and nulls for unset fields.
+ */
 public class ConversionJob {
-    private String jobId;
-    private String status;
+    private static final VarHandle STATE;
+    private static final VarHandle INPUT_BUFFER;
+    
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATE = lookup.findVarHandle(ConversionJob.class, "state", JobState.class);
+            INPUT_BUFFER = lookup.findVarHandle(ConversionJob.class, "inputBuffer", byte[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private final String jobId;
+    private volatile JobState state;
+    private volatile JobStateListener stateListener;
+    private JobPaths paths;
     private String originalFileName;
-    private String originalFilePath;
-    private String convertedFileName;
-    private String convertedFilePath;
+    private String externalInputPath; // input read in place from a shared volume; never deleted
     private String originalFormat;
     private String targetFormat;
+    private MediaClass inputMediaClass;
     private String quality;
-    private Integer width;
-    private Integer height;
-    private Integer bitrate;
-    private LocalDateTime createdAt;
-    private LocalDateTime completedAt;
-    private String errorMessage;
-    private Long originalFileSize;
-    private Long convertedFileSize;
-
-    public ConversionJob() {}
+    private int width;
+    private int height;
+    private int bitrate;
+    private volatile int sourceWidth;
+    private volatile int sourceHeight;
+    private final long createdAt;
+    private long originalFileSize;
+    private volatile long lastProgressAt;
+    private volatile long heldSince; // first time the job waited for output space; 0 if it never did
+    private volatile double inputDurationSeconds = Double.NaN;
+    private volatile double progressSeconds = Double.NaN;
+    private volatile int threads;
+    private volatile String encoder; // video encoder used, or "cpu" for the software codecs
+    private boolean inMemory; // input piped to FFmpeg from a pooled buffer, output captured from stdout
+    private volatile byte[] inputBuffer;
+    private int inputLength;
+    private volatile long deadline;
+    private String slaClass; // interactive, standard, batch
+    private int priority; // 0-9; higher runs first and may suspend lower ones
+    private String clientId;
+    private String callbackUrl;
+    private boolean callbackProgress;
+    private double clipStart = Double.NaN; // seconds into the input; unset converts from the beginning
+    private double clipDuration = Double.NaN; // unset converts to the end
+    private String cutMode; // accurate (re-encode) or copy (stream copy from the preceding keyframe)
+    private volatile double actualClipStart = Double.NaN;
+    private volatile double actualClipEnd = Double.NaN;
+    private int waveformPeaksPerSecond; // 0 when no waveform was asked for
+    
     public ConversionJob(String jobId) {
         this.jobId = jobId;
-        this.status = "PENDING";
-        this.createdAt = LocalDateTime.now();
+        this.state = JobState.initial(JobStatus.PENDING);
+        this.createdAt = System.currentTimeMillis();
+    }
+    
+    /**
+     * Current state snapshot
+     */
+    public JobState getState() {
+        return state;
+    }
+    
+    /**
+     * Applies an update to the current state and swaps it in with the next
+     * version, retrying if another thread changed the state in between
+     *
+     * @return the new state
+     */
+    public JobState updateState(UnaryOperator<JobState> update) {
+        return transition(current -> true, update);
+    }
+    
+    /**
+     * Like {@link #updateState}, but only when the current state satisfies the guard
+     *
+     * @return the new state, or null if the guard rejected the current state
+     */
+    public JobState transition(Predicate<JobState> guard, UnaryOperator<JobState> update) {
+        while (true) {
+            JobState current = state;
+            if (!guard.test(current)) {
+                return null;
+            }
+            JobState next = update.apply(current).withVersion(current.getVersion() + 1);
+            if (STATE.compareAndSet(this, current, next)) {
+                JobStateListener listener = stateListener;
+                if (listener != null) {
+                    listener.onStateChange(this, current, next);
+                }
+                return next;
+            }
+        }
+    }
+    
+    public void setStateListener(JobStateListener stateListener) {
+        this.stateListener = stateListener;
+    }
+    
+    /**
+     * Sets where the job's files are derived from; set once when the job is created
+     */
+    public void setPaths(JobPaths paths) {
+        this.paths = paths;
     }
     
     // Getters and Setters
@@ -33,16 +133,8 @@ public class ConversionJob {
         return jobId;
     }
     
-    public void setJobId(String jobId) {
-        this.jobId = jobId;
-    }
-    
-    public String getStatus() {
-        return status;
-    }
-    
-    public void setStatus(String status) {
-        this.status = status;
+    public JobStatus getStatus() {
+        return state.getStatus();
     }
     
     public String getOriginalFileName() {
@@ -53,28 +145,32 @@ public class ConversionJob {
         this.originalFileName = originalFileName;
     }
     
+    /**
+     * The input FFmpeg reads: the shared-volume file of an external input, or
+     * the uploaded copy in the upload directory
+     *
+     * @return null for an in-memory job
+     */
     public String getOriginalFilePath() {
-        return originalFilePath;
-    }
-    
-    public void setOriginalFilePath(String originalFilePath) {
-        this.originalFilePath = originalFilePath;
+        if (externalInputPath != null) {
+            return externalInputPath;
+        }
+        return inMemory ? null : paths.inputPath(jobId, originalFileName).toString();
     }
     
+    /**
+     * Download name: the input's base name with the target extension
+     */
     public String getConvertedFileName() {
-        return convertedFileName;
-    }
-    
-    public void setConvertedFileName(String convertedFileName) {
-        this.convertedFileName = convertedFileName;
+        String name = originalFileName;
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        name = name.substring(slash + 1);
+        int dot = name.lastIndexOf('.');
+        return (dot >= 0 ? name.substring(0, dot) : name) + "_converted." + targetFormat;
     }
     
     public String getConvertedFilePath() {
-        return convertedFilePath;
-    }
-    
-    public void setConvertedFilePath(String convertedFilePath) {
-        this.convertedFilePath = convertedFilePath;
+        return paths.outputPath(jobId, targetFormat).toString();
     }
     
     public String getOriginalFormat() {
@@ -82,7 +178,7 @@ public class ConversionJob {
     }
     
     public void setOriginalFormat(String originalFormat) {
-        this.originalFormat = originalFormat;
+        this.originalFormat = intern(originalFormat);
     }
     
     public String getTargetFormat() {
@@ -90,7 +186,15 @@ public class ConversionJob {
     }
     
     public void setTargetFormat(String targetFormat) {
-        this.targetFormat = targetFormat;
+        this.targetFormat = intern(targetFormat);
+    }
+    
+    public MediaClass getInputMediaClass() {
+        return inputMediaClass;
+    }
+    
+    public void setInputMediaClass(MediaClass inputMediaClass) {
+        this.inputMediaClass = inputMediaClass;
     }
     
     public String getQuality() {
@@ -98,70 +202,360 @@ public class ConversionJob {
     }
     
     public void setQuality(String quality) {
-        this.quality = quality;
+        this.quality = intern(quality);
     }
     
     public Integer getWidth() {
-        return width;
+        return boxed(width);
     }
     
     public void setWidth(Integer width) {
-        this.width = width;
+        this.width = unboxed(width);
     }
     
     public Integer getHeight() {
-        return height;
+        return boxed(height);
     }
     
     public void setHeight(Integer height) {
-        this.height = height;
+        this.height = unboxed(height);
     }
     
     public Integer getBitrate() {
-        return bitrate;
+        return boxed(bitrate);
     }
     
     public void setBitrate(Integer bitrate) {
-        this.bitrate = bitrate;
+        this.bitrate = unboxed(bitrate);
     }
     
-    public LocalDateTime getCreatedAt() {
-        return createdAt;
+    public Integer getSourceWidth() {
+        return boxed(sourceWidth);
     }
     
-    public void setCreatedAt(LocalDateTime createdAt) {
-        this.createdAt = createdAt;
+    public void setSourceWidth(Integer sourceWidth) {
+        this.sourceWidth = unboxed(sourceWidth);
     }
     
-    public LocalDateTime getCompletedAt() {
-        return completedAt;
+    public Integer getSourceHeight() {
+        return boxed(sourceHeight);
+    }
+    
+    public void setSourceHeight(Integer sourceHeight) {
+        this.sourceHeight = unboxed(sourceHeight);
+    }
+    
+    public LocalDateTime getCreatedAt() {
+        return JobState.toDateTime(createdAt);
     }
     
-    public void setCompletedAt(LocalDateTime completedAt) {
-        this.completedAt = completedAt;
+    public long getCreatedAtMillis() {
+        return createdAt;
+    }
+    
+    public LocalDateTime getCompletedAt() {
+        return state.getCompletedAt();
     }
     
     public String getErrorMessage() {
-        return errorMessage;
+        return state.getErrorMessage();
     }
     
     public void setErrorMessage(String errorMessage) {
-        this.errorMessage = errorMessage;
+        updateState(current -> current.withErrorMessage(errorMessage));
     }
     
     public Long getOriginalFileSize() {
-        return originalFileSize;
+        return originalFileSize == 0 ? null : originalFileSize;
     }
     
     public void setOriginalFileSize(Long originalFileSize) {
-        this.originalFileSize = originalFileSize;
+        this.originalFileSize = originalFileSize != null ? originalFileSize : 0;
     }
     
     public Long getConvertedFileSize() {
-        return convertedFileSize;
+        return state.getConvertedFileSize();
     }
     
     public void setConvertedFileSize(Long convertedFileSize) {
-        this.convertedFileSize = convertedFileSize;
+        updateState(current -> current.withConvertedFileSize(convertedFileSize));
+    }
+    
+    public LocalDateTime getStartedAt() {
+        return state.getStartedAt();
+    }
+    
+    public LocalDateTime getLastProgressAt() {
+        return JobState.toDateTime(lastProgressAt);
+    }
+    
+    public long getLastProgressAtMillis() {
+        return lastProgressAt;
+    }
+    
+    public void setLastProgressAt(long lastProgressAt) {
+        this.lastProgressAt = lastProgressAt;
+    }
+    
+    public long getHeldSince() {
+        return heldSince;
+    }
+    
+    public void setHeldSince(long heldSince) {
+        this.heldSince = heldSince;
+    }
+    
+    public Double getInputDurationSeconds() {
+        return boxed(inputDurationSeconds);
+    }
+    
+    public void setInputDurationSeconds(Double inputDurationSeconds) {
+        this.inputDurationSeconds = unboxed(inputDurationSeconds);
+    }
+    
+    public Double getProgressSeconds() {
+        return boxed(progressSeconds);
+    }
+    
+    public void setProgressSeconds(Double progressSeconds) {
+        this.progressSeconds = unboxed(progressSeconds);
+    }
+    
+    public Integer getThreads() {
+        return boxed(threads);
+    }
+    
+    public void setThreads(Integer threads) {
+        this.threads = unboxed(threads);
+    }
+    
+    public boolean isExternalInput() {
+        return externalInputPath != null;
+    }
+    
+    /**
+     * Marks the job as reading its input in place from the given file
+     */
+    public void setExternalInputPath(String externalInputPath) {
+        this.externalInputPath = externalInputPath;
+    }
+    
+    public boolean isInMemory() {
+        return inMemory;
+    }
+    
+    /**
+     * Marks the job as converted in memory, with its input in the first
+     * length bytes of a pooled buffer
+     */
+    public void setInputBuffer(byte[] buffer, int length) {
+        this.inMemory = true;
+        this.inputLength = length;
+        this.inputBuffer = buffer;
+    }
+    
+    public byte[] getInputBuffer() {
+        return inputBuffer;
+    }
+    
+    public int getInputLength() {
+        return inputLength;
+    }
+    
+    /**
+     * Detaches the input buffer so it is returned to its pool exactly once
+     *
+     * @return the buffer, or null if it was already taken
+     */
+    public byte[] takeInputBuffer() {
+        return (byte[]) INPUT_BUFFER.getAndSet(this, (byte[]) null);
+    }
+    
+    public LocalDateTime getDeadline() {
+        return JobState.toDateTime(deadline);
+    }
+    
+    public long getDeadlineMillis() {
+        return deadline;
+    }
+    
+    public void setDeadline(LocalDateTime deadline) {
+        this.deadline = JobState.toMillis(deadline);
+    }
+    
+    public String getSlaClass() {
+        return slaClass;
+    }
+    
+    public void setSlaClass(String slaClass) {
+        this.slaClass = intern(slaClass);
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public String getClientId() {
+        return clientId;
+    }
+    
+    public void setClientId(String clientId) {
+        // A client usually has many jobs
+        this.clientId = intern(clientId);
+    }
+    
+    public String getCallbackUrl() {
+        return callbackUrl;
+    }
+    
+    public void setCallbackUrl(String callbackUrl) {
+        this.callbackUrl = callbackUrl;
+    }
+    
+    public boolean isCallbackProgress() {
+        return callbackProgress;
+    }
+    
+    public void setCallbackProgress(boolean callbackProgress) {
+        this.callbackProgress = callbackProgress;
+    }
+    
+    public Double getClipStart() {
+        return boxed(clipStart);
+    }
+    
+    public void setClipStart(Double clipStart) {
+        this.clipStart = unboxed(clipStart);
+    }
+    
+    public Double getClipDuration() {
+        return boxed(clipDuration);
+    }
+    
+    public void setClipDuration(Double clipDuration) {
+        this.clipDuration = unboxed(clipDuration);
+    }
+    
+    public String getCutMode() {
+        return cutMode;
+    }
+    
+    public void setCutMode(String cutMode) {
+        this.cutMode = intern(cutMode);
+    }
+    
+    public boolean isCopyMode() {
+        return "copy".equals(cutMode);
+    }
+    
+    public Double getActualClipStart() {
+        return boxed(actualClipStart);
+    }
+    
+    public void setActualClipStart(Double actualClipStart) {
+        this.actualClipStart = unboxed(actualClipStart);
+    }
+    
+    public Double getActualClipEnd() {
+        return boxed(actualClipEnd);
+    }
+    
+    public void setActualClipEnd(Double actualClipEnd) {
+        this.actualClipEnd = unboxed(actualClipEnd);
+    }
+    
+    public Integer getWaveformPeaksPerSecond() {
+        return boxed(waveformPeaksPerSecond);
+    }
+    
+    public void setWaveformPeaksPerSecond(Integer waveformPeaksPerSecond) {
+        this.waveformPeaksPerSecond = unboxed(waveformPeaksPerSecond);
+    }
+    
+    /**
+     * Whether the audio is also decoded to PCM and reduced to waveform peaks
+     * while the output is encoded
+     */
+    public boolean isWaveform() {
+        return waveformPeaksPerSecond > 0;
+    }
+    
+    public boolean isOutputEvicted() {
+        return state.isOutputEvicted();
+    }
+    
+    /**
+     * Marks the result as gone. This is a state change, so it bumps the
+     * version that ETags and batch status checks compare.
+     */
+    public void evictOutput() {
+        transition(current -> !current.isOutputEvicted(), JobState::evictOutput);
+    }
+    
+    /**
+     * Seconds of media the conversion produces: the clip, limited by the end
+     * of the input, or the whole input
+     *
+     * @return null if neither the input duration nor a clip duration is known
+     */
+    public Double getOutputDurationSeconds() {
+        double inputDuration = inputDurationSeconds;
+        if (Double.isNaN(inputDuration)) {
+            return boxed(clipDuration);
+        }
+        double remaining = Math.max(0, inputDuration - (Double.isNaN(clipStart) ? 0 : clipStart));
+        return Double.isNaN(clipDuration) ? remaining : Math.min(clipDuration, remaining);
+    }
+    
+    public String getPreset() {
+        return state.getPreset();
+    }
+    
+    public void setPreset(String preset) {
+        updateState(current -> current.withPreset(preset));
+    }
+    
+    public Double getEstimatedRunSeconds() {
+        return state.getEstimatedRunSeconds();
+    }
+    
+    public void setEstimatedRunSeconds(Double estimatedRunSeconds) {
+        updateState(current -> current.withEstimatedRunSeconds(estimatedRunSeconds));
+    }
+    
+    public String getEncoder() {
+        return encoder;
+    }
+    
+    public void setEncoder(String encoder) {
+        this.encoder = intern(encoder);
+    }
+    
+    public boolean isTerminal() {
+        return state.isTerminal();
+    }
+    
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+    
+    private static Integer boxed(int value) {
+        return value == 0 ? null : value;
+    }
+    
+    private static int unboxed(Integer value) {
+        return value != null ? value : 0;
+    }
+    
+    private static Double boxed(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+    
+    private static double unboxed(Double value) {
+        return value != null ? value : Double.NaN;
     }
 }
@@ -0,0 +1,20 @@
+package br.schumaker.fcs.model;
+
+import java.nio.file.Path;
+
+/**
+ * Derives where a job's files live from its ID, so jobs do not each store
+ * full path strings that repeat the same directories
+ */
+public interface JobPaths {
+    
+    /**
+     * Where an uploaded input is stored
+     */
+    Path inputPath(String jobId, String originalFileName);
+    
+    /**
+     * Final location of a job's result
+     */
+    Path outputPath(String jobId, String targetFormat);
+}
@@ -0,0 +1,212 @@
+package br.schumaker.fcs.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Immutable snapshot of the parts of a job that change while it runs. A job
+ * swaps in a new snapshot for every change, so readers always see a consistent
+ * set of fields without locking, and the version tells them whether anything
+ * changed since their last read. Times are epoch milliseconds (0 when unset)
+ * and numbers are primitives, so a snapshot is a single small object.
+ */
+public final class JobState {
+    private final long version;
+    private final JobStatus status;
+    private final long startedAt;
+    private final long completedAt;
+    private final String errorMessage;
+    private final long convertedFileSize; // -1 until known
+    private final String preset;
+    private final double estimatedRunSeconds; // NaN until predicted
+    private final long suspendedAt; // 0 unless the FFmpeg process is stopped
+    private final long suspendedMillis; // ended suspensions
+    private final boolean outputEvicted; // result deleted after the job ended
+    
+    private JobState(long version, JobStatus status, long startedAt, long completedAt,
+            String errorMessage, long convertedFileSize, String preset, double estimatedRunSeconds,
+            long suspendedAt, long suspendedMillis, boolean outputEvicted) {
+        this.version = version;
+        this.status = status;
+        this.startedAt = startedAt;
+        this.completedAt = completedAt;
+        this.errorMessage = errorMessage;
+        this.convertedFileSize = convertedFileSize;
+        this.preset = preset;
+        this.estimatedRunSeconds = estimatedRunSeconds;
+        this.suspendedAt = suspendedAt;
+        this.suspendedMillis = suspendedMillis;
+        this.outputEvicted = outputEvicted;
+    }
+    
+    public static JobState initial(JobStatus status) {
+        return new JobState(1, status, 0, 0, null, -1, null, Double.NaN, 0, 0, false);
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public JobStatus getStatus() {
+        return status;
+    }
+    
+    public LocalDateTime getStartedAt() {
+        return toDateTime(startedAt);
+    }
+    
+    public long getStartedAtMillis() {
+        return startedAt;
+    }
+    
+    public LocalDateTime getCompletedAt() {
+        return toDateTime(completedAt);
+    }
+    
+    public long getCompletedAtMillis() {
+        return completedAt;
+    }
+    
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+    
+    public Long getConvertedFileSize() {
+        return convertedFileSize < 0 ? null : convertedFileSize;
+    }
+    
+    public String getPreset() {
+        return preset;
+    }
+    
+    public Double getEstimatedRunSeconds() {
+        return Double.isNaN(estimatedRunSeconds) ? null : estimatedRunSeconds;
+    }
+    
+    public boolean isTerminal() {
+        return status.isTerminal();
+    }
+    
+    public boolean isSuspended() {
+        return suspendedAt != 0;
+    }
+    
+    public LocalDateTime getSuspendedAt() {
+        return toDateTime(suspendedAt);
+    }
+    
+    /**
+     * Time the job's FFmpeg process has spent stopped, including a suspension
+     * still going on
+     *
+     * @param now epoch milliseconds
+     */
+    public long getSuspendedMillis(long now) {
+        return suspendedMillis + (suspendedAt != 0 ? Math.max(0, now - suspendedAt) : 0);
+    }
+    
+    /**
+     * Whether the result was deleted to stay within the output quota or moved
+     * out of the output directory
+     */
+    public boolean isOutputEvicted() {
+        return outputEvicted;
+    }
+    
+    /**
+     * @throws IllegalStateException if the current status cannot move to the given one
+     */
+    public JobState withStatus(JobStatus status) {
+        checkTransition(status);
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, suspendedAt, suspendedMillis, outputEvicted);
+    }
+    
+    /**
+     * @param startedAt epoch milliseconds, or 0 to clear
+     */
+    public JobState withStartedAt(long startedAt) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, suspendedAt, suspendedMillis, outputEvicted);
+    }
+    
+    public JobState withErrorMessage(String errorMessage) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, suspendedAt, suspendedMillis, outputEvicted);
+    }
+    
+    public JobState withConvertedFileSize(Long convertedFileSize) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage,
+                convertedFileSize != null ? convertedFileSize : -1, preset, estimatedRunSeconds, suspendedAt,
+                suspendedMillis, outputEvicted);
+    }
+    
+    public JobState withPreset(String preset) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize,
+                preset != null ? preset.intern() : null, estimatedRunSeconds, suspendedAt,
+                suspendedMillis, outputEvicted);
+    }
+    
+    public JobState withEstimatedRunSeconds(Double estimatedRunSeconds) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds != null ? estimatedRunSeconds : Double.NaN, suspendedAt, suspendedMillis,
+                outputEvicted);
+    }
+    
+    /**
+     * Terminal transition: sets the status and completion time together
+     *
+     * @param completedAt epoch milliseconds
+     * @throws IllegalStateException if the job is already terminal
+     */
+    public JobState finish(JobStatus status, long completedAt) {
+        checkTransition(status);
+        // A stopped process can still be killed; its suspension ends with the job
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, 0, getSuspendedMillis(completedAt), outputEvicted);
+    }
+    
+    /**
+     * @param now epoch milliseconds
+     */
+    public JobState suspend(long now) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, suspendedAt != 0 ? suspendedAt : now, suspendedMillis, outputEvicted);
+    }
+    
+    /**
+     * @param now epoch milliseconds
+     */
+    public JobState resume(long now) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, 0, getSuspendedMillis(now), outputEvicted);
+    }
+    
+    /**
+     * Marks the result as gone, so clients polling a finished job see it change
+     */
+    public JobState evictOutput() {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, suspendedAt, suspendedMillis, true);
+    }
+    
+    JobState withVersion(long version) {
+        return new JobState(version, status, startedAt, completedAt, errorMessage, convertedFileSize, preset,
+                estimatedRunSeconds, suspendedAt, suspendedMillis, outputEvicted);
+    }
+    
+    private void checkTransition(JobStatus next) {
+        if (status != null && status != next && !status.canBecome(next)) {
+            throw new IllegalStateException("Job cannot go from " + status + " to " + next);
+        }
+    }
+    
+    static LocalDateTime toDateTime(long epochMillis) {
+        return epochMillis == 0 ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+    
+    static long toMillis(LocalDateTime dateTime) {
+        return dateTime == null ? 0 : dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
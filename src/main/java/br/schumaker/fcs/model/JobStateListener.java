@@ -0,0 +1,10 @@
+package br.schumaker.fcs.model;
+
+/**
+ * Notified after a job's state snapshot has been replaced
+ */
+@FunctionalInterface
+public interface JobStateListener {
+    
+    void onStateChange(ConversionJob job, JobState previous, JobState current);
+}
@@ -0,0 +1,42 @@
+package br.schumaker.fcs.model;
+
+/**
+ * Lifecycle of a conversion job. A job waits as PENDING, runs as PROCESSING
+ * and ends in one of the terminal statuses; a running job only goes back to
+ * PENDING when its remote lease expires and it is requeued.
+ */
+public enum JobStatus {
+    PENDING,
+    PROCESSING,
+    COMPLETED,
+    FAILED,
+    CANCELLED;
+    
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+    
+    /**
+     * Whether a job in this status may move to the given one
+     */
+    public boolean canBecome(JobStatus next) {
+        return switch (this) {
+            case PENDING -> next == PROCESSING || next.isTerminal();
+            case PROCESSING -> next == PENDING || next.isTerminal();
+            case COMPLETED, FAILED, CANCELLED -> false;
+        };
+    }
+    
+    /**
+     * Parses a status name case-insensitively
+     *
+     * @throws IllegalArgumentException if the name is not a status
+     */
+    public static JobStatus parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown job status: " + name);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package br.schumaker.fcs.model;
+
+import java.util.Set;
+
+/**
+ * Broad class of a media input or output, used to decide which conversions
+ * make sense (an image cannot become audio).
+ */
+public enum MediaClass {
+    VIDEO(Set.of("mp4", "avi", "mov", "mkv")),
+    AUDIO(Set.of("mp3", "wav", "flac", "aac")),
+    IMAGE(Set.of("jpg", "jpeg", "png", "gif", "webp"));
+    
+    private final Set<String> targetFormats;
+    
+    MediaClass(Set<String> targetFormats) {
+        this.targetFormats = targetFormats;
+    }
+    
+    /**
+     * Media class of a supported target format, or null if the format is unknown
+     */
+    public static MediaClass ofTargetFormat(String format) {
+        if (format == null) {
+            return null;
+        }
+        String normalized = format.toLowerCase();
+        for (MediaClass mediaClass : values()) {
+            if (mediaClass.targetFormats.contains(normalized)) {
+                return mediaClass;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Whether an input of this class can be converted to the given class:
+     * video can yield video, audio tracks or frames; audio only audio;
+     * images can become images or (still or animated) video.
+     */
+    public boolean canConvertTo(MediaClass target) {
+        return switch (this) {
+            case VIDEO -> true;
+            case AUDIO -> target == AUDIO;
+            case IMAGE -> target == IMAGE || target == VIDEO;
+        };
+    }
+}
@@ -0,0 +1,191 @@
+package br.schumaker.fcs.model;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+
+/**
+ * A resumable upload in progress. Chunks are written at their offsets into a
+ * single part file; the byte ranges received so far are kept merged, and
+ * the ranges of chunks still being written are reserved so that no two
+ * writes overlap.
+ */
+public class UploadSession {
+    private final String uploadId;
+    private final String fileName;
+    private final long fileSize;
+    private final String sha256;
+    private final ConversionRequest conversionRequest;
+    private final Path partFile;
+    private final FileChannel channel;
+    private final long createdAt;
+    private volatile long lastActivityAt;
+    private volatile boolean closed;
+    
+    // Received ranges as start -> end (exclusive), non-overlapping and non-adjacent
+    private final TreeMap<Long, Long> receivedRanges = new TreeMap<>();
+    private long receivedBytes;
+    
+    // Ranges of chunks being written as start -> end (exclusive)
+    private final TreeMap<Long, Long> inFlightRanges = new TreeMap<>();
+    
+    public UploadSession(String uploadId, String fileName, long fileSize, String sha256,
+            ConversionRequest conversionRequest, Path partFile, FileChannel channel) {
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.sha256 = sha256;
+        this.conversionRequest = conversionRequest;
+        this.partFile = partFile;
+        this.channel = channel;
+        this.createdAt = System.currentTimeMillis();
+        this.lastActivityAt = createdAt;
+    }
+    
+    /**
+     * Whether [start, end) lies entirely inside an already received range
+     */
+    public synchronized boolean isReceived(long start, long end) {
+        Map.Entry<Long, Long> floor = receivedRanges.floorEntry(start);
+        return floor != null && floor.getValue() >= end;
+    }
+    
+    /**
+     * Whether [start, end) overlaps any already received byte
+     */
+    public synchronized boolean overlapsReceived(long start, long end) {
+        Map.Entry<Long, Long> floor = receivedRanges.floorEntry(start);
+        if (floor != null && floor.getValue() > start) {
+            return true;
+        }
+        Long next = receivedRanges.higherKey(start);
+        return next != null && next < end;
+    }
+    
+    /**
+     * Reserves [start, end) for a chunk about to be written
+     *
+     * @return false if it overlaps a received range or one still being written
+     */
+    public synchronized boolean beginWrite(long start, long end) {
+        if (overlapsReceived(start, end)) {
+            return false;
+        }
+        Map.Entry<Long, Long> floor = inFlightRanges.floorEntry(start);
+        if (floor != null && floor.getValue() > start) {
+            return false;
+        }
+        Long next = inFlightRanges.higherKey(start);
+        if (next != null && next < end) {
+            return false;
+        }
+        inFlightRanges.put(start, end);
+        return true;
+    }
+    
+    /**
+     * Releases the reservation of the chunk written at start, recording its
+     * range as received if it was written and verified
+     */
+    public synchronized void endWrite(long start, boolean received) {
+        Long end = inFlightRanges.remove(start);
+        if (received && end != null) {
+            addRange(start, end);
+        }
+    }
+    
+    public synchronized boolean hasWritesInFlight() {
+        return !inFlightRanges.isEmpty();
+    }
+    
+    /**
+     * Records [start, end) as received, merging with neighbouring ranges
+     */
+    public synchronized void addRange(long start, long end) {
+        long mergedStart = start;
+        long mergedEnd = end;
+        
+        Map.Entry<Long, Long> floor = receivedRanges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            mergedStart = floor.getKey();
+            mergedEnd = Math.max(mergedEnd, floor.getValue());
+        }
+        
+        Map.Entry<Long, Long> next;
+        while ((next = receivedRanges.ceilingEntry(mergedStart)) != null && next.getKey() <= mergedEnd) {
+            mergedEnd = Math.max(mergedEnd, next.getValue());
+            receivedRanges.remove(next.getKey());
+        }
+        
+        receivedRanges.put(mergedStart, mergedEnd);
+        receivedBytes = receivedRanges.entrySet().stream().mapToLong(e -> e.getValue() - e.getKey()).sum();
+    }
+    
+    public synchronized List<long[]> getReceivedRanges() {
+        List<long[]> ranges = new ArrayList<>(receivedRanges.size());
+        receivedRanges.forEach((start, end) -> ranges.add(new long[] { start, end }));
+        return ranges;
+    }
+    
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+    
+    public synchronized boolean isComplete() {
+        return receivedBytes == fileSize;
+    }
+    
+    public void touch() {
+        this.lastActivityAt = System.currentTimeMillis();
+    }
+    
+    // Getters
+    public String getUploadId() {
+        return uploadId;
+    }
+    
+    public String getFileName() {
+        return fileName;
+    }
+    
+    public long getFileSize() {
+        return fileSize;
+    }
+    
+    public String getSha256() {
+        return sha256;
+    }
+    
+    public ConversionRequest getConversionRequest() {
+        return conversionRequest;
+    }
+    
+    public Path getPartFile() {
+        return partFile;
+    }
+    
+    public FileChannel getChannel() {
+        return channel;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public long getLastActivityAt() {
+        return lastActivityAt;
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    public void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+}
@@ -1,61 +1,305 @@
 package br.schumaker.fcs.service;
 
-import java.time.LocalDateTime;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import br.schumaker.fcs.exception.InsufficientStorageException;
+import br.schumaker.fcs.jfr.JobDequeuedEvent;
+import br.schumaker.fcs.jfr.JobFinishedEvent;
 import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobState;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+
+import jakarta.annotation.PostConstruct;
 
 @Service
 public class AsyncConversionService {
     
     private static final Logger logger = LoggerFactory.getLogger(AsyncConversionService.class);
     
-    private final Map<String, ConversionJob> jobStorage = new ConcurrentHashMap<>();
-    
     @Autowired
     private FFmpegService ffmpegService;
     
+    @Autowired
+    private JobScheduler jobScheduler;
+    
+    @Autowired
+    private EncoderPresetPolicy encoderPresetPolicy;
+    
+    @Autowired
+    private MediaProbeService mediaProbeService;
+    
+    @Autowired
+    private JobIndex jobIndex;
+    
+    @Autowired
+    private WebhookDispatcher webhookDispatcher;
+    
+    @Autowired
+    private DiskSpaceService diskSpaceService;
+    
+    @Autowired
+    private InputBufferPool inputBufferPool;
+    
+    @Autowired
+    private ClientJobQuota clientJobQuota;
+    
+    @Autowired
+    private EncodeCostModel encodeCostModel;
+    
+    @Autowired
+    private StorageManager storageManager;
+    
+    private final List<Consumer<ConversionJob>> jobEndedListeners = new CopyOnWriteArrayList<>();
+    
+    @PostConstruct
+    public void registerJobProcessor() {
+        jobScheduler.setJobProcessor(this::runConversion);
+        jobScheduler.setPreemption(ffmpegService::suspend, ffmpegService::resume);
+        jobScheduler.setHeldTimeoutHandler(job -> failForStorage(job, "Output space did not become free in time"));
+    }
+    
+    /**
+     * Adds a listener told, after the service's own follow-up, that a job became terminal
+     */
+    public void addJobEndedListener(Consumer<ConversionJob> jobEndedListener) {
+        jobEndedListeners.add(jobEndedListener);
+    }
+    
     public void storeJob(ConversionJob job) {
-        jobStorage.put(job.getJobId(), job);
+        jobIndex.add(job);
     }
     
     public ConversionJob getJob(String jobId) {
-        return jobStorage.get(jobId);
+        return jobIndex.get(jobId);
     }
     
     /**
-     * Processes file conversion asynchronously
+     * Queues a job for conversion; it runs when a worker is free and no job
+     * with an earlier deadline is waiting
      */
-    @Async("conversionTaskExecutor")
     public void processConversionAsync(ConversionJob job) {
+        jobScheduler.submit(job);
+    }
+    
+    private void runConversion(ConversionJob job) {
+        JobDequeuedEvent.emit(job);
+        if (job.getStatus() != JobStatus.PENDING) {
+            // Cancelled while waiting in the queue
+            logger.info("Skipping conversion for job: {} in status {}", job.getJobId(), job.getStatus());
+            releaseInput(job);
+            return;
+        }
+        
+        probeInput(job);
+        boolean reserved;
+        try {
+            reserved = diskSpaceService.reserveOutput(job);
+        } catch (InsufficientStorageException e) {
+            failForStorage(job, e.getMessage());
+            return;
+        }
+        if (!reserved) {
+            // Output space is taken by running jobs; wait for them without holding a worker
+            jobScheduler.hold(job);
+            return;
+        }
+        
         try {
+            if (!start(job)) {
+                logger.info("Skipping conversion for job: {} in status {}", job.getJobId(), job.getStatus());
+                return;
+            }
             logger.info("Starting async conversion for job: {}", job.getJobId());
-            job.setStatus("PROCESSING");
             
             boolean success = ffmpegService.convertFile(job);
-            
-            if (success) {
-                job.setStatus("COMPLETED");
-                job.setCompletedAt(LocalDateTime.now());
-                logger.info("Conversion completed successfully for job: {}", job.getJobId());
-            } else {
-                job.setStatus("FAILED");
-                job.setCompletedAt(LocalDateTime.now());
-                logger.error("Conversion failed for job: {}", job.getJobId());
+            if (success && job.getCutMode() != null) {
+                recordCutPoints(job);
             }
+            finish(job, success);
             
         } catch (Exception e) {
             logger.error("Error processing conversion for job: {}", job.getJobId(), e);
-            job.setStatus("FAILED");
-            job.setErrorMessage("Processing error: " + e.getMessage());
-            job.setCompletedAt(LocalDateTime.now());
+            JobState failed = job.transition(state -> !state.isTerminal(),
+                    state -> state.withErrorMessage("Processing error: " + e.getMessage())
+                            .finish(JobStatus.FAILED, System.currentTimeMillis()));
+            if (failed != null) {
+                jobEnded(job);
+            }
+        } finally {
+            releaseInput(job);
+            diskSpaceService.release(job.getJobId());
+            releaseHeldThatFit();
+        }
+    }
+    
+    /**
+     * Requeues the held jobs whose estimated output fits the space free now
+     */
+    void releaseHeldThatFit() {
+        jobScheduler.releaseHeld(diskSpaceService.getAvailableOutputBytes(), diskSpaceService::estimateOutput);
+    }
+    
+    /**
+     * Moves a pending job to processing and settles how it will be encoded:
+     * the keyframe a stream copy starts from, or the preset for a video
+     * encode, and the run time estimate that follows from them
+     *
+     * @return false if the job was no longer pending
+     */
+    boolean start(ConversionJob job) {
+        JobState started = job.transition(state -> state.getStatus() == JobStatus.PENDING,
+                state -> state.withStatus(JobStatus.PROCESSING).withStartedAt(System.currentTimeMillis()));
+        if (started == null) {
+            return false;
+        }
+        
+        if (job.isCopyMode()) {
+            snapToKeyframe(job);
+        } else if (MediaClass.ofTargetFormat(job.getTargetFormat()) == MediaClass.VIDEO) {
+            job.setPreset(encoderPresetPolicy.choosePreset(job, jobScheduler.getQueueDepth(MediaClass.VIDEO)));
+        }
+        
+        // Now with the probed duration and resolution and the chosen preset
+        Double estimate = encodeCostModel.predictSeconds(job);
+        if (estimate != null) {
+            job.setEstimatedRunSeconds(estimate);
+        }
+        return true;
+    }
+    
+    /**
+     * Ends a processing job with the outcome of its encode
+     */
+    void finish(ConversionJob job, boolean success) {
+        JobStatus finalStatus = success ? JobStatus.COMPLETED : JobStatus.FAILED;
+        JobState finished = job.transition(state -> state.getStatus() == JobStatus.PROCESSING,
+                state -> state.finish(finalStatus, System.currentTimeMillis()));
+        if (finished == null) {
+            logger.info("Conversion for job: {} ended in status {}", job.getJobId(), job.getStatus());
+        } else if (success) {
+            logger.info("Conversion completed successfully for job: {}", job.getJobId());
+            // Time spent suspended by a higher-priority job is not encode time
+            long completedAt = finished.getCompletedAtMillis();
+            encodeCostModel.record(job, (completedAt - finished.getStartedAtMillis()
+                    - finished.getSuspendedMillis(completedAt)) / 1000.0);
+            storageManager.outputWritten(job.getJobId());
+            jobEnded(job);
+        } else {
+            logger.error("Conversion failed for job: {}", job.getJobId());
+            jobEnded(job);
+        }
+    }
+    
+    /**
+     * Reads duration and resolution of audio and video inputs, used for the
+     * output size estimate and the preset choice
+     */
+    void probeInput(ConversionJob job) {
+        if (job.getInputDurationSeconds() != null || job.getInputMediaClass() == MediaClass.IMAGE || job.isInMemory()) {
+            return;
+        }
+        MediaProbeService.ProbeResult probe = mediaProbeService.probe(job.getOriginalFilePath());
+        if (probe != null) {
+            job.setInputDurationSeconds(probe.durationSeconds());
+            job.setSourceWidth(probe.width());
+            job.setSourceHeight(probe.height());
+        }
+    }
+    
+    /**
+     * Follow-up of the one transition that made a job terminal
+     */
+    private void jobEnded(ConversionJob job) {
+        JobFinishedEvent.emit(job, job.getState());
+        clientJobQuota.release(job.getClientId());
+        storageManager.jobEnded(job);
+        webhookDispatcher.jobFinished(job);
+        for (Consumer<ConversionJob> listener : jobEndedListeners) {
+            listener.accept(job);
+        }
+    }
+    
+    /**
+     * Fails a dequeued job whose output cannot get the disk space it needs
+     */
+    void failForStorage(ConversionJob job, String reason) {
+        logger.warn("Failing job: {} for lack of output space: {}", job.getJobId(), reason);
+        JobState failed = job.transition(state -> !state.isTerminal(),
+                state -> state.withErrorMessage("Insufficient storage: " + reason)
+                        .finish(JobStatus.FAILED, System.currentTimeMillis()));
+        releaseInput(job);
+        if (failed != null) {
+            jobEnded(job);
+        }
+    }
+    
+    /**
+     * Returns an in-memory job's input buffer to the pool
+     */
+    void releaseInput(ConversionJob job) {
+        inputBufferPool.release(job.takeInputBuffer());
+    }
+    
+    /**
+     * A stream copy starts at the keyframe at or before the requested start;
+     * finds it so the actual cut can be reported
+     */
+    private void snapToKeyframe(ConversionJob job) {
+        double start = job.getClipStart() != null ? job.getClipStart() : 0;
+        Double keyframe = start > 0 ? mediaProbeService.findKeyframeAtOrBefore(job.getOriginalFilePath(), start) : null;
+        job.setActualClipStart(keyframe != null ? keyframe : start);
+    }
+    
+    /**
+     * Records where the output really starts and ends in the input. Accurate
+     * cuts are where they were asked for; a stream copy ends where its
+     * measured output duration says.
+     */
+    void recordCutPoints(ConversionJob job) {
+        if (job.getActualClipStart() == null) {
+            job.setActualClipStart(job.getClipStart() != null ? job.getClipStart() : 0.0);
+        }
+        
+        Double outputDuration = null;
+        if (job.isCopyMode()) {
+            MediaProbeService.ProbeResult probe = mediaProbeService.probe(job.getConvertedFilePath());
+            outputDuration = probe != null ? probe.durationSeconds() : null;
+        }
+        if (outputDuration == null) {
+            outputDuration = job.getOutputDurationSeconds();
+        }
+        if (outputDuration != null) {
+            job.setActualClipEnd(job.getActualClipStart() + outputDuration);
+        }
+    }
+    
+    /**
+     * Cancels a queued or running job. A queued job is removed from the queue;
+     * a running job has its FFmpeg process tree killed.
+     *
+     * @return false if the job had already finished
+     */
+    public boolean cancelJob(ConversionJob job) {
+        JobState cancelled = job.transition(state -> !state.isTerminal(),
+                state -> state.withErrorMessage("Cancelled by user").finish(JobStatus.CANCELLED, System.currentTimeMillis()));
+        if (cancelled == null) {
+            return false;
+        }
+        
+        if (jobScheduler.remove(job)) {
+            releaseInput(job);
         }
+        ffmpegService.terminate(job.getJobId(), "Cancelled by user");
+        logger.info("Cancelled job: {}", job.getJobId());
+        jobEnded(job);
+        return true;
     }
 }
@@ -0,0 +1,81 @@
+package br.schumaker.fcs.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Identifies the client behind a request: the client an API key was issued
+ * to, when the request carries a configured key, otherwise the remote
+ * address. Free-form identities are never taken from the request, so a
+ * client cannot get fresh rate limit buckets and job quota by changing a
+ * header.
+ */
+@Component
+public class ClientIdentityResolver {
+    
+    private static final int MIN_API_KEY_LENGTH = 16;
+    
+    // Client IDs by SHA-256 of their API key, so lookups do not compare the secret itself
+    private final Map<String, String> clientsByKeyHash = new HashMap<>();
+    
+    @Value("${app.client.api-key-header:X-Api-Key}")
+    private String apiKeyHeader;
+    
+    @Value("${app.client.api-keys:}")
+    private String[] apiKeys;
+    
+    /**
+     * Reads the configured keys, each given as clientId:key
+     *
+     * @throws IllegalStateException if an entry is malformed, a key is too
+     *         short or two clients share a key
+     */
+    @PostConstruct
+    public void loadApiKeys() {
+        for (String entry : apiKeys) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            String clientId = colon > 0 ? entry.substring(0, colon).trim() : "";
+            String key = colon > 0 ? entry.substring(colon + 1).trim() : "";
+            if (clientId.isEmpty() || key.length() < MIN_API_KEY_LENGTH) {
+                throw new IllegalStateException("app.client.api-keys entries must be clientId:key with keys of at least "
+                        + MIN_API_KEY_LENGTH + " characters");
+            }
+            if (clientsByKeyHash.put(hash(key), clientId) != null) {
+                throw new IllegalStateException("API key of client " + clientId + " is already issued to another client");
+            }
+        }
+    }
+    
+    public String resolve(HttpServletRequest request) {
+        String key = request.getHeader(apiKeyHeader);
+        if (key != null && !key.isBlank()) {
+            String clientId = clientsByKeyHash.get(hash(key.trim()));
+            if (clientId != null) {
+                return clientId;
+            }
+        }
+        return request.getRemoteAddr();
+    }
+    
+    private static String hash(String key) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package br.schumaker.fcs.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.exception.TooManyActiveJobsException;
+
+/**
+ * Caps the number of queued and running jobs per client, so one client cannot
+ * fill the conversion queue. Counts are updated with per-key compute, which
+ * only locks the map bin holding that client.
+ */
+@Service
+public class ClientJobQuota {
+    
+    private final Map<String, Integer> activeJobs = new ConcurrentHashMap<>();
+    
+    @Value("${app.rate-limit.max-active-jobs-per-client:20}")
+    private int maxActiveJobs;
+    
+    /**
+     * Counts a new job against its client
+     *
+     * @throws TooManyActiveJobsException if the client is at its limit
+     */
+    public void acquire(String clientId) {
+        if (clientId == null || maxActiveJobs <= 0) {
+            return;
+        }
+        
+        boolean[] admitted = new boolean[1];
+        activeJobs.compute(clientId, (key, count) -> {
+            int current = count != null ? count : 0;
+            if (current >= maxActiveJobs) {
+                return count;
+            }
+            admitted[0] = true;
+            return current + 1;
+        });
+        
+        if (!admitted[0]) {
+            throw new TooManyActiveJobsException("Client has " + maxActiveJobs
+                    + " active jobs; wait for one to finish before submitting more");
+        }
+    }
+    
+    /**
+     * Releases a job's slot once it has finished, failed or been cancelled
+     */
+    public void release(String clientId) {
+        if (clientId == null || maxActiveJobs <= 0) {
+            return;
+        }
+        activeJobs.computeIfPresent(clientId, (key, count) -> count > 1 ? count - 1 : null);
+    }
+    
+    public int getActiveJobs(String clientId) {
+        return activeJobs.getOrDefault(clientId, 0);
+    }
+}
@@ -0,0 +1,79 @@
+package br.schumaker.fcs.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobState;
+
+/**
+ * Periodically inspects running FFmpeg processes and kills the ones that have
+ * stopped making progress or have exceeded their wall-clock budget, so a hung
+ * input cannot hold a conversion thread forever. Time a job spends suspended
+ * for a job of higher priority counts against neither.
+ */
+@Service
+public class ConversionWatchdog {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ConversionWatchdog.class);
+    
+    private final FFmpegService ffmpegService;
+    
+    @Value("${app.watchdog.stall-timeout-seconds:120}")
+    private long stallTimeoutSeconds;
+    
+    @Value("${app.watchdog.budget-base-seconds:300}")
+    private long budgetBaseSeconds;
+    
+    @Value("${app.watchdog.budget-factor:10}")
+    private double budgetFactor;
+    
+    @Value("${app.watchdog.default-budget-seconds:7200}")
+    private long defaultBudgetSeconds;
+    
+    public ConversionWatchdog(FFmpegService ffmpegService) {
+        this.ffmpegService = ffmpegService;
+    }
+    
+    @Scheduled(fixedDelayString = "${app.watchdog.check-interval-ms:5000}")
+    public void checkRunningJobs() {
+        long now = System.currentTimeMillis();
+        
+        for (ConversionJob job : ffmpegService.getRunningJobs()) {
+            JobState state = job.getState();
+            if (state.isSuspended()) {
+                continue;
+            }
+            
+            long lastProgress = job.getLastProgressAtMillis();
+            if (stallTimeoutSeconds > 0 && lastProgress != 0 && now - lastProgress > stallTimeoutSeconds * 1000) {
+                logger.warn("Job {} made no progress for {}s", job.getJobId(), stallTimeoutSeconds);
+                ffmpegService.terminate(job.getJobId(), "Stalled: no progress for " + stallTimeoutSeconds + " seconds");
+                continue;
+            }
+            
+            long budgetSeconds = getBudgetSeconds(job);
+            long startedAt = state.getStartedAtMillis();
+            if (startedAt != 0 && now - startedAt - state.getSuspendedMillis(now) > budgetSeconds * 1000) {
+                logger.warn("Job {} exceeded its wall-clock budget of {}s", job.getJobId(), budgetSeconds);
+                ffmpegService.terminate(job.getJobId(), "Timed out: exceeded budget of " + budgetSeconds + " seconds");
+            }
+        }
+    }
+    
+    /**
+     * Wall-clock budget for a job: a fixed base plus a multiple of the duration
+     * it produces (the whole input, as reported by FFmpeg, or the requested
+     * clip), or the default budget when it is unknown.
+     */
+    private long getBudgetSeconds(ConversionJob job) {
+        Double outputDuration = job.getOutputDurationSeconds();
+        if (outputDuration == null || outputDuration <= 0) {
+            return defaultBudgetSeconds;
+        }
+        return budgetBaseSeconds + (long) Math.ceil(outputDuration * budgetFactor);
+    }
+}
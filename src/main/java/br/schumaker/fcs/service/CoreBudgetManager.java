@@ -0,0 +1,327 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Splits the machine's cores between concurrently running FFmpeg processes.
+ * Each job is granted a thread count when it starts, sized from the number of
+ * jobs expected to run alongside it. On Linux the running processes are also
+ * pinned to disjoint sets of the CPUs this process may run on, which are
+ * recomputed whenever a job starts or finishes so that cores freed by a
+ * finished job go to the ones still running. A suspended job keeps its
+ * allocation but does not count against the cores until it is resumed.
+ * Pinning runs on a thread of its own, so starting and finishing jobs never
+ * wait for taskset, and a plan is dropped when a newer one replaces it
+ * before it was applied.
+ */
+@Service
+public class CoreBudgetManager {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CoreBudgetManager.class);
+    
+    private final JobScheduler jobScheduler;
+    
+    @Value("${app.ffmpeg.core-budget.cores:0}")
+    private int configuredCores;
+    
+    @Value("${app.ffmpeg.core-budget.pin-cpus:true}")
+    private boolean pinCpus;
+    
+    @Value("${app.ffmpeg.core-budget.taskset-path:taskset}")
+    private String tasksetPath;
+    
+    // Active allocations in start order, guarded by this
+    private final Map<String, Allocation> allocations = new LinkedHashMap<>();
+    
+    // CPUs the running processes are pinned to; empty when pinning is off or unsupported
+    private List<Integer> cpus = List.of();
+    
+    // The latest plan not yet taken by the pinning thread
+    private final AtomicReference<List<Pin>> pendingPlan = new AtomicReference<>();
+    private ExecutorService pinner;
+    
+    public CoreBudgetManager(JobScheduler jobScheduler) {
+        this.jobScheduler = jobScheduler;
+    }
+    
+    /**
+     * Reads the CPUs this process is allowed to run on, which its affinity and
+     * cpuset may limit to any subset of the machine, and checks that taskset
+     * works. Pinning is skipped where either is unavailable.
+     */
+    @PostConstruct
+    public void init() {
+        if (!pinCpus) {
+            return;
+        }
+        
+        List<Integer> allowed = readAllowedCpus();
+        if (allowed.isEmpty()) {
+            logger.info("CPU pinning is off: the allowed CPUs of this process cannot be read");
+            return;
+        }
+        if (!tasksetWorks()) {
+            logger.warn("CPU pinning is off: {} cannot set CPU affinity", tasksetPath);
+            return;
+        }
+        
+        // A configured budget, or a CPU quota below the allowed set, uses the first CPUs of the set
+        cpus = allowed.subList(0, Math.min(allowed.size(), getTotalCores()));
+        pinner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CPU-pinner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Pinning FFmpeg processes to CPUs {}", toCpuList(cpus));
+    }
+    
+    @PreDestroy
+    public void stop() {
+        if (pinner != null) {
+            pinner.shutdownNow();
+        }
+    }
+    
+    /**
+     * Reserves a thread count for a job about to start.
+     */
+    public synchronized int acquire(String jobId) {
+        int totalCores = getTotalCores();
+        int active = (int) allocations.values().stream().filter(allocation -> !allocation.suspended).count();
+        int queued = jobScheduler.getQueueDepth();
+        
+        // Jobs that will share the cores with this one: the ones already running,
+        // plus queued jobs that can still get a worker
+        int expectedConcurrent = Math.max(active + 1,
+                Math.min(jobScheduler.getMaxConcurrentJobs(), active + 1 + queued));
+        int threads = Math.max(1, totalCores / expectedConcurrent);
+        
+        allocations.put(jobId, new Allocation(threads));
+        logger.info("Assigned {} of {} cores to job: {} ({} concurrent)", threads, totalCores, jobId, expectedConcurrent);
+        return threads;
+    }
+    
+    /**
+     * Associates the spawned FFmpeg process with the job's allocation.
+     */
+    public synchronized void attach(String jobId, Process process) {
+        Allocation allocation = allocations.get(jobId);
+        if (allocation != null) {
+            allocation.process = process;
+            rebalance();
+        }
+    }
+    
+    /**
+     * Returns the job's cores to the budget.
+     */
+    public synchronized void release(String jobId) {
+        if (allocations.remove(jobId) != null) {
+            rebalance();
+        }
+    }
+    
+    /**
+     * Hands a stopped job's cores to the jobs still running, or takes them
+     * back when it is resumed
+     */
+    public synchronized void setSuspended(String jobId, boolean suspended) {
+        Allocation allocation = allocations.get(jobId);
+        if (allocation != null) {
+            allocation.suspended = suspended;
+            rebalance();
+        }
+    }
+    
+    public synchronized int getAllocatedThreads() {
+        return allocations.values().stream()
+                .filter(allocation -> !allocation.suspended)
+                .mapToInt(allocation -> allocation.threads)
+                .sum();
+    }
+    
+    public int getTotalCores() {
+        return configuredCores > 0 ? configuredCores : Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Plans disjoint CPU ranges for the running processes, sized in proportion
+     * to their thread counts, and hands the plan to the pinning thread. Thread
+     * counts of running processes cannot change, so this is what hands freed
+     * cores to the jobs still running.
+     */
+    private void rebalance() {
+        if (cpus.isEmpty() || allocations.isEmpty()) {
+            return;
+        }
+        
+        List<Allocation> running = new ArrayList<>();
+        for (Allocation allocation : allocations.values()) {
+            if (allocation.process != null && allocation.process.isAlive() && !allocation.suspended) {
+                running.add(allocation);
+            }
+        }
+        
+        int totalCores = cpus.size();
+        int totalThreads = running.stream().mapToInt(allocation -> allocation.threads).sum();
+        int nextCpu = 0;
+        List<Pin> plan = new ArrayList<>();
+        
+        for (int i = 0; i < running.size(); i++) {
+            Allocation allocation = running.get(i);
+            int count;
+            if (i == running.size() - 1) {
+                count = totalCores - nextCpu;
+            } else {
+                count = Math.max(1, (int) Math.round((double) totalCores * allocation.threads / totalThreads));
+                count = Math.min(count, totalCores - nextCpu - (running.size() - 1 - i));
+            }
+            
+            if (count < 1) {
+                // More processes than cores: share the last core
+                plan.add(new Pin(allocation.process, String.valueOf(cpus.get(totalCores - 1))));
+                continue;
+            }
+            
+            plan.add(new Pin(allocation.process, toCpuList(cpus.subList(nextCpu, nextCpu + count))));
+            nextCpu += count;
+        }
+        
+        // Replaces a plan still pending; a task is queued only if none is waiting to take it
+        if (pendingPlan.getAndSet(plan) == null) {
+            pinner.execute(this::applyPendingPlan);
+        }
+    }
+    
+    private void applyPendingPlan() {
+        List<Pin> plan = pendingPlan.getAndSet(null);
+        if (plan == null) {
+            return;
+        }
+        for (Pin pin : plan) {
+            // Finished since the plan was made
+            if (pin.process().isAlive()) {
+                pin(pin.process(), pin.cpuList());
+            }
+        }
+    }
+    
+    /**
+     * The Cpus_allowed_list of this process on Linux, such as 0-3,8-11
+     *
+     * @return the CPU numbers, or an empty list elsewhere
+     */
+    private static List<Integer> readAllowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not read the allowed CPUs: {}", e.getMessage());
+        }
+        return List.of();
+    }
+    
+    static List<Integer> parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.split(",")) {
+            if (range.isBlank()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(range.substring(0, dash < 0 ? range.length() : dash).trim());
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+    
+    /**
+     * Formats CPU numbers the way taskset takes them, with runs as ranges
+     */
+    static String toCpuList(List<Integer> cpus) {
+        StringBuilder list = new StringBuilder();
+        int i = 0;
+        while (i < cpus.size()) {
+            int j = i;
+            while (j + 1 < cpus.size() && cpus.get(j + 1) == cpus.get(j) + 1) {
+                j++;
+            }
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(cpus.get(i));
+            if (j > i) {
+                list.append('-').append(cpus.get(j));
+            }
+            i = j + 1;
+        }
+        return list.toString();
+    }
+    
+    /**
+     * Asks taskset for this process's own affinity
+     */
+    private boolean tasksetWorks() {
+        try {
+            Process taskset = new ProcessBuilder(tasksetPath, "-p", String.valueOf(ProcessHandle.current().pid()))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return taskset.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    private void pin(Process process, String cpuList) {
+        try {
+            Process taskset = new ProcessBuilder(tasksetPath, "-a", "-p", "-c", cpuList, String.valueOf(process.pid()))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (taskset.waitFor() != 0) {
+                logger.debug("taskset exited with {} for pid {}", taskset.exitValue(), process.pid());
+            }
+        } catch (Exception e) {
+            logger.warn("Could not pin FFmpeg process {} to CPUs {}: {}", process.pid(), cpuList, e.getMessage());
+        }
+    }
+    
+    private record Pin(Process process, String cpuList) {
+    }
+    
+    private static final class Allocation {
+        private final int threads;
+        private Process process;
+        private boolean suspended;
+        
+        private Allocation(int threads) {
+            this.threads = threads;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.exception.InsufficientStorageException;
+import br.schumaker.fcs.model.ConversionJob;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Tracks free space on the upload and output directories and reserves it for
+ * uploads being written and conversions being encoded, so that work is turned
+ * away or held up front instead of failing when the disk fills. Usable space
+ * is read from the FileStore at most once per cache interval. A reservation
+ * only counts for the part of it that has not yet been written to its file,
+ * which the refresh also measures.
+ */
+@Service
+public class DiskSpaceService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpaceService.class);
+    
+    private final OutputSizeEstimator outputSizeEstimator;
+    private final OutputLayout outputLayout;
+    
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+    
+    private StoreAccount uploadStore;
+    private StoreAccount outputStore;
+    
+    @Value("${app.upload.dir:./uploads}")
+    private String uploadDir;
+    
+    @Value("${app.output.dir:./output}")
+    private String outputDir;
+    
+    @Value("${app.disk.min-free-bytes:536870912}")
+    private long minFreeBytes;
+    
+    @Value("${app.disk.cache-ttl-ms:1000}")
+    private long cacheTtlMs;
+    
+    public DiskSpaceService(OutputSizeEstimator outputSizeEstimator, OutputLayout outputLayout) {
+        this.outputSizeEstimator = outputSizeEstimator;
+        this.outputLayout = outputLayout;
+    }
+    
+    @PostConstruct
+    public void init() throws IOException {
+        Path uploadPath = Files.createDirectories(Paths.get(uploadDir));
+        Path outputPath = Files.createDirectories(Paths.get(outputDir));
+        
+        FileStore uploadFileStore = Files.getFileStore(uploadPath);
+        FileStore outputFileStore = Files.getFileStore(outputPath);
+        
+        uploadStore = new StoreAccount(uploadFileStore);
+        // Both directories on one file system draw from the same free space
+        outputStore = uploadFileStore.equals(outputFileStore) ? uploadStore : new StoreAccount(outputFileStore);
+    }
+    
+    /**
+     * Reserves space for an upload about to be written to the given file
+     *
+     * @throws InsufficientStorageException if the upload directory lacks the space
+     */
+    public void reserveUpload(String key, long bytes, Path file) {
+        if (!uploadStore.tryReserve(key, bytes, file)) {
+            throw new InsufficientStorageException("Not enough free space to store the upload");
+        }
+    }
+    
+    /**
+     * Rejects an upload that cannot fit in the upload directory. Resumable
+     * sessions are checked when created rather than reserved, since their
+     * part files fill up over a long time.
+     *
+     * @throws InsufficientStorageException if the upload cannot fit
+     */
+    public void checkUploadCapacity(long bytes) {
+        if (bytes > uploadStore.usableSpace() - minFreeBytes) {
+            throw new InsufficientStorageException("Not enough free space to store the upload");
+        }
+    }
+    
+    /**
+     * Rejects a job whose estimated output would not fit even if every other
+     * reservation were released
+     *
+     * @throws InsufficientStorageException if the output cannot fit
+     */
+    public void checkOutputCapacity(ConversionJob job) {
+        checkOutputCapacity(outputSizeEstimator.estimate(job));
+    }
+    
+    /**
+     * Reserves the estimated output size of a job about to start
+     *
+     * @return false if the space is currently taken by other reservations
+     * @throws InsufficientStorageException if the output would not fit even if
+     *         every other reservation were released, so holding the job is no use
+     */
+    public boolean reserveOutput(ConversionJob job) {
+        long estimate = outputSizeEstimator.estimate(job);
+        // The probed input can raise the estimate above the one checked on submission
+        checkOutputCapacity(estimate);
+        Path file = outputLayout.tempPath(Paths.get(job.getConvertedFilePath()));
+        boolean reserved = outputStore.tryReserve(job.getJobId(), estimate, file);
+        if (!reserved) {
+            logger.info("Holding job: {} until {} bytes are free in the output directory", job.getJobId(), estimate);
+        }
+        return reserved;
+    }
+    
+    /**
+     * Estimated output size of a job, as reserved when it starts
+     */
+    public long estimateOutput(ConversionJob job) {
+        return outputSizeEstimator.estimate(job);
+    }
+    
+    /**
+     * Output space not taken by reservations, above the minimum kept free
+     */
+    public long getAvailableOutputBytes() {
+        return outputStore.available();
+    }
+    
+    private void checkOutputCapacity(long estimate) {
+        long capacity = outputStore.usableSpace() - minFreeBytes;
+        if (estimate > capacity) {
+            throw new InsufficientStorageException("Estimated output size of " + estimate
+                    + " bytes exceeds the free space of the output directory");
+        }
+    }
+    
+    /**
+     * Releases a reservation; what was written now shows up in the usable space
+     */
+    public void release(String key) {
+        Reservation reservation = reservations.remove(key);
+        if (reservation != null) {
+            reservation.account.release(reservation);
+        }
+    }
+    
+    private record Reservation(StoreAccount account, long bytes, Path file) {
+    }
+    
+    private final class StoreAccount {
+        private final FileStore store;
+        
+        // Guarded by this
+        private long reservedBytes;
+        private long cachedUsable;
+        private long cachedWritten;
+        private long cachedAt;
+        
+        private StoreAccount(FileStore store) {
+            this.store = store;
+        }
+        
+        synchronized boolean tryReserve(String key, long bytes, Path file) {
+            if (bytes > available()) {
+                return false;
+            }
+            
+            reservedBytes += bytes;
+            reservations.put(key, new Reservation(this, bytes, file));
+            return true;
+        }
+        
+        synchronized void release(Reservation reservation) {
+            reservedBytes -= reservation.bytes();
+            // The written part moves from the reservation into the measured usable space
+            cachedAt = 0;
+        }
+        
+        synchronized long available() {
+            refreshIfStale();
+            long outstanding = reservedBytes - cachedWritten;
+            return cachedUsable - outstanding - minFreeBytes;
+        }
+        
+        synchronized long usableSpace() {
+            refreshIfStale();
+            return cachedUsable;
+        }
+        
+        private void refreshIfStale() {
+            long now = System.currentTimeMillis();
+            if (now - cachedAt < cacheTtlMs) {
+                return;
+            }
+            
+            try {
+                cachedUsable = store.getUsableSpace();
+            } catch (IOException e) {
+                logger.warn("Could not read usable space of {}: {}", store, e.getMessage());
+            }
+            
+            long written = 0;
+            for (Reservation reservation : reservations.values()) {
+                if (reservation.account() == this) {
+                    written += Math.min(reservation.bytes(), sizeOf(reservation.file()));
+                }
+            }
+            cachedWritten = written;
+            cachedAt = now;
+        }
+        
+        private long sizeOf(Path file) {
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
+}
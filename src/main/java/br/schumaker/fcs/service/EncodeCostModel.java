@@ -0,0 +1,222 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.MediaClass;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Learns how long conversions take from the ones that completed. Encode time
+ * per second of output, and per megabyte for inputs without a duration, is
+ * tracked as an exponentially weighted average per bucket of source
+ * resolution, target format, preset (or quality) and encoder. Each job also
+ * feeds two coarser buckets, which answer for jobs whose resolution or
+ * encoder is not known yet. The averages are saved to a JSON file and read
+ * back on startup.
+ */
+@Service
+public class EncodeCostModel {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EncodeCostModel.class);
+    
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+    
+    private final EncoderPresetPolicy encoderPresetPolicy;
+    private final ObjectMapper objectMapper;
+    
+    private final Map<String, Rates> buckets = new ConcurrentHashMap<>();
+    
+    // Encoder of the last completed job per target format, assumed for jobs that have not started
+    private final Map<String, String> lastEncoders = new ConcurrentHashMap<>();
+    
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    
+    @Value("${app.cost-model.alpha:0.2}")
+    private double alpha;
+    
+    @Value("${app.cost-model.file:./data/cost-model.json}")
+    private String modelFile;
+    
+    public EncodeCostModel(EncoderPresetPolicy encoderPresetPolicy, ObjectMapper objectMapper) {
+        this.encoderPresetPolicy = encoderPresetPolicy;
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * Encode seconds per second of output, and per megabyte of input, in one bucket
+     */
+    public record Rates(Double secondsPerMediaSecond, Double secondsPerMegabyte, long samples) {
+    }
+    
+    @PostConstruct
+    public void load() {
+        Path path = Paths.get(modelFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            Map<String, Rates> saved = objectMapper.readValue(path.toFile(), new TypeReference<Map<String, Rates>>() {
+            });
+            buckets.putAll(saved);
+            logger.info("Loaded {} encode cost buckets from {}", saved.size(), path);
+        } catch (IOException e) {
+            logger.warn("Could not read encode cost model {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Predicts the encode time of a job from the most specific bucket that
+     * has data for it
+     *
+     * @return the predicted seconds, or null if no similar job has completed yet
+     */
+    public Double predictSeconds(ConversionJob job) {
+        String format = job.getTargetFormat().toLowerCase();
+        String encoder = job.getEncoder() != null ? job.getEncoder() : lastEncoders.get(format);
+        
+        String resolution = resolutionClass(job);
+        if (resolution != null && encoder != null) {
+            Double seconds = predict(buckets.get(fullKey(resolution, format, setting(job), encoder)), job);
+            if (seconds != null) {
+                return seconds;
+            }
+        }
+        Double seconds = predict(buckets.get(format + "|" + setting(job)), job);
+        return seconds != null ? seconds : predict(buckets.get(format), job);
+    }
+    
+    /**
+     * Folds the measured encode time of a completed job into its buckets
+     */
+    public void record(ConversionJob job, double elapsedSeconds) {
+        if (elapsedSeconds <= 0) {
+            return;
+        }
+        
+        Double duration = job.getOutputDurationSeconds();
+        Double perMediaSecond = duration != null && duration > 0 ? elapsedSeconds / duration : null;
+        Long size = job.getOriginalFileSize();
+        Double perMegabyte = size != null && size > 0 ? elapsedSeconds / (size / BYTES_PER_MEGABYTE) : null;
+        
+        String format = job.getTargetFormat().toLowerCase();
+        String encoder = job.getEncoder() != null ? job.getEncoder() : "cpu";
+        lastEncoders.put(format, encoder);
+        
+        String resolution = resolutionClass(job);
+        if (resolution != null) {
+            update(fullKey(resolution, format, setting(job), encoder), perMediaSecond, perMegabyte);
+        }
+        update(format + "|" + setting(job), perMediaSecond, perMegabyte);
+        update(format, perMediaSecond, perMegabyte);
+    }
+    
+    @Scheduled(fixedDelayString = "${app.cost-model.save-interval-ms:60000}")
+    public void saveIfChanged() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        
+        Path path = Paths.get(modelFile);
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tempFile.toFile(), new TreeMap<>(buckets));
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            logger.warn("Could not save encode cost model to {}: {}", path, e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        saveIfChanged();
+    }
+    
+    private Double predict(Rates rates, ConversionJob job) {
+        if (rates == null) {
+            return null;
+        }
+        Double duration = job.getOutputDurationSeconds();
+        if (duration != null && rates.secondsPerMediaSecond() != null) {
+            return duration * rates.secondsPerMediaSecond();
+        }
+        Long size = job.getOriginalFileSize();
+        if (size != null && rates.secondsPerMegabyte() != null) {
+            return size / BYTES_PER_MEGABYTE * rates.secondsPerMegabyte();
+        }
+        return null;
+    }
+    
+    private void update(String key, Double perMediaSecond, Double perMegabyte) {
+        buckets.compute(key, (k, rates) -> rates == null
+                ? new Rates(perMediaSecond, perMegabyte, 1)
+                : new Rates(average(rates.secondsPerMediaSecond(), perMediaSecond),
+                        average(rates.secondsPerMegabyte(), perMegabyte), rates.samples() + 1));
+        dirty.set(true);
+    }
+    
+    private Double average(Double current, Double sample) {
+        if (sample == null) {
+            return current;
+        }
+        return current == null ? sample : alpha * sample + (1 - alpha) * current;
+    }
+    
+    private String fullKey(String resolution, String format, String setting, String encoder) {
+        return resolution + "|" + format + "|" + setting + "|" + encoder;
+    }
+    
+    /**
+     * Preset for video targets, quality level for everything else; stream
+     * copies are a class of their own
+     */
+    private String setting(ConversionJob job) {
+        if (job.isCopyMode()) {
+            return "copy";
+        }
+        if (MediaClass.ofTargetFormat(job.getTargetFormat()) == MediaClass.VIDEO) {
+            return job.getPreset() != null ? job.getPreset() : encoderPresetPolicy.basePreset(job.getQuality());
+        }
+        return job.getQuality() != null ? job.getQuality().toLowerCase() : "medium";
+    }
+    
+    /**
+     * Coarse source resolution, or null for video inputs that have not been probed yet
+     */
+    private String resolutionClass(ConversionJob job) {
+        if (job.getInputMediaClass() == MediaClass.AUDIO) {
+            return "audio";
+        }
+        Integer height = job.getSourceHeight();
+        if (height == null) {
+            return job.getInputMediaClass() == MediaClass.IMAGE ? "image" : null;
+        }
+        if (height <= 576) {
+            return "sd";
+        }
+        return height <= 1080 ? "hd" : "uhd";
+    }
+}
@@ -0,0 +1,97 @@
+package br.schumaker.fcs.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+/**
+ * Picks the x264 preset for a job as it starts. The quality setting gives the
+ * starting preset; it is stepped down the ladder when the queue is deep or when
+ * the projected encode time would run past the job's deadline. Only the preset
+ * changes, the CRF for the quality stays the same, so a faster preset trades
+ * compression efficiency (larger files) rather than visual quality. GPU
+ * encoders apply it through their own speed settings: NVENC and Quick Sync
+ * presets, or the AMF quality level; VideoToolbox has none.
+ */
+@Service
+public class EncoderPresetPolicy {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EncoderPresetPolicy.class);
+    
+    private static final List<String> PRESETS = List.of("slow", "medium", "fast", "veryfast");
+    
+    // Relative encode time of each preset, medium = 1
+    private static final double[] PRESET_COST = {2.0, 1.0, 0.6, 0.35};
+    
+    @Value("${app.scheduler.preset.downgrade-enabled:true}")
+    private boolean downgradeEnabled;
+    
+    @Value("${app.scheduler.preset.queue-depth-threshold:10}")
+    private int queueDepthThreshold;
+    
+    // Encode seconds per second of input at the medium preset
+    @Value("${app.scheduler.preset.medium-speed-factor:1.0}")
+    private double mediumSpeedFactor;
+    
+    /**
+     * Starting preset for a quality level
+     */
+    public String basePreset(String quality) {
+        if (quality == null) {
+            return "medium";
+        }
+        return switch (quality.toLowerCase()) {
+            case "high" -> "slow";
+            case "low" -> "fast";
+            default -> "medium";
+        };
+    }
+    
+    /**
+     * Chooses the preset for a job about to start
+     *
+     * @param queueDepth number of jobs still waiting behind this one
+     */
+    public String choosePreset(ConversionJob job, int queueDepth) {
+        String base = basePreset(job.getQuality());
+        if (!downgradeEnabled) {
+            return base;
+        }
+        
+        int index = PRESETS.indexOf(base);
+        
+        // One step down for every threshold's worth of waiting jobs
+        if (queueDepthThreshold > 0) {
+            index = Math.min(PRESETS.size() - 1, index + queueDepth / queueDepthThreshold);
+        }
+        
+        Double duration = job.getOutputDurationSeconds();
+        if (job.getDeadline() != null && duration != null) {
+            LocalDateTime now = LocalDateTime.now();
+            while (index < PRESETS.size() - 1 && now.plusSeconds(projectedSeconds(duration, index)).isAfter(job.getDeadline())) {
+                index++;
+            }
+            if (now.plusSeconds(projectedSeconds(duration, index)).isAfter(job.getDeadline())) {
+                logger.warn("Job: {} is projected to miss its deadline {} even at preset {}",
+                        job.getJobId(), job.getDeadline(), PRESETS.get(index));
+            }
+        }
+        
+        String preset = PRESETS.get(index);
+        if (!preset.equals(base)) {
+            logger.info("Downgraded preset for job: {} from {} to {} (queue depth {}, deadline {})",
+                    job.getJobId(), base, preset, queueDepth, job.getDeadline());
+        }
+        return preset;
+    }
+    
+    private long projectedSeconds(double durationSeconds, int presetIndex) {
+        return (long) Math.ceil(durationSeconds * mediumSpeedFactor * PRESET_COST[presetIndex]);
+    }
+}
@@ -1,36 +1,77 @@
 package br.schumaker.fcs.service;
 
 import java.io.BufferedReader;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import br.schumaker.fcs.jfr.FFmpegSpawnedEvent;
+import br.schumaker.fcs.jfr.FirstProgressEvent;
 import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+import br.schumaker.fcs.service.MediaTypeSniffer.SniffedType;
 
 @Service
 public class FFmpegService {
     
     private static final Logger logger = LoggerFactory.getLogger(FFmpegService.class);
     
+    private static final Pattern DURATION_PATTERN = Pattern.compile("Duration: (\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+    private static final Pattern PROGRESS_KEY_PATTERN = Pattern.compile("^[a-z0-9_]+=");
+    private static final String OUT_TIME_PREFIX = "out_time_us=";
+    private static final int PIPE_CHUNK_SIZE = 64 * 1024;
+    
+    // Muxer options for results written to stdout; only formats that need no seeking
+    private static final Map<String, List<String>> PIPE_OUTPUT_ARGS = Map.of(
+        "jpg", List.of("-f", "image2pipe", "-c:v", "mjpeg"),
+        "jpeg", List.of("-f", "image2pipe", "-c:v", "mjpeg"),
+        "png", List.of("-f", "image2pipe", "-c:v", "png"),
+        "gif", List.of("-f", "gif"),
+        "webp", List.of("-f", "webp"),
+        "mp3", List.of("-f", "mp3"),
+        "wav", List.of("-f", "wav"),
+        "flac", List.of("-f", "flac"),
+        "aac", List.of("-f", "adts")
+    );
+    
+    // Inputs whose demuxer needs to seek (index at the end of the file)
+    private static final Set<String> SEEKING_INPUTS = Set.of("heif", "m4a");
+    
     @Value("${app.ffmpeg.path:ffmpeg}")
     private String ffmpegPath;
     
     @Value("${app.upload.dir:./uploads}")
     private String uploadDir;
     
-    @Value("${app.output.dir:./output}")
-    private String outputDir;
+    @Value("${app.memory-path.max-output-bytes:16777216}")
+    private long maxInMemoryOutputBytes;
     
     @Value("${app.ffmpeg.gpu.enabled:true}")
     private boolean gpuEnabled;
@@ -41,17 +82,56 @@ public class FFmpegService {
     @Value("${app.ffmpeg.gpu.preferred:auto}")
     private String preferredGpu;
     
+    @Value("${app.scheduler.preemption.kill-path:kill}")
+    private String killPath;
+    
     // GPU acceleration cache
     private String detectedGpuEncoder = null;
     private boolean gpuDetectionComplete = false;
     
+    // FFmpeg processes currently running, keyed by job ID
+    private final Map<String, RunningConversion> runningConversions = new ConcurrentHashMap<>();
+    
+    // Feeds stdin and drains stdout of in-memory jobs
+    private final ExecutorService pipeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    
+    private final CoreBudgetManager coreBudgetManager;
+    private final WebhookDispatcher webhookDispatcher;
+    private final OutputLayout outputLayout;
+    private final ResultCache resultCache;
+    private final WaveformService waveformService;
+    
+    public FFmpegService(CoreBudgetManager coreBudgetManager, WebhookDispatcher webhookDispatcher,
+            OutputLayout outputLayout, ResultCache resultCache, WaveformService waveformService) {
+        this.coreBudgetManager = coreBudgetManager;
+        this.webhookDispatcher = webhookDispatcher;
+        this.outputLayout = outputLayout;
+        this.resultCache = resultCache;
+        this.waveformService = waveformService;
+    }
+    
+    /**
+     * Whether a conversion can run entirely through FFmpeg's stdin and stdout
+     */
+    public boolean canPipe(SniffedType inputType, String targetFormat) {
+        MediaClass inputClass = inputType.mediaClass();
+        return (inputClass == MediaClass.IMAGE || inputClass == MediaClass.AUDIO)
+                && !SEEKING_INPUTS.contains(inputType.container())
+                && PIPE_OUTPUT_ARGS.containsKey(targetFormat.toLowerCase());
+    }
+    
     /**
      * Converts a file using FFmpeg
      */
     public boolean convertFile(ConversionJob job) {
         try {
-            // Ensure output directory exists
-            ensureDirectoryExists(outputDir);
+            // Share the cores with the other running conversions
+            job.setThreads(coreBudgetManager.acquire(job.getJobId()));
+            
+            // Each job writes into its own directory; in-memory jobs only if their result spills
+            if (!job.isInMemory()) {
+                ensureDirectoryExists(outputLayout.jobDirectory(job.getJobId()).toString());
+            }
             
             // Detect GPU acceleration if enabled
             if (gpuEnabled && !gpuDetectionComplete) {
@@ -65,43 +145,329 @@ public class FFmpegService {
             
             // Execute the command
             ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
+            // In-memory and waveform jobs keep stdout for the result or the PCM and log to stderr
+            processBuilder.redirectErrorStream(!usesStdout(job));
             
+            FFmpegSpawnedEvent spawnEvent = new FFmpegSpawnedEvent();
+            spawnEvent.begin();
+            long spawnedAt = System.nanoTime();
             Process process = processBuilder.start();
+            spawnEvent.commit(job, process);
+            RunningConversion running = new RunningConversion(job, process);
+            runningConversions.put(job.getJobId(), running);
+            coreBudgetManager.attach(job.getJobId(), process);
+            job.setLastProgressAt(System.currentTimeMillis());
             
-            // Read the output
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                    logger.debug("FFmpeg output: {}", line);
-                }
+            // The job may have been cancelled while the process was being spawned
+            if (job.getStatus() == JobStatus.CANCELLED) {
+                terminate(job.getJobId(), "Cancelled by user");
             }
             
-            int exitCode = process.waitFor();
+            Future<?> inputPump = null;
+            Future<byte[]> capturedOutput = null;
+            Future<Integer> peaks = null;
+            if (job.isInMemory()) {
+                inputPump = pipeExecutor.submit(() -> feedInput(job, process));
+                capturedOutput = pipeExecutor.submit(() -> captureOutput(job, process));
+            } else if (job.isWaveform()) {
+                // Reduced while the main output is encoded
+                peaks = pipeExecutor.submit(() -> waveformService.reduce(job, process.getInputStream()));
+            }
             
-            if (exitCode == 0) {
-                logger.info("FFmpeg conversion completed successfully for job: {}", job.getJobId());
+            try {
+                // Read the output
+                StringBuilder output = new StringBuilder();
+                InputStream log = usesStdout(job) ? process.getErrorStream() : process.getInputStream();
+                boolean awaitingProgress = true;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(log))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!trackProgress(job, line)) {
+                            output.append(line).append("\n");
+                            logger.debug("FFmpeg output: {}", line);
+                        } else if (awaitingProgress && job.getProgressSeconds() != null) {
+                            awaitingProgress = false;
+                            FirstProgressEvent.emit(job, spawnedAt);
+                        }
+                    }
+                }
                 
-                // Set a converted file size
-                File convertedFile = new File(job.getConvertedFilePath());
-                if (convertedFile.exists()) {
-                    job.setConvertedFileSize(convertedFile.length());
+                int exitCode = process.waitFor();
+                
+                if (running.terminationReason != null) {
+                    logger.warn("FFmpeg process terminated for job: {} ({})", job.getJobId(), running.terminationReason);
+                    job.setErrorMessage(running.terminationReason);
+                    deletePartialOutput(job);
+                    return false;
                 }
                 
-                return true;
-            } else {
-                logger.error("FFmpeg conversion failed for job: {} with exit code: {}", job.getJobId(), exitCode);
-                logger.error("FFmpeg output: {}", output.toString());
-                job.setErrorMessage("FFmpeg conversion failed with exit code: " + exitCode);
-                return false;
+                if (exitCode == 0) {
+                    logger.info("FFmpeg conversion completed successfully for job: {}", job.getJobId());
+                    
+                    Path convertedFile = Paths.get(job.getConvertedFilePath());
+                    byte[] result = capturedOutput != null ? capturedOutput.get() : null;
+                    if (result != null) {
+                        resultCache.put(job.getJobId(), result, convertedFile);
+                        job.setConvertedFileSize((long) result.length);
+                        return true;
+                    }
+                    
+                    if (peaks != null) {
+                        try {
+                            logger.info("Computed {} waveform peaks for job: {}", peaks.get(), job.getJobId());
+                        } catch (ExecutionException e) {
+                            logger.error("Waveform generation failed for job: {}", job.getJobId(), e.getCause());
+                            job.setErrorMessage("Waveform generation failed: " + e.getCause().getMessage());
+                            deletePartialOutput(job);
+                            return false;
+                        }
+                        waveformService.publish(job);
+                    }
+                    
+                    // Readers only ever see the complete file under its final name
+                    Files.move(outputLayout.tempPath(convertedFile), convertedFile, StandardCopyOption.ATOMIC_MOVE);
+                    job.setConvertedFileSize(Files.size(convertedFile));
+                    
+                    return true;
+                } else {
+                    logger.error("FFmpeg conversion failed for job: {} with exit code: {}", job.getJobId(), exitCode);
+                    logger.error("FFmpeg output: {}", output.toString());
+                    job.setErrorMessage("FFmpeg conversion failed with exit code: " + exitCode);
+                    deletePartialOutput(job);
+                    return false;
+                }
+            } finally {
+                runningConversions.remove(job.getJobId());
+                awaitPump(inputPump);
+                awaitPump(capturedOutput);
+                awaitPump(peaks);
             }
             
         } catch (Exception e) {
             logger.error("Error during file conversion for job: {}", job.getJobId(), e);
             job.setErrorMessage("Conversion error: " + e.getMessage());
+            deletePartialOutput(job);
             return false;
+        } finally {
+            coreBudgetManager.release(job.getJobId());
+        }
+    }
+    
+    /**
+     * Whether FFmpeg's stdout carries data (an in-memory result or waveform
+     * PCM), so its log and progress go to stderr
+     */
+    private boolean usesStdout(ConversionJob job) {
+        return job.isInMemory() || job.isWaveform();
+    }
+    
+    /**
+     * Writes an in-memory job's input to FFmpeg's stdin and closes it
+     */
+    private void feedInput(ConversionJob job, Process process) {
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(job.getInputBuffer(), 0, job.getInputLength());
+        } catch (IOException e) {
+            // FFmpeg exited, or was killed, before reading all of its input
+            logger.debug("Input pipe closed early for job: {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Reads an in-memory job's result from FFmpeg's stdout. A result that
+     * outgrows the in-memory limit continues into the job's temporary output
+     * file and is published like any other.
+     *
+     * @return the result, or null if it was written to the temporary file
+     */
+    private byte[] captureOutput(ConversionJob job, Process process) throws IOException {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        byte[] chunk = new byte[PIPE_CHUNK_SIZE];
+        
+        try (InputStream stdout = process.getInputStream()) {
+            int read;
+            while ((read = stdout.read(chunk)) != -1) {
+                if (memory.size() + read > maxInMemoryOutputBytes) {
+                    Path tempFile = outputLayout.tempPath(Paths.get(job.getConvertedFilePath()));
+                    Files.createDirectories(tempFile.getParent());
+                    try (OutputStream file = Files.newOutputStream(tempFile)) {
+                        memory.writeTo(file);
+                        file.write(chunk, 0, read);
+                        stdout.transferTo(file);
+                    }
+                    return null;
+                }
+                memory.write(chunk, 0, read);
+            }
+        }
+        return memory.toByteArray();
+    }
+    
+    /**
+     * Waits for a pipe task to end; it does so once the process has exited
+     */
+    private void awaitPump(Future<?> pump) {
+        if (pump == null) {
+            return;
+        }
+        try {
+            pump.get();
+        } catch (ExecutionException e) {
+            logger.debug("Pipe task failed: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Kills the FFmpeg process tree of a running job. The job's conversion
+     * thread then observes the exit, records the reason and removes the partial output.
+     *
+     * @return true if a running process was found for the job
+     */
+    public boolean terminate(String jobId, String reason) {
+        RunningConversion running = runningConversions.get(jobId);
+        if (running == null) {
+            return false;
+        }
+        
+        running.terminationReason = reason;
+        logger.info("Terminating FFmpeg process {} for job: {} ({})", running.process.pid(), jobId, reason);
+        running.process.descendants().forEach(ProcessHandle::destroyForcibly);
+        running.process.destroyForcibly();
+        return true;
+    }
+    
+    /**
+     * Stops the FFmpeg process tree of a running job with SIGSTOP, so its
+     * cores go to a job of higher priority. Only supported where a kill
+     * command can signal processes (Linux and other Unix systems).
+     *
+     * @return true if the job's process was stopped
+     */
+    public boolean suspend(ConversionJob job) {
+        RunningConversion running = runningConversions.get(job.getJobId());
+        if (running == null || running.terminationReason != null || !signal(running.process, "STOP")) {
+            return false;
+        }
+        
+        job.updateState(state -> state.suspend(System.currentTimeMillis()));
+        coreBudgetManager.setSuspended(job.getJobId(), true);
+        logger.info("Suspended FFmpeg process {} for job: {}", running.process.pid(), job.getJobId());
+        return true;
+    }
+    
+    /**
+     * Continues a suspended job's FFmpeg process tree with SIGCONT
+     *
+     * @return true if the job's process was continued
+     */
+    public boolean resume(ConversionJob job) {
+        RunningConversion running = runningConversions.get(job.getJobId());
+        if (running == null || !signal(running.process, "CONT")) {
+            return false;
+        }
+        
+        coreBudgetManager.setSuspended(job.getJobId(), false);
+        // The watchdog measures stalls from the resume, not from the last progress before the stop
+        job.setLastProgressAt(System.currentTimeMillis());
+        job.updateState(state -> state.resume(System.currentTimeMillis()));
+        logger.info("Resumed FFmpeg process {} for job: {}", running.process.pid(), job.getJobId());
+        return true;
+    }
+    
+    private boolean signal(Process process, String signal) {
+        List<String> command = new ArrayList<>(List.of(killPath, "-" + signal, String.valueOf(process.pid())));
+        process.descendants().forEach(descendant -> command.add(String.valueOf(descendant.pid())));
+        try {
+            Process kill = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (kill.waitFor() != 0) {
+                logger.warn("kill -{} exited with {} for pid {}", signal, kill.exitValue(), process.pid());
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not send SIG{} to FFmpeg process {}: {}", signal, process.pid(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Jobs that currently own an FFmpeg process
+     */
+    public Collection<ConversionJob> getRunningJobs() {
+        return runningConversions.values().stream().map(running -> running.job).toList();
+    }
+    
+    /**
+     * Consumes machine-readable progress lines (from -progress) and the input
+     * duration header, updating the job's progress markers.
+     *
+     * @return true if the line was a progress line
+     */
+    private boolean trackProgress(ConversionJob job, String line) {
+        if (line.startsWith(OUT_TIME_PREFIX)) {
+            String value = line.substring(OUT_TIME_PREFIX.length()).trim();
+            try {
+                double seconds = Long.parseLong(value) / 1_000_000.0;
+                Double previous = job.getProgressSeconds();
+                if (previous == null || seconds > previous) {
+                    job.setProgressSeconds(seconds);
+                    job.setLastProgressAt(System.currentTimeMillis());
+                    webhookDispatcher.progress(job);
+                }
+            } catch (NumberFormatException e) {
+                // "N/A" until the first frame has been written
+            }
+            return true;
+        }
+        
+        if (PROGRESS_KEY_PATTERN.matcher(line).find()) {
+            // Other -progress keys (frame=, speed=, progress=...)
+            return true;
+        }
+        
+        if (job.getInputDurationSeconds() == null) {
+            Matcher matcher = DURATION_PATTERN.matcher(line);
+            if (matcher.find()) {
+                double seconds = Integer.parseInt(matcher.group(1)) * 3600
+                        + Integer.parseInt(matcher.group(2)) * 60
+                        + Double.parseDouble(matcher.group(3));
+                job.setInputDurationSeconds(seconds);
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Removes the temporary output of a failed job and its directory, which
+     * holds nothing else
+     */
+    private void deletePartialOutput(ConversionJob job) {
+        if (job.getConvertedFilePath() == null) {
+            return;
+        }
+        
+        if (job.isWaveform()) {
+            waveformService.discard(job);
+        }
+        
+        Path tempFile = outputLayout.tempPath(Paths.get(job.getConvertedFilePath()));
+        try {
+            if (Files.deleteIfExists(tempFile)) {
+                logger.info("Removed partial output for job: {}", job.getJobId());
+            }
+            Files.deleteIfExists(tempFile.getParent());
+        } catch (DirectoryNotEmptyException e) {
+            // Keep a directory that still holds other files
+        } catch (IOException e) {
+            logger.warn("Could not remove partial output for job: {}: {}", job.getJobId(), e.getMessage());
         }
     }
     
@@ -109,38 +475,110 @@ public class FFmpegService {
      * Builds the FFmpeg command based on the conversion job
      */
     private List<String> buildFFmpegCommand(ConversionJob job) {
+        return buildFFmpegCommand(job, outputLayout.tempPath(Paths.get(job.getConvertedFilePath())));
+    }
+    
+    /**
+     * The command a conversion of the job runs, writing to the given file
+     * instead of the job's temporary output. The encoding benchmark runs it to
+     * measure exactly the settings conversions use.
+     */
+    public List<String> buildFFmpegCommand(ConversionJob job, Path outputFile) {
         List<String> command = new ArrayList<>();
         command.add(ffmpegPath);
+        
+        // Machine-readable progress, consumed by trackProgress; in-memory and waveform jobs need stdout
+        command.addAll(Arrays.asList("-progress", usesStdout(job) ? "pipe:2" : "pipe:1", "-nostats"));
+        
+        // Decoder threads
+        if (job.getThreads() != null) {
+            command.addAll(Arrays.asList("-threads", String.valueOf(job.getThreads())));
+        }
+        
+        // Input-side seek: FFmpeg jumps to the keyframe before the start instead of decoding up to it,
+        // and in accurate mode still decodes from there to the exact frame
+        if (job.getClipStart() != null) {
+            command.addAll(Arrays.asList("-ss", formatSeconds(job.getClipStart())));
+        }
+        
         command.add("-i");
-        command.add(job.getOriginalFilePath());
+        command.add(job.isInMemory() ? "pipe:0" : job.getOriginalFilePath());
         
-        // Add quality settings
-        addQualitySettings(command, job);
+        if (job.getClipDuration() != null) {
+            command.addAll(Arrays.asList("-t", formatSeconds(job.getClipDuration())));
+        }
         
-        // Add resolution settings for video
-        if (isVideoFormat(job.getTargetFormat())) {
-            addVideoSettings(command, job);
+        // Encoder and filter graph threads
+        if (job.getThreads() != null) {
+            String threads = String.valueOf(job.getThreads());
+            command.addAll(Arrays.asList("-threads", threads, "-filter_threads", threads));
         }
         
-        // Add audio settings
-        if (isAudioFormat(job.getTargetFormat())) {
-            addAudioSettings(command, job);
+        if (job.isCopyMode()) {
+            addCopySettings(command, job);
+        } else {
+            // Add quality settings
+            addQualitySettings(command, job);
+            
+            // Add resolution settings for video
+            if (isVideoFormat(job.getTargetFormat())) {
+                addVideoSettings(command, job);
+            }
+            
+            // Add audio settings
+            if (isAudioFormat(job.getTargetFormat())) {
+                addAudioSettings(command, job);
+            }
+            
+            // Add image settings
+            if (isImageFormat(job.getTargetFormat())) {
+                addImageSettings(command, job);
+            }
         }
         
-        // Add image settings
-        if (isImageFormat(job.getTargetFormat())) {
-            addImageSettings(command, job);
+        // Recorded with the job's encode time by the cost model
+        if (job.isCopyMode()) {
+            job.setEncoder("copy");
+        } else {
+            job.setEncoder(isVideoFormat(job.getTargetFormat()) && gpuEnabled && detectedGpuEncoder != null
+                    ? detectedGpuEncoder : "cpu");
         }
         
         // Overwrite output file
         command.add("-y");
         
-        // Output file
-        command.add(job.getConvertedFilePath());
+        if (job.isInMemory()) {
+            // Result on stdout, captured by captureOutput
+            command.addAll(PIPE_OUTPUT_ARGS.get(job.getTargetFormat().toLowerCase()));
+            command.add("pipe:1");
+        } else {
+            // Output file, renamed to its final name once FFmpeg succeeds
+            command.add(outputFile.toString());
+        }
+        
+        if (job.isWaveform()) {
+            // Second output: the decoded audio as PCM on stdout, reduced to peaks
+            command.addAll(waveformService.outputArgs(job));
+        }
         
         return command;
     }
     
+    /**
+     * Stream copy: no decoding or encoding, so the output starts at the
+     * keyframe at or before the clip start
+     */
+    private void addCopySettings(List<String> command, ConversionJob job) {
+        if (isAudioFormat(job.getTargetFormat())) {
+            command.add("-vn");
+        }
+        command.addAll(Arrays.asList("-c", "copy", "-avoid_negative_ts", "make_zero"));
+    }
+    
+    private String formatSeconds(double seconds) {
+        return String.format(Locale.ROOT, "%.3f", seconds);
+    }
+    
     private void addQualitySettings(List<String> command, ConversionJob job) {
         String quality = job.getQuality();
         if (quality == null) quality = "medium";
@@ -148,22 +586,47 @@ public class FFmpegService {
         switch (quality.toLowerCase()) {
             case "low":
                 if (isVideoFormat(job.getTargetFormat())) {
-                    command.addAll(Arrays.asList("-crf", "28", "-preset", "fast"));
+                    command.addAll(Arrays.asList("-crf", "28", "-preset", preset(job, "fast")));
                 }
                 break;
             case "high":
                 if (isVideoFormat(job.getTargetFormat())) {
-                    command.addAll(Arrays.asList("-crf", "18", "-preset", "slow"));
+                    command.addAll(Arrays.asList("-crf", "18", "-preset", preset(job, "slow")));
                 }
                 break;
             default: // medium
                 if (isVideoFormat(job.getTargetFormat())) {
-                    command.addAll(Arrays.asList("-crf", "23", "-preset", "medium"));
+                    command.addAll(Arrays.asList("-crf", "23", "-preset", preset(job, "medium")));
                 }
                 break;
         }
     }
     
+    /**
+     * The preset chosen by the scheduler, or the quality's default
+     */
+    private String preset(ConversionJob job, String defaultPreset) {
+        return job.getPreset() != null ? job.getPreset() : defaultPreset;
+    }
+    
+    /**
+     * NVENC takes the x264 preset names except veryfast, whose counterpart is hp
+     */
+    private static String nvencPreset(String preset) {
+        return "veryfast".equals(preset) ? "hp" : preset;
+    }
+    
+    /**
+     * AMF has three speed levels instead of presets
+     */
+    private static String amfQuality(String preset) {
+        return switch (preset) {
+            case "slow" -> "quality";
+            case "medium" -> "balanced";
+            default -> "speed";
+        };
+    }
+    
     private void addVideoSettings(List<String> command, ConversionJob job) {
         String targetFormat = job.getTargetFormat().toLowerCase();
         
@@ -234,13 +697,13 @@ public class FFmpegService {
         
         switch (quality.toLowerCase()) {
             case "low":
-                command.addAll(Arrays.asList("-preset", "fast", "-cq", "28"));
+                command.addAll(Arrays.asList("-preset", nvencPreset(preset(job, "fast")), "-cq", "28"));
                 break;
             case "high":
-                command.addAll(Arrays.asList("-preset", "slow", "-cq", "18"));
+                command.addAll(Arrays.asList("-preset", nvencPreset(preset(job, "slow")), "-cq", "18"));
                 break;
             default: // medium
-                command.addAll(Arrays.asList("-preset", "medium", "-cq", "23"));
+                command.addAll(Arrays.asList("-preset", nvencPreset(preset(job, "medium")), "-cq", "23"));
                 break;
         }
     }
@@ -251,13 +714,16 @@ public class FFmpegService {
         
         switch (quality.toLowerCase()) {
             case "low":
-                command.addAll(Arrays.asList("-quality", "speed", "-rc", "cqp", "-qp_i", "28", "-qp_p", "30"));
+                command.addAll(Arrays.asList("-quality", amfQuality(preset(job, "fast")),
+                        "-rc", "cqp", "-qp_i", "28", "-qp_p", "30"));
                 break;
             case "high":
-                command.addAll(Arrays.asList("-quality", "quality", "-rc", "cqp", "-qp_i", "18", "-qp_p", "20"));
+                command.addAll(Arrays.asList("-quality", amfQuality(preset(job, "slow")),
+                        "-rc", "cqp", "-qp_i", "18", "-qp_p", "20"));
                 break;
             default: // medium
-                command.addAll(Arrays.asList("-quality", "balanced", "-rc", "cqp", "-qp_i", "23", "-qp_p", "25"));
+                command.addAll(Arrays.asList("-quality", amfQuality(preset(job, "medium")),
+                        "-rc", "cqp", "-qp_i", "23", "-qp_p", "25"));
                 break;
         }
     }
@@ -268,13 +734,13 @@ public class FFmpegService {
         
         switch (quality.toLowerCase()) {
             case "low":
-                command.addAll(Arrays.asList("-preset", "fast", "-global_quality", "28"));
+                command.addAll(Arrays.asList("-preset", preset(job, "fast"), "-global_quality", "28"));
                 break;
             case "high":
-                command.addAll(Arrays.asList("-preset", "slow", "-global_quality", "18"));
+                command.addAll(Arrays.asList("-preset", preset(job, "slow"), "-global_quality", "18"));
                 break;
             default: // medium
-                command.addAll(Arrays.asList("-preset", "medium", "-global_quality", "23"));
+                command.addAll(Arrays.asList("-preset", preset(job, "medium"), "-global_quality", "23"));
                 break;
         }
     }
@@ -346,15 +812,15 @@ public class FFmpegService {
     }
     
     private boolean isVideoFormat(String format) {
-        return Arrays.asList("mp4", "avi", "mov", "mkv").contains(format.toLowerCase());
+        return MediaClass.ofTargetFormat(format) == MediaClass.VIDEO;
     }
     
     private boolean isAudioFormat(String format) {
-        return Arrays.asList("mp3", "wav", "flac", "aac").contains(format.toLowerCase());
+        return MediaClass.ofTargetFormat(format) == MediaClass.AUDIO;
     }
     
     private boolean isImageFormat(String format) {
-        return Arrays.asList("jpg", "jpeg", "png", "gif", "webp").contains(format.toLowerCase());
+        return MediaClass.ofTargetFormat(format) == MediaClass.IMAGE;
     }
     
     private void ensureDirectoryExists(String dirPath) throws IOException {
@@ -418,7 +884,7 @@ public class FFmpegService {
     private boolean testGpuEncoder(String encoder) {
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(
-                ffmpegPath, "-f", "lavfi", "-i", "testsrc=duration=1:size=32x32:rate=1", 
+                ffmpegPath, "-f", "lavfi", "-i", "testsrc=duration=1:size=32x32:rate=1",
                 "-c:v", encoder, "-f", "null", "-"
             );
             processBuilder.redirectErrorStream(true);
@@ -461,4 +927,15 @@ public class FFmpegService {
             return "GPU acceleration not available";
         }
     }
+    
+    private static final class RunningConversion {
+        private final ConversionJob job;
+        private final Process process;
+        private volatile String terminationReason;
+        
+        private RunningConversion(ConversionJob job, Process process) {
+            this.job = job;
+            this.process = process;
+        }
+    }
 }
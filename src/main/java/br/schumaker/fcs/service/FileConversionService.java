@@ -2,21 +2,49 @@ package br.schumaker.fcs.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import br.schumaker.fcs.dto.ConversionRequest;
 import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.dto.JobListResponse;
+import br.schumaker.fcs.dto.PathConversionRequest;
+import br.schumaker.fcs.dto.StatusBatchRequest;
+import br.schumaker.fcs.dto.StatusBatchResponse;
+import br.schumaker.fcs.dto.WaveformResponse;
+import br.schumaker.fcs.exception.ConflictException;
+import br.schumaker.fcs.exception.OutputGoneException;
+import br.schumaker.fcs.exception.PathNotAllowedException;
+import br.schumaker.fcs.exception.TooManyActiveJobsException;
+import br.schumaker.fcs.jfr.DownloadServedEvent;
+import br.schumaker.fcs.jfr.JobEnqueuedEvent;
+import br.schumaker.fcs.jfr.UploadSavedEvent;
 import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobState;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+import br.schumaker.fcs.service.IdempotencyService.Fingerprint;
+import br.schumaker.fcs.service.MediaTypeSniffer.SniffedType;
+
+import jakarta.annotation.PostConstruct;
 
 @Service
 public class FileConversionService {
@@ -24,70 +52,402 @@ public class FileConversionService {
     
     private final FFmpegService ffmpegService;
     private final AsyncConversionService asyncConversionService;
+    private final IdempotencyService idempotencyService;
+    private final MediaTypeSniffer mediaTypeSniffer;
+    private final JobScheduler jobScheduler;
+    private final JobIndex jobIndex;
+    private final WebhookDispatcher webhookDispatcher;
+    private final DiskSpaceService diskSpaceService;
+    private final OutputLayout outputLayout;
+    private final InputBufferPool inputBufferPool;
+    private final ResultCache resultCache;
+    private final ClientJobQuota clientJobQuota;
+    private final WaveformService waveformService;
+    private final StorageManager storageManager;
+    
+    // Last status response built for each running job, reused while its state version is
+    // current. Finished jobs are read rarely and many are kept, so they are not cached.
+    private final Map<String, ConversionResponse> statusCache = new ConcurrentHashMap<>();
     
     @Value("${app.upload.dir:./uploads}")
     private String uploadDir;
     
-    @Value("${app.output.dir:./output}")
-    private String outputDir;
+    @Value("${app.memory-path.enabled:true}")
+    private boolean memoryPathEnabled;
     
     @Value("${app.max.file.size:100MB}")
     private String maxFileSize;
     
-    public FileConversionService(FFmpegService ffmpegService, AsyncConversionService asyncConversionService) {
+    @Value("${app.ingest.allowed-roots:}")
+    private String[] ingestRoots;
+    
+    @Value("${app.status.batch.max-jobs:1000}")
+    private int maxBatchSize;
+    
+    @Value("${app.jobs.list.max-limit:500}")
+    private int maxListLimit;
+    
+    public FileConversionService(FFmpegService ffmpegService, AsyncConversionService asyncConversionService,
+            IdempotencyService idempotencyService, MediaTypeSniffer mediaTypeSniffer, JobScheduler jobScheduler,
+            JobIndex jobIndex, WebhookDispatcher webhookDispatcher, DiskSpaceService diskSpaceService,
+            OutputLayout outputLayout, InputBufferPool inputBufferPool, ResultCache resultCache,
+            ClientJobQuota clientJobQuota, WaveformService waveformService, StorageManager storageManager) {
         this.ffmpegService = ffmpegService;
         this.asyncConversionService = asyncConversionService;
+        this.idempotencyService = idempotencyService;
+        this.mediaTypeSniffer = mediaTypeSniffer;
+        this.jobScheduler = jobScheduler;
+        this.jobIndex = jobIndex;
+        this.webhookDispatcher = webhookDispatcher;
+        this.diskSpaceService = diskSpaceService;
+        this.outputLayout = outputLayout;
+        this.inputBufferPool = inputBufferPool;
+        this.resultCache = resultCache;
+        this.clientJobQuota = clientJobQuota;
+        this.waveformService = waveformService;
+        this.storageManager = storageManager;
+    }
+    
+    /**
+     * Hooks this service into the webhook dispatcher and the job lifecycle
+     * once it is fully constructed
+     */
+    @PostConstruct
+    public void registerCallbacks() {
+        webhookDispatcher.setStatusSource(this::getConversionStatus);
+        // Jobs that are never polled again after they end would otherwise stay cached
+        asyncConversionService.addJobEndedListener(job -> statusCache.remove(job.getJobId()));
     }
     
     /**
      * Initiates a file conversion job
      */
     public ConversionResponse startConversion(MultipartFile file, ConversionRequest request) throws IOException {
+        return startConversion(file, request, null);
+    }
+    
+    /**
+     * Initiates a file conversion job, recording it against the client's
+     * idempotency key so retries of the same submission resolve to this job
+     */
+    public ConversionResponse startConversion(MultipartFile file, ConversionRequest request, String idempotencyKey)
+            throws IOException {
+        UploadSavedEvent uploadEvent = new UploadSavedEvent();
+        uploadEvent.begin();
+        
         // Validate file
         validateFile(file);
         
+        // Detect the real input type before the file is copied or queued
+        SniffedType inputType;
+        try (InputStream inputStream = file.getInputStream()) {
+            inputType = mediaTypeSniffer.sniff(inputStream);
+        }
+        checkConvertible(inputType, request.getTargetFormat());
+        
         // Generate job ID
         String jobId = UUID.randomUUID().toString();
         
         // Create conversion job
+        ConversionJob job = createJob(jobId, file.getOriginalFilename(), file.getSize(), inputType, request);
+        diskSpaceService.checkOutputCapacity(job);
+        
+        // Small inputs skip the upload directory and are piped to FFmpeg
+        if (!loadIntoMemory(job, file, inputType)) {
+            saveUploadedFile(file, job);
+        }
+        uploadEvent.commit(job);
+        
+        return submitJob(job, idempotencyKey,
+                IdempotencyService.fingerprint(request, file.getOriginalFilename()));
+    }
+    
+    /**
+     * Initiates a conversion job for a file already assembled on disk by a
+     * resumable upload session. The file is moved into the upload directory,
+     * or deleted if the job cannot be started.
+     */
+    public ConversionResponse startConversion(Path assembledFile, String originalFilename, ConversionRequest request)
+            throws IOException {
+        UploadSavedEvent uploadEvent = new UploadSavedEvent();
+        uploadEvent.begin();
+        
+        ConversionJob job;
+        try {
+            if (originalFilename == null || originalFilename.trim().isEmpty()) {
+                throw new IllegalArgumentException("File name is required");
+            }
+            SniffedType inputType = mediaTypeSniffer.sniff(assembledFile);
+            checkConvertible(inputType, request.getTargetFormat());
+            
+            String jobId = UUID.randomUUID().toString();
+            job = createJob(jobId, originalFilename, Files.size(assembledFile), inputType, request);
+            diskSpaceService.checkOutputCapacity(job);
+            
+            getUploadPath();
+            storageManager.addOriginal(jobId, job.getOriginalFileSize());
+        } catch (IOException | RuntimeException e) {
+            deleteAssembledFile(assembledFile);
+            throw e;
+        }
+        
+        try {
+            Files.move(assembledFile, Paths.get(job.getOriginalFilePath()), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            storageManager.deleteOriginal(job);
+            deleteAssembledFile(assembledFile);
+            throw e;
+        }
+        uploadEvent.commit(job);
+        
+        return submitJob(job, null, null);
+    }
+    
+    private void deleteAssembledFile(Path assembledFile) {
+        try {
+            Files.deleteIfExists(assembledFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete assembled upload {}: {}", assembledFile, e.getMessage());
+        }
+    }
+    
+    /**
+     * Initiates a conversion job for a file on a shared volume. FFmpeg reads the
+     * file in place; it is never copied, moved or deleted by the service.
+     */
+    public ConversionResponse startConversion(PathConversionRequest request, String idempotencyKey) throws IOException {
+        return startInPlace(resolveIngestPath(request.getPath()), request, idempotencyKey,
+                IdempotencyService.fingerprint(request));
+    }
+    
+    /**
+     * Initiates a conversion job for a file claimed from a watched inbox. The
+     * inbox is configured by the operator, so the path is not checked against
+     * the ingest roots; FFmpeg reads the file in place.
+     */
+    public ConversionResponse startWatchedConversion(Path inputPath, ConversionRequest request) throws IOException {
+        return startInPlace(inputPath, request, null, null);
+    }
+    
+    private ConversionResponse startInPlace(Path inputPath, ConversionRequest request, String idempotencyKey,
+            Fingerprint fingerprint) throws IOException {
+        long size = Files.size(inputPath);
+        if (size == 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        if (size > parseFileSize(maxFileSize)) {
+            throw new IllegalArgumentException("File size exceeds maximum allowed size: " + maxFileSize);
+        }
+        
+        SniffedType inputType = mediaTypeSniffer.sniff(inputPath);
+        checkConvertible(inputType, request.getTargetFormat());
+        
+        String jobId = UUID.randomUUID().toString();
+        ConversionJob job = createJob(jobId, inputPath.getFileName().toString(), size, inputType, request);
+        diskSpaceService.checkOutputCapacity(job);
+        job.setExternalInputPath(inputPath.toString());
+        
+        return submitJob(job, idempotencyKey, fingerprint);
+    }
+    
+    /**
+     * Resolves a client-supplied path against the allow-listed ingest roots.
+     * The path is checked lexically before touching the file system, and again
+     * after resolving symbolic links, so neither ".." segments nor links can
+     * escape a root.
+     */
+    private Path resolveIngestPath(String requestedPath) throws IOException {
+        if (ingestRoots == null || ingestRoots.length == 0) {
+            throw new PathNotAllowedException("Ingest by path is not enabled");
+        }
+        if (requestedPath.indexOf('\0') >= 0) {
+            throw new PathNotAllowedException("Invalid path");
+        }
+        
+        Path requested = Paths.get(requestedPath);
+        for (String root : ingestRoots) {
+            if (root.isBlank()) {
+                continue;
+            }
+            
+            Path rootPath = Paths.get(root.trim()).toAbsolutePath().normalize();
+            Path candidate = rootPath.resolve(requested).normalize();
+            if (!candidate.startsWith(rootPath) || candidate.equals(rootPath)) {
+                continue;
+            }
+            
+            Path realCandidate;
+            try {
+                realCandidate = candidate.toRealPath();
+            } catch (NoSuchFileException e) {
+                throw new IllegalArgumentException("File not found: " + requestedPath);
+            }
+            
+            if (!realCandidate.startsWith(rootPath.toRealPath())) {
+                throw new PathNotAllowedException("Path resolves outside the allowed ingest roots");
+            }
+            if (!Files.isRegularFile(realCandidate) || !Files.isReadable(realCandidate)) {
+                throw new IllegalArgumentException("Not a readable file: " + requestedPath);
+            }
+            return realCandidate;
+        }
+        
+        throw new PathNotAllowedException("Path is outside the allowed ingest roots");
+    }
+    
+    /**
+     * Rejects inputs whose magic bytes match no supported container, and
+     * source/target pairs that cannot be converted (such as image to audio)
+     */
+    public void checkConvertible(SniffedType inputType, String targetFormat) {
+        if (inputType == null) {
+            throw new IllegalArgumentException("Unsupported or unrecognized input file type");
+        }
+        
+        MediaClass targetClass = MediaClass.ofTargetFormat(targetFormat);
+        if (targetClass == null) {
+            throw new IllegalArgumentException("Unsupported target format: " + targetFormat);
+        }
+        
+        if (!inputType.mediaClass().canConvertTo(targetClass)) {
+            throw new IllegalArgumentException("Cannot convert " + inputType.mediaClass().name().toLowerCase()
+                    + " input (" + inputType.container() + ") to " + targetFormat);
+        }
+    }
+    
+    private ConversionJob createJob(String jobId, String originalFilename, long fileSize, SniffedType inputType,
+            ConversionRequest request) {
         ConversionJob job = new ConversionJob(jobId);
-        job.setOriginalFileName(file.getOriginalFilename());
-        job.setOriginalFormat(FilenameUtils.getExtension(file.getOriginalFilename()));
+        job.setOriginalFileName(originalFilename);
+        job.setOriginalFormat(inputType.container());
+        job.setInputMediaClass(inputType.mediaClass());
         job.setTargetFormat(request.getTargetFormat());
         job.setQuality(request.getQuality());
         job.setWidth(request.getWidth());
         job.setHeight(request.getHeight());
         job.setBitrate(request.getBitrate());
-        job.setOriginalFileSize(file.getSize());
+        job.setOriginalFileSize(fileSize);
+        job.setSlaClass(request.getSlaClass());
+        job.setPriority(request.getPriority());
+        job.setClientId(request.getClientId());
+        if (request.getCallbackUrl() != null && !request.getCallbackUrl().isBlank()) {
+            webhookDispatcher.validateCallbackUrl(request.getCallbackUrl());
+            job.setCallbackUrl(request.getCallbackUrl());
+            job.setCallbackProgress(request.isCallbackProgress());
+        }
+        setClip(job, request);
+        setWaveform(job, request);
+        job.setDeadline(request.getDeadline() != null ? request.getDeadline()
+                : job.getCreatedAt().plusSeconds(jobScheduler.getSlaSeconds(request.getSlaClass())));
+        // Input, output and download names are derived from the job ID and the request
+        job.setPaths(outputLayout);
+        
+        return job;
+    }
+    
+    /**
+     * Validates and copies the excerpt and cut mode of a request
+     */
+    private void setClip(ConversionJob job, ConversionRequest request) {
+        Double start = request.getClipStart();
+        Double end = request.getClipEnd();
+        Double duration = request.getClipDuration();
+        boolean copy = "copy".equals(request.getCutMode());
+        boolean clipped = start != null || end != null || duration != null;
+        
+        if (!clipped && !copy) {
+            return;
+        }
+        if (end != null && duration != null) {
+            throw new IllegalArgumentException("Give either clipEnd or clipDuration, not both");
+        }
+        if (end != null && end <= (start != null ? start : 0)) {
+            throw new IllegalArgumentException("Clip end must be after clip start");
+        }
+        
+        MediaClass targetClass = MediaClass.ofTargetFormat(request.getTargetFormat());
+        if (clipped && (job.getInputMediaClass() == MediaClass.IMAGE || targetClass == MediaClass.IMAGE)) {
+            throw new IllegalArgumentException("Clips apply to audio and video only");
+        }
+        if (copy && (job.getInputMediaClass() == MediaClass.IMAGE || targetClass == MediaClass.IMAGE)) {
+            throw new IllegalArgumentException("Copy mode applies to audio and video only");
+        }
+        if (copy && (request.getWidth() != null || request.getHeight() != null || request.getBitrate() != null)) {
+            throw new IllegalArgumentException("Copy mode cannot change resolution or bitrate");
+        }
         
-        // Save uploaded file
-        String originalFilePath = saveUploadedFile(file, jobId);
-        job.setOriginalFilePath(originalFilePath);
+        job.setClipStart(start != null && start > 0 ? start : null);
+        job.setClipDuration(end != null ? end - (start != null ? start : 0) : duration);
+        job.setCutMode(copy ? "copy" : "accurate");
+    }
+    
+    /**
+     * Validates and copies the waveform option of a request
+     */
+    private void setWaveform(ConversionJob job, ConversionRequest request) {
+        if (!request.isWaveform()) {
+            return;
+        }
         
-        // Set converted file path
-        String convertedFileName = generateConvertedFileName(file.getOriginalFilename(), request.getTargetFormat());
-        String convertedFilePath = Paths.get(outputDir, convertedFileName).toString();
-        job.setConvertedFileName(convertedFileName);
-        job.setConvertedFilePath(convertedFilePath);
+        checkWaveform(job.getInputMediaClass(), request);
+        job.setWaveformPeaksPerSecond(request.getPeaksPerSecond() != null ? request.getPeaksPerSecond()
+                : waveformService.getDefaultPeaksPerSecond());
+    }
+    
+    /**
+     * Rejects a waveform asked for with an image input or target
+     *
+     * @param inputClass null if the input has not been seen yet
+     */
+    public void checkWaveform(MediaClass inputClass, ConversionRequest request) {
+        if (!request.isWaveform()) {
+            return;
+        }
+        
+        MediaClass targetClass = MediaClass.ofTargetFormat(request.getTargetFormat());
+        if (inputClass == MediaClass.IMAGE || targetClass == MediaClass.IMAGE) {
+            throw new IllegalArgumentException("Waveforms apply to audio and video only");
+        }
+    }
+    
+    private ConversionResponse submitJob(ConversionJob job, String idempotencyKey, Fingerprint fingerprint)
+            throws IOException {
+        String jobId = job.getJobId();
+        
+        try {
+            clientJobQuota.acquire(job.getClientId());
+        } catch (TooManyActiveJobsException e) {
+            discardInput(job);
+            throw e;
+        }
         
         // Store job in async service
         asyncConversionService.storeJob(job);
         
+        if (idempotencyKey != null) {
+            idempotencyService.complete(job.getClientId(), idempotencyKey.trim(), jobId, fingerprint);
+        }
+        
         // Start async conversion
+        JobEnqueuedEvent.emit(job, jobScheduler.getQueueDepth());
         asyncConversionService.processConversionAsync(job);
         
         // Return response
         ConversionResponse response = new ConversionResponse(jobId, "PENDING");
+        response.setVersion(job.getState().getVersion());
+        response.setEstimatedRunSeconds(job.getEstimatedRunSeconds());
         response.setOriginalFileName(job.getOriginalFileName());
         response.setOriginalFormat(job.getOriginalFormat());
         response.setTargetFormat(job.getTargetFormat());
         response.setOriginalFileSize(job.getOriginalFileSize());
+        response.setDeadline(job.getDeadline());
         
         return response;
     }
     
     /**
-     * Gets the status of a conversion job
+     * Gets the status of a conversion job. Responses are built once per state
+     * version and shared until the job changes again.
      */
     public ConversionResponse getConversionStatus(String jobId) {
         ConversionJob job = asyncConversionService.getJob(jobId);
@@ -99,37 +459,221 @@ public class FileConversionService {
             return response;
         }
         
+        JobState state = job.getState();
+        ConversionResponse cached = statusCache.get(jobId);
+        if (cached != null && cached.getVersion() == state.getVersion()) {
+            return cached;
+        }
+        
+        ConversionResponse response = toResponse(job, state);
+        // The suspended time of a stopped job grows without a new version
+        if (state.isTerminal() || state.isSuspended()) {
+            statusCache.remove(jobId);
+            return response;
+        }
+        statusCache.merge(jobId, response,
+                (existing, built) -> existing.getVersion() >= built.getVersion() ? existing : built);
+        // The job may have ended, and its entry been dropped, while this response was built
+        if (job.isTerminal()) {
+            statusCache.remove(jobId);
+        }
+        return response;
+    }
+    
+    /**
+     * Gets the status of many jobs at once. Jobs whose version matches the one
+     * the client already has are listed as unchanged instead of repeated,
+     * except suspended ones.
+     */
+    public StatusBatchResponse getConversionStatuses(StatusBatchRequest request) {
+        if (request.getJobIds().size() > maxBatchSize) {
+            throw new IllegalArgumentException("At most " + maxBatchSize + " job IDs per batch");
+        }
+        
+        Map<String, Long> knownVersions = request.getKnownVersions() != null ? request.getKnownVersions() : Map.of();
+        StatusBatchResponse batch = new StatusBatchResponse();
+        
+        for (String jobId : request.getJobIds()) {
+            ConversionJob job = asyncConversionService.getJob(jobId);
+            if (job == null) {
+                batch.getNotFound().add(jobId);
+                continue;
+            }
+            
+            // A suspended job's response changes over time without a new version
+            JobState state = job.getState();
+            Long knownVersion = knownVersions.get(jobId);
+            if (knownVersion != null && knownVersion == state.getVersion() && !state.isSuspended()) {
+                batch.getUnchanged().add(jobId);
+            } else {
+                batch.getJobs().add(getConversionStatus(jobId));
+            }
+        }
+        
+        return batch;
+    }
+    
+    /**
+     * Lists jobs matching the query, newest first
+     */
+    public JobListResponse listJobs(JobIndex.Query query) {
+        if (query.limit() < 1 || query.limit() > maxListLimit) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + maxListLimit);
+        }
+        
+        JobIndex.Page page = jobIndex.query(query);
+        List<ConversionResponse> jobs = new ArrayList<>(page.jobs().size());
+        for (ConversionJob job : page.jobs()) {
+            jobs.add(getConversionStatus(job.getJobId()));
+        }
+        return new JobListResponse(jobs, page.nextCursor());
+    }
+    
+    private ConversionResponse toResponse(ConversionJob job, JobState state) {
         ConversionResponse response = new ConversionResponse();
         response.setJobId(job.getJobId());
-        response.setStatus(job.getStatus());
+        response.setVersion(state.getVersion());
+        response.setStatus(state.getStatus().name());
         response.setOriginalFileName(job.getOriginalFileName());
         response.setConvertedFileName(job.getConvertedFileName());
         response.setOriginalFormat(job.getOriginalFormat());
         response.setTargetFormat(job.getTargetFormat());
         response.setCreatedAt(job.getCreatedAt());
-        response.setCompletedAt(job.getCompletedAt());
-        response.setErrorMessage(job.getErrorMessage());
+        response.setCompletedAt(state.getCompletedAt());
+        response.setErrorMessage(state.getErrorMessage());
         response.setOriginalFileSize(job.getOriginalFileSize());
-        response.setConvertedFileSize(job.getConvertedFileSize());
+        response.setConvertedFileSize(state.getConvertedFileSize());
+        response.setDeadline(job.getDeadline());
+        response.setPreset(state.getPreset());
+        response.setClientId(job.getClientId());
+        response.setPriority(job.getPriority());
+        
+        long now = System.currentTimeMillis();
+        long suspendedMillis = state.getSuspendedMillis(now);
+        if (state.isSuspended()) {
+            response.setSuspended(true);
+            response.setSuspendedAt(state.getSuspendedAt());
+        }
+        if (suspendedMillis > 0) {
+            response.setSuspendedSeconds(Math.round(suspendedMillis / 100.0) / 10.0);
+        }
         
-        if ("COMPLETED".equals(job.getStatus())) {
-            response.setDownloadUrl("/api/files/download/" + jobId);
+        if (job.getCutMode() != null) {
+            response.setCutMode(job.getCutMode());
+            response.setClipStart(job.getClipStart() != null ? job.getClipStart() : 0.0);
+            if (job.getClipDuration() != null) {
+                response.setClipEnd(response.getClipStart() + job.getClipDuration());
+            }
+            response.setActualClipStart(job.getActualClipStart());
+            response.setActualClipEnd(job.getActualClipEnd());
+        }
+        
+        Double estimate = state.getEstimatedRunSeconds();
+        if (estimate != null) {
+            response.setEstimatedRunSeconds(Math.round(estimate * 10) / 10.0);
+            if (state.getStatus() == JobStatus.PROCESSING && state.getStartedAt() != null) {
+                // Pushed back by the time spent suspended
+                response.setEstimatedCompletionAt(state.getStartedAt()
+                        .plusNanos((long) (estimate * 1_000_000_000L) + suspendedMillis * 1_000_000L));
+            }
+        }
+        
+        if (state.isOutputEvicted()) {
+            response.setOutputEvicted(true);
+        } else if (state.getStatus() == JobStatus.COMPLETED) {
+            response.setDownloadUrl("/api/files/download/" + job.getJobId());
+            if (job.isWaveform()) {
+                response.setWaveformUrl("/api/files/waveform/" + job.getJobId());
+            }
         }
         
         return response;
     }
     
     /**
-     * Gets the converted file for download
+     * Cancels a queued or running conversion job
      */
-    public File getConvertedFile(String jobId) {
+    public ConversionResponse cancelConversion(String jobId) {
         ConversionJob job = asyncConversionService.getJob(jobId);
-        if (job == null || !"COMPLETED".equals(job.getStatus())) {
+        if (job == null) {
+            return getConversionStatus(jobId);
+        }
+        
+        if (!asyncConversionService.cancelJob(job)) {
+            throw new ConflictException("Job already finished with status: " + job.getStatus());
+        }
+        
+        return getConversionStatus(jobId);
+    }
+    
+    /**
+     * Gets the converted file for download, from the result cache or the
+     * output directory
+     *
+     * @return null if the job is unknown or not completed
+     * @throws OutputGoneException if the job completed but its result is no
+     *                             longer kept
+     */
+    public Resource getConvertedResource(String jobId) {
+        ConversionJob job = asyncConversionService.getJob(jobId);
+        if (job == null || job.getStatus() != JobStatus.COMPLETED) {
             return null;
         }
+        checkNotEvicted(job);
+        storageManager.outputAccessed(jobId);
+        
+        DownloadServedEvent downloadEvent = new DownloadServedEvent();
+        downloadEvent.begin();
+        
+        byte[] cached = resultCache.get(jobId);
+        if (cached != null) {
+            downloadEvent.commit(jobId, cached.length, true);
+            return new ByteArrayResource(cached);
+        }
         
         File file = new File(job.getConvertedFilePath());
-        return file.exists() ? file : null;
+        if (!file.exists()) {
+            throw new OutputGoneException("Result of job " + jobId + " is no longer available");
+        }
+        downloadEvent.commit(jobId, file.length(), false);
+        return new FileSystemResource(file);
+    }
+    
+    /**
+     * Gets the waveform peaks of a completed job as JSON
+     *
+     * @return null if the job is unknown, not completed or has no waveform
+     */
+    public WaveformResponse getWaveform(String jobId) throws IOException {
+        ConversionJob job = asyncConversionService.getJob(jobId);
+        if (job == null || job.getStatus() != JobStatus.COMPLETED || !job.isWaveform()) {
+            return null;
+        }
+        checkNotEvicted(job);
+        return waveformService.read(jobId);
+    }
+    
+    /**
+     * Gets the binary peaks file of a completed job
+     *
+     * @return null if the job is unknown, not completed or has no waveform
+     */
+    public Resource getWaveformResource(String jobId) {
+        ConversionJob job = asyncConversionService.getJob(jobId);
+        if (job == null || job.getStatus() != JobStatus.COMPLETED || !job.isWaveform()) {
+            return null;
+        }
+        checkNotEvicted(job);
+        
+        File file = waveformService.peaksFile(jobId).toFile();
+        return file.exists() ? new FileSystemResource(file) : null;
+    }
+    
+    private void checkNotEvicted(ConversionJob job) {
+        if (job.isOutputEvicted()) {
+            throw new OutputGoneException("Result of job " + job.getJobId()
+                    + " was evicted to stay within the output quota");
+        }
     }
     
     private void validateFile(MultipartFile file) throws IOException {
@@ -149,27 +693,75 @@ public class FileConversionService {
         }
     }
     
-    private String saveUploadedFile(MultipartFile file, String jobId) throws IOException {
+    /**
+     * Reads a small upload into a pooled buffer when FFmpeg can take it on
+     * stdin and write the result to stdout
+     *
+     * @return false if the job has to go through the upload directory
+     */
+    private boolean loadIntoMemory(ConversionJob job, MultipartFile file, SniffedType inputType) throws IOException {
+        if (!memoryPathEnabled || job.isCopyMode() || job.isWaveform()
+                || file.getSize() > inputBufferPool.getBufferSize()
+                || !ffmpegService.canPipe(inputType, job.getTargetFormat())) {
+            return false;
+        }
+        
+        byte[] buffer = inputBufferPool.tryAcquire();
+        if (buffer == null) {
+            return false;
+        }
+        
+        try (InputStream inputStream = file.getInputStream()) {
+            int length = inputStream.readNBytes(buffer, 0, (int) file.getSize());
+            job.setInputBuffer(buffer, length);
+            return true;
+        } catch (IOException e) {
+            inputBufferPool.release(buffer);
+            throw e;
+        }
+    }
+    
+    /**
+     * Drops the input of a job that was turned away after it was stored.
+     * External inputs belong to the shared volume and are left alone.
+     */
+    private void discardInput(ConversionJob job) {
+        inputBufferPool.release(job.takeInputBuffer());
+        storageManager.deleteOriginal(job);
+    }
+    
+    private void saveUploadedFile(MultipartFile file, ConversionJob job) throws IOException {
+        getUploadPath();
+        Path filePath = Paths.get(job.getOriginalFilePath());
+        
+        // Held only while copying; once written the file shows in the usable space
+        storageManager.addOriginal(job.getJobId(), file.getSize());
+        String reservationKey = "upload:" + job.getJobId();
+        try {
+            diskSpaceService.reserveUpload(reservationKey, file.getSize(), filePath);
+            Files.copy(file.getInputStream(), filePath);
+        } catch (IOException | RuntimeException e) {
+            storageManager.deleteOriginal(job);
+            throw e;
+        } finally {
+            diskSpaceService.release(reservationKey);
+        }
+    }
+    
+    private Path getUploadPath() throws IOException {
         // Ensure upload directory exists
         Path uploadPath = Paths.get(uploadDir);
         if (!Files.exists(uploadPath)) {
             Files.createDirectories(uploadPath);
         }
-        
-        // Generate unique filename
-        String originalFilename = file.getOriginalFilename();
-        String extension = FilenameUtils.getExtension(originalFilename);
-        String filename = jobId + "_original." + extension;
-        
-        Path filePath = uploadPath.resolve(filename);
-        Files.copy(file.getInputStream(), filePath);
-        
-        return filePath.toString();
+        return uploadPath;
     }
     
-    private String generateConvertedFileName(String originalFilename, String targetFormat) {
-        String baseName = FilenameUtils.getBaseName(originalFilename);
-        return baseName + "_converted." + targetFormat;
+    /**
+     * Maximum accepted input size, from app.max.file.size
+     */
+    public long getMaxFileSizeBytes() {
+        return parseFileSize(maxFileSize);
     }
     
     private long parseFileSize(String size) {
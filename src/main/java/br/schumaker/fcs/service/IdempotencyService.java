@@ -0,0 +1,212 @@
+package br.schumaker.fcs.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+import br.schumaker.fcs.dto.PathConversionRequest;
+
+/**
+ * Bounded, expiring index of Idempotency-Key values to the job each key created.
+ * The first request with a key becomes its owner; concurrent and later requests
+ * with the same key wait on the owner's result instead of creating a new job.
+ * Keys are scoped to the client that sent them, so two clients choosing the
+ * same key never see each other's jobs, and each entry keeps a fingerprint of
+ * the owner's request that a retry must match: its input, every option that
+ * shapes the job, and for uploads the length of the request body.
+ */
+@Service
+public class IdempotencyService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    
+    @Value("${app.idempotency.retention-seconds:86400}")
+    private long retentionSeconds;
+    
+    @Value("${app.idempotency.max-keys:100000}")
+    private int maxKeys;
+    
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    
+    // Entries in creation order; retention is uniform, so this is also expiry order
+    private final Queue<Entry> expiryOrder = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Claims a key. The returned entry is owned by the caller if no live entry
+     * existed for the key, otherwise it is the existing entry to wait on.
+     *
+     * @param contentLength length of the request body, or -1 if unknown;
+     *                      recorded if the caller becomes the owner
+     */
+    public Reservation reserve(String clientId, String key, long contentLength) {
+        evictExpired();
+        key = scope(clientId, key);
+        
+        long now = System.currentTimeMillis();
+        while (true) {
+            Entry fresh = new Entry(key, now, contentLength);
+            Entry existing = entries.putIfAbsent(key, fresh);
+            
+            if (existing == null) {
+                expiryOrder.add(fresh);
+                return new Reservation(fresh, true);
+            }
+            
+            if (!existing.isExpired(now, retentionSeconds)) {
+                return new Reservation(existing, false);
+            }
+            
+            // Stale entry not yet evicted: replace it and retry
+            entries.remove(key, existing);
+        }
+    }
+    
+    /**
+     * Records the job created by the owner of a key, and the fingerprint of
+     * the request that created it.
+     */
+    public void complete(String clientId, String key, String jobId, Fingerprint fingerprint) {
+        key = scope(clientId, key);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, System.currentTimeMillis(), -1);
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing != null) {
+                entry = existing;
+            } else {
+                expiryOrder.add(entry);
+            }
+        }
+        entry.fingerprint = fingerprint;
+        entry.jobId.complete(jobId);
+    }
+    
+    /**
+     * Fingerprint of an upload: its file name and the options that shape the
+     * job. Its size is covered by the body length recorded on reservation.
+     */
+    public static Fingerprint fingerprint(ConversionRequest request, String fileName) {
+        return new Fingerprint("file:" + fileName, options(request));
+    }
+    
+    /**
+     * Fingerprint of a by-path request: the path as given, and the options
+     * that shape the job
+     */
+    public static Fingerprint fingerprint(PathConversionRequest request) {
+        return new Fingerprint("path:" + request.getPath(), options(request));
+    }
+    
+    /**
+     * The request's options by the name they are bound from, which is also
+     * the form field or JSON property a client sends them in. Every option a
+     * client may set goes in here; the clientId is set by the server.
+     */
+    public static Map<String, String> options(ConversionRequest request) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("targetFormat", String.valueOf(request.getTargetFormat()));
+        options.put("quality", String.valueOf(request.getQuality()));
+        options.put("width", String.valueOf(request.getWidth()));
+        options.put("height", String.valueOf(request.getHeight()));
+        options.put("bitrate", String.valueOf(request.getBitrate()));
+        options.put("deadline", String.valueOf(request.getDeadline()));
+        options.put("slaClass", String.valueOf(request.getSlaClass()));
+        options.put("callbackUrl", String.valueOf(request.getCallbackUrl()));
+        options.put("callbackProgress", String.valueOf(request.isCallbackProgress()));
+        options.put("clipStart", String.valueOf(request.getClipStart()));
+        options.put("clipEnd", String.valueOf(request.getClipEnd()));
+        options.put("clipDuration", String.valueOf(request.getClipDuration()));
+        options.put("cutMode", String.valueOf(request.getCutMode()));
+        options.put("waveform", String.valueOf(request.isWaveform()));
+        options.put("peaksPerSecond", String.valueOf(request.getPeaksPerSecond()));
+        options.put("priority", String.valueOf(request.getPriority()));
+        return options;
+    }
+    
+    private static String scope(String clientId, String key) {
+        String client = clientId != null ? clientId : "";
+        return client.length() + ":" + client + ":" + key;
+    }
+    
+    /**
+     * Releases a key whose owner failed before creating a job, so that waiting
+     * requests and later retries can claim it.
+     */
+    public void abandon(Entry entry) {
+        if (entry.jobId.isDone()) {
+            return;
+        }
+        entries.remove(entry.key, entry);
+        entry.jobId.cancel(false);
+    }
+    
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Entry head;
+        while ((head = expiryOrder.peek()) != null
+                && (head.isExpired(now, retentionSeconds) || entries.size() > maxKeys)) {
+            if (expiryOrder.remove(head)) {
+                if (entries.remove(head.key, head) && !head.isExpired(now, retentionSeconds)) {
+                    logger.debug("Evicted idempotency key {} to stay within {} keys", head.key, maxKeys);
+                }
+            }
+        }
+    }
+    
+    public static final class Entry {
+        private final String key;
+        private final long createdAt;
+        private final long contentLength; // of the owner's request body, -1 if unknown
+        private final CompletableFuture<String> jobId = new CompletableFuture<>();
+        private volatile Fingerprint fingerprint; // set before the job ID completes
+        
+        private Entry(String key, long createdAt, long contentLength) {
+            this.key = key;
+            this.createdAt = createdAt;
+            this.contentLength = contentLength;
+        }
+        
+        private boolean isExpired(long now, long retentionSeconds) {
+            return now - createdAt > retentionSeconds * 1000;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        /**
+         * Completes with the job ID once the owner has created the job; cancelled
+         * if the owner gave up.
+         */
+        public CompletableFuture<String> getJobId() {
+            return jobId;
+        }
+        
+        public Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+        
+        public long getContentLength() {
+            return contentLength;
+        }
+    }
+    
+    /**
+     * What a retry has to match: the input it names and its options, as
+     * returned by {@link #options}
+     */
+    public record Fingerprint(String input, Map<String, String> options) {
+    }
+    
+    public record Reservation(Entry entry, boolean owner) {
+    }
+}
@@ -0,0 +1,58 @@
+package br.schumaker.fcs.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fixed-size byte buffers holding small inputs that are piped to FFmpeg
+ * instead of being written to the upload directory. Buffers are allocated on
+ * first use, up to the pool size, and reused afterwards; when all are lent out
+ * the caller falls back to the disk path.
+ */
+@Component
+public class InputBufferPool {
+    
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    
+    @Value("${app.memory-path.max-input-bytes:2097152}")
+    private int bufferSize;
+    
+    @Value("${app.memory-path.buffer-pool-size:16}")
+    private int poolSize;
+    
+    /**
+     * @return a buffer of {@link #getBufferSize()} bytes, or null if the pool is exhausted
+     */
+    public byte[] tryAcquire() {
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        
+        while (true) {
+            int count = allocated.get();
+            if (count >= poolSize) {
+                // Another thread may have returned one since the poll
+                return free.poll();
+            }
+            if (allocated.compareAndSet(count, count + 1)) {
+                return new byte[bufferSize];
+            }
+        }
+    }
+    
+    public void release(byte[] buffer) {
+        if (buffer != null) {
+            free.add(buffer);
+        }
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,230 @@
+package br.schumaker.fcs.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobState;
+import br.schumaker.fcs.model.JobStatus;
+
+/**
+ * Secondary indexes over stored jobs, ordered newest first: all jobs, and one
+ * set per status, target format and client. Status sets are updated on every
+ * state transition, so a query starts from the smallest matching set and only
+ * checks the remaining filters on the entries it walks.
+ */
+@Component
+public class JobIndex {
+    
+    private final Map<String, ConversionJob> jobs = new ConcurrentHashMap<>();
+    private final KeySet byCreated = new KeySet();
+    private final Map<JobStatus, KeySet> byStatus = new EnumMap<>(JobStatus.class);
+    private final Map<String, KeySet> byTargetFormat = new ConcurrentHashMap<>();
+    private final Map<String, KeySet> byClient = new ConcurrentHashMap<>();
+    
+    /**
+     * Filter for {@link #query}; null fields match everything
+     */
+    public record Query(JobStatus status, String targetFormat, String clientId,
+            LocalDateTime createdFrom, LocalDateTime createdTo, String cursor, int limit) {
+    }
+    
+    /**
+     * One page of matching jobs and the cursor for the next page, or null on the last page
+     */
+    public record Page(List<ConversionJob> jobs, String nextCursor) {
+    }
+    
+    public JobIndex() {
+        // Filled up front and never changed, so readers need no locking
+        for (JobStatus status : JobStatus.values()) {
+            byStatus.put(status, new KeySet());
+        }
+    }
+    
+    /**
+     * Adds a newly stored job and keeps its status entry current from then on
+     */
+    public void add(ConversionJob job) {
+        Key key = new Key(job.getCreatedAtMillis(), job.getJobId());
+        jobs.put(job.getJobId(), job);
+        byCreated.add(key);
+        setFor(byTargetFormat, job.getTargetFormat().toLowerCase()).add(key);
+        if (job.getClientId() != null) {
+            setFor(byClient, job.getClientId()).add(key);
+        }
+        
+        job.setStateListener(this::onStateChange);
+        reindexStatus(job, key);
+    }
+    
+    /**
+     * @return the stored job, or null if there is none with this ID
+     */
+    public ConversionJob get(String jobId) {
+        return jobs.get(jobId);
+    }
+    
+    public int countByStatus(JobStatus status) {
+        return byStatus.get(status).size();
+    }
+    
+    public Page query(Query query) {
+        KeySet candidates = smallestCandidateSet(query);
+        
+        // Newest first, from the cursor (the last key of the previous page) or
+        // the upper bound, whichever is older; a sub-view rejects keys outside it
+        NavigableSet<Key> range = candidates.keys.descendingSet();
+        Key cursor = decodeCursor(query.cursor());
+        Key upper = query.createdTo() != null
+                ? new Key(toMillis(query.createdTo()), String.valueOf(Character.MAX_VALUE))
+                : null;
+        if (cursor != null && (upper == null || cursor.compareTo(upper) <= 0)) {
+            range = range.tailSet(cursor, false);
+        } else if (upper != null) {
+            range = range.tailSet(upper, true);
+        }
+        long createdFromMillis = query.createdFrom() != null ? toMillis(query.createdFrom()) : Long.MIN_VALUE;
+        
+        List<ConversionJob> page = new ArrayList<>();
+        Key last = null;
+        for (Key key : range) {
+            if (key.createdMillis() < createdFromMillis) {
+                break;
+            }
+            ConversionJob job = jobs.get(key.jobId());
+            if (job == null || !matches(job, query)) {
+                continue;
+            }
+            if (page.size() == query.limit()) {
+                return new Page(page, encodeCursor(last));
+            }
+            page.add(job);
+            last = key;
+        }
+        return new Page(page, null);
+    }
+    
+    private void onStateChange(ConversionJob job, JobState previous, JobState current) {
+        if (current.getStatus() != previous.getStatus()) {
+            reindexStatus(job, new Key(job.getCreatedAtMillis(), job.getJobId()));
+        }
+    }
+    
+    /**
+     * Moves the job to the set of its current status. Notifications of
+     * concurrent transitions can arrive out of order, so the status is read
+     * from the job rather than taken from the notification.
+     */
+    private void reindexStatus(ConversionJob job, Key key) {
+        JobStatus status = job.getStatus();
+        byStatus.get(status).add(key);
+        for (Map.Entry<JobStatus, KeySet> entry : byStatus.entrySet()) {
+            if (entry.getKey() != status) {
+                entry.getValue().remove(key);
+            }
+        }
+        // A transition may have landed between the add and the removals
+        if (job.getStatus() != status) {
+            reindexStatus(job, key);
+        }
+    }
+    
+    private KeySet smallestCandidateSet(Query query) {
+        KeySet smallest = byCreated;
+        if (query.status() != null) {
+            smallest = smaller(smallest, byStatus.get(query.status()));
+        }
+        if (query.targetFormat() != null) {
+            smallest = smaller(smallest, byTargetFormat.get(query.targetFormat().toLowerCase()));
+        }
+        if (query.clientId() != null) {
+            smallest = smaller(smallest, byClient.get(query.clientId()));
+        }
+        return smallest;
+    }
+    
+    private KeySet smaller(KeySet current, KeySet filtered) {
+        if (filtered == null) {
+            // Nothing has this value
+            return new KeySet();
+        }
+        return filtered.size() < current.size() ? filtered : current;
+    }
+    
+    private boolean matches(ConversionJob job, Query query) {
+        return (query.status() == null || query.status() == job.getStatus())
+                && (query.targetFormat() == null || query.targetFormat().equalsIgnoreCase(job.getTargetFormat()))
+                && (query.clientId() == null || query.clientId().equals(job.getClientId()));
+    }
+    
+    private KeySet setFor(Map<String, KeySet> index, String value) {
+        return index.computeIfAbsent(value, ignored -> new KeySet());
+    }
+    
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    private static String encodeCursor(Key key) {
+        String raw = key.createdMillis() + ":" + key.jobId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static Key decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new Key(Long.parseLong(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+    
+    /**
+     * Sorted key set with a maintained size; ConcurrentSkipListSet.size() walks the whole set
+     */
+    private static final class KeySet {
+        private final ConcurrentSkipListSet<Key> keys = new ConcurrentSkipListSet<>();
+        private final AtomicInteger size = new AtomicInteger();
+        
+        void add(Key key) {
+            if (keys.add(key)) {
+                size.incrementAndGet();
+            }
+        }
+        
+        void remove(Key key) {
+            if (keys.remove(key)) {
+                size.decrementAndGet();
+            }
+        }
+        
+        int size() {
+            return size.get();
+        }
+    }
+    
+    private record Key(long createdMillis, String jobId) implements Comparable<Key> {
+        @Override
+        public int compareTo(Key other) {
+            int byTime = Long.compare(createdMillis, other.createdMillis);
+            return byTime != 0 ? byTime : jobId.compareTo(other.jobId);
+        }
+    }
+}
@@ -0,0 +1,744 @@
+package br.schumaker.fcs.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.MediaClass;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Orders waiting conversions and feeds them to the conversion executor.
+ * Executor threads are generic workers that take the first job from this
+ * queue, so ordering is decided here rather than by the executor's FIFO.
+ * The default policy is earliest deadline first; the "sjf" policy runs the
+ * shortest predicted job first, aged by the time the job has been waiting.
+ * On a coordinator no local workers are started; remote workers take jobs
+ * from the same queue through {@link #poll}.
+ * <p>
+ * Jobs wait in one lane per target media class, so a quick image resize is
+ * never queued behind hour-long video encodes. Each lane runs up to its own
+ * limit. With borrowing on, a lane whose limit is reached may also take idle
+ * workers of the other lanes, except the ones they reserve: every lane keeps
+ * its reserved workers free for its own jobs, so a burst of long encodes
+ * cannot take all of them.
+ * <p>
+ * Within a lane, jobs of higher priority go first. A waiting job that cannot
+ * start can preempt: a running job of lower priority, preferably of the same
+ * lane, is suspended and the waiting job takes over its worker, as long as
+ * the lane limits allow it to start then. Suspended jobs keep
+ * their threads, which is why the executor has room for them on top of the
+ * concurrency limit, and resume as soon as a worker is free and nothing of
+ * higher priority waits.
+ */
+@Service
+public class JobScheduler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(JobScheduler.class);
+    
+    private final ThreadPoolTaskExecutor conversionTaskExecutor;
+    
+    private final EncodeCostModel encodeCostModel;
+    
+    private final MeterRegistry meterRegistry;
+    
+    // Lanes and their counts are guarded by this
+    private final Map<MediaClass, Lane> lanes = new EnumMap<>(MediaClass.class);
+    private int activeWorkers;
+    private long sequence;
+    
+    // Jobs claimed by local workers, including suspended ones; guarded by this
+    private final Map<String, RunningJob> running = new HashMap<>();
+    
+    // Jobs waiting for disk space; requeued when space may have been freed
+    private final Queue<ConversionJob> held = new ConcurrentLinkedQueue<>();
+    
+    private volatile Consumer<ConversionJob> jobProcessor;
+    private volatile Predicate<ConversionJob> suspender;
+    private volatile Predicate<ConversionJob> resumer;
+    private volatile Consumer<ConversionJob> heldTimeoutHandler;
+    
+    @Value("${app.conversion.max-concurrent-jobs:5}")
+    private int maxConcurrentJobs;
+    
+    @Value("${app.mode:standalone}")
+    private String mode;
+    
+    // Longest a job may wait for output space before it fails; 0 waits forever
+    @Value("${app.scheduler.held-max-seconds:3600}")
+    private long heldMaxSeconds;
+    
+    @Value("${app.scheduler.policy:edf}")
+    private String policy;
+    
+    // Milliseconds of waiting that offset one millisecond of predicted run time
+    @Value("${app.scheduler.sjf.aging-weight:1.0}")
+    private double agingWeight;
+    
+    // Assumed run time of jobs the cost model knows nothing about
+    @Value("${app.scheduler.sjf.default-seconds:60}")
+    private double defaultRunSeconds;
+    
+    @Value("${app.scheduler.sla.interactive-seconds:300}")
+    private long interactiveSlaSeconds;
+    
+    @Value("${app.scheduler.sla.standard-seconds:3600}")
+    private long standardSlaSeconds;
+    
+    @Value("${app.scheduler.sla.batch-seconds:86400}")
+    private long batchSlaSeconds;
+    
+    @Value("${app.scheduler.preemption.enabled:true}")
+    private boolean preemptionEnabled;
+    
+    @Value("${app.scheduler.preemption.max-suspended:2}")
+    private int maxSuspended;
+    
+    @Value("${app.scheduler.lanes.borrowing-enabled:true}")
+    private boolean borrowingEnabled;
+    
+    @Value("${app.scheduler.lanes.image.max-concurrent:2}")
+    private int imageMaxConcurrent;
+    
+    @Value("${app.scheduler.lanes.image.reserved:1}")
+    private int imageReserved;
+    
+    @Value("${app.scheduler.lanes.audio.max-concurrent:2}")
+    private int audioMaxConcurrent;
+    
+    @Value("${app.scheduler.lanes.audio.reserved:1}")
+    private int audioReserved;
+    
+    @Value("${app.scheduler.lanes.video.max-concurrent:3}")
+    private int videoMaxConcurrent;
+    
+    @Value("${app.scheduler.lanes.video.reserved:1}")
+    private int videoReserved;
+    
+    public JobScheduler(@Qualifier("conversionTaskExecutor") ThreadPoolTaskExecutor conversionTaskExecutor,
+            EncodeCostModel encodeCostModel, MeterRegistry meterRegistry) {
+        this.conversionTaskExecutor = conversionTaskExecutor;
+        this.encodeCostModel = encodeCostModel;
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @PostConstruct
+    public void createLanes() {
+        lanes.put(MediaClass.IMAGE, new Lane(MediaClass.IMAGE, imageMaxConcurrent, imageReserved));
+        lanes.put(MediaClass.AUDIO, new Lane(MediaClass.AUDIO, audioMaxConcurrent, audioReserved));
+        lanes.put(MediaClass.VIDEO, new Lane(MediaClass.VIDEO, videoMaxConcurrent, videoReserved));
+        
+        int reserved = lanes.values().stream().mapToInt(lane -> lane.reserved).sum();
+        if (reserved > getMaxConcurrentJobs()) {
+            throw new IllegalStateException("Lanes reserve " + reserved + " workers but only "
+                    + getMaxConcurrentJobs() + " may run (app.conversion.max-concurrent-jobs)");
+        }
+        
+        Gauge.builder("fcs.scheduler.suspended", this, JobScheduler::getSuspendedCount)
+                .description("Jobs whose FFmpeg process is stopped for a job of higher priority")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Sets the callback that runs a dequeued job on a worker thread
+     */
+    public void setJobProcessor(Consumer<ConversionJob> jobProcessor) {
+        this.jobProcessor = jobProcessor;
+    }
+    
+    /**
+     * Sets the callbacks that stop and continue a running job's process; each
+     * returns false if it could not
+     */
+    public void setPreemption(Predicate<ConversionJob> suspender, Predicate<ConversionJob> resumer) {
+        this.suspender = suspender;
+        this.resumer = resumer;
+    }
+    
+    /**
+     * Sets the callback that fails a job held longer than the configured
+     * maximum; it is called instead of requeueing the job
+     */
+    public void setHeldTimeoutHandler(Consumer<ConversionJob> heldTimeoutHandler) {
+        this.heldTimeoutHandler = heldTimeoutHandler;
+    }
+    
+    /**
+     * Queues a job, deriving its deadline from its SLA class when the client
+     * did not give one
+     */
+    public void submit(ConversionJob job) {
+        if (job.getDeadlineMillis() == 0) {
+            job.setDeadline(job.getCreatedAt().plusSeconds(getSlaSeconds(job.getSlaClass())));
+        }
+        
+        if (job.getEstimatedRunSeconds() == null) {
+            Double estimate = encodeCostModel.predictSeconds(job);
+            if (estimate != null) {
+                job.setEstimatedRunSeconds(estimate);
+            }
+        }
+        
+        Lane lane = laneOf(job);
+        synchronized (this) {
+            lane.queue.add(new QueuedJob(job, job.getPriority(), sortKey(job), ++sequence, System.nanoTime()));
+            logger.debug("Queued job: {} in the {} lane with deadline {} ({} waiting)", job.getJobId(),
+                    lane.name, job.getDeadline(), lane.queue.size());
+            notifyAll();
+        }
+        
+        dispatch();
+    }
+    
+    /**
+     * Removes a job that has not started yet
+     *
+     * @return true if the job was still waiting
+     */
+    public boolean remove(ConversionJob job) {
+        boolean removed;
+        synchronized (this) {
+            removed = laneOf(job).queue.removeIf(queued -> queued.job() == job);
+        }
+        return removed | held.remove(job);
+    }
+    
+    /**
+     * Takes the first waiting job of any lane, waiting up to the given time
+     * for one to be queued. Lane limits do not apply: each remote worker
+     * polls only when it has a free slot of its own.
+     *
+     * @return the job, or null if none was queued in time
+     */
+    public synchronized ConversionJob poll(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            QueuedJob first = firstWaiting();
+            if (first != null) {
+                return laneOf(first.job()).dequeue().job();
+            }
+            
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+    }
+    
+    /**
+     * Parks a dequeued job that cannot start yet, without keeping a worker busy
+     */
+    public void hold(ConversionJob job) {
+        if (job.getHeldSince() == 0) {
+            job.setHeldSince(System.currentTimeMillis());
+        }
+        held.add(job);
+    }
+    
+    /**
+     * Returns held jobs to the queue, in deadline order with everything else,
+     * and hands the ones held too long to the timeout handler
+     */
+    @Scheduled(fixedDelayString = "${app.scheduler.held-retry-interval-ms:5000}")
+    public void releaseHeld() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(heldMaxSeconds);
+        Consumer<ConversionJob> timeoutHandler = heldTimeoutHandler;
+        ConversionJob job;
+        while ((job = held.poll()) != null) {
+            if (heldMaxSeconds > 0 && timeoutHandler != null && job.getHeldSince() < cutoff) {
+                logger.warn("Job: {} was held for output space longer than {}s", job.getJobId(), heldMaxSeconds);
+                timeoutHandler.accept(job);
+                continue;
+            }
+            submit(job);
+        }
+    }
+    
+    /**
+     * Returns the held jobs whose output fits the given free space to the
+     * queue, oldest first; the others wait for the periodic pass. A job that
+     * ends frees room for a few held jobs, not for all of them, and each one
+     * released without room would only take a worker to be held again.
+     */
+    public void releaseHeld(long freeBytes, ToLongFunction<ConversionJob> outputBytes) {
+        long remaining = freeBytes;
+        List<ConversionJob> released = new ArrayList<>();
+        for (ConversionJob job : held) {
+            long bytes = outputBytes.applyAsLong(job);
+            if (bytes <= remaining && held.remove(job)) {
+                remaining -= bytes;
+                released.add(job);
+            }
+        }
+        released.forEach(this::submit);
+    }
+    
+    public int getHeldCount() {
+        return held.size();
+    }
+    
+    public synchronized int getQueueDepth() {
+        return lanes.values().stream().mapToInt(lane -> lane.queue.size()).sum();
+    }
+    
+    /**
+     * Jobs waiting in the lane of the given target media class
+     */
+    public synchronized int getQueueDepth(MediaClass mediaClass) {
+        return lanes.get(mediaClass).queue.size();
+    }
+    
+    /**
+     * Jobs that may run at once, not counting suspended ones
+     */
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+    
+    public synchronized int getActiveWorkers() {
+        return activeWorkers;
+    }
+    
+    public synchronized int getSuspendedCount() {
+        return (int) running.values().stream().filter(job -> job.suspended).count();
+    }
+    
+    public long getSlaSeconds(String slaClass) {
+        if (slaClass == null) {
+            return standardSlaSeconds;
+        }
+        return switch (slaClass.toLowerCase()) {
+            case "interactive" -> interactiveSlaSeconds;
+            case "batch" -> batchSlaSeconds;
+            default -> standardSlaSeconds;
+        };
+    }
+    
+    /**
+     * Deadline for EDF. For SJF, the submission time plus the weighted
+     * predicted run time: a long job is passed by shorter ones submitted after
+     * it only until it has waited about as long as its weighted prediction, so
+     * it cannot starve. Based on the creation time, a held job keeps its place.
+     */
+    private long sortKey(ConversionJob job) {
+        if ("sjf".equalsIgnoreCase(policy)) {
+            Double estimate = job.getEstimatedRunSeconds();
+            double runSeconds = estimate != null ? estimate : defaultRunSeconds;
+            return job.getCreatedAtMillis() + (long) (agingWeight * runSeconds * 1000);
+        }
+        return job.getDeadlineMillis();
+    }
+    
+    /**
+     * Resumes suspended jobs and starts a worker for every waiting job that
+     * may run now, then lets waiting jobs that still cannot start preempt
+     * running ones of lower priority. A job is claimed when its worker is
+     * started, so the lane counts always cover the jobs on their way to a
+     * thread.
+     */
+    private void dispatch() {
+        if ("coordinator".equalsIgnoreCase(mode)) {
+            return;
+        }
+        do {
+            RunningJob resumed;
+            while ((resumed = claimSuspended()) != null) {
+                resume(resumed);
+            }
+            RunningJob claimed;
+            while ((claimed = claimNext()) != null) {
+                start(claimed);
+            }
+        } while (preempt());
+    }
+    
+    private void start(RunningJob claimed) {
+        conversionTaskExecutor.execute(() -> runWorker(claimed));
+    }
+    
+    private void runWorker(RunningJob first) {
+        RunningJob next = first;
+        while (next != null) {
+            ConversionJob job = next.queued.job();
+            try {
+                jobProcessor.accept(job);
+            } catch (Exception e) {
+                logger.error("Unhandled error processing job: {}", job.getJobId(), e);
+            }
+            RunningJob resumed;
+            synchronized (this) {
+                finished(next);
+                // A suspended job gets the freed worker before anything new starts
+                resumed = claimSuspended();
+                next = resumed == null ? claimNext() : null;
+            }
+            if (resumed != null) {
+                resume(resumed);
+            }
+        }
+        // Freeing a worker may have made room in more than one lane
+        dispatch();
+    }
+    
+    /**
+     * Takes the job the next free worker should run. Jobs of higher priority
+     * go first; then lanes below their own limit, as a lane borrows only once
+     * none of them has work; then the job that sorts first.
+     */
+    private synchronized RunningJob claimNext() {
+        if (activeWorkers >= getMaxConcurrentJobs()) {
+            return null;
+        }
+        
+        Lane chosen = null;
+        boolean chosenBorrows = false;
+        for (Lane lane : lanes.values()) {
+            if (lane.queue.isEmpty() || !canStart(lane)) {
+                continue;
+            }
+            boolean borrows = lane.active >= lane.maxConcurrent;
+            if (chosen == null || precedes(lane, borrows, chosen, chosenBorrows)) {
+                chosen = lane;
+                chosenBorrows = borrows;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        
+        if (chosenBorrows) {
+            chosen.borrowed.increment();
+        }
+        return claim(chosen);
+    }
+    
+    private boolean precedes(Lane lane, boolean borrows, Lane other, boolean otherBorrows) {
+        int priority = lane.queue.peek().priority();
+        int otherPriority = other.queue.peek().priority();
+        if (priority != otherPriority) {
+            return priority > otherPriority;
+        }
+        if (borrows != otherBorrows) {
+            return !borrows;
+        }
+        return ORDER.compare(lane.queue.peek(), other.queue.peek()) < 0;
+    }
+    
+    private RunningJob claim(Lane lane) {
+        QueuedJob queued = lane.dequeue();
+        activeWorkers++;
+        lane.active++;
+        RunningJob claimed = new RunningJob(queued, lane);
+        running.put(queued.job().getJobId(), claimed);
+        return claimed;
+    }
+    
+    /**
+     * Gives back the worker of a claim. A held job may be queued and claimed
+     * again before the worker that held it gets here, so the entry under its
+     * id may be another worker's, and each worker releases only its own.
+     */
+    private void finished(RunningJob done) {
+        running.remove(done.queued.job().getJobId(), done);
+        // A suspended job that was cancelled or killed no longer holds a worker
+        if (!done.suspended) {
+            activeWorkers--;
+            done.lane.active--;
+        }
+    }
+    
+    /**
+     * Takes the suspended job of the highest priority back onto a free worker,
+     * unless a waiting job outranks it
+     */
+    private synchronized RunningJob claimSuspended() {
+        if (activeWorkers >= getMaxConcurrentJobs()) {
+            return null;
+        }
+        
+        RunningJob chosen = null;
+        for (RunningJob candidate : running.values()) {
+            if (candidate.suspended && (chosen == null || ORDER.compare(candidate.queued, chosen.queued) < 0)) {
+                chosen = candidate;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        QueuedJob waiting = firstWaiting();
+        if (waiting != null && waiting.priority() > chosen.queued.priority()) {
+            return null;
+        }
+        
+        chosen.suspended = false;
+        activeWorkers++;
+        chosen.lane.active++;
+        return chosen;
+    }
+    
+    private void resume(RunningJob job) {
+        if (resumer != null && resumer.test(job.queued.job())) {
+            logger.info("Resumed job: {}", job.queued.job().getJobId());
+        }
+    }
+    
+    /**
+     * Suspends a running job of lower priority than a waiting job that cannot
+     * start, and hands its worker to the waiting job. Only a job that would
+     * be allowed to start once the victim's worker is free preempts, so a
+     * lane never runs past its limit, and only when the workers are all busy
+     * or the waiting job's lane is at its own limit: a job kept out only by
+     * another lane's reservation is not worth stopping an encode for. The
+     * victim is preferably of the waiting job's own lane; ties go to the
+     * running job that sorts last.
+     *
+     * @return true if a job was suspended
+     */
+    private boolean preempt() {
+        if (!preemptionEnabled || suspender == null) {
+            return false;
+        }
+        
+        QueuedJob urgent = null;
+        RunningJob victim = null;
+        synchronized (this) {
+            if (getSuspendedCount() >= maxSuspended) {
+                return false;
+            }
+            List<Lane> waiting = new ArrayList<>();
+            for (Lane lane : lanes.values()) {
+                if (!lane.queue.isEmpty()) {
+                    waiting.add(lane);
+                }
+            }
+            waiting.sort(Comparator.comparing((Lane lane) -> lane.queue.peek(), ORDER));
+            for (Lane lane : waiting) {
+                victim = victimFor(lane);
+                if (victim != null) {
+                    urgent = lane.queue.peek();
+                    break;
+                }
+            }
+            if (victim == null) {
+                return false;
+            }
+        }
+        
+        // Signals are sent outside the lock
+        if (!suspender.test(victim.queued.job())) {
+            return false;
+        }
+        
+        RunningJob handedOver = null;
+        synchronized (this) {
+            if (running.get(victim.queued.job().getJobId()) != victim) {
+                // Ended while it was being stopped
+                return true;
+            }
+            victim.suspended = true;
+            activeWorkers--;
+            victim.lane.active--;
+            
+            // Waiting jobs or lane counts may have changed while the signal was sent
+            Lane lane = laneOf(urgent.job());
+            if (lane.queue.peek() == urgent && canStart(lane)) {
+                if (lane.active >= lane.maxConcurrent) {
+                    lane.borrowed.increment();
+                }
+                handedOver = claim(lane);
+            }
+        }
+        
+        logger.info("Suspended job: {} (priority {}) for job: {} (priority {})", victim.queued.job().getJobId(),
+                victim.queued.priority(), urgent.job().getJobId(), urgent.priority());
+        if (handedOver != null) {
+            start(handedOver);
+        }
+        return true;
+    }
+    
+    /**
+     * The running job to suspend so that the first job of the lane can start,
+     * or null if none would let it
+     */
+    private RunningJob victimFor(Lane lane) {
+        QueuedJob urgent = lane.queue.peek();
+        if (canStart(lane)) {
+            // Starts without anyone making room
+            return null;
+        }
+        boolean workersBusy = activeWorkers >= getMaxConcurrentJobs();
+        boolean laneFull = lane.active >= lane.maxConcurrent && !borrowingEnabled;
+        if (!workersBusy && !laneFull) {
+            return null;
+        }
+        
+        RunningJob victim = null;
+        for (RunningJob candidate : running.values()) {
+            if (candidate.suspended || candidate.queued.priority() >= urgent.priority()
+                    || !startsWithout(lane, candidate)) {
+                continue;
+            }
+            if (victim == null || precedesAsVictim(candidate, victim, lane)) {
+                victim = candidate;
+            }
+        }
+        return victim;
+    }
+    
+    /**
+     * Whether the lane could start a job once the given running job gave its worker back
+     */
+    private boolean startsWithout(Lane lane, RunningJob candidate) {
+        activeWorkers--;
+        candidate.lane.active--;
+        try {
+            return canStart(lane);
+        } finally {
+            activeWorkers++;
+            candidate.lane.active++;
+        }
+    }
+    
+    private boolean precedesAsVictim(RunningJob candidate, RunningJob victim, Lane lane) {
+        if ((candidate.lane == lane) != (victim.lane == lane)) {
+            return candidate.lane == lane;
+        }
+        return ORDER.compare(candidate.queued, victim.queued) > 0;
+    }
+    
+    /**
+     * The waiting job that sorts first across all lanes
+     */
+    private QueuedJob firstWaiting() {
+        QueuedJob first = null;
+        for (Lane lane : lanes.values()) {
+            QueuedJob head = lane.queue.peek();
+            if (head != null && (first == null || ORDER.compare(head, first) < 0)) {
+                first = head;
+            }
+        }
+        return first;
+    }
+    
+    /**
+     * Whether a lane may start one more job without taking a worker another
+     * lane keeps reserved
+     */
+    private boolean canStart(Lane lane) {
+        if (lane.active >= lane.maxConcurrent && !borrowingEnabled) {
+            return false;
+        }
+        int idle = getMaxConcurrentJobs() - activeWorkers;
+        int reservedByOthers = 0;
+        for (Lane other : lanes.values()) {
+            if (other != lane) {
+                reservedByOthers += Math.max(0, Math.min(other.reserved, other.maxConcurrent) - other.active);
+            }
+        }
+        return idle > reservedByOthers;
+    }
+    
+    private Lane laneOf(ConversionJob job) {
+        MediaClass target = MediaClass.ofTargetFormat(job.getTargetFormat());
+        return lanes.get(target != null ? target : MediaClass.VIDEO);
+    }
+    
+    // Higher priority first, then by the policy's sort key
+    private static final Comparator<QueuedJob> ORDER = Comparator.comparingInt((QueuedJob queued) -> -queued.priority())
+            .thenComparingLong(QueuedJob::sortKey)
+            .thenComparingLong(QueuedJob::sequence);
+    
+    private record QueuedJob(ConversionJob job, int priority, long sortKey, long sequence, long queuedAtNanos) {
+    }
+    
+    private static final class RunningJob {
+        private final QueuedJob queued;
+        private final Lane lane;
+        private boolean suspended;
+        
+        private RunningJob(QueuedJob queued, Lane lane) {
+            this.queued = queued;
+            this.lane = lane;
+        }
+    }
+    
+    /**
+     * Waiting jobs of one target media class, with its limits, running count
+     * and meters
+     */
+    private final class Lane {
+        private final String name;
+        private final int maxConcurrent;
+        private final int reserved;
+        private final PriorityQueue<QueuedJob> queue = new PriorityQueue<>(ORDER);
+        private int active;
+        private final Timer queueWait;
+        private final Counter borrowed;
+        
+        private Lane(MediaClass mediaClass, int maxConcurrent, int reserved) {
+            this.name = mediaClass.name().toLowerCase();
+            this.maxConcurrent = maxConcurrent;
+            this.reserved = reserved;
+            this.queueWait = Timer.builder("fcs.scheduler.queue.wait")
+                    .description("Time jobs waited in their lane before a worker took them")
+                    .tag("lane", name)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+            this.borrowed = Counter.builder("fcs.scheduler.borrowed")
+                    .description("Jobs started on a worker borrowed from another lane")
+                    .tag("lane", name)
+                    .register(meterRegistry);
+            Gauge.builder("fcs.scheduler.queue.depth", this, Lane::depth)
+                    .description("Jobs waiting in the lane")
+                    .tag("lane", name)
+                    .register(meterRegistry);
+            Gauge.builder("fcs.scheduler.active", this, Lane::running)
+                    .description("Jobs of the lane running on local workers")
+                    .tag("lane", name)
+                    .register(meterRegistry);
+        }
+        
+        private QueuedJob dequeue() {
+            QueuedJob next = queue.poll();
+            queueWait.record(System.nanoTime() - next.queuedAtNanos(), TimeUnit.NANOSECONDS);
+            return next;
+        }
+        
+        private int depth() {
+            synchronized (JobScheduler.this) {
+                return queue.size();
+            }
+        }
+        
+        private int running() {
+            synchronized (JobScheduler.this) {
+                return active;
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.dto.LeaseReport;
+import br.schumaker.fcs.dto.WorkerLease;
+import br.schumaker.fcs.dto.WorkerRegistration;
+import br.schumaker.fcs.exception.ConflictException;
+import br.schumaker.fcs.exception.InsufficientStorageException;
+import br.schumaker.fcs.jfr.JobDequeuedEvent;
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobState;
+import br.schumaker.fcs.model.JobStatus;
+
+/**
+ * Coordinator side of the remote worker protocol. Workers pull queued jobs
+ * and hold each under a lease that their heartbeats keep extending; a job
+ * whose lease runs out, because its worker died or lost the network, goes
+ * back to the queue for another worker. Jobs leave the queue in the order
+ * the JobScheduler keeps, and everything about a job other than the encode
+ * itself (admission, disk reservation, preset choice, completion) still
+ * happens here.
+ */
+@Service
+@ConditionalOnProperty(name = "app.mode", havingValue = "coordinator")
+public class LeaseManager {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LeaseManager.class);
+    
+    private static final int UPLOAD_BUFFER_BYTES = 64 * 1024;
+    
+    private final AsyncConversionService asyncConversionService;
+    private final JobScheduler jobScheduler;
+    private final DiskSpaceService diskSpaceService;
+    private final OutputLayout outputLayout;
+    private final WebhookDispatcher webhookDispatcher;
+    private final WaveformService waveformService;
+    private final StorageManager storageManager;
+    
+    private final Map<String, Worker> workers = new ConcurrentHashMap<>();
+    
+    // Leased jobs, keyed by job ID
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    
+    // Times each job has been leased, kept until the job ends
+    private final Map<String, Integer> leaseCounts = new ConcurrentHashMap<>();
+    
+    @Value("${app.coordinator.lease-seconds:30}")
+    private long leaseSeconds;
+    
+    @Value("${app.coordinator.max-lease-attempts:3}")
+    private int maxLeaseAttempts;
+    
+    @Value("${app.coordinator.lease-wait-ms:10000}")
+    private long maxLeaseWaitMs;
+    
+    public LeaseManager(AsyncConversionService asyncConversionService, JobScheduler jobScheduler,
+            DiskSpaceService diskSpaceService, OutputLayout outputLayout, WebhookDispatcher webhookDispatcher,
+            WaveformService waveformService, StorageManager storageManager) {
+        this.asyncConversionService = asyncConversionService;
+        this.jobScheduler = jobScheduler;
+        this.diskSpaceService = diskSpaceService;
+        this.outputLayout = outputLayout;
+        this.webhookDispatcher = webhookDispatcher;
+        this.waveformService = waveformService;
+        this.storageManager = storageManager;
+    }
+    
+    /**
+     * Registers a worker and tells it how often to heartbeat: three times per
+     * lease, so one lost heartbeat does not cost the job
+     */
+    public WorkerRegistration register(WorkerRegistration registration) {
+        String workerId = UUID.randomUUID().toString();
+        int slots = registration.getSlots() != null && registration.getSlots() > 0 ? registration.getSlots() : 1;
+        workers.put(workerId, new Worker(workerId, System.currentTimeMillis()));
+        logger.info("Registered worker {} ({}) with {} slots", workerId, registration.getName(), slots);
+        
+        WorkerRegistration response = new WorkerRegistration();
+        response.setWorkerId(workerId);
+        response.setName(registration.getName());
+        response.setSlots(slots);
+        response.setLeaseSeconds(leaseSeconds);
+        response.setHeartbeatSeconds(Math.max(1, leaseSeconds / 3));
+        return response;
+    }
+    
+    /**
+     * Leases the next queued job to a worker, waiting up to the given time
+     * for one, so idle workers long-poll instead of hammering the coordinator
+     *
+     * @return the lease, or null if no job became available in time
+     * @throws IllegalArgumentException if the worker is not registered
+     */
+    public WorkerLease acquire(String workerId, long waitMs) throws InterruptedException {
+        Worker worker = touch(workerId);
+        long deadline = System.currentTimeMillis() + Math.min(Math.max(waitMs, 0), maxLeaseWaitMs);
+        
+        while (true) {
+            ConversionJob job = jobScheduler.poll(Math.max(deadline - System.currentTimeMillis(), 0));
+            if (job == null) {
+                return null;
+            }
+            JobDequeuedEvent.emit(job);
+            if (job.getStatus() != JobStatus.PENDING) {
+                // Cancelled while waiting in the queue
+                asyncConversionService.releaseInput(job);
+                continue;
+            }
+            
+            asyncConversionService.probeInput(job);
+            boolean reserved;
+            try {
+                reserved = diskSpaceService.reserveOutput(job);
+            } catch (InsufficientStorageException e) {
+                asyncConversionService.failForStorage(job, e.getMessage());
+                continue;
+            }
+            if (!reserved) {
+                jobScheduler.hold(job);
+                continue;
+            }
+            if (!asyncConversionService.start(job)) {
+                diskSpaceService.release(job.getJobId());
+                continue;
+            }
+            
+            Lease lease = new Lease(UUID.randomUUID().toString(), worker.workerId, job, expiry());
+            leases.put(job.getJobId(), lease);
+            int attempt = leaseCounts.merge(job.getJobId(), 1, Integer::sum);
+            logger.info("Leased job: {} to worker {} (attempt {})", job.getJobId(), worker.workerId, attempt);
+            return toLease(lease);
+        }
+    }
+    
+    /**
+     * Extends a lease and records the worker's progress
+     *
+     * @throws ConflictException if the lease is no longer held, which
+     *         tells the worker to stop encoding
+     */
+    public WorkerLease heartbeat(String jobId, LeaseReport report) {
+        Lease lease = requireLease(jobId, report.getLeaseId());
+        touch(lease.workerId);
+        lease.expiresAt = expiry();
+        
+        ConversionJob job = lease.job;
+        if (job.getInputDurationSeconds() == null && report.getInputDurationSeconds() != null) {
+            job.setInputDurationSeconds(report.getInputDurationSeconds());
+        }
+        Double previous = job.getProgressSeconds();
+        if (report.getProgressSeconds() != null && (previous == null || report.getProgressSeconds() > previous)) {
+            job.setProgressSeconds(report.getProgressSeconds());
+            job.setLastProgressAt(System.currentTimeMillis());
+            webhookDispatcher.progress(job);
+        }
+        return toLease(lease);
+    }
+    
+    /**
+     * The leased job's input, for the worker to stream
+     *
+     * @throws ConflictException if the lease is no longer held
+     */
+    public ConversionJob leasedJob(String jobId, String leaseId) {
+        return requireLease(jobId, leaseId).job;
+    }
+    
+    /**
+     * Stores the waveform peaks a worker uploads ahead of the output
+     *
+     * @throws ConflictException if the lease is no longer held
+     */
+    public void storePeaks(String jobId, String leaseId, InputStream body) throws IOException {
+        requireLease(jobId, leaseId);
+        waveformService.store(jobId, body);
+    }
+    
+    /**
+     * Stores the output a worker uploads and completes the job. The body is
+     * written next to the final file and moved into place once complete, as
+     * for a local encode. The lease is extended as the body arrives, so a
+     * long upload that is still making progress does not expire it.
+     *
+     * @throws ConflictException if the lease is no longer held or the job
+     *         was cancelled before the upload ended
+     */
+    public void complete(String jobId, LeaseReport report, InputStream body) throws IOException {
+        Lease lease = requireLease(jobId, report.getLeaseId());
+        ConversionJob job = lease.job;
+        Path convertedFile = Paths.get(job.getConvertedFilePath());
+        Path tempFile = outputLayout.tempPath(convertedFile);
+        
+        try {
+            Files.createDirectories(tempFile.getParent());
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                byte[] buffer = new byte[UPLOAD_BUFFER_BYTES];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                    lease.expiresAt = expiry();
+                }
+            }
+            // The lease may have run out during a stalled upload and the job gone to another worker
+            if (!leases.remove(jobId, lease)) {
+                throw new ConflictException("Lease for job " + jobId + " expired during the upload");
+            }
+            // Cancelled during the upload, before the reaper ended the lease; the result is not kept
+            if (job.isTerminal()) {
+                end(lease, false);
+                throw new ConflictException("Job " + jobId + " ended during the upload");
+            }
+            Files.move(tempFile, convertedFile, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        
+        job.setConvertedFileSize(Files.size(convertedFile));
+        job.setEncoder(report.getEncoder());
+        if (report.getInputDurationSeconds() != null) {
+            job.setInputDurationSeconds(report.getInputDurationSeconds());
+        }
+        if (report.getActualClipEnd() != null) {
+            job.setActualClipStart(report.getActualClipStart());
+            job.setActualClipEnd(report.getActualClipEnd());
+        }
+        logger.info("Worker {} completed job: {}", lease.workerId, jobId);
+        end(lease, true);
+        if (job.getStatus() != JobStatus.COMPLETED) {
+            // Cancelled after the move; the file still counts against the quota until evicted
+            storageManager.outputWritten(jobId);
+        }
+    }
+    
+    /**
+     * Fails a leased job with the worker's reason; a failed encode is not
+     * retried elsewhere, as it would fail the same way
+     *
+     * @throws ConflictException if the lease is no longer held
+     */
+    public void fail(String jobId, LeaseReport report) {
+        Lease lease = requireLease(jobId, report.getLeaseId());
+        if (!leases.remove(jobId, lease)) {
+            throw new ConflictException("Lease for job " + jobId + " is no longer held");
+        }
+        
+        String reason = report.getErrorMessage() != null ? report.getErrorMessage() : "Remote conversion failed";
+        lease.job.setErrorMessage(reason);
+        logger.warn("Worker {} failed job: {} ({})", lease.workerId, jobId, reason);
+        end(lease, false);
+    }
+    
+    /**
+     * Returns jobs with expired leases to the queue, or fails them once they
+     * have used up their attempts, and ends leases of jobs cancelled while
+     * leased. Workers that stopped polling are forgotten.
+     */
+    @Scheduled(fixedDelayString = "${app.coordinator.reaper-interval-ms:5000}")
+    public void reapExpiredLeases() {
+        long now = System.currentTimeMillis();
+        
+        for (Lease lease : leases.values()) {
+            ConversionJob job = lease.job;
+            if (job.isTerminal()) {
+                // Cancelled; the worker learns on its next heartbeat
+                if (leases.remove(job.getJobId(), lease)) {
+                    diskSpaceService.release(job.getJobId());
+                    asyncConversionService.releaseInput(job);
+                    leaseCounts.remove(job.getJobId());
+                }
+                continue;
+            }
+            if (lease.expiresAt > now || !leases.remove(job.getJobId(), lease)) {
+                continue;
+            }
+            
+            diskSpaceService.release(job.getJobId());
+            int attempts = leaseCounts.getOrDefault(job.getJobId(), 0);
+            if (attempts >= maxLeaseAttempts) {
+                logger.warn("Lease of job: {} expired on worker {}; giving up after {} attempts",
+                        job.getJobId(), lease.workerId, attempts);
+                job.setErrorMessage("Worker lease expired " + attempts + " times");
+                end(lease, false);
+                continue;
+            }
+            
+            JobState requeued = job.transition(state -> state.getStatus() == JobStatus.PROCESSING,
+                    state -> state.withStatus(JobStatus.PENDING).withStartedAt(0));
+            if (requeued != null) {
+                logger.warn("Lease of job: {} expired on worker {}; requeueing", job.getJobId(), lease.workerId);
+                job.setProgressSeconds(null);
+                jobScheduler.submit(job);
+            }
+        }
+        
+        long workerTimeout = now - leaseSeconds * 3000;
+        workers.values().removeIf(worker -> worker.lastSeenAt < workerTimeout);
+        asyncConversionService.releaseHeldThatFit();
+    }
+    
+    public int getWorkerCount() {
+        return workers.size();
+    }
+    
+    public int getLeaseCount() {
+        return leases.size();
+    }
+    
+    private void end(Lease lease, boolean success) {
+        ConversionJob job = lease.job;
+        try {
+            asyncConversionService.finish(job, success);
+        } finally {
+            leaseCounts.remove(job.getJobId());
+            asyncConversionService.releaseInput(job);
+            diskSpaceService.release(job.getJobId());
+            asyncConversionService.releaseHeldThatFit();
+        }
+    }
+    
+    private Lease requireLease(String jobId, String leaseId) {
+        Lease lease = leases.get(jobId);
+        if (lease == null || !lease.leaseId.equals(leaseId) || lease.job.isTerminal()) {
+            throw new ConflictException("Lease for job " + jobId + " is no longer held");
+        }
+        return lease;
+    }
+    
+    private Worker touch(String workerId) {
+        Worker worker = workerId == null ? null : workers.get(workerId);
+        if (worker == null) {
+            throw new IllegalArgumentException("Unknown worker: " + workerId);
+        }
+        worker.lastSeenAt = System.currentTimeMillis();
+        return worker;
+    }
+    
+    private long expiry() {
+        return System.currentTimeMillis() + leaseSeconds * 1000;
+    }
+    
+    private WorkerLease toLease(Lease lease) {
+        ConversionJob job = lease.job;
+        WorkerLease response = new WorkerLease();
+        response.setJobId(job.getJobId());
+        response.setLeaseId(lease.leaseId);
+        response.setLeaseExpiresAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(lease.expiresAt), ZoneId.systemDefault()));
+        response.setOriginalFileName(job.getOriginalFileName());
+        response.setOriginalFormat(job.getOriginalFormat());
+        response.setInputMediaClass(job.getInputMediaClass() != null ? job.getInputMediaClass().name() : null);
+        response.setTargetFormat(job.getTargetFormat());
+        response.setQuality(job.getQuality());
+        response.setWidth(job.getWidth());
+        response.setHeight(job.getHeight());
+        response.setBitrate(job.getBitrate());
+        response.setPreset(job.getPreset());
+        response.setClipStart(job.getClipStart());
+        response.setClipDuration(job.getClipDuration());
+        response.setCutMode(job.getCutMode());
+        response.setActualClipStart(job.getActualClipStart());
+        response.setInputDurationSeconds(job.getInputDurationSeconds());
+        response.setSourceWidth(job.getSourceWidth());
+        response.setSourceHeight(job.getSourceHeight());
+        response.setWaveformPeaksPerSecond(job.getWaveformPeaksPerSecond());
+        return response;
+    }
+    
+    private static final class Worker {
+        private final String workerId;
+        private volatile long lastSeenAt;
+        
+        private Worker(String workerId, long lastSeenAt) {
+            this.workerId = workerId;
+            this.lastSeenAt = lastSeenAt;
+        }
+    }
+    
+    private static final class Lease {
+        private final String leaseId;
+        private final String workerId;
+        private final ConversionJob job;
+        private volatile long expiresAt;
+        
+        private Lease(String leaseId, String workerId, ConversionJob job, long expiresAt) {
+            this.leaseId = leaseId;
+            this.workerId = workerId;
+            this.job = job;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads container metadata (duration, resolution, bitrate) with ffprobe, which
+ * only parses headers and is cheap compared to the conversion itself.
+ */
+@Service
+public class MediaProbeService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MediaProbeService.class);
+    
+    private final ObjectMapper objectMapper;
+    private final ExecutorService outputReaders = Executors.newVirtualThreadPerTaskExecutor();
+    
+    @Value("${app.ffprobe.path:ffprobe}")
+    private String ffprobePath;
+    
+    @Value("${app.ffprobe.timeout-seconds:15}")
+    private long timeoutSeconds;
+    
+    public MediaProbeService(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * Probe data of a media file
+     */
+    public record ProbeResult(Double durationSeconds, Integer width, Integer height, Long bitRate,
+            boolean hasVideo, boolean hasAudio) {
+    }
+    
+    /**
+     * @return the probe data, or null if ffprobe is unavailable or failed
+     */
+    public ProbeResult probe(String path) {
+        byte[] output = run(path, "-show_entries", "format=duration,bit_rate:stream=codec_type,width,height",
+                "-of", "json");
+        if (output == null) {
+            return null;
+        }
+        try {
+            return parse(objectMapper.readTree(output));
+        } catch (IOException e) {
+            logger.debug("Could not parse probe of {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Finds the video keyframe a stream copy starting at the given time
+     * actually starts from: ffprobe seeks the same way FFmpeg does, to the
+     * last keyframe at or before the time, and reports the first packet read.
+     *
+     * @return the keyframe's time in seconds, or null if the input has no
+     *         video stream or ffprobe failed
+     */
+    public Double findKeyframeAtOrBefore(String path, double seconds) {
+        byte[] output = run(path, "-select_streams", "v:0", "-read_intervals",
+                String.format(Locale.ROOT, "%.6f%%+#1", seconds),
+                "-show_entries", "packet=pts_time,flags", "-of", "csv=p=0");
+        if (output == null) {
+            return null;
+        }
+        
+        for (String line : new String(output, StandardCharsets.UTF_8).split("\\R")) {
+            String[] fields = line.split(",");
+            if (fields.length >= 2 && fields[1].startsWith("K")) {
+                try {
+                    return Double.parseDouble(fields[0]);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Runs ffprobe on a file with the given options
+     *
+     * @return its standard output, or null if it could not run, timed out or failed
+     */
+    private byte[] run(String path, String... options) {
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(ffprobePath);
+            command.addAll(List.of("-v", "error"));
+            command.addAll(List.of(options));
+            command.add(path);
+            
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.redirectError(ProcessBuilder.Redirect.DISCARD);
+            
+            Process process = processBuilder.start();
+            // Drained on its own thread, so a hung ffprobe cannot block this one past the timeout
+            Future<byte[]> output = outputReaders.submit(() -> {
+                try (InputStream inputStream = process.getInputStream()) {
+                    return inputStream.readAllBytes();
+                }
+            });
+            
+            try {
+                if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                    logger.warn("ffprobe timed out for {}", path);
+                    return null;
+                }
+                if (process.exitValue() != 0) {
+                    logger.debug("ffprobe exited with {} for {}", process.exitValue(), path);
+                    return null;
+                }
+                return output.get(timeoutSeconds, TimeUnit.SECONDS);
+            } finally {
+                // Closes the pipe, which ends the reader
+                process.destroyForcibly();
+                output.cancel(true);
+            }
+            
+        } catch (Exception e) {
+            logger.debug("Could not probe {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+    
+    private ProbeResult parse(JsonNode root) {
+        JsonNode format = root.path("format");
+        Double duration = format.hasNonNull("duration") ? format.get("duration").asDouble() : null;
+        Long bitRate = format.hasNonNull("bit_rate") ? format.get("bit_rate").asLong() : null;
+        
+        Integer width = null;
+        Integer height = null;
+        boolean hasVideo = false;
+        boolean hasAudio = false;
+        
+        for (JsonNode stream : root.path("streams")) {
+            String codecType = stream.path("codec_type").asText();
+            if ("video".equals(codecType) && !hasVideo) {
+                hasVideo = true;
+                width = stream.hasNonNull("width") ? stream.get("width").asInt() : null;
+                height = stream.hasNonNull("height") ? stream.get("height").asInt() : null;
+            } else if ("audio".equals(codecType)) {
+                hasAudio = true;
+            }
+        }
+        
+        return new ProbeResult(duration, width, height, bitRate, hasVideo, hasAudio);
+    }
+}
@@ -0,0 +1,180 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.MediaClass;
+
+/**
+ * Identifies the real container of an input from its leading bytes, so that
+ * renamed or unsupported files can be rejected before they take disk space or
+ * an executor slot.
+ */
+@Component
+public class MediaTypeSniffer {
+    
+    /** Bytes of the input inspected by {@link #sniff(byte[], int)} */
+    public static final int HEADER_SIZE = 4096;
+    
+    private static final int TS_PACKET_SIZE = 188;
+    
+    /**
+     * Container detected from an input's magic bytes
+     */
+    public record SniffedType(MediaClass mediaClass, String container) {
+    }
+    
+    /**
+     * Reads up to {@link #HEADER_SIZE} bytes from the stream and sniffs them.
+     * The stream is not closed.
+     */
+    public SniffedType sniff(InputStream inputStream) throws IOException {
+        byte[] header = inputStream.readNBytes(HEADER_SIZE);
+        return sniff(header, header.length);
+    }
+    
+    public SniffedType sniff(Path path) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return sniff(inputStream);
+        }
+    }
+    
+    /**
+     * @return the detected type, or null if the bytes match no supported container
+     */
+    public SniffedType sniff(byte[] header, int length) {
+        // Images
+        if (startsWith(header, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return new SniffedType(MediaClass.IMAGE, "jpg");
+        }
+        if (startsWith(header, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return new SniffedType(MediaClass.IMAGE, "png");
+        }
+        if (startsWithAscii(header, length, 0, "GIF87a") || startsWithAscii(header, length, 0, "GIF89a")) {
+            return new SniffedType(MediaClass.IMAGE, "gif");
+        }
+        if (startsWith(header, length, 0, 'I', 'I', 0x2A, 0x00) || startsWith(header, length, 0, 'M', 'M', 0x00, 0x2A)) {
+            return new SniffedType(MediaClass.IMAGE, "tiff");
+        }
+        if (startsWith(header, length, 0, 'B', 'M') && length >= 26 && header[14] >= 12 && header[15] == 0) {
+            return new SniffedType(MediaClass.IMAGE, "bmp");
+        }
+        
+        // RIFF family
+        if (startsWithAscii(header, length, 0, "RIFF")) {
+            if (startsWithAscii(header, length, 8, "WEBP")) {
+                return new SniffedType(MediaClass.IMAGE, "webp");
+            }
+            if (startsWithAscii(header, length, 8, "WAVE")) {
+                return new SniffedType(MediaClass.AUDIO, "wav");
+            }
+            if (startsWithAscii(header, length, 8, "AVI ")) {
+                return new SniffedType(MediaClass.VIDEO, "avi");
+            }
+            return null;
+        }
+        if (startsWithAscii(header, length, 0, "FORM") && (startsWithAscii(header, length, 8, "AIFF")
+                || startsWithAscii(header, length, 8, "AIFC"))) {
+            return new SniffedType(MediaClass.AUDIO, "aiff");
+        }
+        
+        // ISO base media (mp4, mov, m4a, heif)
+        if (startsWithAscii(header, length, 4, "ftyp")) {
+            String brand = ascii(header, length, 8, 4);
+            return switch (brand) {
+                case "M4A ", "M4B ", "M4P ", "F4A " -> new SniffedType(MediaClass.AUDIO, "m4a");
+                case "qt  " -> new SniffedType(MediaClass.VIDEO, "mov");
+                case "heic", "heix", "mif1", "msf1", "avif" -> new SniffedType(MediaClass.IMAGE, "heif");
+                default -> new SniffedType(MediaClass.VIDEO, "mp4");
+            };
+        }
+        if (startsWithAscii(header, length, 4, "moov") || startsWithAscii(header, length, 4, "mdat")
+                || startsWithAscii(header, length, 4, "wide") || startsWithAscii(header, length, 4, "free")) {
+            return new SniffedType(MediaClass.VIDEO, "mov");
+        }
+        
+        // Other video containers
+        if (startsWith(header, length, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            return new SniffedType(MediaClass.VIDEO, indexOfAscii(header, length, "webm") >= 0 ? "webm" : "mkv");
+        }
+        if (startsWithAscii(header, length, 0, "FLV")) {
+            return new SniffedType(MediaClass.VIDEO, "flv");
+        }
+        if (startsWith(header, length, 0, 0x30, 0x26, 0xB2, 0x75, 0x8E, 0x66, 0xCF, 0x11)) {
+            return new SniffedType(MediaClass.VIDEO, "asf");
+        }
+        if (startsWith(header, length, 0, 0x00, 0x00, 0x01, 0xBA)) {
+            return new SniffedType(MediaClass.VIDEO, "mpg");
+        }
+        if (length > TS_PACKET_SIZE && (header[0] & 0xFF) == 0x47 && (header[TS_PACKET_SIZE] & 0xFF) == 0x47) {
+            return new SniffedType(MediaClass.VIDEO, "ts");
+        }
+        
+        // Audio
+        if (startsWithAscii(header, length, 0, "fLaC")) {
+            return new SniffedType(MediaClass.AUDIO, "flac");
+        }
+        if (startsWithAscii(header, length, 0, "OggS")) {
+            return indexOfAscii(header, length, "theora") >= 0
+                    ? new SniffedType(MediaClass.VIDEO, "ogv")
+                    : new SniffedType(MediaClass.AUDIO, "ogg");
+        }
+        if (startsWithAscii(header, length, 0, "#!AMR")) {
+            return new SniffedType(MediaClass.AUDIO, "amr");
+        }
+        if (startsWithAscii(header, length, 0, "ID3")) {
+            return new SniffedType(MediaClass.AUDIO, "mp3");
+        }
+        if (length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0) {
+            // MPEG audio frame sync: layer bits 00 mean ADTS AAC, anything else MPEG layer I-III
+            int layer = (header[1] >> 1) & 0x03;
+            return layer == 0
+                    ? new SniffedType(MediaClass.AUDIO, "aac")
+                    : new SniffedType(MediaClass.AUDIO, "mp3");
+        }
+        
+        return null;
+    }
+    
+    private static boolean startsWith(byte[] data, int length, int offset, int... expected) {
+        if (length < offset + expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if ((data[offset + i] & 0xFF) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean startsWithAscii(byte[] data, int length, int offset, String expected) {
+        return expected.equals(ascii(data, length, offset, expected.length()));
+    }
+    
+    private static String ascii(byte[] data, int length, int offset, int count) {
+        if (length < offset + count) {
+            return "";
+        }
+        return new String(data, offset, count, StandardCharsets.ISO_8859_1);
+    }
+    
+    private static int indexOfAscii(byte[] data, int length, String needle) {
+        byte[] pattern = needle.getBytes(StandardCharsets.ISO_8859_1);
+        outer:
+        for (int i = 0; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,64 @@
+package br.schumaker.fcs.service;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HexFormat;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.JobPaths;
+
+/**
+ * Where job files live on disk. Uploaded inputs are stored flat in the
+ * upload directory under the job ID. Each job's results get their own directory,
+ * spread over two levels of hash-named shard directories so no directory grows
+ * past a few thousand entries: output/3f/a2/&lt;jobId&gt;/output.mp4. FFmpeg
+ * writes to a hidden temporary name next to the final file, which is renamed
+ * into place once the encode succeeds.
+ */
+@Component
+public class OutputLayout implements JobPaths {
+    
+    private static final String OUTPUT_BASE_NAME = "output.";
+    private static final String PEAKS_FILE_NAME = "peaks.dat";
+    private static final String TEMP_PREFIX = ".partial.";
+    
+    @Value("${app.upload.dir:./uploads}")
+    private String uploadDir;
+    
+    @Value("${app.output.dir:./output}")
+    private String outputDir;
+    
+    @Override
+    public Path inputPath(String jobId, String originalFileName) {
+        int dot = originalFileName.lastIndexOf('.');
+        int slash = Math.max(originalFileName.lastIndexOf('/'), originalFileName.lastIndexOf('\\'));
+        String extension = dot > slash ? originalFileName.substring(dot + 1) : "";
+        return Paths.get(uploadDir, jobId + "_original." + extension);
+    }
+    
+    public Path jobDirectory(String jobId) {
+        String hash = HexFormat.of().toHexDigits(jobId.hashCode());
+        return Paths.get(outputDir, hash.substring(0, 2), hash.substring(2, 4), jobId);
+    }
+    
+    @Override
+    public Path outputPath(String jobId, String targetFormat) {
+        return jobDirectory(jobId).resolve(OUTPUT_BASE_NAME + targetFormat);
+    }
+    
+    /**
+     * Waveform peaks of a job's audio, next to its output
+     */
+    public Path peaksPath(String jobId) {
+        return jobDirectory(jobId).resolve(PEAKS_FILE_NAME);
+    }
+    
+    /**
+     * Name FFmpeg writes to; keeps the extension so FFmpeg still picks the muxer from it
+     */
+    public Path tempPath(Path outputPath) {
+        return outputPath.resolveSibling(TEMP_PREFIX + outputPath.getFileName());
+    }
+}
@@ -0,0 +1,105 @@
+package br.schumaker.fcs.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.MediaClass;
+
+/**
+ * Estimates the size of a conversion's output. With a known duration the
+ * estimate comes from the target bitrate (requested, or typical for the
+ * format and quality); otherwise it is scaled from the input size. Estimates
+ * are deliberately generous since they only guard disk space.
+ */
+@Component
+public class OutputSizeEstimator {
+    
+    // Uncompressed 16-bit stereo at 44.1 kHz, FFmpeg's default for wav
+    private static final long PCM_BITS_PER_SECOND = 44_100L * 16 * 2;
+    private static final long DEFAULT_AUDIO_TRACK_BITS_PER_SECOND = 192_000;
+    
+    @Value("${app.disk.estimate-safety-factor:1.25}")
+    private double safetyFactor;
+    
+    public long estimate(ConversionJob job) {
+        MediaClass targetClass = MediaClass.ofTargetFormat(job.getTargetFormat());
+        long inputSize = job.getOriginalFileSize() != null ? job.getOriginalFileSize() : 0;
+        Double duration = job.getInputDurationSeconds();
+        Double outputDuration = job.getOutputDurationSeconds();
+        
+        double bytes;
+        if (targetClass == MediaClass.IMAGE) {
+            bytes = estimateImage(job, inputSize);
+        } else if (duration != null && duration > 0) {
+            bytes = bitsPerSecond(job, targetClass, inputSize, duration) * outputDuration / 8;
+        } else {
+            bytes = inputSize * expansionFactor(job, targetClass);
+        }
+        return (long) Math.ceil(bytes * safetyFactor);
+    }
+    
+    private double bitsPerSecond(ConversionJob job, MediaClass targetClass, long inputSize, double duration) {
+        String format = job.getTargetFormat();
+        
+        if (targetClass == MediaClass.AUDIO) {
+            if ("wav".equals(format)) {
+                return PCM_BITS_PER_SECOND;
+            }
+            if ("flac".equals(format)) {
+                return PCM_BITS_PER_SECOND * 0.7;
+            }
+            return job.getBitrate() != null ? job.getBitrate() * 1000.0 : DEFAULT_AUDIO_TRACK_BITS_PER_SECOND;
+        }
+        
+        if (job.getBitrate() != null) {
+            return job.getBitrate() * 1000.0 + DEFAULT_AUDIO_TRACK_BITS_PER_SECOND;
+        }
+        
+        // CRF output tracks the source bitrate, scaled by quality and output resolution
+        double inputBitsPerSecond = inputSize * 8 / duration;
+        return inputBitsPerSecond * qualityFactor(job.getQuality()) * resolutionFactor(job);
+    }
+    
+    private double estimateImage(ConversionJob job, long inputSize) {
+        if (job.getWidth() != null && job.getHeight() != null) {
+            // Upper bound for a losslessly stored RGBA frame
+            return (double) job.getWidth() * job.getHeight() * 4;
+        }
+        return inputSize * 3.0;
+    }
+    
+    /**
+     * Output size relative to input size when the duration is unknown
+     */
+    private double expansionFactor(ConversionJob job, MediaClass targetClass) {
+        if ("wav".equals(job.getTargetFormat())) {
+            // Compressed audio can expand roughly tenfold when decoded to PCM
+            return 12.0;
+        }
+        if ("flac".equals(job.getTargetFormat())) {
+            return 8.0;
+        }
+        return qualityFactor(job.getQuality()) * (targetClass == MediaClass.AUDIO ? 1.0 : 1.5);
+    }
+    
+    private double qualityFactor(String quality) {
+        if (quality == null) {
+            return 1.0;
+        }
+        return switch (quality.toLowerCase()) {
+            case "high" -> 1.6;
+            case "low" -> 0.6;
+            default -> 1.0;
+        };
+    }
+    
+    private double resolutionFactor(ConversionJob job) {
+        if (job.getWidth() == null || job.getHeight() == null
+                || job.getSourceWidth() == null || job.getSourceHeight() == null) {
+            return 1.0;
+        }
+        double ratio = (double) job.getWidth() * job.getHeight() / ((double) job.getSourceWidth() * job.getSourceHeight());
+        return Math.max(0.1, ratio);
+    }
+}
@@ -0,0 +1,118 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reduces signed 16-bit little-endian mono PCM to one min/max/RMS peak per
+ * bucket of samples, in a single pass as the samples arrive. Input and output
+ * go through two direct buffers allocated with the reducer, so the pass itself
+ * allocates nothing however long the audio is.
+ * <p>
+ * The peaks file is a 20-byte header (magic "FCSP", version, sample rate,
+ * samples per peak, peak count; little-endian ints) followed by one
+ * min, max, RMS triple of little-endian shorts per peak.
+ */
+final class PeaksReducer {
+    
+    static final int MAGIC = 0x50534346; // "FCSP" read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    static final int PEAK_BYTES = 6;
+    
+    private static final int INPUT_BUFFER_BYTES = 64 * 1024;
+    private static final int OUTPUT_BUFFER_PEAKS = 4096;
+    
+    private final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_PEAKS * PEAK_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    
+    private final int sampleRate;
+    private final int samplesPerPeak;
+    
+    // Current bucket
+    private int min = Short.MAX_VALUE;
+    private int max = Short.MIN_VALUE;
+    private long sumOfSquares;
+    private int samples;
+    
+    private int peaks;
+    
+    PeaksReducer(int sampleRate, int samplesPerPeak) {
+        this.sampleRate = sampleRate;
+        this.samplesPerPeak = samplesPerPeak;
+    }
+    
+    /**
+     * Reads the PCM to its end and writes the peaks file
+     *
+     * @return the number of peaks written
+     */
+    int reduce(ReadableByteChannel pcm, FileChannel file) throws IOException {
+        writeHeader();
+        
+        while (pcm.read(input) != -1) {
+            input.flip();
+            while (input.remaining() >= Short.BYTES) {
+                add(input.getShort());
+                if (samples == samplesPerPeak) {
+                    endPeak(file);
+                }
+            }
+            // Keeps half a sample split across reads
+            input.compact();
+        }
+        if (samples > 0) {
+            endPeak(file);
+        }
+        flush(file);
+        
+        // Now that the count is known
+        writeHeader();
+        output.flip();
+        file.write(output, 0);
+        output.clear();
+        return peaks;
+    }
+    
+    private void add(short sample) {
+        if (sample < min) {
+            min = sample;
+        }
+        if (sample > max) {
+            max = sample;
+        }
+        sumOfSquares += sample * sample;
+        samples++;
+    }
+    
+    private void writeHeader() {
+        output.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(samplesPerPeak).putInt(peaks);
+    }
+    
+    private void endPeak(FileChannel file) throws IOException {
+        if (output.remaining() < PEAK_BYTES) {
+            flush(file);
+        }
+        output.putShort((short) min)
+                .putShort((short) max)
+                .putShort((short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt((double) sumOfSquares / samples))));
+        peaks++;
+        
+        min = Short.MAX_VALUE;
+        max = Short.MIN_VALUE;
+        sumOfSquares = 0;
+        samples = 0;
+    }
+    
+    private void flush(FileChannel file) throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            file.write(output);
+        }
+        output.clear();
+    }
+}
@@ -0,0 +1,110 @@
+package br.schumaker.fcs.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Per-client token buckets, one set per kind of request. Each bucket is kept
+ * as a single theoretical arrival time (the generic cell rate algorithm) and
+ * updated with compare-and-set, so a check costs one map lookup and one CAS
+ * with no locks. A bucket that has refilled completely carries no information
+ * and is dropped by the periodic cleanup.
+ */
+@Service
+public class RateLimiter {
+    
+    /**
+     * Kinds of request limited independently
+     */
+    public enum Bucket {
+        SUBMIT, STATUS, DOWNLOAD
+    }
+    
+    private final Map<Bucket, Limit> limits = new EnumMap<>(Bucket.class);
+    
+    @Value("${app.rate-limit.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${app.rate-limit.submit.per-second:2}")
+    private double submitPerSecond;
+    
+    @Value("${app.rate-limit.submit.burst:10}")
+    private int submitBurst;
+    
+    @Value("${app.rate-limit.status.per-second:20}")
+    private double statusPerSecond;
+    
+    @Value("${app.rate-limit.status.burst:100}")
+    private int statusBurst;
+    
+    @Value("${app.rate-limit.download.per-second:5}")
+    private double downloadPerSecond;
+    
+    @Value("${app.rate-limit.download.burst:20}")
+    private int downloadBurst;
+    
+    @PostConstruct
+    public void init() {
+        limits.put(Bucket.SUBMIT, new Limit(submitPerSecond, submitBurst));
+        limits.put(Bucket.STATUS, new Limit(statusPerSecond, statusBurst));
+        limits.put(Bucket.DOWNLOAD, new Limit(downloadPerSecond, downloadBurst));
+    }
+    
+    /**
+     * Takes a token from the client's bucket
+     *
+     * @return 0 if the request may proceed, otherwise the nanoseconds until a token is available
+     */
+    public long tryAcquire(Bucket bucket, String clientId) {
+        Limit limit = limits.get(bucket);
+        if (!enabled || limit.intervalNanos == 0) {
+            return 0;
+        }
+        
+        long now = System.nanoTime();
+        AtomicLong arrival = limit.arrivals.get(clientId);
+        if (arrival == null) {
+            arrival = limit.arrivals.computeIfAbsent(clientId, key -> new AtomicLong(now));
+        }
+        
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + limit.intervalNanos;
+            long wait = next - now - limit.toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${app.rate-limit.cleanup-interval-ms:60000}")
+    public void dropIdleBuckets() {
+        long now = System.nanoTime();
+        for (Limit limit : limits.values()) {
+            limit.arrivals.values().removeIf(arrival -> arrival.get() - now <= 0);
+        }
+    }
+    
+    private static final class Limit {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final Map<String, AtomicLong> arrivals = new ConcurrentHashMap<>();
+        
+        private Limit(double perSecond, int burst) {
+            // A rate of zero disables the bucket
+            this.intervalNanos = perSecond > 0 ? (long) (1_000_000_000L / perSecond) : 0;
+            this.toleranceNanos = intervalNanos * Math.max(1, burst);
+        }
+    }
+}
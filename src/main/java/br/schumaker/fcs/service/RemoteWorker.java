@@ -0,0 +1,391 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.schumaker.fcs.controller.WorkerController;
+import br.schumaker.fcs.dto.LeaseReport;
+import br.schumaker.fcs.dto.WorkerLease;
+import br.schumaker.fcs.dto.WorkerRegistration;
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Worker side of the remote worker protocol. Each slot runs a pull loop that
+ * leases a job from the coordinator, streams its input to a local file,
+ * encodes it with the local FFmpegService and uploads the output, sending
+ * heartbeats while it works. Losing the lease, because the coordinator gave
+ * the job to another worker or the job was cancelled, kills the encode.
+ */
+@Service
+@ConditionalOnProperty(name = "app.mode", havingValue = "worker")
+public class RemoteWorker {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RemoteWorker.class);
+    
+    private final FFmpegService ffmpegService;
+    private final AsyncConversionService asyncConversionService;
+    private final OutputLayout outputLayout;
+    private final ObjectMapper objectMapper;
+    
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    
+    // One virtual thread per pull loop
+    private final ExecutorService pullLoops = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+    
+    private volatile WorkerRegistration registration;
+    private volatile boolean running = true;
+    
+    @Value("${app.worker.coordinator-url:http://localhost:8080}")
+    private String coordinatorUrl;
+    
+    @Value("${app.worker.token:}")
+    private String workerToken;
+    
+    @Value("${app.worker.name:}")
+    private String workerName;
+    
+    @Value("${app.worker.slots:${app.conversion.max-concurrent-jobs:5}}")
+    private int slots;
+    
+    @Value("${app.worker.poll-wait-ms:10000}")
+    private long pollWaitMs;
+    
+    @Value("${app.worker.retry-delay-ms:2000}")
+    private long retryDelayMs;
+    
+    public RemoteWorker(FFmpegService ffmpegService, AsyncConversionService asyncConversionService,
+            OutputLayout outputLayout, ObjectMapper objectMapper) {
+        this.ffmpegService = ffmpegService;
+        this.asyncConversionService = asyncConversionService;
+        this.outputLayout = outputLayout;
+        this.objectMapper = objectMapper;
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        logger.info("Starting {} pull loops against coordinator {}", slots, coordinatorUrl);
+        for (int i = 0; i < slots; i++) {
+            pullLoops.submit(this::pullLoop);
+        }
+    }
+    
+    @PreDestroy
+    public void stop() {
+        running = false;
+        pullLoops.shutdownNow();
+        heartbeats.shutdownNow();
+    }
+    
+    private void pullLoop() {
+        while (running) {
+            try {
+                WorkerRegistration current = registered();
+                WorkerLease lease = nextLease(current);
+                if (lease != null) {
+                    run(lease, current.getHeartbeatSeconds());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.warn("Could not lease from coordinator {}: {}", coordinatorUrl, e.getMessage());
+                try {
+                    Thread.sleep(retryDelayMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Long-polls the coordinator for a job
+     *
+     * @return the lease, or null if none was available
+     */
+    private WorkerLease nextLease(WorkerRegistration current) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = httpClient.send(
+                request("/api/workers/" + current.getWorkerId() + "/lease?waitMs=" + pollWaitMs)
+                        .timeout(Duration.ofMillis(pollWaitMs).plusSeconds(30))
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        
+        return switch (response.statusCode()) {
+            case 200 -> objectMapper.readValue(response.body(), WorkerLease.class);
+            case 204 -> null;
+            case 400 -> {
+                // The coordinator restarted or forgot this worker
+                registration = null;
+                yield null;
+            }
+            default -> throw new IOException("Lease request returned " + response.statusCode());
+        };
+    }
+    
+    private synchronized WorkerRegistration registered() throws IOException, InterruptedException {
+        if (registration != null) {
+            return registration;
+        }
+        
+        WorkerRegistration request = new WorkerRegistration();
+        request.setName(workerName.isEmpty() ? "worker-" + ProcessHandle.current().pid() : workerName);
+        request.setSlots(slots);
+        
+        HttpResponse<byte[]> response = httpClient.send(
+                request("/api/workers")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(request)))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 201) {
+            throw new IOException("Registration returned " + response.statusCode());
+        }
+        
+        registration = objectMapper.readValue(response.body(), WorkerRegistration.class);
+        logger.info("Registered with coordinator {} as worker {}", coordinatorUrl, registration.getWorkerId());
+        return registration;
+    }
+    
+    /**
+     * Runs one leased job to the end, reporting the outcome unless the lease
+     * was lost on the way
+     */
+    private void run(WorkerLease lease, long heartbeatSeconds) throws InterruptedException {
+        ConversionJob job = toJob(lease);
+        AtomicBoolean leaseLost = new AtomicBoolean();
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+                () -> heartbeat(job, lease, leaseLost, heartbeatSeconds),
+                heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        
+        logger.info("Running leased job: {}", job.getJobId());
+        try {
+            download(lease, Paths.get(job.getOriginalFilePath()));
+            job.updateState(state -> state.withStatus(JobStatus.PROCESSING).withStartedAt(System.currentTimeMillis()));
+            
+            boolean success = ffmpegService.convertFile(job);
+            if (leaseLost.get()) {
+                logger.warn("Dropped job: {} after losing its lease", job.getJobId());
+                return;
+            }
+            if (success && job.getCutMode() != null) {
+                asyncConversionService.recordCutPoints(job);
+            }
+            
+            // Heartbeats go on until the coordinator has the output, however long the upload takes
+            if (success) {
+                upload(job, lease);
+            } else {
+                reportFailure(job, lease, job.getErrorMessage());
+            }
+        } catch (IOException e) {
+            logger.error("Error running leased job: {}", job.getJobId(), e);
+            reportFailure(job, lease, "Remote worker error: " + e.getMessage());
+        } finally {
+            heartbeat.cancel(false);
+            cleanUp(job);
+        }
+    }
+    
+    /**
+     * Sends a heartbeat without waiting for the answer, so a slow coordinator
+     * does not hold up the heartbeats of the other slots
+     */
+    private void heartbeat(ConversionJob job, WorkerLease lease, AtomicBoolean leaseLost, long timeoutSeconds) {
+        LeaseReport report = new LeaseReport();
+        report.setLeaseId(lease.getLeaseId());
+        report.setProgressSeconds(job.getProgressSeconds());
+        report.setInputDurationSeconds(job.getInputDurationSeconds());
+        
+        HttpRequest request;
+        try {
+            request = request("/api/workers/leases/" + job.getJobId() + "/heartbeat")
+                    .timeout(Duration.ofSeconds(timeoutSeconds))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(report)))
+                    .build();
+        } catch (IOException e) {
+            logger.error("Could not serialize heartbeat for job: {}", job.getJobId(), e);
+            return;
+        }
+        
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error != null) {
+                // The lease survives a few missed heartbeats
+                logger.warn("Heartbeat for job: {} failed: {}", job.getJobId(), error.getMessage());
+            } else if (response.statusCode() == 409) {
+                leaseLost.set(true);
+                ffmpegService.terminate(job.getJobId(), "Lease lost");
+            }
+        });
+    }
+    
+    private void download(WorkerLease lease, Path input) throws IOException, InterruptedException {
+        Files.createDirectories(input.getParent());
+        HttpResponse<Path> response = httpClient.send(
+                request("/api/workers/leases/" + lease.getJobId() + "/input?leaseId=" + lease.getLeaseId())
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofFile(input));
+        if (response.statusCode() != 200) {
+            throw new IOException("Input download returned " + response.statusCode());
+        }
+    }
+    
+    /**
+     * Streams the output to the coordinator, which completes the job
+     */
+    private void upload(ConversionJob job, WorkerLease lease) throws IOException, InterruptedException {
+        StringJoiner query = new StringJoiner("&");
+        query.add("leaseId=" + encode(lease.getLeaseId()));
+        if (job.getEncoder() != null) {
+            query.add("encoder=" + encode(job.getEncoder()));
+        }
+        if (job.getInputDurationSeconds() != null) {
+            query.add("inputDurationSeconds=" + job.getInputDurationSeconds());
+        }
+        if (job.getActualClipEnd() != null) {
+            query.add("actualClipStart=" + job.getActualClipStart());
+            query.add("actualClipEnd=" + job.getActualClipEnd());
+        }
+        
+        if (job.isWaveform() && !uploadPeaks(job, lease)) {
+            return;
+        }
+        
+        HttpResponse<String> response = httpClient.send(
+                request("/api/workers/leases/" + job.getJobId() + "/output?" + query)
+                        .header("Content-Type", "application/octet-stream")
+                        .PUT(HttpRequest.BodyPublishers.ofFile(Paths.get(job.getConvertedFilePath())))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 409) {
+            logger.warn("Lease of job: {} was lost before its output was accepted", job.getJobId());
+        } else if (response.statusCode() != 204) {
+            throw new IOException("Output upload returned " + response.statusCode());
+        } else {
+            logger.info("Uploaded output of job: {}", job.getJobId());
+        }
+    }
+    
+    /**
+     * @return false if the lease was lost
+     */
+    private boolean uploadPeaks(ConversionJob job, WorkerLease lease) throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(
+                request("/api/workers/leases/" + job.getJobId() + "/peaks?leaseId=" + encode(lease.getLeaseId()))
+                        .header("Content-Type", "application/octet-stream")
+                        .PUT(HttpRequest.BodyPublishers.ofFile(outputLayout.peaksPath(job.getJobId())))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 409) {
+            logger.warn("Lease of job: {} was lost before its peaks were accepted", job.getJobId());
+            return false;
+        } else if (response.statusCode() != 204) {
+            throw new IOException("Peaks upload returned " + response.statusCode());
+        }
+        return true;
+    }
+    
+    private void reportFailure(ConversionJob job, WorkerLease lease, String errorMessage) throws InterruptedException {
+        LeaseReport report = new LeaseReport();
+        report.setLeaseId(lease.getLeaseId());
+        report.setErrorMessage(errorMessage);
+        
+        try {
+            httpClient.send(
+                    request("/api/workers/leases/" + job.getJobId() + "/fail")
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(report)))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            // The lease expires and the coordinator requeues the job
+            logger.warn("Could not report failure of job: {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+    
+    private ConversionJob toJob(WorkerLease lease) {
+        ConversionJob job = new ConversionJob(lease.getJobId());
+        job.setOriginalFileName(lease.getOriginalFileName());
+        job.setOriginalFormat(lease.getOriginalFormat());
+        // Local copies of the input and output, laid out as on the coordinator
+        job.setPaths(outputLayout);
+        job.setInputMediaClass(lease.getInputMediaClass() != null ? MediaClass.valueOf(lease.getInputMediaClass()) : null);
+        job.setTargetFormat(lease.getTargetFormat());
+        job.setQuality(lease.getQuality());
+        job.setWidth(lease.getWidth());
+        job.setHeight(lease.getHeight());
+        job.setBitrate(lease.getBitrate());
+        job.setPreset(lease.getPreset());
+        job.setClipStart(lease.getClipStart());
+        job.setClipDuration(lease.getClipDuration());
+        job.setCutMode(lease.getCutMode());
+        job.setActualClipStart(lease.getActualClipStart());
+        job.setInputDurationSeconds(lease.getInputDurationSeconds());
+        job.setSourceWidth(lease.getSourceWidth());
+        job.setSourceHeight(lease.getSourceHeight());
+        job.setWaveformPeaksPerSecond(lease.getWaveformPeaksPerSecond());
+        return job;
+    }
+    
+    /**
+     * Removes the local input and output; the coordinator keeps the copies
+     */
+    private void cleanUp(ConversionJob job) {
+        try {
+            Files.deleteIfExists(Paths.get(job.getOriginalFilePath()));
+            Path output = Paths.get(job.getConvertedFilePath());
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(outputLayout.tempPath(output));
+            Files.deleteIfExists(outputLayout.peaksPath(job.getJobId()));
+            Files.deleteIfExists(output.getParent());
+        } catch (IOException e) {
+            logger.warn("Could not clean up local files of job: {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+    
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(coordinatorUrl + path));
+        if (!workerToken.isEmpty()) {
+            builder.header(WorkerController.WORKER_TOKEN_HEADER, workerToken);
+        }
+        return builder;
+    }
+    
+    private String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
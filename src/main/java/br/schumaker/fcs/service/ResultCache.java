@@ -0,0 +1,127 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Converted results of in-memory jobs, served straight from the heap. The
+ * cache is bounded by total bytes; the least recently used results are
+ * written to their place in the output directory when evicted, so a download
+ * finds them either here or on disk.
+ */
+@Service
+public class ResultCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+    
+    private final OutputLayout outputLayout;
+    private final StorageManager storageManager;
+    
+    // Guarded by this; access order, eldest first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    
+    // Evicted entries still being written to disk
+    private final Map<String, Entry> spilling = new ConcurrentHashMap<>();
+    
+    @Value("${app.memory-path.cache.max-bytes:67108864}")
+    private long maxBytes;
+    
+    public ResultCache(OutputLayout outputLayout, StorageManager storageManager) {
+        this.outputLayout = outputLayout;
+        this.storageManager = storageManager;
+    }
+    
+    /**
+     * Caches a job's result, spilling older results (or this one, if it alone
+     * exceeds the budget) to disk
+     */
+    public void put(String jobId, byte[] data, Path file) {
+        Entry entry = new Entry(data, file);
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+        
+        synchronized (this) {
+            if (data.length > maxBytes) {
+                evicted.add(Map.entry(jobId, entry));
+            } else {
+                entries.put(jobId, entry);
+                totalBytes += data.length;
+                Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+                while (totalBytes > maxBytes && eldest.hasNext()) {
+                    Map.Entry<String, Entry> next = eldest.next();
+                    eldest.remove();
+                    totalBytes -= next.getValue().data().length;
+                    evicted.add(next);
+                }
+            }
+            // Visible to readers before they can miss the entry in the cache
+            for (Map.Entry<String, Entry> spilled : evicted) {
+                spilling.put(spilled.getKey(), spilled.getValue());
+            }
+        }
+        
+        // Disk writes happen outside the lock
+        for (Map.Entry<String, Entry> spilled : evicted) {
+            spill(spilled.getKey(), spilled.getValue());
+        }
+    }
+    
+    /**
+     * @return the cached result, or null if the job has none in memory
+     */
+    public byte[] get(String jobId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(jobId);
+        }
+        if (entry == null) {
+            entry = spilling.get(jobId);
+        }
+        return entry != null ? entry.data() : null;
+    }
+    
+    /**
+     * Drops a job's result from memory without writing it out
+     */
+    public synchronized void remove(String jobId) {
+        Entry entry = entries.remove(jobId);
+        if (entry != null) {
+            totalBytes -= entry.data().length;
+        }
+    }
+    
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+    
+    private void spill(String jobId, Entry entry) {
+        Path tempFile = outputLayout.tempPath(entry.file());
+        try {
+            Files.createDirectories(entry.file().getParent());
+            Files.write(tempFile, entry.data());
+            Files.move(tempFile, entry.file(), StandardCopyOption.ATOMIC_MOVE);
+            storageManager.outputWritten(jobId);
+            logger.debug("Spilled result of job: {} ({} bytes) to {}", jobId, entry.data().length, entry.file());
+        } catch (IOException e) {
+            logger.error("Could not spill result of job: {} to disk: {}", jobId, e.getMessage());
+        } finally {
+            spilling.remove(jobId);
+        }
+    }
+    
+    private record Entry(byte[] data, Path file) {
+    }
+}
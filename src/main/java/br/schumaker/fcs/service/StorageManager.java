@@ -0,0 +1,307 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.exception.InsufficientStorageException;
+import br.schumaker.fcs.model.ConversionJob;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Keeps the upload and output directories within their byte quotas. An
+ * original is deleted as soon as its job is terminal, so the upload quota
+ * only ever holds inputs of queued and running jobs and turns further uploads
+ * away when full. Converted results are evicted least recently downloaded
+ * first once the output quota is exceeded.
+ * <p>
+ * Usage is counted as files are written and deleted; the directories are only
+ * walked once, on startup, to pick up what an earlier run left behind. Jobs
+ * do not survive a restart, so originals found then are deleted and results
+ * found then are the first to be evicted, oldest first.
+ */
+@Service
+public class StorageManager {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StorageManager.class);
+    
+    private static final String ORIGINAL_MARKER = "_original.";
+    private static final String TEMP_PREFIX = ".partial.";
+    
+    private final OutputLayout outputLayout;
+    private final JobIndex jobIndex;
+    
+    // Originals in the upload directory, by job ID
+    private final Map<String, Long> originals = new ConcurrentHashMap<>();
+    private final AtomicLong uploadBytes = new AtomicLong();
+    
+    // Results on disk, by job ID; guarded by this, access order, least recently downloaded first
+    private final LinkedHashMap<String, Long> outputs = new LinkedHashMap<>(64, 0.75f, true);
+    private long outputBytes;
+    
+    @Value("${app.upload.dir:./uploads}")
+    private String uploadDir;
+    
+    @Value("${app.output.dir:./output}")
+    private String outputDir;
+    
+    @Value("${app.storage.upload.quota-bytes:0}")
+    private long uploadQuotaBytes;
+    
+    @Value("${app.storage.output.quota-bytes:0}")
+    private long outputQuotaBytes;
+    
+    @Value("${app.storage.delete-originals:true}")
+    private boolean deleteOriginals;
+    
+    @Value("${app.storage.recover-on-startup:true}")
+    private boolean recoverOnStartup;
+    
+    public StorageManager(OutputLayout outputLayout, JobIndex jobIndex) {
+        this.outputLayout = outputLayout;
+        this.jobIndex = jobIndex;
+    }
+    
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!recoverOnStartup) {
+            return;
+        }
+        recoverOriginals(Files.createDirectories(Paths.get(uploadDir)));
+        recoverOutputs(Files.createDirectories(Paths.get(outputDir)));
+        logger.info("Storage in use: {} bytes of originals, {} bytes of results in {} job directories",
+                uploadBytes.get(), getOutputBytes(), getOutputCount());
+        evictOutputs(null);
+    }
+    
+    /**
+     * Counts an original about to be written to the upload directory
+     *
+     * @throws InsufficientStorageException if it would exceed the upload quota
+     */
+    public void addOriginal(String jobId, long bytes) {
+        long total = uploadBytes.addAndGet(bytes);
+        if (uploadQuotaBytes > 0 && total > uploadQuotaBytes) {
+            uploadBytes.addAndGet(-bytes);
+            throw new InsufficientStorageException("Upload quota of " + uploadQuotaBytes + " bytes is full");
+        }
+        originals.put(jobId, bytes);
+    }
+    
+    /**
+     * Follow-up of a job becoming terminal: its original is no longer needed
+     */
+    public void jobEnded(ConversionJob job) {
+        if (deleteOriginals) {
+            deleteOriginal(job);
+        }
+    }
+    
+    /**
+     * Deletes the original of a job. Inputs read in place from a shared
+     * volume are never deleted.
+     */
+    public void deleteOriginal(ConversionJob job) {
+        if (job.isExternalInput()) {
+            return;
+        }
+        Long bytes = originals.remove(job.getJobId());
+        if (bytes == null) {
+            return;
+        }
+        
+        uploadBytes.addAndGet(-bytes);
+        try {
+            Files.deleteIfExists(Paths.get(job.getOriginalFilePath()));
+        } catch (IOException e) {
+            logger.warn("Could not delete original of job: {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Counts the files a job has published in its output directory, then
+     * evicts the least recently downloaded results while over the quota. The
+     * job's own result is never evicted for itself.
+     */
+    public void outputWritten(String jobId) {
+        long bytes = directorySize(outputLayout.jobDirectory(jobId));
+        if (bytes == 0) {
+            return;
+        }
+        synchronized (this) {
+            Long previous = outputs.put(jobId, bytes);
+            outputBytes += bytes - (previous != null ? previous : 0);
+        }
+        evictOutputs(jobId);
+    }
+    
+    /**
+     * Forgets a job's result after it was moved out of the output directory,
+     * and deletes what is left of its job directory
+     */
+    public void outputRemoved(ConversionJob job) {
+        synchronized (this) {
+            Long bytes = outputs.remove(job.getJobId());
+            if (bytes != null) {
+                outputBytes -= bytes;
+            }
+        }
+        job.evictOutput();
+        deleteDirectory(outputLayout.jobDirectory(job.getJobId()));
+    }
+    
+    /**
+     * Marks a job's result as just downloaded
+     */
+    public synchronized void outputAccessed(String jobId) {
+        outputs.get(jobId);
+    }
+    
+    public long getUploadBytes() {
+        return uploadBytes.get();
+    }
+    
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+    
+    public synchronized int getOutputCount() {
+        return outputs.size();
+    }
+    
+    private void evictOutputs(String keepJobId) {
+        if (outputQuotaBytes <= 0) {
+            return;
+        }
+        
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> eldest = outputs.entrySet().iterator();
+            while (outputBytes > outputQuotaBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> next = eldest.next();
+                if (next.getKey().equals(keepJobId)) {
+                    continue;
+                }
+                eldest.remove();
+                outputBytes -= next.getValue();
+                evicted.add(next.getKey());
+            }
+        }
+        
+        // Deletes happen outside the lock
+        for (String jobId : evicted) {
+            ConversionJob job = jobIndex.get(jobId);
+            if (job != null) {
+                job.evictOutput();
+            }
+            deleteDirectory(outputLayout.jobDirectory(jobId));
+            logger.info("Evicted result of job: {} to stay within the output quota of {} bytes", jobId,
+                    outputQuotaBytes);
+        }
+    }
+    
+    /**
+     * Originals left by an earlier run belong to jobs that no longer exist
+     */
+    private void recoverOriginals(Path uploadPath) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(uploadPath, "*" + ORIGINAL_MARKER + "*")) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                if (deleteOriginals) {
+                    Files.deleteIfExists(file);
+                    logger.info("Deleted original left by an earlier run: {}", file.getFileName());
+                } else {
+                    String name = file.getFileName().toString();
+                    long bytes = Files.size(file);
+                    originals.put(name.substring(0, name.indexOf(ORIGINAL_MARKER)), bytes);
+                    uploadBytes.addAndGet(bytes);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Job directories sit at output/&lt;shard&gt;/&lt;shard&gt;/&lt;jobId&gt;. Partial
+     * files belong to encodes that died with the earlier run.
+     */
+    private void recoverOutputs(Path outputPath) throws IOException {
+        List<RecoveredOutput> recovered = new ArrayList<>();
+        try (Stream<Path> dirs = Files.find(outputPath, 3, (path, attributes) -> attributes.isDirectory()
+                && outputPath.relativize(path).getNameCount() == 3)) {
+            for (Path dir : (Iterable<Path>) dirs::iterator) {
+                long bytes = 0;
+                long lastModified = 0;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        if (file.getFileName().toString().startsWith(TEMP_PREFIX)) {
+                            Files.deleteIfExists(file);
+                        } else if (Files.isRegularFile(file)) {
+                            bytes += Files.size(file);
+                            lastModified = Math.max(lastModified, Files.getLastModifiedTime(file).toMillis());
+                        }
+                    }
+                }
+                if (bytes > 0) {
+                    recovered.add(new RecoveredOutput(dir.getFileName().toString(), bytes, lastModified));
+                } else {
+                    Files.deleteIfExists(dir);
+                }
+            }
+        }
+        
+        recovered.sort(Comparator.comparingLong(RecoveredOutput::lastModified));
+        synchronized (this) {
+            for (RecoveredOutput output : recovered) {
+                outputs.put(output.jobId(), output.bytes());
+                outputBytes += output.bytes();
+            }
+        }
+    }
+    
+    private long directorySize(Path dir) {
+        long bytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().startsWith(TEMP_PREFIX) && Files.isRegularFile(file)) {
+                    bytes += Files.size(file);
+                }
+            }
+        } catch (IOException e) {
+            // No results on disk (an in-memory result), or they were removed meanwhile
+        }
+        return bytes;
+    }
+    
+    private void deleteDirectory(Path dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", dir, e.getMessage());
+        }
+    }
+    
+    private record RecoveredOutput(String jobId, long bytes, long lastModified) {
+    }
+}
@@ -0,0 +1,403 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.dto.UploadSessionRequest;
+import br.schumaker.fcs.dto.UploadSessionResponse;
+import br.schumaker.fcs.exception.ConflictException;
+import br.schumaker.fcs.model.UploadSession;
+
+/**
+ * Resumable uploads: a session owns a part file that clients fill with chunks
+ * PUT at arbitrary offsets, in parallel, and resume after a dropped connection
+ * by asking which ranges have arrived. Completing the session hands the
+ * assembled file to the conversion pipeline.
+ */
+@Service
+public class UploadSessionService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+    
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    
+    private final FileConversionService fileConversionService;
+    private final MediaTypeSniffer mediaTypeSniffer;
+    private final DiskSpaceService diskSpaceService;
+    
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    
+    // Slots taken towards maxActiveSessions, claimed before a session is created
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    
+    @Value("${app.upload.dir:./uploads}")
+    private String uploadDir;
+    
+    @Value("${app.upload.sessions.ttl-seconds:3600}")
+    private long sessionTtlSeconds;
+    
+    @Value("${app.upload.sessions.max-active:1000}")
+    private int maxActiveSessions;
+    
+    @Value("${app.upload.sessions.max-chunk-size:67108864}")
+    private long maxChunkSize;
+    
+    @Value("${app.upload.sessions.require-chunk-checksum:true}")
+    private boolean requireChunkChecksum;
+    
+    public UploadSessionService(FileConversionService fileConversionService, MediaTypeSniffer mediaTypeSniffer,
+            DiskSpaceService diskSpaceService) {
+        this.fileConversionService = fileConversionService;
+        this.mediaTypeSniffer = mediaTypeSniffer;
+        this.diskSpaceService = diskSpaceService;
+    }
+    
+    /**
+     * Opens a new upload session and its part file
+     */
+    public UploadSessionResponse createSession(UploadSessionRequest request) throws IOException {
+        if (request.getFileSize() > fileConversionService.getMaxFileSizeBytes()) {
+            throw new IllegalArgumentException("File size exceeds maximum allowed size");
+        }
+        fileConversionService.checkWaveform(null, request);
+        diskSpaceService.checkUploadCapacity(request.getFileSize());
+        claimSessionSlot();
+        
+        String uploadId = UUID.randomUUID().toString();
+        FileChannel channel;
+        Path partFile;
+        try {
+            Path sessionDir = Paths.get(uploadDir, "sessions");
+            Files.createDirectories(sessionDir);
+            partFile = sessionDir.resolve(uploadId + ".part");
+            channel = FileChannel.open(partFile,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            activeSessions.decrementAndGet();
+            throw e;
+        }
+        
+        // Keep only the conversion parameters for the job created on completion
+        ConversionRequest conversionRequest = new ConversionRequest(request.getTargetFormat());
+        conversionRequest.setQuality(request.getQuality());
+        conversionRequest.setWidth(request.getWidth());
+        conversionRequest.setHeight(request.getHeight());
+        conversionRequest.setBitrate(request.getBitrate());
+        conversionRequest.setDeadline(request.getDeadline());
+        conversionRequest.setSlaClass(request.getSlaClass());
+        conversionRequest.setPriority(request.getPriority());
+        conversionRequest.setClientId(request.getClientId());
+        conversionRequest.setCallbackUrl(request.getCallbackUrl());
+        conversionRequest.setCallbackProgress(request.isCallbackProgress());
+        conversionRequest.setClipStart(request.getClipStart());
+        conversionRequest.setClipEnd(request.getClipEnd());
+        conversionRequest.setClipDuration(request.getClipDuration());
+        conversionRequest.setCutMode(request.getCutMode());
+        conversionRequest.setWaveform(request.isWaveform());
+        conversionRequest.setPeaksPerSecond(request.getPeaksPerSecond());
+        
+        UploadSession session = new UploadSession(uploadId, FilenameUtils.getName(request.getFileName()),
+                request.getFileSize(), request.getSha256(), conversionRequest, partFile, channel);
+        sessions.put(uploadId, session);
+        
+        logger.info("Created upload session {} for {} ({} bytes)", uploadId, session.getFileName(), session.getFileSize());
+        return toResponse(session);
+    }
+    
+    /**
+     * Writes one chunk at the given offset with positional writes, so chunks of
+     * the same session can arrive concurrently. The chunk's range is reserved
+     * while it is written, and only counts as received once the chunk's
+     * SHA-256 matches the client's.
+     *
+     * @return null if the session does not exist, or ended while the chunk was written
+     */
+    public UploadSessionResponse writeChunk(String uploadId, long offset, long contentLength, String chunkSha256,
+            InputStream body) throws IOException {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null || session.isClosed()) {
+            return null;
+        }
+        
+        if (chunkSha256 == null && requireChunkChecksum) {
+            throw new IllegalArgumentException("Chunk checksum header is required");
+        }
+        if (contentLength <= 0) {
+            throw new IllegalArgumentException("Chunk Content-Length is required");
+        }
+        if (contentLength > maxChunkSize) {
+            throw new IllegalArgumentException("Chunk exceeds maximum size of " + maxChunkSize + " bytes");
+        }
+        if (offset < 0 || offset + contentLength > session.getFileSize()) {
+            throw new IllegalArgumentException("Chunk lies outside the declared file size");
+        }
+        
+        long end = offset + contentLength;
+        session.touch();
+        
+        synchronized (session) {
+            if (session.isClosed()) {
+                return null;
+            }
+            if (session.isReceived(offset, end)) {
+                // Retry of a chunk whose acknowledgement was lost
+                return toResponse(session);
+            }
+            if (!session.beginWrite(offset, end)) {
+                throw new ConflictException("Chunk overlaps a range that was already received or is being written");
+            }
+        }
+        
+        boolean received = false;
+        try {
+            writeRange(session, offset, end, contentLength, chunkSha256, body);
+            received = true;
+        } catch (ClosedChannelException e) {
+            // Completed, aborted or expired while the chunk was being written
+            logger.info("Upload session {} ended while writing the chunk at offset {}", uploadId, offset);
+            return null;
+        } finally {
+            session.endWrite(offset, received);
+        }
+        
+        session.touch();
+        return toResponse(session);
+    }
+    
+    private void writeRange(UploadSession session, long offset, long end, long contentLength, String chunkSha256,
+            InputStream body) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long position = offset;
+        int read;
+        
+        // Leading bytes of the file, kept from the chunk at offset 0 for type sniffing
+        byte[] header = offset == 0 ? new byte[MediaTypeSniffer.HEADER_SIZE] : null;
+        int headerLength = 0;
+        
+        while (position < end && (read = body.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+            digest.update(buffer, 0, read);
+            if (header != null && headerLength < header.length) {
+                int count = Math.min(read, header.length - headerLength);
+                System.arraycopy(buffer, 0, header, headerLength, count);
+                headerLength += count;
+            }
+            byteBuffer.clear().limit(read);
+            while (byteBuffer.hasRemaining()) {
+                position += session.getChannel().write(byteBuffer, position);
+            }
+        }
+        
+        if (position != end) {
+            throw new IllegalArgumentException("Chunk body ended after " + (position - offset) + " of " + contentLength + " bytes");
+        }
+        if (chunkSha256 != null && !HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(chunkSha256)) {
+            throw new IllegalArgumentException("Chunk checksum mismatch at offset " + offset);
+        }
+        
+        if (header != null) {
+            rejectUnsupportedInput(session, header, headerLength);
+        }
+    }
+    
+    /**
+     * @return null if the session does not exist
+     */
+    public UploadSessionResponse getSession(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        return session == null ? null : toResponse(session);
+    }
+    
+    /**
+     * Verifies the assembled file and starts its conversion job
+     *
+     * @return null if the session does not exist
+     */
+    public ConversionResponse completeSession(String uploadId) throws IOException {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        
+        synchronized (session) {
+            if (session.isClosed()) {
+                return null;
+            }
+            if (session.hasWritesInFlight()) {
+                throw new ConflictException("Chunks are still being written");
+            }
+            if (!session.isComplete()) {
+                throw new ConflictException("Upload is incomplete: received " + session.getReceivedBytes()
+                        + " of " + session.getFileSize() + " bytes");
+            }
+            
+            session.getChannel().force(false);
+            if (session.getSha256() != null) {
+                String actual = hashFile(session.getChannel(), session.getFileSize());
+                if (!actual.equalsIgnoreCase(session.getSha256())) {
+                    discard(session);
+                    throw new IllegalArgumentException("File checksum mismatch");
+                }
+            }
+            
+            session.setClosed(true);
+            session.getChannel().close();
+            removeSession(session);
+        }
+        
+        logger.info("Upload session {} complete, starting conversion", uploadId);
+        return fileConversionService.startConversion(session.getPartFile(), session.getFileName(),
+                session.getConversionRequest());
+    }
+    
+    /**
+     * Aborts a session and deletes its part file
+     *
+     * @return false if the session does not exist
+     */
+    public boolean abortSession(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return false;
+        }
+        discard(session);
+        return true;
+    }
+    
+    @Scheduled(fixedDelayString = "${app.upload.sessions.cleanup-interval-ms:60000}")
+    public void expireAbandonedSessions() {
+        long cutoff = System.currentTimeMillis() - sessionTtlSeconds * 1000;
+        for (UploadSession session : sessions.values()) {
+            // A chunk still being written is activity, however long it takes
+            if (session.getLastActivityAt() < cutoff && !session.hasWritesInFlight()) {
+                logger.info("Expiring abandoned upload session {}", session.getUploadId());
+                discard(session);
+            }
+        }
+    }
+    
+    /**
+     * Sniffs the first chunk and ends the session straight away if the input is
+     * not convertible, so the client does not send the rest of the file
+     */
+    private void rejectUnsupportedInput(UploadSession session, byte[] header, int headerLength) {
+        MediaTypeSniffer.SniffedType inputType = mediaTypeSniffer.sniff(header, headerLength);
+        if (inputType == null && headerLength < header.length && headerLength < session.getFileSize()) {
+            // Too few bytes to tell; checked again on completion
+            return;
+        }
+        
+        try {
+            fileConversionService.checkConvertible(inputType, session.getConversionRequest().getTargetFormat());
+            fileConversionService.checkWaveform(inputType.mediaClass(), session.getConversionRequest());
+        } catch (IllegalArgumentException e) {
+            logger.info("Rejecting upload session {}: {}", session.getUploadId(), e.getMessage());
+            discard(session);
+            throw e;
+        }
+    }
+    
+    /**
+     * Takes one of the maxActiveSessions slots, so concurrent creations cannot
+     * overshoot the limit between the check and the insert
+     *
+     * @throws ConflictException if all slots are taken
+     */
+    private void claimSessionSlot() {
+        int active;
+        do {
+            active = activeSessions.get();
+            if (active >= maxActiveSessions) {
+                throw new ConflictException("Too many active upload sessions");
+            }
+        } while (!activeSessions.compareAndSet(active, active + 1));
+    }
+    
+    /**
+     * Removes a session from the active ones, giving back its slot the first
+     * time only
+     */
+    private void removeSession(UploadSession session) {
+        if (sessions.remove(session.getUploadId(), session)) {
+            activeSessions.decrementAndGet();
+        }
+    }
+    
+    private void discard(UploadSession session) {
+        synchronized (session) {
+            removeSession(session);
+            session.setClosed(true);
+            try {
+                session.getChannel().close();
+                Files.deleteIfExists(session.getPartFile());
+            } catch (IOException e) {
+                logger.warn("Could not remove part file for upload {}: {}", session.getUploadId(), e.getMessage());
+            }
+        }
+    }
+    
+    private String hashFile(FileChannel channel, long size) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    private MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private UploadSessionResponse toResponse(UploadSession session) {
+        UploadSessionResponse response = new UploadSessionResponse();
+        response.setUploadId(session.getUploadId());
+        response.setFileName(session.getFileName());
+        response.setFileSize(session.getFileSize());
+        response.setReceivedBytes(session.getReceivedBytes());
+        response.setReceivedRanges(session.getReceivedRanges());
+        response.setComplete(session.isComplete());
+        response.setExpiresAt(LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(session.getLastActivityAt() + sessionTtlSeconds * 1000), ZoneId.systemDefault()));
+        return response;
+    }
+}
@@ -0,0 +1,443 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Bulk ingestion from watched inbox directories. Each inbox has a default
+ * {@link ConversionRequest}, and files dropped into it are converted without
+ * an HTTP call per file.
+ * <p>
+ * A {@link WatchService} reports new and growing files. A file is taken once
+ * its size and modification time have stopped changing and it has not been
+ * written for the stable period, so files written in place and files renamed
+ * into the inbox are both only taken when complete. Names starting with a dot
+ * or ending in an ignored suffix are files still being written and skipped.
+ * <p>
+ * A taken file is moved to the inbox's processing directory and converted in
+ * place, with at most max-in-flight files across all inboxes queued or
+ * running; the rest wait in their inbox. The result is then moved to the
+ * outbox and the original to done, or the original to failed next to a note
+ * of the error. Jobs do not survive a restart, so on startup files left in
+ * processing are moved back and each inbox is scanned for files that arrived
+ * while the service was down.
+ */
+@Service
+public class WatchFolderService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WatchFolderService.class);
+    
+    private static final String TEMP_PREFIX = ".partial.";
+    
+    private final FileConversionService fileConversionService;
+    private final AsyncConversionService asyncConversionService;
+    private final StorageManager storageManager;
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    
+    // By inbox directory; filled on startup and never changed, so readers need no locking
+    private final Map<Path, Inbox> inboxes = new LinkedHashMap<>();
+    
+    // Files seen in an inbox and not taken yet, with what they looked like last time
+    private final Map<Path, Sighting> sightings = new ConcurrentHashMap<>();
+    
+    // Taken files whose job is not terminal yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    private WatchService watchService;
+    
+    @Value("${app.watch.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${app.watch.inboxes:}")
+    private String[] inboxNames;
+    
+    @Value("${app.watch.stable-seconds:5}")
+    private long stableSeconds;
+    
+    @Value("${app.watch.max-in-flight:8}")
+    private int maxInFlight;
+    
+    @Value("${app.watch.ignore-suffixes:.part,.tmp,.crdownload,.partial}")
+    private String[] ignoreSuffixes;
+    
+    /**
+     * A watched directory and the request its files are converted with
+     */
+    private record Inbox(String name, Path dir, Path outbox, ConversionRequest request) {
+        
+        Path processing() {
+            return dir.resolve("processing");
+        }
+        
+        Path done() {
+            return dir.resolve("done");
+        }
+        
+        Path failed() {
+            return dir.resolve("failed");
+        }
+    }
+    
+    private record Sighting(Inbox inbox, long size, long modifiedMillis) {
+    }
+    
+    public WatchFolderService(FileConversionService fileConversionService,
+            AsyncConversionService asyncConversionService, StorageManager storageManager, Environment environment,
+            MeterRegistry meterRegistry) {
+        this.fileConversionService = fileConversionService;
+        this.asyncConversionService = asyncConversionService;
+        this.storageManager = storageManager;
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String name : inboxNames) {
+            if (name.isBlank()) {
+                continue;
+            }
+            Inbox inbox = loadInbox(name.trim());
+            Files.createDirectories(inbox.processing());
+            Files.createDirectories(inbox.done());
+            Files.createDirectories(inbox.failed());
+            Files.createDirectories(inbox.outbox());
+            inboxes.put(inbox.dir(), inbox);
+        }
+        if (inboxes.isEmpty()) {
+            throw new IllegalStateException("Watch folders are enabled but app.watch.inboxes names no inbox");
+        }
+        
+        asyncConversionService.addJobEndedListener(this::jobEnded);
+        for (Inbox inbox : inboxes.values()) {
+            // Registered before the scan, so a file arriving in between is reported rather than missed
+            inbox.dir().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            reconcile(inbox);
+            scan(inbox);
+            logger.info("Watching inbox {} at {} for {} conversions, results to {}", inbox.name(), inbox.dir(),
+                    inbox.request().getTargetFormat(), inbox.outbox());
+        }
+        
+        Gauge.builder("fcs.watch.in-flight", inFlight, AtomicInteger::get)
+                .description("Files taken from watched inboxes whose job has not ended")
+                .register(meterRegistry);
+        Gauge.builder("fcs.watch.waiting", sightings, Map::size)
+                .description("Files in watched inboxes not taken yet")
+                .register(meterRegistry);
+        
+        Thread.ofPlatform().name("watch-folder").daemon().start(this::watch);
+    }
+    
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+    
+    /**
+     * Reads an inbox from app.watch.inbox.&lt;name&gt;.*: its directory, its
+     * outbox and the fields of its conversion request, such as target-format
+     * and quality
+     */
+    private Inbox loadInbox(String name) {
+        String prefix = "app.watch.inbox." + name;
+        String dir = environment.getProperty(prefix + ".dir");
+        if (dir == null || dir.isBlank()) {
+            throw new IllegalStateException("Watched inbox " + name + " has no directory; set " + prefix + ".dir");
+        }
+        
+        ConversionRequest request = Binder.get(environment).bind(prefix, ConversionRequest.class)
+                .orElseGet(ConversionRequest::new);
+        if (request.getTargetFormat() == null || MediaClass.ofTargetFormat(request.getTargetFormat()) == null) {
+            throw new IllegalStateException(
+                    "Watched inbox " + name + " has no supported target format; set " + prefix + ".target-format");
+        }
+        request.setClientId("inbox:" + name);
+        request.setCallbackUrl(null);
+        
+        Path dirPath = Paths.get(dir.trim()).toAbsolutePath().normalize();
+        String outbox = environment.getProperty(prefix + ".outbox");
+        Path outboxPath = outbox != null && !outbox.isBlank() ? Paths.get(outbox.trim()).toAbsolutePath().normalize()
+                : dirPath.resolve("outbox");
+        return new Inbox(name, dirPath, outboxPath, request);
+    }
+    
+    /**
+     * Files left in processing belonged to jobs of an earlier run
+     */
+    private void reconcile(Inbox inbox) throws IOException {
+        int returned = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox.processing())) {
+            for (Path file : files) {
+                Path target = inbox.dir().resolve(file.getFileName());
+                if (!Files.isRegularFile(file) || Files.exists(target)) {
+                    logger.warn("Leaving {} in processing: a file of that name is already in the inbox", file);
+                    continue;
+                }
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                returned++;
+            }
+        }
+        if (returned > 0) {
+            logger.info("Returned {} files of unfinished jobs to inbox {}", returned, inbox.name());
+        }
+    }
+    
+    private void scan(Inbox inbox) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox.dir())) {
+            for (Path file : files) {
+                sighted(inbox, file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not scan inbox {}: {}", inbox.name(), e.getMessage());
+        }
+    }
+    
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            
+            Inbox inbox = inboxes.get((Path) key.watchable());
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were dropped; the directory itself is the record of what arrived
+                    scan(inbox);
+                } else {
+                    sighted(inbox, inbox.dir().resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+        }
+    }
+    
+    /**
+     * Starts tracking a file reported in an inbox; whether it is complete is
+     * decided by {@link #dispatch}
+     */
+    private void sighted(Inbox inbox, Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || !Files.isRegularFile(file)) {
+            return;
+        }
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (String suffix : ignoreSuffixes) {
+            if (!suffix.isBlank() && lowerName.endsWith(suffix.trim().toLowerCase(Locale.ROOT))) {
+                return;
+            }
+        }
+        sightings.putIfAbsent(file, new Sighting(inbox, -1, -1));
+    }
+    
+    /**
+     * Takes complete files, oldest first, while fewer than max-in-flight are
+     * queued or running
+     */
+    @Scheduled(fixedDelayString = "${app.watch.check-interval-ms:1000}")
+    public void dispatch() {
+        if (!enabled || sightings.isEmpty()) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        List<Map.Entry<Path, Sighting>> complete = new ArrayList<>();
+        for (Map.Entry<Path, Sighting> entry : sightings.entrySet()) {
+            Path file = entry.getKey();
+            Sighting last = entry.getValue();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Renamed away or deleted before it was taken
+                sightings.remove(file);
+                continue;
+            }
+            
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (size != last.size() || modified != last.modifiedMillis()) {
+                sightings.put(file, new Sighting(last.inbox(), size, modified));
+            } else if (now - modified >= stableSeconds * 1000) {
+                complete.add(entry);
+            }
+        }
+        
+        complete.sort(Comparator.comparingLong(entry -> entry.getValue().modifiedMillis()));
+        for (Map.Entry<Path, Sighting> entry : complete) {
+            if (inFlight.get() >= maxInFlight || !take(entry.getKey(), entry.getValue())) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Claims a complete file and queues its conversion
+     *
+     * @return false if the job could not be queued for now, and no more
+     *         files should be tried this round
+     */
+    private boolean take(Path file, Sighting sighting) {
+        Inbox inbox = sighting.inbox();
+        Path claimed = inbox.processing().resolve(file.getFileName());
+        try {
+            Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            sightings.remove(file);
+            return true;
+        } catch (IOException e) {
+            // Most likely a file of the same name still in processing; tried again next round
+            logger.warn("Could not take {} from inbox {}: {}", file.getFileName(), inbox.name(), e.getMessage());
+            return true;
+        }
+        sightings.remove(file);
+        
+        // Counted before the job exists, as it may end before the call returns
+        inFlight.incrementAndGet();
+        try {
+            ConversionResponse response = fileConversionService.startWatchedConversion(claimed, inbox.request());
+            logger.info("Queued {} from inbox {} as job: {}", file.getFileName(), inbox.name(), response.getJobId());
+            return true;
+        } catch (IllegalArgumentException e) {
+            inFlight.decrementAndGet();
+            failed(inbox, claimed, UUID.randomUUID().toString(), e.getMessage());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Quotas, storage or disk space; the file waits in the inbox until the next round
+            inFlight.decrementAndGet();
+            logger.warn("Could not queue {} from inbox {}, will retry: {}", file.getFileName(), inbox.name(),
+                    e.getMessage());
+            try {
+                Files.move(claimed, file, StandardCopyOption.ATOMIC_MOVE);
+                sightings.put(file, sighting);
+            } catch (IOException moveError) {
+                logger.warn("Could not return {} to inbox {}: {}", claimed, inbox.name(), moveError.getMessage());
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Moves the result of a job taken from an inbox to the outbox and its
+     * original to done or failed. Other jobs are ignored.
+     */
+    private void jobEnded(ConversionJob job) {
+        if (!job.isExternalInput()) {
+            return;
+        }
+        Path claimed = Paths.get(job.getOriginalFilePath());
+        Inbox inbox = inboxes.get(claimed.getParent().getParent());
+        if (inbox == null || !claimed.getParent().equals(inbox.processing())) {
+            return;
+        }
+        inFlight.decrementAndGet();
+        
+        if (job.getStatus() != JobStatus.COMPLETED) {
+            failed(inbox, claimed, job.getJobId(),
+                    job.getErrorMessage() != null ? job.getErrorMessage() : "Job ended " + job.getStatus());
+            return;
+        }
+        
+        try {
+            Path result = Paths.get(job.getConvertedFilePath());
+            Path target = uniquePath(inbox.outbox(), baseName(claimed) + "." + job.getTargetFormat(), job.getJobId());
+            // Written under a hidden name first, so the outbox never shows a file still being copied
+            Path temp = inbox.outbox().resolve(TEMP_PREFIX + target.getFileName());
+            Files.move(result, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            storageManager.outputRemoved(job);
+            
+            Files.move(claimed, uniquePath(inbox.done(), claimed.getFileName().toString(), job.getJobId()),
+                    StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Converted {} from inbox {} to {}", claimed.getFileName(), inbox.name(), target);
+        } catch (IOException e) {
+            failed(inbox, claimed, job.getJobId(), "Could not move the result to the outbox: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Moves an original to failed, with the reason in a .error.txt file next to it
+     */
+    private void failed(Inbox inbox, Path claimed, String jobId, String message) {
+        logger.warn("Could not convert {} from inbox {}: {}", claimed.getFileName(), inbox.name(), message);
+        try {
+            Path target = uniquePath(inbox.failed(), claimed.getFileName().toString(), jobId);
+            Files.move(claimed, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.writeString(target.resolveSibling(target.getFileName() + ".error.txt"), message + "\n",
+                    StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Could not move {} to failed: {}", claimed, e.getMessage());
+        }
+    }
+    
+    /**
+     * The name in a directory, or the name tagged with the start of the job ID
+     * if a file of that name is already there, as nightly drops repeat names
+     */
+    private Path uniquePath(Path dir, String name, String jobId) {
+        Path path = dir.resolve(name);
+        if (!Files.exists(path)) {
+            return path;
+        }
+        int dot = name.lastIndexOf('.');
+        String tag = "-" + jobId.substring(0, 8);
+        return dir.resolve(dot > 0 ? name.substring(0, dot) + tag + name.substring(dot) : name + tag);
+    }
+    
+    private String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
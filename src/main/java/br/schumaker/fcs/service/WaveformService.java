@@ -0,0 +1,171 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import br.schumaker.fcs.dto.WaveformResponse;
+import br.schumaker.fcs.model.ConversionJob;
+
+/**
+ * Waveform peaks of a job's audio. FFmpeg decodes the audio to mono PCM on a
+ * second output, written to its stdout while the main output is encoded, and
+ * a {@link PeaksReducer} turns the stream into a peaks file next to the output.
+ * The audio is decoded once, by the same process, and never stored as PCM.
+ */
+@Service
+public class WaveformService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WaveformService.class);
+    
+    private final OutputLayout outputLayout;
+    
+    @Value("${app.waveform.sample-rate:22050}")
+    private int sampleRate;
+    
+    @Value("${app.waveform.peaks-per-second:50}")
+    private int defaultPeaksPerSecond;
+    
+    public WaveformService(OutputLayout outputLayout) {
+        this.outputLayout = outputLayout;
+    }
+    
+    public int getDefaultPeaksPerSecond() {
+        return defaultPeaksPerSecond;
+    }
+    
+    /**
+     * FFmpeg arguments of the PCM output on stdout; they follow the main
+     * output, as per-output options such as the clip length apply to the
+     * output after them
+     */
+    public List<String> outputArgs(ConversionJob job) {
+        List<String> args = new ArrayList<>(
+                Arrays.asList("-map", "0:a:0", "-ac", "1", "-ar", String.valueOf(sampleRate)));
+        if (job.getClipDuration() != null) {
+            args.addAll(Arrays.asList("-t", String.format(Locale.ROOT, "%.3f", job.getClipDuration())));
+        }
+        args.addAll(Arrays.asList("-c:a", "pcm_s16le", "-f", "s16le", "pipe:1"));
+        return args;
+    }
+    
+    /**
+     * Reduces the PCM stream of a running conversion into the job's temporary
+     * peaks file. The stream is read to its end even if the file cannot be
+     * written, so FFmpeg never blocks on a full pipe.
+     *
+     * @return the number of peaks
+     */
+    public int reduce(ConversionJob job, InputStream pcm) throws IOException {
+        Path tempFile = outputLayout.tempPath(outputLayout.peaksPath(job.getJobId()));
+        PeaksReducer reducer = new PeaksReducer(sampleRate, samplesPerPeak(job));
+        
+        try (InputStream stream = pcm) {
+            try {
+                Files.createDirectories(tempFile.getParent());
+                try (FileChannel file = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    return reducer.reduce(Channels.newChannel(stream), file);
+                }
+            } catch (IOException e) {
+                stream.transferTo(OutputStream.nullOutputStream());
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Moves a completed job's peaks file into place
+     */
+    public void publish(ConversionJob job) throws IOException {
+        Path peaksFile = outputLayout.peaksPath(job.getJobId());
+        Files.move(outputLayout.tempPath(peaksFile), peaksFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Stores a peaks file uploaded by a remote worker
+     */
+    public void store(String jobId, InputStream peaks) throws IOException {
+        Path peaksFile = outputLayout.peaksPath(jobId);
+        Path tempFile = outputLayout.tempPath(peaksFile);
+        Files.createDirectories(tempFile.getParent());
+        Files.copy(peaks, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempFile, peaksFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Removes the temporary peaks file of a failed job
+     */
+    public void discard(ConversionJob job) {
+        try {
+            Files.deleteIfExists(outputLayout.tempPath(outputLayout.peaksPath(job.getJobId())));
+        } catch (IOException e) {
+            logger.warn("Could not remove partial peaks for job: {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+    
+    public Path peaksFile(String jobId) {
+        return outputLayout.peaksPath(jobId);
+    }
+    
+    /**
+     * Reads a job's peaks file into its JSON view
+     *
+     * @return null if the job has no peaks file
+     */
+    public WaveformResponse read(String jobId) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(outputLayout.peaksPath(jobId));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < PeaksReducer.HEADER_BYTES || buffer.getInt() != PeaksReducer.MAGIC
+                || buffer.getInt() != PeaksReducer.VERSION) {
+            throw new IOException("Not a peaks file: " + outputLayout.peaksPath(jobId));
+        }
+        
+        WaveformResponse response = new WaveformResponse();
+        response.setJobId(jobId);
+        response.setSampleRate(buffer.getInt());
+        response.setSamplesPerPeak(buffer.getInt());
+        int length = Math.min(buffer.getInt(), buffer.remaining() / PeaksReducer.PEAK_BYTES);
+        short[] min = new short[length];
+        short[] max = new short[length];
+        short[] rms = new short[length];
+        for (int i = 0; i < length; i++) {
+            min[i] = buffer.getShort();
+            max[i] = buffer.getShort();
+            rms[i] = buffer.getShort();
+        }
+        response.setLength(length);
+        response.setMin(min);
+        response.setMax(max);
+        response.setRms(rms);
+        return response;
+    }
+    
+    private int samplesPerPeak(ConversionJob job) {
+        return Math.max(1, Math.round((float) sampleRate / job.getWaveformPeaksPerSecond()));
+    }
+}
@@ -0,0 +1,486 @@
+package br.schumaker.fcs.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.schumaker.fcs.dto.ConversionResponse;
+import br.schumaker.fcs.dto.WebhookEvent;
+import br.schumaker.fcs.model.ConversionJob;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Delivers job events to client callback URLs. Each endpoint has at most one
+ * request in flight; events raised meanwhile wait in the endpoint's queue,
+ * where a newer event for the same job replaces an older one, and go out
+ * together in the next batch. Failed batches are retried with exponential
+ * backoff and written to a dead-letter file once the attempts run out.
+ */
+@Service
+public class WebhookDispatcher {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WebhookDispatcher.class);
+    
+    public static final String SIGNATURE_HEADER = "X-Webhook-Signature";
+    public static final String TIMESTAMP_HEADER = "X-Webhook-Timestamp";
+    public static final String DELIVERY_HEADER = "X-Webhook-Delivery";
+    
+    private static final int PROGRESS_STEP_PERCENT = 25;
+    
+    private final ObjectMapper objectMapper;
+    
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, Integer> progressMilestones = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    
+    private volatile Function<String, ConversionResponse> statusSource;
+    
+    private ExecutorService httpExecutor;
+    private ScheduledExecutorService timer;
+    private HttpClient httpClient;
+    
+    @Value("${app.webhook.secret:}")
+    private String secret;
+    
+    @Value("${app.webhook.allowed-hosts:}")
+    private String[] allowedHosts;
+    
+    // Refuses to start without an allow list; set in production, where the address check is not enough
+    @Value("${app.webhook.require-allowed-hosts:false}")
+    private boolean requireAllowedHosts;
+    
+    @Value("${app.webhook.threads:2}")
+    private int threads;
+    
+    @Value("${app.webhook.connect-timeout-seconds:5}")
+    private long connectTimeoutSeconds;
+    
+    @Value("${app.webhook.request-timeout-seconds:10}")
+    private long requestTimeoutSeconds;
+    
+    @Value("${app.webhook.batch-window-ms:250}")
+    private long batchWindowMs;
+    
+    @Value("${app.webhook.max-batch-size:100}")
+    private int maxBatchSize;
+    
+    @Value("${app.webhook.max-pending:10000}")
+    private int maxPending;
+    
+    @Value("${app.webhook.max-attempts:8}")
+    private int maxAttempts;
+    
+    @Value("${app.webhook.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+    
+    @Value("${app.webhook.max-backoff-ms:300000}")
+    private long maxBackoffMs;
+    
+    @Value("${app.webhook.dead-letter-file:./webhooks/dead-letter.jsonl}")
+    private String deadLetterFile;
+    
+    public WebhookDispatcher(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+    
+    @PostConstruct
+    public void start() {
+        httpExecutor = Executors.newFixedThreadPool(threads, daemonThreads("Webhook-"));
+        timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("Webhook-timer-"));
+        // One client for all endpoints, so connections to each host are kept alive and reused
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .executor(httpExecutor)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        if (secret.isEmpty()) {
+            logger.warn("app.webhook.secret is not set; webhook deliveries will not be signed");
+        }
+        if (!hasAllowList()) {
+            if (requireAllowedHosts) {
+                throw new IllegalStateException(
+                        "app.webhook.allowed-hosts must be set when app.webhook.require-allowed-hosts is true");
+            }
+            logger.warn("app.webhook.allowed-hosts is not set; callback hosts are only checked to resolve to "
+                    + "public addresses, which DNS rebinding can get around");
+        }
+    }
+    
+    @PreDestroy
+    public void stop() {
+        timer.shutdownNow();
+        httpExecutor.shutdownNow();
+    }
+    
+    /**
+     * Sets the function used to build the job payload from a job ID
+     */
+    public void setStatusSource(Function<String, ConversionResponse> statusSource) {
+        this.statusSource = statusSource;
+    }
+    
+    /**
+     * Rejects callback URLs that are malformed or whose host is not allow-listed.
+     * Without an allow list any host is accepted unless it resolves to a
+     * loopback, link-local, private or otherwise non-public address, so a
+     * client cannot make the server post to internal services; hosts on the
+     * allow list are trusted wherever they resolve.
+     * <p>
+     * The address check is best-effort: the HTTP client resolves the host
+     * again when it connects, and a host under the client's control can
+     * answer with a private address the second time. Only the allow list
+     * holds against that, which is why production should set it, and
+     * app.webhook.require-allowed-hosts to make sure it is set.
+     */
+    public void validateCallbackUrl(String callbackUrl) {
+        URI uri;
+        try {
+            uri = URI.create(callbackUrl);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid callback URL");
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("Callback URL must use http or https");
+        }
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("Callback URL has no host");
+        }
+        checkDestination(uri);
+    }
+    
+    private void checkDestination(URI uri) {
+        String host = uri.getHost();
+        if (hasAllowList()) {
+            for (String allowed : allowedHosts) {
+                if (allowed.trim().equalsIgnoreCase(host)) {
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("Callback host is not allowed: " + host);
+        }
+        
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Callback host cannot be resolved: " + host);
+        }
+        for (InetAddress address : addresses) {
+            if (isNonPublic(address)) {
+                throw new IllegalArgumentException("Callback host resolves to a non-public address: " + host);
+            }
+        }
+    }
+    
+    private boolean hasAllowList() {
+        if (allowedHosts != null) {
+            for (String allowed : allowedHosts) {
+                if (!allowed.isBlank()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isNonPublic(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+                || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return true;
+        }
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 16) {
+            // Unique local fc00::/7
+            return (bytes[0] & 0xfe) == 0xfc;
+        }
+        // Carrier-grade NAT 100.64.0.0/10
+        return (bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64;
+    }
+    
+    /**
+     * Queues the final event of a job that completed, failed or was cancelled
+     */
+    public void jobFinished(ConversionJob job) {
+        progressMilestones.remove(job.getJobId());
+        if (job.getCallbackUrl() == null) {
+            return;
+        }
+        String type = "job." + job.getStatus().name().toLowerCase();
+        enqueue(job.getCallbackUrl(), new WebhookEvent(type, job.getJobId(), null, statusSource.apply(job.getJobId())));
+    }
+    
+    /**
+     * Queues a progress event when the job passes a milestone; cheap to call on
+     * every progress update
+     */
+    public void progress(ConversionJob job) {
+        if (job.getCallbackUrl() == null || !job.isCallbackProgress()) {
+            return;
+        }
+        Double duration = job.getOutputDurationSeconds();
+        Double progress = job.getProgressSeconds();
+        if (duration == null || progress == null || duration <= 0) {
+            return;
+        }
+        
+        int milestone = (int) Math.min(100, progress * 100 / duration) / PROGRESS_STEP_PERCENT * PROGRESS_STEP_PERCENT;
+        if (milestone == 0 || milestone == 100) {
+            // 100% is reported by the final event
+            return;
+        }
+        Integer previous = progressMilestones.put(job.getJobId(), milestone);
+        if (previous == null || previous < milestone) {
+            enqueue(job.getCallbackUrl(),
+                    new WebhookEvent("job.progress", job.getJobId(), milestone, statusSource.apply(job.getJobId())));
+        }
+    }
+    
+    public int getPendingEvents() {
+        return pendingEvents.get();
+    }
+    
+    private void enqueue(String url, WebhookEvent event) {
+        while (true) {
+            Endpoint endpoint = endpoints.computeIfAbsent(url, Endpoint::new);
+            synchronized (endpoint) {
+                // Dropped by finish() after its queue ran empty; queueing here would run a second endpoint
+                if (endpoints.get(url) != endpoint) {
+                    continue;
+                }
+                enqueue(endpoint, event);
+                return;
+            }
+        }
+    }
+    
+    // Called with the endpoint locked
+    private void enqueue(Endpoint endpoint, WebhookEvent event) {
+        WebhookEvent queued = endpoint.pending.get(event.getJobId());
+        if (queued != null) {
+            // Coalesce: keep only the latest event per job, but never let progress replace a final event
+            if (!"job.progress".equals(queued.getType()) && "job.progress".equals(event.getType())) {
+                return;
+            }
+            endpoint.pending.put(event.getJobId(), event);
+        } else {
+            if (pendingEvents.get() >= maxPending) {
+                deadLetter(endpoint.url, List.of(event), 0, "Webhook queue full");
+                return;
+            }
+            pendingEvents.incrementAndGet();
+            endpoint.pending.put(event.getJobId(), event);
+        }
+        
+        if (!endpoint.scheduled) {
+            // Wait a moment so a burst of events goes out as one batch
+            endpoint.scheduled = true;
+            timer.schedule(() -> flush(endpoint), batchWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void flush(Endpoint endpoint) {
+        List<WebhookEvent> batch = new ArrayList<>();
+        synchronized (endpoint) {
+            Iterator<WebhookEvent> iterator = endpoint.pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < maxBatchSize) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            if (batch.isEmpty()) {
+                endpoint.scheduled = false;
+                return;
+            }
+        }
+        send(endpoint, batch);
+    }
+    
+    private void send(Endpoint endpoint, List<WebhookEvent> batch) {
+        HttpRequest request;
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(Map.of("events", batch));
+            String timestamp = String.valueOf(Instant.now().getEpochSecond());
+            
+            // Checked again on every delivery, as the host may resolve elsewhere by now
+            URI uri = URI.create(endpoint.url);
+            checkDestination(uri);
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofSeconds(requestTimeoutSeconds))
+                    .header("Content-Type", "application/json")
+                    .header(TIMESTAMP_HEADER, timestamp)
+                    .header(DELIVERY_HEADER, UUID.randomUUID().toString())
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+            if (!secret.isEmpty()) {
+                builder.header(SIGNATURE_HEADER, "sha256=" + sign(timestamp, body));
+            }
+            request = builder.build();
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            logger.error("Could not build webhook request for {}: {}", endpoint.url, e.getMessage());
+            finish(endpoint, batch);
+            deadLetter(endpoint.url, batch, 0, "Could not build request: " + e.getMessage());
+            return;
+        }
+        
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() / 100 == 2) {
+                endpoint.attempts = 0;
+                finish(endpoint, batch);
+                logger.debug("Delivered {} webhook event(s) to {}", batch.size(), endpoint.url);
+                return;
+            }
+            
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            String reason = cause != null ? cause.toString() : "HTTP " + response.statusCode();
+            boolean retryable = error != null || response.statusCode() == 408 || response.statusCode() == 429
+                    || response.statusCode() >= 500;
+            endpoint.attempts++;
+            
+            if (!retryable || endpoint.attempts >= maxAttempts) {
+                logger.warn("Giving up on {} webhook event(s) for {} after {} attempt(s): {}",
+                        batch.size(), endpoint.url, endpoint.attempts, reason);
+                deadLetter(endpoint.url, batch, endpoint.attempts, reason);
+                endpoint.attempts = 0;
+                finish(endpoint, batch);
+                return;
+            }
+            
+            long delay = backoff(endpoint.attempts);
+            logger.info("Webhook delivery to {} failed ({}); retry {} in {} ms", endpoint.url, reason,
+                    endpoint.attempts, delay);
+            requeue(endpoint, batch);
+            timer.schedule(() -> flush(endpoint), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+    
+    /**
+     * Puts a failed batch back at the head of the queue, unless a newer event
+     * for the same job arrived in the meantime
+     */
+    private void requeue(Endpoint endpoint, List<WebhookEvent> batch) {
+        synchronized (endpoint) {
+            LinkedHashMap<String, WebhookEvent> merged = new LinkedHashMap<>();
+            for (WebhookEvent event : batch) {
+                WebhookEvent newer = endpoint.pending.remove(event.getJobId());
+                if (newer != null) {
+                    pendingEvents.decrementAndGet();
+                }
+                merged.put(event.getJobId(), newer != null ? newer : event);
+            }
+            merged.putAll(endpoint.pending);
+            endpoint.pending.clear();
+            endpoint.pending.putAll(merged);
+        }
+    }
+    
+    /**
+     * Releases a delivered or dropped batch and sends whatever queued up behind it
+     */
+    private void finish(Endpoint endpoint, List<WebhookEvent> batch) {
+        pendingEvents.addAndGet(-batch.size());
+        synchronized (endpoint) {
+            if (endpoint.pending.isEmpty()) {
+                endpoint.scheduled = false;
+                endpoints.remove(endpoint.url, endpoint);
+                return;
+            }
+        }
+        timer.execute(() -> flush(endpoint));
+    }
+    
+    private long backoff(int attempt) {
+        long delay = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 30));
+        // Full jitter keeps many clients of one endpoint from retrying in lockstep
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+    
+    private String sign(String timestamp, byte[] body) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        mac.update((timestamp + ".").getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(mac.doFinal(body));
+    }
+    
+    private synchronized void deadLetter(String url, List<WebhookEvent> events, int attempts, String reason) {
+        try {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("url", url);
+            record.put("failedAt", LocalDateTime.now());
+            record.put("attempts", attempts);
+            record.put("reason", reason);
+            record.put("events", events);
+            
+            Path path = Paths.get(deadLetterFile);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Files.write(path, (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.error("Could not write webhook dead letter for {}: {}", url, e.getMessage());
+        }
+    }
+    
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private static final class Endpoint {
+        private final String url;
+        // Events waiting to be sent, one per job, guarded by this
+        private final LinkedHashMap<String, WebhookEvent> pending = new LinkedHashMap<>();
+        // A flush is scheduled or a batch is in flight, guarded by this
+        private boolean scheduled;
+        // Consecutive failed attempts; only touched by the single in-flight delivery
+        private volatile int attempts;
+        
+        private Endpoint(String url) {
+            this.url = url;
+        }
+    }
+}
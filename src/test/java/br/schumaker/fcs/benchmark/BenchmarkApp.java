@@ -0,0 +1,21 @@
+package br.schumaker.fcs.benchmark;
+
+import org.springframework.boot.SpringApplication;
+
+import br.schumaker.fcs.FileConversionServiceApp;
+
+/**
+ * Starts the service with the "benchmark" profile from the test classpath,
+ * where the benchmarks and their settings live, so the service jar carries
+ * neither. The suite is chosen with app.benchmark.suite:
+ * <pre>
+ * ./mvnw spring-boot:test-run -Dspring-boot.run.arguments=--app.benchmark.suite=lanes
+ * </pre>
+ */
+public class BenchmarkApp {
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(FileConversionServiceApp.class);
+        application.setAdditionalProfiles("benchmark");
+        application.run(args);
+    }
+}
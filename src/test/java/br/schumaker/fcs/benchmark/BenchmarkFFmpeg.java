@@ -0,0 +1,142 @@
+package br.schumaker.fcs.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FFmpeg runs shared by the benchmarks: rendering synthetic sources and
+ * running commands to completion
+ */
+final class BenchmarkFFmpeg {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BenchmarkFFmpeg.class);
+    
+    private static final Pattern BENCH_PATTERN = Pattern.compile(
+            "bench: utime=([0-9.]+)s stime=([0-9.]+)s rtime=([0-9.]+)s");
+    
+    private final String ffmpegPath;
+    
+    /**
+     * CPU (user plus system) and wall seconds FFmpeg reports with -benchmark
+     */
+    record Times(double cpuSeconds, double wallSeconds) {
+    }
+    
+    BenchmarkFFmpeg(String ffmpegPath) {
+        this.ffmpegPath = ffmpegPath;
+    }
+    
+    /**
+     * Renders a lavfi source with temporal noise into a lossless file: FFV1
+     * video with a FLAC sine tone, or a single PNG frame. An existing file is
+     * reused.
+     */
+    void renderSource(String source, String resolution, int frameRate, int durationSeconds, int noise, Path output,
+            boolean image) throws IOException {
+        if (Files.exists(output)) {
+            return;
+        }
+        
+        String noiseFilter = "noise=alls=" + noise + ":allf=t+u";
+        List<String> command = new ArrayList<>(Arrays.asList(ffmpegPath, "-hide_banner", "-nostdin", "-y",
+                "-f", "lavfi", "-i", source + "=size=" + resolution + ":rate=" + frameRate));
+        if (image) {
+            command.addAll(Arrays.asList("-vf", noiseFilter, "-frames:v", "1"));
+        } else {
+            command.addAll(Arrays.asList("-f", "lavfi", "-i", "sine=frequency=440:sample_rate=48000",
+                    "-vf", noiseFilter, "-t", String.valueOf(durationSeconds),
+                    "-c:v", "ffv1", "-c:a", "flac", "-shortest"));
+        }
+        command.add(output.toString());
+        
+        logger.info("Generating {}", output.getFileName());
+        run(command);
+    }
+    
+    /**
+     * Renders a 440 Hz sine tone with white noise into an audio file of the
+     * output's extension. An existing file is reused.
+     */
+    void renderTone(int durationSeconds, Path output) throws IOException {
+        if (Files.exists(output)) {
+            return;
+        }
+        
+        logger.info("Generating {}", output.getFileName());
+        run(Arrays.asList(ffmpegPath, "-hide_banner", "-nostdin", "-y",
+                "-f", "lavfi", "-i", "sine=frequency=440:sample_rate=48000",
+                "-f", "lavfi", "-i", "anoisesrc=amplitude=0.05:sample_rate=48000",
+                "-filter_complex", "amix=inputs=2:duration=shortest", "-t", String.valueOf(durationSeconds),
+                "-ac", "2", output.toString()));
+    }
+    
+    /**
+     * Runs FFmpeg to completion
+     *
+     * @return its combined output
+     * @throws IOException if it cannot be started or exits with an error
+     */
+    String run(List<String> command) throws IOException {
+        return run(command, process -> {
+        });
+    }
+    
+    /**
+     * Runs FFmpeg to completion, handing the process to the caller once it started
+     *
+     * @return its combined output
+     * @throws IOException if it cannot be started or exits with an error
+     */
+    String run(List<String> command, Consumer<Process> started) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        started.accept(process);
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+        }
+        
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                logger.debug("FFmpeg output: {}", output);
+                throw new IOException("FFmpeg exited with " + exitCode);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new IOException("Interrupted", e);
+        }
+        return output.toString();
+    }
+    
+    /**
+     * Reads the times a command run with -benchmark reports when it exits
+     *
+     * @throws IOException if the output has none
+     */
+    static Times times(String output) throws IOException {
+        Matcher bench = BENCH_PATTERN.matcher(output);
+        if (!bench.find()) {
+            throw new IOException("FFmpeg reported no benchmark times");
+        }
+        return new Times(Double.parseDouble(bench.group(1)) + Double.parseDouble(bench.group(2)),
+                Double.parseDouble(bench.group(3)));
+    }
+}
@@ -0,0 +1,295 @@
+package br.schumaker.fcs.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.MediaClass;
+import br.schumaker.fcs.service.CoreBudgetManager;
+import br.schumaker.fcs.service.FFmpegService;
+
+/**
+ * Measures the aggregate throughput of concurrent encodes with and without
+ * the core budget. Each batch starts the same conversion several times at
+ * once. Unmanaged, every FFmpeg process sizes its threads to all cores, as
+ * conversions did before the budget; managed, each gets its thread count
+ * from the {@link CoreBudgetManager}, which also pins the processes to
+ * disjoint CPUs and rebalances them as encodes finish. The modes alternate
+ * round by round, so drift in the machine's load hits both alike.
+ * <p>
+ * Run with the "benchmark" profile and the core-budget suite; a Markdown
+ * report and a CSV file are written and the service exits:
+ * <pre>
+ * ./mvnw spring-boot:test-run -Dspring-boot.run.arguments=--app.benchmark.suite=core-budget
+ * </pre>
+ */
+@Component
+@Profile("benchmark")
+@ConditionalOnProperty(name = "app.benchmark.suite", havingValue = "core-budget")
+public class CoreBudgetBenchmark implements ApplicationRunner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CoreBudgetBenchmark.class);
+    
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    private final FFmpegService ffmpegService;
+    private final CoreBudgetManager coreBudgetManager;
+    private final ConfigurableApplicationContext context;
+    private BenchmarkFFmpeg ffmpeg;
+    
+    @Value("${app.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+    
+    @Value("${app.benchmark.dir:./benchmark}")
+    private String benchmarkDir;
+    
+    @Value("${app.benchmark.frame-rate:30}")
+    private int frameRate;
+    
+    @Value("${app.benchmark.noise:20}")
+    private int noise;
+    
+    @Value("${app.benchmark.core-budget.source:testsrc2}")
+    private String source;
+    
+    @Value("${app.benchmark.core-budget.resolution:1280x720}")
+    private String resolution;
+    
+    @Value("${app.benchmark.core-budget.duration-seconds:10}")
+    private int durationSeconds;
+    
+    @Value("${app.benchmark.core-budget.format:mp4}")
+    private String format;
+    
+    @Value("${app.benchmark.core-budget.quality:medium}")
+    private String quality;
+    
+    // Encodes started at once in each batch
+    @Value("${app.benchmark.core-budget.concurrency:2,4,8}")
+    private int[] concurrency;
+    
+    @Value("${app.benchmark.core-budget.rounds:3}")
+    private int rounds;
+    
+    public CoreBudgetBenchmark(FFmpegService ffmpegService, CoreBudgetManager coreBudgetManager,
+            ConfigurableApplicationContext context) {
+        this.ffmpegService = ffmpegService;
+        this.coreBudgetManager = coreBudgetManager;
+        this.context = context;
+    }
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        ffmpeg = new BenchmarkFFmpeg(ffmpegPath);
+        int failures = runBenchmark();
+        System.exit(SpringApplication.exit(context, () -> failures == 0 ? 0 : 1));
+    }
+    
+    /**
+     * @return the number of batches that failed
+     */
+    private int runBenchmark() {
+        Path work = Paths.get(benchmarkDir, "work");
+        Path input = work.resolve(source + "-" + resolution + ".mkv");
+        try {
+            Files.createDirectories(work);
+            ffmpeg.renderSource(source, resolution, frameRate, durationSeconds, noise, input, false);
+        } catch (IOException e) {
+            logger.error("Could not generate {} at {}: {}", source, resolution, e.getMessage());
+            return 1;
+        }
+        
+        logger.info("Benchmarking {} {} encodes on {} cores with {} ({})", format, quality,
+                coreBudgetManager.getTotalCores(), ffmpegPath, ffmpegService.getGpuStatus());
+        List<Batch> batches = new ArrayList<>();
+        int failures = 0;
+        for (int jobs : concurrency) {
+            for (int round = 0; round < rounds; round++) {
+                // Alternate which mode goes first
+                boolean managedFirst = round % 2 == 1;
+                for (boolean managed : new boolean[] { managedFirst, !managedFirst }) {
+                    try {
+                        batches.add(runBatch(input, jobs, round, managed));
+                    } catch (IOException e) {
+                        logger.error("Batch of {} {} encodes failed: {}", jobs, managed ? "managed" : "unmanaged",
+                                e.getMessage());
+                        failures++;
+                    }
+                }
+            }
+        }
+        
+        try {
+            writeReport(batches);
+        } catch (IOException e) {
+            logger.error("Could not write the core budget report: {}", e.getMessage());
+            failures++;
+        }
+        return failures;
+    }
+    
+    /**
+     * Starts the given number of encodes at once and waits for all of them
+     */
+    private Batch runBatch(Path input, int jobs, int round, boolean managed) throws IOException {
+        List<Future<BenchmarkFFmpeg.Times>> encodes = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < jobs; i++) {
+                Path output = input.resolveSibling("core-budget-" + i + "." + format);
+                encodes.add(executor.submit(() -> encode(input, output, managed)));
+            }
+        }
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+        
+        double cpuSeconds = 0;
+        for (Future<BenchmarkFFmpeg.Times> encode : encodes) {
+            try {
+                cpuSeconds += encode.get().cpuSeconds();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+        
+        Batch batch = new Batch(jobs, round, managed, wallSeconds, cpuSeconds, jobs * (double) durationSeconds);
+        logger.info("{} {} encodes in {}s: {} media seconds per second", jobs, managed ? "managed" : "unmanaged",
+                String.format(Locale.ROOT, "%.2f", wallSeconds),
+                String.format(Locale.ROOT, "%.2f", batch.mediaSecondsPerSecond()));
+        return batch;
+    }
+    
+    private BenchmarkFFmpeg.Times encode(Path input, Path output, boolean managed) throws IOException {
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        job.setTargetFormat(format);
+        job.setQuality(quality);
+        job.setInputMediaClass(MediaClass.VIDEO);
+        job.setExternalInputPath(input.toString());
+        if (managed) {
+            job.setThreads(coreBudgetManager.acquire(job.getJobId()));
+        }
+        
+        try {
+            List<String> command = new ArrayList<>(ffmpegService.buildFFmpegCommand(job, output));
+            command.add(1, "-benchmark");
+            String log = ffmpeg.run(command, process -> {
+                if (managed) {
+                    coreBudgetManager.attach(job.getJobId(), process);
+                }
+            });
+            return BenchmarkFFmpeg.times(log);
+        } finally {
+            if (managed) {
+                coreBudgetManager.release(job.getJobId());
+            }
+            Files.deleteIfExists(output);
+        }
+    }
+    
+    /**
+     * Writes every batch to a CSV file and a Markdown report with the median
+     * of each mode and concurrency, and the managed speedup over unmanaged
+     */
+    private void writeReport(List<Batch> batches) throws IOException {
+        Path dir = Paths.get(benchmarkDir);
+        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
+        
+        StringBuilder csv = new StringBuilder("jobs,round,mode,wall_seconds,cpu_seconds,media_seconds_per_second\n");
+        for (Batch batch : batches) {
+            csv.append(String.format(Locale.ROOT, "%d,%d,%s,%.3f,%.3f,%.3f%n", batch.jobs(), batch.round(),
+                    batch.mode(), batch.wallSeconds(), batch.cpuSeconds(), batch.mediaSecondsPerSecond()));
+        }
+        Path csvFile = dir.resolve("core-budget-" + timestamp + ".csv");
+        Files.writeString(csvFile, csv);
+        
+        StringBuilder report = new StringBuilder();
+        report.append("# Core budget benchmark ").append(timestamp).append("\n\n");
+        report.append(String.format(Locale.ROOT,
+                "%s %s encodes of %ds %s %s at %d fps on %d cores, median of %d rounds. FFmpeg: %s. %s.%n%n",
+                format, quality, durationSeconds, source, resolution, frameRate, coreBudgetManager.getTotalCores(),
+                rounds, ffmpegPath, ffmpegService.getGpuStatus()));
+        report.append("| Jobs at once | Mode | Wall s | CPU s per job | Media s per s | Managed speedup |\n");
+        report.append("|---:|---|---:|---:|---:|---:|\n");
+        
+        for (int jobs : concurrency) {
+            double[] unmanaged = medians(batches, jobs, false);
+            double[] managed = medians(batches, jobs, true);
+            for (boolean isManaged : new boolean[] { false, true }) {
+                double[] medians = isManaged ? managed : unmanaged;
+                if (Double.isNaN(medians[0])) {
+                    continue;
+                }
+                String speedup = isManaged && !Double.isNaN(unmanaged[0])
+                        ? String.format(Locale.ROOT, "%+.1f%%", 100 * (medians[2] / unmanaged[2] - 1))
+                        : "";
+                report.append(String.format(Locale.ROOT, "| %d | %s | %.2f | %.2f | %.2f | %s |%n", jobs,
+                        isManaged ? "managed" : "unmanaged", medians[0], medians[1] / jobs, medians[2], speedup));
+            }
+        }
+        Path reportFile = dir.resolve("core-budget-" + timestamp + ".md");
+        Files.writeString(reportFile, report);
+        
+        logger.info("Ran {} batches; report in {}, data in {}", batches.size(), reportFile, csvFile);
+    }
+    
+    /**
+     * Median wall seconds, CPU seconds and media seconds per second of the
+     * batches of one concurrency and mode; NaN if there are none
+     */
+    private static double[] medians(List<Batch> batches, int jobs, boolean managed) {
+        List<Batch> matching = batches.stream()
+                .filter(batch -> batch.jobs() == jobs && batch.managed() == managed)
+                .toList();
+        return new double[] {
+                median(matching.stream().mapToDouble(Batch::wallSeconds).toArray()),
+                median(matching.stream().mapToDouble(Batch::cpuSeconds).toArray()),
+                median(matching.stream().mapToDouble(Batch::mediaSecondsPerSecond).toArray()) };
+    }
+    
+    private static double median(double[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(values);
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+    
+    private record Batch(int jobs, int round, boolean managed, double wallSeconds, double cpuSeconds,
+            double mediaSeconds) {
+        
+        String mode() {
+            return managed ? "managed" : "unmanaged";
+        }
+        
+        double mediaSecondsPerSecond() {
+            return wallSeconds > 0 ? mediaSeconds / wallSeconds : 0;
+        }
+    }
+}
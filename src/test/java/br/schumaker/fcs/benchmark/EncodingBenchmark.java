@@ -0,0 +1,310 @@
+package br.schumaker.fcs.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.MediaClass;
+import br.schumaker.fcs.service.FFmpegService;
+
+/**
+ * Measures the encoding profiles against each other. Synthetic inputs are
+ * generated with lavfi sources plus temporal noise, so the encoder has real
+ * work to do, and stored losslessly. Every quality profile is then run for
+ * every target format with the exact command a conversion would use, and the
+ * output is compared to the source with FFmpeg's PSNR and SSIM filters.
+ * <p>
+ * Run with the "benchmark" profile; the service does not start its web
+ * server, writes a Markdown report and a CSV file, and exits:
+ * <pre>
+ * ./mvnw spring-boot:test-run
+ * </pre>
+ */
+@Component
+@Profile("benchmark")
+@ConditionalOnProperty(name = "app.benchmark.suite", havingValue = "encoding", matchIfMissing = true)
+public class EncodingBenchmark implements ApplicationRunner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EncodingBenchmark.class);
+    
+    private static final Pattern FRAME_PATTERN = Pattern.compile("^frame=(\\d+)");
+    private static final Pattern PSNR_PATTERN = Pattern.compile("PSNR .*average:([0-9.]+|inf)");
+    private static final Pattern SSIM_PATTERN = Pattern.compile("SSIM .*All:([0-9.]+)");
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String BASELINE_QUALITY = "medium";
+    
+    private final FFmpegService ffmpegService;
+    private final ConfigurableApplicationContext context;
+    private BenchmarkFFmpeg ffmpeg;
+    
+    @Value("${app.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+    
+    @Value("${app.benchmark.dir:./benchmark}")
+    private String benchmarkDir;
+    
+    @Value("${app.benchmark.sources:testsrc2,mandelbrot}")
+    private String[] sources;
+    
+    @Value("${app.benchmark.resolutions:640x360,1280x720,1920x1080}")
+    private String[] resolutions;
+    
+    @Value("${app.benchmark.formats:mp4,mov,mkv,avi,jpg,png,webp,gif}")
+    private String[] formats;
+    
+    @Value("${app.benchmark.qualities:low,medium,high}")
+    private String[] qualities;
+    
+    @Value("${app.benchmark.duration-seconds:5}")
+    private int durationSeconds;
+    
+    @Value("${app.benchmark.frame-rate:30}")
+    private int frameRate;
+    
+    // Strength of the temporal noise added to the sources, 0-100
+    @Value("${app.benchmark.noise:20}")
+    private int noise;
+    
+    public EncodingBenchmark(FFmpegService ffmpegService, ConfigurableApplicationContext context) {
+        this.ffmpegService = ffmpegService;
+        this.context = context;
+    }
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        ffmpeg = new BenchmarkFFmpeg(ffmpegPath);
+        int failures = runBenchmark();
+        System.exit(SpringApplication.exit(context, () -> failures == 0 ? 0 : 1));
+    }
+    
+    /**
+     * @return the number of encodes that failed
+     */
+    private int runBenchmark() {
+        Path dir = Paths.get(benchmarkDir);
+        List<Result> results = new ArrayList<>();
+        int failures = 0;
+        
+        logger.info("Benchmarking with {} ({})", ffmpegPath, ffmpegService.getGpuStatus());
+        try {
+            Files.createDirectories(dir.resolve("work"));
+        } catch (IOException e) {
+            logger.error("Cannot create benchmark directory {}: {}", dir, e.getMessage());
+            return 1;
+        }
+        
+        for (String source : sources) {
+            for (String resolution : resolutions) {
+                Path videoSource = dir.resolve("work").resolve(source + "-" + resolution + ".mkv");
+                Path imageSource = dir.resolve("work").resolve(source + "-" + resolution + ".png");
+                try {
+                    ffmpeg.renderSource(source, resolution, frameRate, durationSeconds, noise, videoSource, false);
+                    ffmpeg.renderSource(source, resolution, frameRate, durationSeconds, noise, imageSource, true);
+                } catch (IOException e) {
+                    logger.error("Could not generate {} at {}: {}", source, resolution, e.getMessage());
+                    failures++;
+                    continue;
+                }
+                
+                for (String format : formats) {
+                    MediaClass targetClass = MediaClass.ofTargetFormat(format.trim());
+                    if (targetClass == null || targetClass == MediaClass.AUDIO) {
+                        // Audio has no PSNR or SSIM to compare profiles on
+                        logger.info("Skipping target format {}: no video quality to measure", format);
+                        continue;
+                    }
+                    Path input = targetClass == MediaClass.IMAGE ? imageSource : videoSource;
+                    for (String quality : qualities) {
+                        try {
+                            results.add(encode(source, resolution, input, targetClass, format.trim(), quality.trim()));
+                        } catch (IOException e) {
+                            logger.error("Benchmark of {} {} at {} from {} failed: {}", format, quality, resolution,
+                                    source, e.getMessage());
+                            failures++;
+                        }
+                    }
+                }
+            }
+        }
+        
+        try {
+            writeReport(dir, results);
+        } catch (IOException e) {
+            logger.error("Could not write the benchmark report: {}", e.getMessage());
+            failures++;
+        }
+        return failures;
+    }
+    
+    private Result encode(String source, String resolution, Path input, MediaClass targetClass, String format,
+            String quality) throws IOException {
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        job.setTargetFormat(format);
+        job.setQuality(quality);
+        job.setInputMediaClass(targetClass == MediaClass.IMAGE ? MediaClass.IMAGE : MediaClass.VIDEO);
+        job.setExternalInputPath(input.toString());
+        
+        Path output = input.resolveSibling("encoded." + format);
+        List<String> command = new ArrayList<>(ffmpegService.buildFFmpegCommand(job, output));
+        String settings = settingsOf(command, input);
+        // Reports user, system and real time when FFmpeg exits
+        command.add(1, "-benchmark");
+        
+        try {
+            logger.info("Encoding {} {} at {} from {}: {}", format, quality, resolution, source, settings);
+            String log = ffmpeg.run(command);
+            BenchmarkFFmpeg.Times times = BenchmarkFFmpeg.times(log);
+            
+            long frames = 0;
+            for (String line : log.split("\n")) {
+                Matcher frame = FRAME_PATTERN.matcher(line.trim());
+                if (frame.find()) {
+                    frames = Math.max(frames, Long.parseLong(frame.group(1)));
+                }
+            }
+            
+            double[] scores = compare(output, input);
+            return new Result(source, resolution, format, quality, job.getEncoder(), settings, frames,
+                    times.wallSeconds(), times.cpuSeconds(), Files.size(output), scores[0], scores[1]);
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+    
+    /**
+     * The encoder arguments of a conversion command: everything between the
+     * input and the output
+     */
+    private String settingsOf(List<String> command, Path input) {
+        int start = command.indexOf(input.toString()) + 1;
+        int end = command.lastIndexOf("-y");
+        return String.join(" ", command.subList(start, end > start ? end : command.size() - 1));
+    }
+    
+    /**
+     * PSNR (dB, infinite when identical) and SSIM of the encoded video
+     * against its source
+     */
+    private double[] compare(Path encoded, Path reference) throws IOException {
+        String log = ffmpeg.run(Arrays.asList(ffmpegPath, "-hide_banner", "-nostdin", "-i", encoded.toString(),
+                "-i", reference.toString(), "-lavfi",
+                "[0:v]split=2[d1][d2];[1:v]split=2[r1][r2];[d1][r1]ssim;[d2][r2]psnr", "-f", "null", "-"));
+        
+        Matcher psnr = PSNR_PATTERN.matcher(log);
+        Matcher ssim = SSIM_PATTERN.matcher(log);
+        if (!psnr.find() || !ssim.find()) {
+            throw new IOException("FFmpeg reported no PSNR or SSIM for " + encoded.getFileName());
+        }
+        double psnrDb = "inf".equals(psnr.group(1)) ? Double.POSITIVE_INFINITY : Double.parseDouble(psnr.group(1));
+        return new double[] { psnrDb, Double.parseDouble(ssim.group(1)) };
+    }
+    
+    /**
+     * Writes every measurement to a CSV file and a Markdown report. The report
+     * also compares each profile with the medium one of the same source,
+     * resolution and format: how much throughput it gives up or gains per
+     * decibel of PSNR.
+     */
+    private void writeReport(Path dir, List<Result> results) throws IOException {
+        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
+        
+        StringBuilder csv = new StringBuilder("source,resolution,format,quality,encoder,settings,frames,"
+                + "wall_seconds,cpu_seconds,fps,bytes,bits_per_pixel,psnr_db,ssim\n");
+        for (Result result : results) {
+            csv.append(String.format(Locale.ROOT, "%s,%s,%s,%s,%s,\"%s\",%d,%.3f,%.3f,%.2f,%d,%.4f,%.2f,%.5f%n",
+                    result.source(), result.resolution(), result.format(), result.quality(), result.encoder(),
+                    result.settings(), result.frames(), result.wallSeconds(), result.cpuSeconds(), result.fps(),
+                    result.bytes(), result.bitsPerPixel(), result.psnr(), result.ssim()));
+        }
+        Path csvFile = dir.resolve("benchmark-" + timestamp + ".csv");
+        Files.writeString(csvFile, csv);
+        
+        StringBuilder report = new StringBuilder();
+        report.append("# Encoding benchmark ").append(timestamp).append("\n\n");
+        report.append(String.format(Locale.ROOT, "Sources: %s, %ds at %d fps with noise %d. FFmpeg: %s. %s.%n%n",
+                String.join(", ", sources), durationSeconds, frameRate, noise, ffmpegPath,
+                ffmpegService.getGpuStatus()));
+        report.append("| Source | Resolution | Format | Quality | Encoder | Settings | fps | CPU s | Size KiB "
+                + "| bits/px | PSNR dB | SSIM | Δfps vs medium | ΔPSNR dB | fps per dB |\n");
+        report.append("|---|---|---|---|---|---|---:|---:|---:|---:|---:|---:|---:|---:|---:|\n");
+        
+        Map<String, Result> baselines = new LinkedHashMap<>();
+        for (Result result : results) {
+            if (BASELINE_QUALITY.equals(result.quality())) {
+                baselines.put(result.group(), result);
+            }
+        }
+        
+        for (Result result : results) {
+            Result baseline = baselines.get(result.group());
+            String fpsDelta = "";
+            String psnrDelta = "";
+            String fpsPerDb = "";
+            if (baseline != null && baseline != result) {
+                double deltaFps = result.fps() - baseline.fps();
+                double deltaPsnr = result.psnr() - baseline.psnr();
+                fpsDelta = String.format(Locale.ROOT, "%+.1f%%", 100 * deltaFps / baseline.fps());
+                psnrDelta = String.format(Locale.ROOT, "%+.2f", deltaPsnr);
+                // Frames per second traded for each decibel gained (or gained per decibel given up)
+                if (Double.isFinite(deltaPsnr) && Math.abs(deltaPsnr) >= 0.01) {
+                    fpsPerDb = String.format(Locale.ROOT, "%.1f", -deltaFps / deltaPsnr);
+                }
+            }
+            report.append(String.format(Locale.ROOT,
+                    "| %s | %s | %s | %s | %s | `%s` | %.1f | %.2f | %.1f | %.3f | %.2f | %.4f | %s | %s | %s |%n",
+                    result.source(), result.resolution(), result.format(), result.quality(), result.encoder(),
+                    result.settings(), result.fps(), result.cpuSeconds(), result.bytes() / 1024.0,
+                    result.bitsPerPixel(), result.psnr(), result.ssim(), fpsDelta, psnrDelta, fpsPerDb));
+        }
+        Path reportFile = dir.resolve("benchmark-" + timestamp + ".md");
+        Files.writeString(reportFile, report);
+        
+        logger.info("Benchmarked {} encodes; report in {}, data in {}", results.size(), reportFile, csvFile);
+    }
+    
+    private record Result(String source, String resolution, String format, String quality, String encoder,
+            String settings, long frames, double wallSeconds, double cpuSeconds, long bytes, double psnr,
+            double ssim) {
+        
+        double fps() {
+            return wallSeconds > 0 ? frames / wallSeconds : 0;
+        }
+        
+        double bitsPerPixel() {
+            String[] size = resolution.split("x");
+            long pixels = Long.parseLong(size[0]) * Long.parseLong(size[1]) * Math.max(frames, 1);
+            return bytes * 8.0 / pixels;
+        }
+        
+        /**
+         * Profiles in the same group are compared with each other
+         */
+        String group() {
+            return source + "/" + resolution + "/" + format;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package br.schumaker.fcs.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+import br.schumaker.fcs.service.JobIndex;
+import br.schumaker.fcs.service.OutputLayout;
+
+/**
+ * Measures how many finished jobs the service holds per gigabyte of heap.
+ * Jobs are built the way an upload leaves them once its encode completed and
+ * stored in the job index, so the figure includes the index entries; the
+ * heap is compared after full collections before and after.
+ * <p>
+ * Run with the "benchmark" profile and the footprint suite; a Markdown
+ * report is written and the service exits:
+ * <pre>
+ * ./mvnw spring-boot:test-run -Dspring-boot.run.arguments=--app.benchmark.suite=footprint
+ * </pre>
+ */
+@Component
+@Profile("benchmark")
+@ConditionalOnProperty(name = "app.benchmark.suite", havingValue = "footprint")
+public class JobFootprintBenchmark implements ApplicationRunner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(JobFootprintBenchmark.class);
+    
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String[] TARGET_FORMATS = { "mp4", "webm", "mp3", "png" };
+    private static final double BYTES_PER_GIB = 1024.0 * 1024 * 1024;
+    
+    private final JobIndex jobIndex;
+    private final OutputLayout outputLayout;
+    private final ConfigurableApplicationContext context;
+    
+    @Value("${app.benchmark.dir:./benchmark}")
+    private String benchmarkDir;
+    
+    @Value("${app.benchmark.footprint.jobs:200000}")
+    private int jobs;
+    
+    // Distinct client addresses the jobs are spread over
+    @Value("${app.benchmark.footprint.clients:1000}")
+    private int clients;
+    
+    public JobFootprintBenchmark(JobIndex jobIndex, OutputLayout outputLayout, ConfigurableApplicationContext context) {
+        this.jobIndex = jobIndex;
+        this.outputLayout = outputLayout;
+        this.context = context;
+    }
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        int failures = runBenchmark();
+        System.exit(SpringApplication.exit(context, () -> failures == 0 ? 0 : 1));
+    }
+    
+    private int runBenchmark() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = usedHeapAfterGc(memory);
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < jobs; i++) {
+            jobIndex.add(finishedJob(i));
+        }
+        double fillSeconds = (System.nanoTime() - start) / 1e9;
+        
+        long after = usedHeapAfterGc(memory);
+        double bytesPerJob = (double) (after - before) / jobs;
+        double jobsPerGib = BYTES_PER_GIB / bytesPerJob;
+        logger.info("{} finished jobs take {} bytes of heap: {} bytes per job, {} jobs per GiB", jobs,
+                after - before, Math.round(bytesPerJob), Math.round(jobsPerGib));
+        
+        try {
+            writeReport(before, after, bytesPerJob, jobsPerGib, fillSeconds);
+        } catch (IOException e) {
+            logger.error("Could not write the footprint report: {}", e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+    
+    /**
+     * A job as an upload leaves it once its encode has completed, with the
+     * strings a request would bring in as fresh instances
+     */
+    private ConversionJob finishedJob(int i) {
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        String targetFormat = TARGET_FORMATS[i % TARGET_FORMATS.length];
+        boolean audio = "mp3".equals(targetFormat);
+        
+        job.setOriginalFileName("upload-" + i + ".mov");
+        job.setOriginalFormat("mov");
+        job.setInputMediaClass(MediaClass.VIDEO);
+        job.setTargetFormat(targetFormat);
+        job.setQuality("medium");
+        job.setOriginalFileSize(48_000_000L + i);
+        job.setSlaClass("standard");
+        job.setClientId("203.0." + (i % clients) / 256 + "." + (i % clients) % 256);
+        job.setDeadline(job.getCreatedAt().plusHours(1));
+        job.setPaths(outputLayout);
+        job.setSourceWidth(1920);
+        job.setSourceHeight(1080);
+        job.setInputDurationSeconds(62.5);
+        job.setThreads(4);
+        job.setEncoder(audio ? "cpu" : "libx264");
+        job.setPreset(audio ? null : "medium");
+        
+        long now = System.currentTimeMillis();
+        job.updateState(state -> state.withStatus(JobStatus.PROCESSING).withStartedAt(now));
+        job.setLastProgressAt(now);
+        job.setProgressSeconds(62.5);
+        job.setConvertedFileSize(audio ? 1_000_000L : 21_000_000L);
+        job.updateState(state -> state.finish(JobStatus.COMPLETED, now + 30_000));
+        return job;
+    }
+    
+    private long usedHeapAfterGc(MemoryMXBean memory) {
+        // A few rounds, so garbage left over from the previous step is gone
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+    
+    private void writeReport(long before, long after, double bytesPerJob, double jobsPerGib, double fillSeconds)
+            throws IOException {
+        Path dir = Files.createDirectories(Paths.get(benchmarkDir));
+        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
+        
+        StringBuilder report = new StringBuilder();
+        report.append("# Job footprint benchmark ").append(timestamp).append("\n\n");
+        report.append(String.format(Locale.ROOT, "JVM: %s %s, max heap %d MiB. %d clients, target formats %s.%n%n",
+                System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                Runtime.getRuntime().maxMemory() / (1024 * 1024), clients, String.join(", ", TARGET_FORMATS)));
+        report.append("| Jobs | Heap before MiB | Heap after MiB | Bytes per job | Jobs per GiB | Fill s |\n");
+        report.append("|---:|---:|---:|---:|---:|---:|\n");
+        report.append(String.format(Locale.ROOT, "| %d | %.1f | %.1f | %.0f | %.0f | %.2f |%n", jobs,
+                before / (1024.0 * 1024), after / (1024.0 * 1024), bytesPerJob, jobsPerGib, fillSeconds));
+        
+        Path reportFile = dir.resolve("footprint-" + timestamp + ".md");
+        Files.writeString(reportFile, report);
+        logger.info("Report in {}", reportFile);
+    }
+}
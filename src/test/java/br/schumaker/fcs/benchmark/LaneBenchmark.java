@@ -0,0 +1,415 @@
+package br.schumaker.fcs.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+import br.schumaker.fcs.exception.ConflictException;
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.model.MediaClass;
+import br.schumaker.fcs.service.AsyncConversionService;
+import br.schumaker.fcs.service.FileConversionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Measures the latency of small image and audio jobs while the video lane is
+ * saturated. A backlog of long video encodes is kept queued for the whole
+ * run, topped up as encodes finish, while small jobs arrive at a fixed
+ * interval. Each job's time in its lane and its latency from submission to
+ * completion are recorded, with the workers each lane borrowed from the
+ * others. Inputs are read in place, as from a watched folder, so no upload
+ * I/O is measured.
+ * <p>
+ * The report covers the lane settings the service was started with; run it
+ * again with other limits or with app.scheduler.lanes.borrowing-enabled=false
+ * to compare. Run with the "benchmark" profile and the lanes suite; a Markdown
+ * report and a CSV file are written and the service exits:
+ * <pre>
+ * ./mvnw spring-boot:test-run -Dspring-boot.run.arguments=--app.benchmark.suite=lanes
+ * </pre>
+ */
+@Component
+@Profile("benchmark")
+@ConditionalOnProperty(name = "app.benchmark.suite", havingValue = "lanes")
+public class LaneBenchmark implements ApplicationRunner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LaneBenchmark.class);
+    
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final long JOB_TIMEOUT_SECONDS = 600;
+    private static final String[] LANES = { "image", "audio", "video" };
+    
+    private final FileConversionService fileConversionService;
+    private final AsyncConversionService asyncConversionService;
+    private final MeterRegistry meterRegistry;
+    private final ConfigurableApplicationContext context;
+    private final Map<String, Submitted> submitted = new ConcurrentHashMap<>();
+    
+    // Released once per finished video encode, so the feeder keeps the backlog full
+    private final Semaphore videoEnded = new Semaphore(0);
+    private volatile boolean feeding = true;
+    
+    @Value("${app.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+    
+    @Value("${app.benchmark.dir:./benchmark}")
+    private String benchmarkDir;
+    
+    @Value("${app.benchmark.frame-rate:30}")
+    private int frameRate;
+    
+    @Value("${app.benchmark.noise:20}")
+    private int noise;
+    
+    @Value("${app.benchmark.lanes.video-resolution:1280x720}")
+    private String videoResolution;
+    
+    @Value("${app.benchmark.lanes.video-duration-seconds:20}")
+    private int videoDurationSeconds;
+    
+    // Video jobs queued or running at any time
+    @Value("${app.benchmark.lanes.video-backlog:8}")
+    private int videoBacklog;
+    
+    @Value("${app.benchmark.lanes.image-resolution:640x480}")
+    private String imageResolution;
+    
+    @Value("${app.benchmark.lanes.audio-duration-seconds:5}")
+    private int audioDurationSeconds;
+    
+    // Small jobs, alternately image and audio, one every interval
+    @Value("${app.benchmark.lanes.small-jobs:200}")
+    private int smallJobs;
+    
+    @Value("${app.benchmark.lanes.small-interval-ms:250}")
+    private long smallIntervalMillis;
+    
+    @Value("${app.conversion.max-concurrent-jobs:5}")
+    private int maxConcurrentJobs;
+    
+    @Value("${app.scheduler.lanes.borrowing-enabled:true}")
+    private boolean borrowingEnabled;
+    
+    @Value("${app.scheduler.lanes.image.max-concurrent:2}")
+    private int imageMaxConcurrent;
+    
+    @Value("${app.scheduler.lanes.audio.max-concurrent:2}")
+    private int audioMaxConcurrent;
+    
+    @Value("${app.scheduler.lanes.video.max-concurrent:3}")
+    private int videoMaxConcurrent;
+    
+    public LaneBenchmark(FileConversionService fileConversionService, AsyncConversionService asyncConversionService,
+            MeterRegistry meterRegistry, ConfigurableApplicationContext context) {
+        this.fileConversionService = fileConversionService;
+        this.asyncConversionService = asyncConversionService;
+        this.meterRegistry = meterRegistry;
+        this.context = context;
+    }
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        asyncConversionService.addJobEndedListener(this::jobEnded);
+        int failures = runBenchmark();
+        System.exit(SpringApplication.exit(context, () -> failures == 0 ? 0 : 1));
+    }
+    
+    /**
+     * @return the number of jobs that failed
+     */
+    private int runBenchmark() {
+        BenchmarkFFmpeg ffmpeg = new BenchmarkFFmpeg(ffmpegPath);
+        Path work = Paths.get(benchmarkDir, "work");
+        Path video = work.resolve("testsrc2-" + videoResolution + "-" + videoDurationSeconds + "s.mkv");
+        Path image = work.resolve("testsrc2-" + imageResolution + ".png");
+        Path audio = work.resolve("tone-" + audioDurationSeconds + "s.wav");
+        try {
+            Files.createDirectories(work);
+            ffmpeg.renderSource("testsrc2", videoResolution, frameRate, videoDurationSeconds, noise, video, false);
+            ffmpeg.renderSource("testsrc2", imageResolution, frameRate, 1, noise, image, true);
+            ffmpeg.renderTone(audioDurationSeconds, audio);
+        } catch (IOException e) {
+            logger.error("Could not generate the inputs: {}", e.getMessage());
+            return 1;
+        }
+        
+        double[] borrowedBefore = borrowedCounts();
+        List<Submitted> smallSubmitted = new ArrayList<>();
+        List<Submitted> videoSubmitted = new ArrayList<>();
+        int failures = 0;
+        
+        logger.info("Benchmarking {} small jobs every {} ms behind {} video encodes of {}s at {}", smallJobs,
+                smallIntervalMillis, videoBacklog, videoDurationSeconds, videoResolution);
+        Thread feeder = null;
+        try {
+            // The video lane is saturated before the first small job arrives
+            for (int i = 0; i < videoBacklog; i++) {
+                videoSubmitted.add(submit(video, "mp4"));
+            }
+            feeder = Thread.ofVirtual().start(() -> feedVideo(video, videoSubmitted));
+            
+            for (int i = 0; i < smallJobs; i++) {
+                boolean isImage = i % 2 == 0;
+                try {
+                    smallSubmitted.add(submit(isImage ? image : audio, isImage ? "jpg" : "mp3"));
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Could not submit a small job: {}", e.getMessage());
+                    failures++;
+                }
+                Thread.sleep(smallIntervalMillis);
+            }
+            
+            for (Submitted job : smallSubmitted) {
+                awaitEnd(job, JOB_TIMEOUT_SECONDS);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not submit a video job: {}", e.getMessage());
+            failures++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted");
+            failures++;
+        } finally {
+            stopVideo(feeder, videoSubmitted);
+        }
+        double[] borrowed = borrowedCounts();
+        for (int i = 0; i < borrowed.length; i++) {
+            borrowed[i] -= borrowedBefore[i];
+        }
+        
+        List<Sample> samples = new ArrayList<>();
+        for (Submitted job : smallSubmitted) {
+            Sample sample = sample(job);
+            if (sample == null) {
+                failures++;
+            } else {
+                samples.add(sample);
+            }
+        }
+        synchronized (videoSubmitted) {
+            for (Submitted job : videoSubmitted) {
+                // Encodes cancelled at the end of the run are left out
+                Sample sample = sample(job);
+                if (sample != null) {
+                    samples.add(sample);
+                }
+            }
+        }
+        
+        try {
+            writeReport(samples, borrowed);
+        } catch (IOException e) {
+            logger.error("Could not write the lane report: {}", e.getMessage());
+            failures++;
+        }
+        return failures;
+    }
+    
+    /**
+     * Keeps the configured number of video encodes queued or running until
+     * the small jobs are done
+     */
+    private void feedVideo(Path video, List<Submitted> videoSubmitted) {
+        while (feeding) {
+            try {
+                if (!videoEnded.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                Submitted job = submit(video, "mp4");
+                synchronized (videoSubmitted) {
+                    videoSubmitted.add(job);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not submit a video job: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Stops topping up the video backlog and cancels the encodes still queued
+     * or running
+     */
+    private void stopVideo(Thread feeder, List<Submitted> videoSubmitted) {
+        feeding = false;
+        if (feeder != null) {
+            try {
+                feeder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        List<Submitted> unfinished;
+        synchronized (videoSubmitted) {
+            unfinished = videoSubmitted.stream().filter(job -> !job.ended().isDone()).toList();
+        }
+        for (Submitted job : unfinished) {
+            try {
+                fileConversionService.cancelConversion(job.jobId());
+            } catch (ConflictException e) {
+                // Ended in the meantime
+            }
+        }
+        for (Submitted job : unfinished) {
+            try {
+                awaitEnd(job, 30);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private Submitted submit(Path input, String targetFormat) throws IOException {
+        long submitMillis = System.currentTimeMillis();
+        long submitNanos = System.nanoTime();
+        String jobId = fileConversionService.startWatchedConversion(input, new ConversionRequest(targetFormat))
+                .getJobId();
+        Submitted job = new Submitted(jobId, MediaClass.ofTargetFormat(targetFormat), submitMillis, submitNanos,
+                new CompletableFuture<>());
+        submitted.put(jobId, job);
+        
+        // A job that ended before it was registered is timed from now, slightly over
+        ConversionJob state = asyncConversionService.getJob(jobId);
+        if (state != null && state.getStatus().isTerminal()) {
+            jobEnded(state);
+        }
+        return job;
+    }
+    
+    private void jobEnded(ConversionJob job) {
+        Submitted ended = submitted.get(job.getJobId());
+        if (ended != null && ended.ended().complete(System.nanoTime()) && ended.mediaClass() == MediaClass.VIDEO) {
+            videoEnded.release();
+        }
+    }
+    
+    private void awaitEnd(Submitted job, long timeoutSeconds) throws InterruptedException {
+        try {
+            job.ended().get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Job {} did not end within {}s", job.jobId(), timeoutSeconds);
+        }
+    }
+    
+    /**
+     * @return the job's lane wait and latency, or null if it did not complete
+     */
+    private Sample sample(Submitted job) {
+        ConversionJob state = asyncConversionService.getJob(job.jobId());
+        Long endNanos = job.ended().getNow(null);
+        if (state == null || endNanos == null || state.getStatus() != JobStatus.COMPLETED) {
+            return null;
+        }
+        long waitMillis = Math.max(0, state.getState().getStartedAtMillis() - job.submitMillis());
+        return new Sample(job.mediaClass().name().toLowerCase(), waitMillis,
+                (endNanos - job.submitNanos()) / 1e6);
+    }
+    
+    private double[] borrowedCounts() {
+        double[] counts = new double[LANES.length];
+        for (int i = 0; i < LANES.length; i++) {
+            Counter counter = meterRegistry.find("fcs.scheduler.borrowed").tag("lane", LANES[i]).counter();
+            counts[i] = counter != null ? counter.count() : 0;
+        }
+        return counts;
+    }
+    
+    /**
+     * Writes every completed job to a CSV file and a Markdown report with the
+     * lane wait and latency percentiles of each lane
+     */
+    private void writeReport(List<Sample> samples, double[] borrowed) throws IOException {
+        Path dir = Paths.get(benchmarkDir);
+        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
+        
+        StringBuilder csv = new StringBuilder("lane,wait_millis,latency_millis\n");
+        for (Sample sample : samples) {
+            csv.append(String.format(Locale.ROOT, "%s,%d,%.3f%n", sample.lane(), sample.waitMillis(),
+                    sample.latencyMillis()));
+        }
+        Path csvFile = dir.resolve("lanes-" + timestamp + ".csv");
+        Files.writeString(csvFile, csv);
+        
+        StringBuilder report = new StringBuilder();
+        report.append("# Lane benchmark ").append(timestamp).append("\n\n");
+        report.append(String.format(Locale.ROOT,
+                "%d small jobs (%s PNG to JPG, %ds WAV to MP3) every %d ms behind a backlog of %d "
+                        + "%ds %s video encodes. %d workers; lanes image %d, audio %d, video %d; borrowing %s. "
+                        + "FFmpeg: %s.%n%n",
+                smallJobs, imageResolution, audioDurationSeconds, smallIntervalMillis, videoBacklog,
+                videoDurationSeconds, videoResolution, maxConcurrentJobs, imageMaxConcurrent, audioMaxConcurrent,
+                videoMaxConcurrent, borrowingEnabled ? "on" : "off", ffmpegPath));
+        report.append("| Lane | Jobs | Wait p50 ms | Wait p99 ms | Latency p50 ms | Latency p90 ms "
+                + "| Latency p99 ms | Borrowed |\n");
+        report.append("|---|---:|---:|---:|---:|---:|---:|---:|\n");
+        
+        for (int i = 0; i < LANES.length; i++) {
+            String lane = LANES[i];
+            double[] waits = samples.stream().filter(sample -> sample.lane().equals(lane))
+                    .mapToDouble(Sample::waitMillis).sorted().toArray();
+            double[] latencies = samples.stream().filter(sample -> sample.lane().equals(lane))
+                    .mapToDouble(Sample::latencyMillis).sorted().toArray();
+            if (latencies.length == 0) {
+                continue;
+            }
+            report.append(String.format(Locale.ROOT, "| %s | %d | %.0f | %.0f | %.0f | %.0f | %.0f | %.0f |%n", lane,
+                    latencies.length, percentile(waits, 50), percentile(waits, 99), percentile(latencies, 50),
+                    percentile(latencies, 90), percentile(latencies, 99), borrowed[i]));
+        }
+        report.append("\nVideo encodes still running when the small jobs were done were cancelled and are not "
+                + "counted.\n");
+        Path reportFile = dir.resolve("lanes-" + timestamp + ".md");
+        Files.writeString(reportFile, report);
+        
+        logger.info("Ran {} jobs; report in {}, data in {}", samples.size(), reportFile, csvFile);
+    }
+    
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    private static double percentile(double[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+    
+    private record Submitted(String jobId, MediaClass mediaClass, long submitMillis, long submitNanos,
+            CompletableFuture<Long> ended) {
+    }
+    
+    private record Sample(String lane, long waitMillis, double latencyMillis) {
+    }
+}
@@ -0,0 +1,390 @@
+package br.schumaker.fcs.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import br.schumaker.fcs.dto.ConversionRequest;
+import br.schumaker.fcs.model.ConversionJob;
+import br.schumaker.fcs.model.JobStatus;
+import br.schumaker.fcs.service.AsyncConversionService;
+import br.schumaker.fcs.service.FileConversionService;
+import br.schumaker.fcs.service.InputBufferPool;
+
+/**
+ * Measures the latency of small uploads on the memory path, piped through
+ * FFmpeg's stdin and stdout, against the disk path through the upload and
+ * output directories. Each run submits the upload to the service the way the
+ * upload endpoint does and ends once the whole result has been read back, so
+ * it includes storing the input, the encode and serving the result. For the
+ * disk runs every buffer of the input pool is held, so uploads take the
+ * fallback the service uses when the pool is exhausted. The paths alternate
+ * run by run, and each run is filed under the path its job actually took.
+ * <p>
+ * Run with the "benchmark" profile and the memory-path suite; a Markdown
+ * report and a CSV file are written and the service exits:
+ * <pre>
+ * ./mvnw spring-boot:test-run -Dspring-boot.run.arguments=--app.benchmark.suite=memory-path
+ * </pre>
+ */
+@Component
+@Profile("benchmark")
+@ConditionalOnProperty(name = "app.benchmark.suite", havingValue = "memory-path")
+public class MemoryPathBenchmark implements ApplicationRunner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MemoryPathBenchmark.class);
+    
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final long JOB_TIMEOUT_SECONDS = 120;
+    
+    private final FileConversionService fileConversionService;
+    private final AsyncConversionService asyncConversionService;
+    private final InputBufferPool inputBufferPool;
+    private final ConfigurableApplicationContext context;
+    private final Map<String, CompletableFuture<ConversionJob>> pending = new ConcurrentHashMap<>();
+    
+    @Value("${app.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+    
+    @Value("${app.benchmark.dir:./benchmark}")
+    private String benchmarkDir;
+    
+    @Value("${app.benchmark.frame-rate:30}")
+    private int frameRate;
+    
+    @Value("${app.benchmark.noise:20}")
+    private int noise;
+    
+    @Value("${app.benchmark.memory-path.image-resolution:640x480}")
+    private String imageResolution;
+    
+    @Value("${app.benchmark.memory-path.image-format:jpg}")
+    private String imageFormat;
+    
+    @Value("${app.benchmark.memory-path.audio-duration-seconds:5}")
+    private int audioDurationSeconds;
+    
+    @Value("${app.benchmark.memory-path.audio-format:mp3}")
+    private String audioFormat;
+    
+    // Runs of each input on each path, after the warm-up runs
+    @Value("${app.benchmark.memory-path.runs:50}")
+    private int runs;
+    
+    @Value("${app.benchmark.memory-path.warmup-runs:5}")
+    private int warmupRuns;
+    
+    public MemoryPathBenchmark(FileConversionService fileConversionService,
+            AsyncConversionService asyncConversionService, InputBufferPool inputBufferPool,
+            ConfigurableApplicationContext context) {
+        this.fileConversionService = fileConversionService;
+        this.asyncConversionService = asyncConversionService;
+        this.inputBufferPool = inputBufferPool;
+        this.context = context;
+    }
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        asyncConversionService.addJobEndedListener(job -> {
+            CompletableFuture<ConversionJob> ended = pending.get(job.getJobId());
+            if (ended != null) {
+                ended.complete(job);
+            }
+        });
+        int failures = runBenchmark();
+        System.exit(SpringApplication.exit(context, () -> failures == 0 ? 0 : 1));
+    }
+    
+    /**
+     * @return the number of runs that failed
+     */
+    private int runBenchmark() {
+        BenchmarkFFmpeg ffmpeg = new BenchmarkFFmpeg(ffmpegPath);
+        Path work = Paths.get(benchmarkDir, "work");
+        List<Input> inputs = new ArrayList<>();
+        try {
+            Files.createDirectories(work);
+            Path image = work.resolve("testsrc2-" + imageResolution + ".png");
+            ffmpeg.renderSource("testsrc2", imageResolution, frameRate, 1, noise, image, true);
+            inputs.add(new Input("image", image, imageFormat));
+            Path audio = work.resolve("tone-" + audioDurationSeconds + "s.wav");
+            ffmpeg.renderTone(audioDurationSeconds, audio);
+            inputs.add(new Input("audio", audio, audioFormat));
+        } catch (IOException e) {
+            logger.error("Could not generate the inputs: {}", e.getMessage());
+            return 1;
+        }
+        
+        List<Sample> samples = new ArrayList<>();
+        int failures = 0;
+        for (Input input : inputs) {
+            byte[] data;
+            try {
+                data = Files.readAllBytes(input.file());
+            } catch (IOException e) {
+                logger.error("Could not read {}: {}", input.file(), e.getMessage());
+                failures++;
+                continue;
+            }
+            if (data.length > inputBufferPool.getBufferSize()) {
+                logger.warn("{} has {} bytes, over the memory path limit of {}; both paths will use files",
+                        input.file().getFileName(), data.length, inputBufferPool.getBufferSize());
+            }
+            
+            logger.info("Benchmarking {} ({} bytes) to {}", input.file().getFileName(), data.length,
+                    input.targetFormat());
+            for (int run = 0; run < warmupRuns + runs; run++) {
+                // Alternate which path goes first
+                boolean memoryFirst = run % 2 == 0;
+                for (boolean memory : new boolean[] { memoryFirst, !memoryFirst }) {
+                    try {
+                        Sample sample = runOnce(input, data, memory);
+                        if (run >= warmupRuns) {
+                            samples.add(sample);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("{} run on the {} path failed: {}", input.kind(), memory ? "memory" : "disk",
+                                e.getMessage());
+                        failures++;
+                    }
+                }
+            }
+        }
+        
+        try {
+            writeReport(inputs, samples);
+        } catch (IOException e) {
+            logger.error("Could not write the memory path report: {}", e.getMessage());
+            failures++;
+        }
+        return failures;
+    }
+    
+    /**
+     * Submits one upload and reads its result back
+     */
+    private Sample runOnce(Input input, byte[] data, boolean memory) throws IOException {
+        // With the pool empty the upload is written to the upload directory
+        List<byte[]> held = memory ? List.of() : holdAllBuffers();
+        try {
+            long start = System.nanoTime();
+            String jobId = submit(input, data);
+            ConversionJob job = awaitEnd(jobId);
+            if (job.getStatus() != JobStatus.COMPLETED) {
+                throw new IOException("Job " + jobId + " ended " + job.getStatus());
+            }
+            
+            Resource result = fileConversionService.getConvertedResource(jobId);
+            long resultBytes;
+            try (InputStream resultStream = result.getInputStream()) {
+                resultBytes = resultStream.transferTo(OutputStream.nullOutputStream());
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            return new Sample(input.kind(), job.isInMemory(), millis, resultBytes);
+        } finally {
+            held.forEach(inputBufferPool::release);
+        }
+    }
+    
+    private String submit(Input input, byte[] data) throws IOException {
+        CompletableFuture<ConversionJob> ended = new CompletableFuture<>();
+        ConversionRequest request = new ConversionRequest(input.targetFormat());
+        MultipartFile upload = new BenchmarkUpload(input.file().getFileName().toString(), data);
+        
+        // The job may end before its id is returned, so the listener looks it up once it is known
+        String jobId = fileConversionService.startConversion(upload, request).getJobId();
+        pending.put(jobId, ended);
+        ConversionJob job = asyncConversionService.getJob(jobId);
+        if (job != null && job.getStatus().isTerminal()) {
+            ended.complete(job);
+        }
+        return jobId;
+    }
+    
+    private ConversionJob awaitEnd(String jobId) throws IOException {
+        try {
+            return pending.get(jobId).get(JOB_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Job " + jobId + " did not end", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            pending.remove(jobId);
+        }
+    }
+    
+    private List<byte[]> holdAllBuffers() {
+        List<byte[]> held = new ArrayList<>();
+        byte[] buffer;
+        while ((buffer = inputBufferPool.tryAcquire()) != null) {
+            held.add(buffer);
+        }
+        return held;
+    }
+    
+    /**
+     * Writes every run to a CSV file and a Markdown report with the latency
+     * percentiles of each input and path
+     */
+    private void writeReport(List<Input> inputs, List<Sample> samples) throws IOException {
+        Path dir = Paths.get(benchmarkDir);
+        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
+        
+        StringBuilder csv = new StringBuilder("input,path,millis,result_bytes\n");
+        for (Sample sample : samples) {
+            csv.append(String.format(Locale.ROOT, "%s,%s,%.3f,%d%n", sample.kind(), sample.path(), sample.millis(),
+                    sample.resultBytes()));
+        }
+        Path csvFile = dir.resolve("memory-path-" + timestamp + ".csv");
+        Files.writeString(csvFile, csv);
+        
+        StringBuilder report = new StringBuilder();
+        report.append("# Memory path benchmark ").append(timestamp).append("\n\n");
+        report.append(String.format(Locale.ROOT,
+                "Upload to result read back, %d runs per input and path after %d warm-up runs. "
+                        + "Image: %s PNG to %s. Audio: %ds WAV to %s. FFmpeg: %s.%n%n",
+                runs, warmupRuns, imageResolution, imageFormat, audioDurationSeconds, audioFormat, ffmpegPath));
+        report.append("| Input | Path | Runs | p50 ms | p90 ms | p99 ms | Mean ms | p50 vs disk |\n");
+        report.append("|---|---|---:|---:|---:|---:|---:|---:|\n");
+        
+        for (Input input : inputs) {
+            double[] disk = millis(samples, input.kind(), false);
+            double diskMedian = percentile(disk, 50);
+            for (boolean memory : new boolean[] { false, true }) {
+                double[] millis = memory ? millis(samples, input.kind(), true) : disk;
+                if (millis.length == 0) {
+                    continue;
+                }
+                String versusDisk = memory && disk.length > 0
+                        ? String.format(Locale.ROOT, "%+.1f%%", 100 * (percentile(millis, 50) / diskMedian - 1))
+                        : "";
+                report.append(String.format(Locale.ROOT, "| %s | %s | %d | %.1f | %.1f | %.1f | %.1f | %s |%n",
+                        input.kind(), memory ? "memory" : "disk", millis.length, percentile(millis, 50),
+                        percentile(millis, 90), percentile(millis, 99), Arrays.stream(millis).average().orElse(0),
+                        versusDisk));
+            }
+        }
+        Path reportFile = dir.resolve("memory-path-" + timestamp + ".md");
+        Files.writeString(reportFile, report);
+        
+        logger.info("Ran {} uploads; report in {}, data in {}", samples.size(), reportFile, csvFile);
+    }
+    
+    /**
+     * Latencies of one input on one path, sorted
+     */
+    private static double[] millis(List<Sample> samples, String kind, boolean memory) {
+        return samples.stream()
+                .filter(sample -> sample.kind().equals(kind) && sample.memory() == memory)
+                .mapToDouble(Sample::millis)
+                .sorted()
+                .toArray();
+    }
+    
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    private static double percentile(double[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+    
+    private record Input(String kind, Path file, String targetFormat) {
+    }
+    
+    private record Sample(String kind, boolean memory, double millis, long resultBytes) {
+        
+        String path() {
+            return memory ? "memory" : "disk";
+        }
+    }
+    
+    /**
+     * An upload held in memory, as the multipart resolver hands small files
+     * to the controller
+     */
+    private static final class BenchmarkUpload implements MultipartFile {
+        
+        private final String fileName;
+        private final byte[] data;
+        
+        private BenchmarkUpload(String fileName, byte[] data) {
+            this.fileName = fileName;
+            this.data = data;
+        }
+        
+        @Override
+        public String getName() {
+            return "file";
+        }
+        
+        @Override
+        public String getOriginalFilename() {
+            return fileName;
+        }
+        
+        @Override
+        public String getContentType() {
+            return null;
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return data.length == 0;
+        }
+        
+        @Override
+        public long getSize() {
+            return data.length;
+        }
+        
+        @Override
+        public byte[] getBytes() {
+            return data;
+        }
+        
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(data);
+        }
+        
+        @Override
+        public void transferTo(File dest) throws IOException {
+            Files.write(dest.toPath(), data);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package br.schumaker.fcs.model;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Heap footprint of finished jobs, measured with JOL. Many finished jobs are
+ * kept for status queries, so a field added to ConversionJob or JobState
+ * should not quietly grow every one of them.
+ */
+class ConversionJobFootprintTest {
+    
+    private static final int JOBS = 1000;
+    
+    // Measured on a 64-bit JVM with compressed oops (434 and 88 bytes), plus some headroom
+    private static final long MAX_BYTES_PER_JOB = 512;
+    private static final long MAX_STATE_BYTES = 96;
+    
+    private static final JobPaths PATHS = new JobPaths() {
+        @Override
+        public Path inputPath(String jobId, String originalFileName) {
+            return Paths.get("uploads", jobId);
+        }
+        
+        @Override
+        public Path outputPath(String jobId, String targetFormat) {
+            return Paths.get("output", jobId);
+        }
+    };
+    
+    @Test
+    void finishedJobStaysWithinBudget() {
+        ConversionJob[] jobs = new ConversionJob[JOBS];
+        for (int i = 0; i < JOBS; i++) {
+            jobs[i] = finishedJob(i);
+        }
+        
+        // Interned formats, enums and the path layout are shared and count once for all jobs
+        long perJob = GraphLayout.parseInstance((Object[]) jobs).totalSize() / JOBS;
+        
+        assertTrue(perJob <= MAX_BYTES_PER_JOB,
+                "A finished job takes " + perJob + " bytes, over the budget of " + MAX_BYTES_PER_JOB);
+    }
+    
+    @Test
+    void stateSnapshotStaysWithinBudget() {
+        // Every transition allocates one of these; its strings are interned or already held by the job
+        long size = ClassLayout.parseInstance(finishedJob(0).getState()).instanceSize();
+        
+        assertTrue(size <= MAX_STATE_BYTES,
+                "A state snapshot takes " + size + " bytes, over the budget of " + MAX_STATE_BYTES);
+    }
+    
+    /**
+     * A job as an upload leaves it once its encode has completed
+     */
+    private static ConversionJob finishedJob(int i) {
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        job.setOriginalFileName("holiday-" + i + ".mov");
+        job.setOriginalFormat("mov");
+        job.setInputMediaClass(MediaClass.VIDEO);
+        job.setTargetFormat("mp4");
+        job.setQuality("medium");
+        job.setOriginalFileSize(48_000_000L + i);
+        job.setSlaClass("standard");
+        job.setClientId("203.0.113." + i % 256);
+        job.setDeadline(job.getCreatedAt().plusHours(1));
+        job.setPaths(PATHS);
+        job.setSourceWidth(1920);
+        job.setSourceHeight(1080);
+        job.setInputDurationSeconds(62.5);
+        job.setThreads(4);
+        job.setEncoder("libx264");
+        job.setPreset("medium");
+        
+        long now = System.currentTimeMillis();
+        job.updateState(state -> state.withStatus(JobStatus.PROCESSING).withStartedAt(now));
+        job.setLastProgressAt(now);
+        job.setProgressSeconds(62.5);
+        job.setConvertedFileSize(21_000_000L);
+        job.updateState(state -> state.finish(JobStatus.COMPLETED, now + 30_000));
+        return job;
+    }
+}
@@ -0,0 +1,73 @@
+package br.schumaker.fcs.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Client identities from configured API keys, falling back to the remote address
+ */
+class ClientIdentityResolverTest {
+    
+    private static final String ACME_KEY = "acme-0123456789abcdef";
+    private static final String GLOBEX_KEY = "globex-0123456789abcdef";
+    
+    @Test
+    void resolvesTheClientAKeyWasIssuedTo() {
+        ClientIdentityResolver resolver = resolver("acme:" + ACME_KEY, " globex : " + GLOBEX_KEY + " ");
+        
+        assertEquals("acme", resolver.resolve(request(ACME_KEY)));
+        assertEquals("globex", resolver.resolve(request(GLOBEX_KEY)));
+        assertEquals("acme", resolver.resolve(request("  " + ACME_KEY + "  ")));
+    }
+    
+    @Test
+    void fallsBackToTheRemoteAddress() {
+        ClientIdentityResolver resolver = resolver("acme:" + ACME_KEY);
+        
+        assertEquals("10.0.0.7", resolver.resolve(request(null)));
+        assertEquals("10.0.0.7", resolver.resolve(request(" ")));
+        assertEquals("10.0.0.7", resolver.resolve(request("unknown-0123456789abcdef")));
+        // Only whole keys match
+        assertEquals("10.0.0.7", resolver.resolve(request(ACME_KEY.substring(1))));
+    }
+    
+    @Test
+    void skipsBlankEntries() {
+        ClientIdentityResolver resolver = resolver("", "acme:" + ACME_KEY, " ");
+        
+        assertEquals("acme", resolver.resolve(request(ACME_KEY)));
+    }
+    
+    @Test
+    void rejectsMalformedEntries() {
+        assertThrows(IllegalStateException.class, () -> resolver(ACME_KEY));
+        assertThrows(IllegalStateException.class, () -> resolver(":" + ACME_KEY));
+        assertThrows(IllegalStateException.class, () -> resolver("acme:short"));
+    }
+    
+    @Test
+    void rejectsAKeyIssuedTwice() {
+        assertThrows(IllegalStateException.class, () -> resolver("acme:" + ACME_KEY, "globex:" + ACME_KEY));
+    }
+    
+    private static ClientIdentityResolver resolver(String... apiKeys) {
+        ClientIdentityResolver resolver = new ClientIdentityResolver();
+        ReflectionTestUtils.setField(resolver, "apiKeyHeader", "X-Api-Key");
+        ReflectionTestUtils.setField(resolver, "apiKeys", apiKeys);
+        resolver.loadApiKeys();
+        return resolver;
+    }
+    
+    private static MockHttpServletRequest request(String apiKey) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.7");
+        if (apiKey != null) {
+            request.addHeader("X-Api-Key", apiKey);
+        }
+        return request;
+    }
+}
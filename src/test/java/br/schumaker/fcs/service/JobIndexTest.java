@@ -0,0 +1,91 @@
+package br.schumaker.fcs.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import br.schumaker.fcs.model.ConversionJob;
+
+/**
+ * Paging through the job index, newest first
+ */
+class JobIndexTest {
+    
+    private final JobIndex jobIndex = new JobIndex();
+    
+    @Test
+    void pagesThroughJobsCreatedBeforeUpperBound() throws InterruptedException {
+        List<ConversionJob> older = addJobs(5);
+        Thread.sleep(5);
+        LocalDateTime createdTo = LocalDateTime.now();
+        Thread.sleep(5);
+        addJobs(3);
+        
+        List<ConversionJob> seen = new ArrayList<>();
+        JobIndex.Page page = jobIndex.query(query(createdTo, null));
+        seen.addAll(page.jobs());
+        assertEquals(2, page.jobs().size());
+        assertNotNull(page.nextCursor());
+        
+        page = jobIndex.query(query(createdTo, page.nextCursor()));
+        seen.addAll(page.jobs());
+        assertEquals(2, page.jobs().size());
+        assertNotNull(page.nextCursor());
+        
+        page = jobIndex.query(query(createdTo, page.nextCursor()));
+        seen.addAll(page.jobs());
+        assertEquals(1, page.jobs().size());
+        assertNull(page.nextCursor());
+        
+        assertEquals(newestFirst(older), seen);
+    }
+    
+    @Test
+    void upperBoundAfterAllJobsDoesNotCutTheFirstPages() {
+        List<ConversionJob> jobs = addJobs(5);
+        LocalDateTime createdTo = LocalDateTime.now().plusHours(1);
+        
+        List<ConversionJob> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            JobIndex.Page page = jobIndex.query(query(createdTo, cursor));
+            seen.addAll(page.jobs());
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        
+        assertEquals(newestFirst(jobs), seen);
+    }
+    
+    private List<ConversionJob> addJobs(int count) {
+        List<ConversionJob> added = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+            job.setTargetFormat("mp4");
+            jobIndex.add(job);
+            added.add(job);
+        }
+        return added;
+    }
+    
+    private static JobIndex.Query query(LocalDateTime createdTo, String cursor) {
+        return new JobIndex.Query(null, null, null, null, createdTo, cursor, 2);
+    }
+    
+    /**
+     * The index order: newest first, ties broken by descending job ID
+     */
+    private static List<ConversionJob> newestFirst(List<ConversionJob> jobs) {
+        return jobs.stream()
+                .sorted((a, b) -> a.getCreatedAtMillis() != b.getCreatedAtMillis()
+                        ? Long.compare(b.getCreatedAtMillis(), a.getCreatedAtMillis())
+                        : b.getJobId().compareTo(a.getJobId()))
+                .toList();
+    }
+}
@@ -0,0 +1,275 @@
+package br.schumaker.fcs.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import br.schumaker.fcs.model.ConversionJob;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Worker accounting of the scheduler, with local workers and no FFmpeg
+ */
+class JobSchedulerTest {
+    
+    private ThreadPoolTaskExecutor executor;
+    private JobScheduler scheduler;
+    
+    // Lets blocked jobs finish
+    private final CountDownLatch release = new CountDownLatch(1);
+    
+    @BeforeEach
+    void setUp() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+        
+        scheduler = new JobScheduler(executor, mock(EncodeCostModel.class), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(scheduler, "maxConcurrentJobs", 3);
+        ReflectionTestUtils.setField(scheduler, "videoMaxConcurrent", 3);
+        ReflectionTestUtils.setField(scheduler, "mode", "standalone");
+        ReflectionTestUtils.setField(scheduler, "policy", "edf");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+    
+    @Test
+    void heldJobResubmittedBeforeItsWorkerFinishesFreesBothWorkers() throws Exception {
+        scheduler.createLanes();
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        job.setTargetFormat("mp4");
+        
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch bothRan = new CountDownLatch(2);
+        scheduler.setJobProcessor(processed -> {
+            if (runs.incrementAndGet() == 1) {
+                // Held, then requeued and claimed by another worker before this one is done
+                scheduler.hold(processed);
+                scheduler.releaseHeld();
+            }
+            bothRan.countDown();
+        });
+        
+        scheduler.submit(job);
+        
+        assertTrue(bothRan.await(5, TimeUnit.SECONDS), "The requeued job did not run");
+        assertEquals(0, awaitIdle(), "A worker was not given back");
+        assertEquals(2, runs.get());
+    }
+    
+    @Test
+    void heldJobRunsAgainOnceReleased() throws Exception {
+        scheduler.createLanes();
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        job.setTargetFormat("mp4");
+        
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch ranAgain = new CountDownLatch(1);
+        scheduler.setJobProcessor(processed -> {
+            if (runs.incrementAndGet() == 1) {
+                scheduler.hold(processed);
+                held.countDown();
+            } else {
+                ranAgain.countDown();
+            }
+        });
+        
+        scheduler.submit(job);
+        assertTrue(held.await(5, TimeUnit.SECONDS));
+        assertEquals(0, awaitIdle(), "A held job kept its worker");
+        assertEquals(1, scheduler.getHeldCount());
+        
+        scheduler.releaseHeld();
+        
+        assertTrue(ranAgain.await(5, TimeUnit.SECONDS), "The released job did not run");
+        assertEquals(0, awaitIdle());
+        assertEquals(0, scheduler.getHeldCount());
+    }
+    
+    @Test
+    void releasesOnlyHeldJobsWhoseOutputFits() throws Exception {
+        scheduler.createLanes();
+        Set<ConversionJob> ranAgain = ConcurrentHashMap.newKeySet();
+        Set<ConversionJob> heldOnce = ConcurrentHashMap.newKeySet();
+        scheduler.setJobProcessor(job -> {
+            if (heldOnce.add(job)) {
+                scheduler.hold(job);
+            } else {
+                ranAgain.add(job);
+            }
+        });
+        
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit(job("mp4", 0));
+        }
+        assertEquals(0, awaitIdle());
+        assertEquals(3, scheduler.getHeldCount());
+        
+        // Room for one output of 60 bytes
+        scheduler.releaseHeld(100, job -> 60);
+        
+        assertEquals(0, awaitIdle());
+        assertEquals(1, ranAgain.size());
+        assertEquals(2, scheduler.getHeldCount());
+    }
+    
+    @Test
+    void preemptsWithinTheFullLaneWhenBorrowingIsOff() throws Exception {
+        lanes(3, 1, 0, 1, 0, false);
+        BlockingProcessor processor = new BlockingProcessor();
+        List<ConversionJob> suspended = preemption();
+        
+        ConversionJob audio = job("mp3", 0);
+        ConversionJob video = job("mp4", 0);
+        scheduler.submit(audio);
+        scheduler.submit(video);
+        processor.awaitStarts(2);
+        
+        ConversionJob urgent = job("mp4", 5);
+        processor.quick.add(urgent);
+        scheduler.submit(urgent);
+        
+        processor.awaitStarts(1);
+        assertEquals(List.of(video), suspended, "The victim must free a worker of the urgent job's lane");
+        assertTrue(processor.started.contains(urgent));
+        
+        release.countDown();
+        assertEquals(0, awaitIdle());
+    }
+    
+    @Test
+    void doesNotPreemptWhenOnlyAnotherLaneHasALowerPriorityJob() throws Exception {
+        lanes(3, 1, 0, 1, 0, false);
+        BlockingProcessor processor = new BlockingProcessor();
+        List<ConversionJob> suspended = preemption();
+        
+        scheduler.submit(job("mp3", 0));
+        scheduler.submit(job("mp4", 9));
+        processor.awaitStarts(2);
+        
+        ConversionJob urgent = job("mp4", 5);
+        scheduler.submit(urgent);
+        
+        // Preemption is decided within submit()
+        assertTrue(suspended.isEmpty(), "Suspending the audio job would run the video lane past its limit");
+        assertFalse(processor.started.contains(urgent));
+        assertEquals(1, scheduler.getQueueDepth());
+        
+        release.countDown();
+        assertEquals(0, awaitIdle());
+    }
+    
+    @Test
+    void doesNotPreemptForAnotherLanesReservation() throws Exception {
+        lanes(3, 3, 0, 1, 1, true);
+        BlockingProcessor processor = new BlockingProcessor();
+        List<ConversionJob> suspended = preemption();
+        
+        scheduler.submit(job("mp4", 0));
+        scheduler.submit(job("mp4", 0));
+        processor.awaitStarts(2);
+        
+        // A worker is idle but kept for the audio lane
+        ConversionJob urgent = job("mp4", 5);
+        scheduler.submit(urgent);
+        
+        assertTrue(suspended.isEmpty(), "No worker was busy that the urgent job needed");
+        assertFalse(processor.started.contains(urgent));
+        
+        release.countDown();
+        assertEquals(0, awaitIdle());
+    }
+    
+    private void lanes(int maxConcurrent, int videoMax, int videoReserved, int audioMax, int audioReserved,
+            boolean borrowing) {
+        ReflectionTestUtils.setField(scheduler, "maxConcurrentJobs", maxConcurrent);
+        ReflectionTestUtils.setField(scheduler, "videoMaxConcurrent", videoMax);
+        ReflectionTestUtils.setField(scheduler, "videoReserved", videoReserved);
+        ReflectionTestUtils.setField(scheduler, "audioMaxConcurrent", audioMax);
+        ReflectionTestUtils.setField(scheduler, "audioReserved", audioReserved);
+        ReflectionTestUtils.setField(scheduler, "borrowingEnabled", borrowing);
+        ReflectionTestUtils.setField(scheduler, "preemptionEnabled", true);
+        ReflectionTestUtils.setField(scheduler, "maxSuspended", 2);
+        scheduler.createLanes();
+    }
+    
+    /**
+     * Preemption callbacks that always succeed
+     *
+     * @return the jobs suspended so far
+     */
+    private List<ConversionJob> preemption() {
+        List<ConversionJob> suspended = new CopyOnWriteArrayList<>();
+        scheduler.setPreemption(suspended::add, job -> true);
+        return suspended;
+    }
+    
+    private static ConversionJob job(String targetFormat, int priority) {
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString());
+        job.setTargetFormat(targetFormat);
+        job.setPriority(priority);
+        return job;
+    }
+    
+    /**
+     * Runs each job until the test releases it, except the quick ones
+     */
+    private final class BlockingProcessor {
+        private final Set<ConversionJob> started = ConcurrentHashMap.newKeySet();
+        private final Set<ConversionJob> quick = ConcurrentHashMap.newKeySet();
+        private final Semaphore starts = new Semaphore(0);
+        
+        private BlockingProcessor() {
+            scheduler.setJobProcessor(job -> {
+                started.add(job);
+                starts.release();
+                if (!quick.contains(job)) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        
+        private void awaitStarts(int count) throws InterruptedException {
+            assertTrue(starts.tryAcquire(count, 5, TimeUnit.SECONDS), "Jobs did not start");
+        }
+    }
+    
+    /**
+     * Waits for the workers to finish their bookkeeping
+     *
+     * @return the workers still counted as active
+     */
+    private int awaitIdle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getActiveWorkers() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return scheduler.getActiveWorkers();
+    }
+}
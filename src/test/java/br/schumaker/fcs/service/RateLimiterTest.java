@@ -0,0 +1,143 @@
+package br.schumaker.fcs.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import br.schumaker.fcs.service.RateLimiter.Bucket;
+
+/**
+ * Token buckets of the rate limiter, timed against the real clock
+ */
+class RateLimiterTest {
+    
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    
+    @Test
+    void allowsTheBurstThenRejects() {
+        RateLimiter limiter = limiter(1, 5);
+        
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire(Bucket.SUBMIT, "client"), "Request " + i + " of the burst");
+        }
+        assertTrue(limiter.tryAcquire(Bucket.SUBMIT, "client") > 0);
+    }
+    
+    @Test
+    void waitIsAtMostOneIntervalAfterTheBurst() {
+        RateLimiter limiter = limiter(1, 2);
+        limiter.tryAcquire(Bucket.SUBMIT, "client");
+        limiter.tryAcquire(Bucket.SUBMIT, "client");
+        
+        long wait = limiter.tryAcquire(Bucket.SUBMIT, "client");
+        
+        assertTrue(wait > 0 && wait <= SECOND, "Wait was " + wait + " ns");
+        // Rounded up to whole seconds, as in Retry-After
+        assertEquals(1, (wait + SECOND - 1) / SECOND);
+    }
+    
+    @Test
+    void rejectedRequestsDoNotTakeTokens() {
+        RateLimiter limiter = limiter(1, 1);
+        limiter.tryAcquire(Bucket.SUBMIT, "client");
+        
+        long first = limiter.tryAcquire(Bucket.SUBMIT, "client");
+        long second = limiter.tryAcquire(Bucket.SUBMIT, "client");
+        
+        // A client retrying too early is not pushed further back
+        assertTrue(second <= first, first + " then " + second);
+    }
+    
+    @Test
+    void refillsAtTheSteadyRate() throws InterruptedException {
+        RateLimiter limiter = limiter(20, 1);
+        assertEquals(0, limiter.tryAcquire(Bucket.SUBMIT, "client"));
+        
+        for (int i = 0; i < 3; i++) {
+            long wait = limiter.tryAcquire(Bucket.SUBMIT, "client");
+            assertTrue(wait > 0 && wait <= SECOND / 20, "Wait was " + wait + " ns");
+            
+            TimeUnit.NANOSECONDS.sleep(wait);
+            assertEquals(0, limiter.tryAcquire(Bucket.SUBMIT, "client"), "No token after waiting " + wait + " ns");
+        }
+    }
+    
+    @Test
+    void keepsClientsAndBucketsApart() {
+        RateLimiter limiter = limiter(1, 1);
+        assertEquals(0, limiter.tryAcquire(Bucket.SUBMIT, "a"));
+        assertTrue(limiter.tryAcquire(Bucket.SUBMIT, "a") > 0);
+        
+        assertEquals(0, limiter.tryAcquire(Bucket.SUBMIT, "b"));
+        assertEquals(0, limiter.tryAcquire(Bucket.STATUS, "a"));
+    }
+    
+    @Test
+    void disabledLimiterAndZeroRateAllowEverything() {
+        RateLimiter disabled = limiter(1, 1);
+        ReflectionTestUtils.setField(disabled, "enabled", false);
+        RateLimiter unlimited = limiter(0, 1);
+        
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, disabled.tryAcquire(Bucket.SUBMIT, "client"));
+            assertEquals(0, unlimited.tryAcquire(Bucket.SUBMIT, "client"));
+        }
+    }
+    
+    @Test
+    void concurrentRequestsNeverExceedTheBurst() throws Exception {
+        // One token per 100 s, so nothing refills during the test
+        RateLimiter limiter = limiter(0.01, 50);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    int allowed = 0;
+                    for (int i = 0; i < 100; i++) {
+                        if (limiter.tryAcquire(Bucket.SUBMIT, "client") == 0) {
+                            allowed++;
+                        }
+                    }
+                    return allowed;
+                }));
+            }
+            start.countDown();
+            
+            int allowed = 0;
+            for (Future<Integer> result : results) {
+                allowed += result.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(50, allowed);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * A limiter whose buckets all have the given rate and burst
+     */
+    private static RateLimiter limiter(double perSecond, int burst) {
+        RateLimiter limiter = new RateLimiter();
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        for (String bucket : List.of("submit", "status", "download")) {
+            ReflectionTestUtils.setField(limiter, bucket + "PerSecond", perSecond);
+            ReflectionTestUtils.setField(limiter, bucket + "Burst", burst);
+        }
+        limiter.init();
+        return limiter;
+    }
+}
@@ -0,0 +1,245 @@
+package br.schumaker.fcs.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import br.schumaker.fcs.dto.UploadSessionRequest;
+import br.schumaker.fcs.dto.UploadSessionResponse;
+import br.schumaker.fcs.exception.ConflictException;
+import br.schumaker.fcs.model.MediaClass;
+
+/**
+ * Chunk bookkeeping of resumable uploads, with the conversion pipeline mocked
+ */
+class UploadSessionServiceTest {
+    
+    private static final int FILE_SIZE = 10_000;
+    
+    @TempDir
+    Path uploadDir;
+    
+    private final byte[] data = new byte[FILE_SIZE];
+    private FileConversionService fileConversionService;
+    private UploadSessionService service;
+    
+    @BeforeEach
+    void setUp() {
+        new Random(42).nextBytes(data);
+        
+        fileConversionService = mock(FileConversionService.class);
+        when(fileConversionService.getMaxFileSizeBytes()).thenReturn(Long.MAX_VALUE);
+        MediaTypeSniffer sniffer = mock(MediaTypeSniffer.class);
+        when(sniffer.sniff(any(byte[].class), anyInt()))
+                .thenReturn(new MediaTypeSniffer.SniffedType(MediaClass.VIDEO, "mp4"));
+        
+        service = new UploadSessionService(fileConversionService, sniffer, mock(DiskSpaceService.class));
+        ReflectionTestUtils.setField(service, "uploadDir", uploadDir.toString());
+        ReflectionTestUtils.setField(service, "sessionTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(service, "maxActiveSessions", 10);
+        ReflectionTestUtils.setField(service, "maxChunkSize", (long) FILE_SIZE);
+        ReflectionTestUtils.setField(service, "requireChunkChecksum", true);
+    }
+    
+    @Test
+    void assemblesChunksSentOutOfOrder() throws IOException {
+        String uploadId = create(sha256(data, 0, FILE_SIZE));
+        
+        write(uploadId, 6000, 10_000);
+        UploadSessionResponse response = write(uploadId, 0, 3000);
+        assertEquals(List.of(List.of(0L, 3000L), List.of(6000L, 10_000L)), ranges(response));
+        assertFalse(response.isComplete());
+        
+        response = write(uploadId, 3000, 6000);
+        assertEquals(List.of(List.of(0L, 10_000L)), ranges(response));
+        assertTrue(response.isComplete());
+        
+        Path partFile = partFile(uploadId);
+        service.completeSession(uploadId);
+        
+        verify(fileConversionService).startConversion(eq(partFile), eq("clip.mp4"), any());
+        assertArrayEquals(data, Files.readAllBytes(partFile));
+        assertNull(service.getSession(uploadId));
+    }
+    
+    @Test
+    void rejectsChunksOverlappingReceivedRanges() throws IOException {
+        String uploadId = create(null);
+        write(uploadId, 2000, 5000);
+        
+        assertThrows(ConflictException.class, () -> write(uploadId, 0, 3000));
+        assertThrows(ConflictException.class, () -> write(uploadId, 4000, 6000));
+        assertThrows(ConflictException.class, () -> write(uploadId, 0, 10_000));
+        
+        assertEquals(List.of(List.of(2000L, 5000L)), ranges(service.getSession(uploadId)));
+        // Adjacent chunks still fit
+        write(uploadId, 0, 2000);
+        assertEquals(List.of(List.of(0L, 8000L)), ranges(write(uploadId, 5000, 8000)));
+    }
+    
+    @Test
+    void acknowledgesADuplicateChunkWithoutWritingIt() throws IOException {
+        String uploadId = create(null);
+        write(uploadId, 0, 4000);
+        
+        // A retry whose first acknowledgement was lost
+        UploadSessionResponse response = write(uploadId, 0, 4000);
+        assertEquals(4000L, response.getReceivedBytes());
+        assertEquals(List.of(List.of(0L, 4000L)), ranges(response));
+        
+        // As is any chunk inside what has arrived
+        response = write(uploadId, 1000, 2000);
+        assertEquals(4000L, response.getReceivedBytes());
+    }
+    
+    @Test
+    void chunkWithWrongChecksumCanBeSentAgain() throws IOException {
+        String uploadId = create(null);
+        
+        assertThrows(IllegalArgumentException.class, () -> service.writeChunk(uploadId, 0, 4000,
+                sha256(data, 0, 3999), new ByteArrayInputStream(data, 0, 4000)));
+        assertEquals(0L, service.getSession(uploadId).getReceivedBytes());
+        
+        assertEquals(4000L, write(uploadId, 0, 4000).getReceivedBytes());
+    }
+    
+    @Test
+    void refusesToCompleteWithMissingRanges() throws IOException {
+        String uploadId = create(null);
+        write(uploadId, 0, 3000);
+        write(uploadId, 6000, 10_000);
+        
+        assertThrows(ConflictException.class, () -> service.completeSession(uploadId));
+        
+        verify(fileConversionService, never()).startConversion(any(Path.class), any(), any());
+        UploadSessionResponse session = service.getSession(uploadId);
+        assertNotNull(session, "An incomplete upload can still be resumed");
+        assertEquals(7000L, session.getReceivedBytes());
+    }
+    
+    @Test
+    void discardsTheUploadWhenTheFileChecksumDoesNotMatch() throws IOException {
+        byte[] other = data.clone();
+        other[FILE_SIZE - 1] ^= 1;
+        String uploadId = create(sha256(other, 0, FILE_SIZE));
+        write(uploadId, 0, FILE_SIZE);
+        Path partFile = partFile(uploadId);
+        
+        assertThrows(IllegalArgumentException.class, () -> service.completeSession(uploadId));
+        
+        verify(fileConversionService, never()).startConversion(any(Path.class), any(), any());
+        assertNull(service.getSession(uploadId));
+        assertFalse(Files.exists(partFile));
+    }
+    
+    @Test
+    void concurrentCreationsStayWithinTheSessionLimit() throws Exception {
+        ReflectionTestUtils.setField(service, "maxActiveSessions", 5);
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<String> created = new ArrayList<>();
+        int refused = 0;
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return create(null);
+                }));
+            }
+            start.countDown();
+            
+            for (Future<String> result : results) {
+                try {
+                    created.add(result.get(5, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof ConflictException, e.getCause().toString());
+                    refused++;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        assertEquals(5, created.size());
+        assertEquals(threads - 5, refused);
+        
+        // Ending a session gives its slot back, once
+        assertTrue(service.abortSession(created.get(0)));
+        assertFalse(service.abortSession(created.get(0)));
+        create(null);
+        assertThrows(ConflictException.class, () -> create(null));
+    }
+    
+    private String create(String sha256) throws IOException {
+        UploadSessionRequest request = new UploadSessionRequest();
+        request.setTargetFormat("mkv");
+        request.setFileName("clip.mp4");
+        request.setFileSize((long) FILE_SIZE);
+        request.setSha256(sha256);
+        return service.createSession(request).getUploadId();
+    }
+    
+    /**
+     * Sends data[start, end) as one chunk with its checksum
+     */
+    private UploadSessionResponse write(String uploadId, int start, int end) throws IOException {
+        return service.writeChunk(uploadId, start, end - start, sha256(data, start, end),
+                new ByteArrayInputStream(data, start, end - start));
+    }
+    
+    private Path partFile(String uploadId) {
+        return uploadDir.resolve("sessions").resolve(uploadId + ".part");
+    }
+    
+    private static List<List<Long>> ranges(UploadSessionResponse response) {
+        return response.getReceivedRanges().stream()
+                .map(range -> Arrays.stream(range).boxed().toList())
+                .toList();
+    }
+    
+    private static String sha256(byte[] bytes, int start, int end) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes, start, end - start);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}